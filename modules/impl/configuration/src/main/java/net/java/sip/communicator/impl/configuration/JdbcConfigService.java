@@ -295,32 +295,115 @@ public synchronized void setProperty(String propertyName, Object property,
         }
     }
 
-    /*
-     * (non-Javadoc)
+    /**
+     * Sets all given properties at once, a <tt>null</tt> value removes the
+     * property. Properties whose value does not change are skipped. The
+     * stored values are read with a single query, the changes are written in
+     * one batched transaction and the change listeners are only notified once
+     * it has been committed.
      *
-     * @see
-     * org.jitsi.service.configuration.ConfigurationService#setProperties(java
-     * .util.Map)
+     * @see ConfigurationService#setProperties(Map)
      */
     @Override
     public synchronized void setProperties(Map<String, Object> properties)
     {
+        if (properties.isEmpty())
+        {
+            return;
+        }
+
+        Map<String, Object[]> changes
+            = new LinkedHashMap<String, Object[]>();
         try
         {
             checkConnection();
-            this.connection.setAutoCommit(false);
+            Map<String, String> stored = new HashMap<String, String>();
+            ResultSet q = this.selectAll.executeQuery();
+            while (q.next())
+            {
+                stored.put(q.getString(1), q.getString(2));
+            }
+
             for (Map.Entry<String, Object> e : properties.entrySet())
             {
-                this.setProperty(e.getKey(), e.getValue(), false);
+                String name = e.getKey();
+                Object property = e.getValue();
+                if (System.getProperty(name) != null)
+                {
+                    // system properties are not stored, set them directly
+                    this.setProperty(name, property, true);
+                    continue;
+                }
+
+                if (immutableDefaultProperties.containsKey(name))
+                {
+                    continue;
+                }
+
+                Object oldValue = stored.get(name);
+                if (oldValue == null)
+                {
+                    oldValue = defaultProperties.get(name);
+                }
+
+                if (property == null
+                    ? !stored.containsKey(name)
+                    : property.toString().equals(stored.get(name)))
+                {
+                    continue;
+                }
+
+                this.fireVetoableChange(name, oldValue, property);
+                changes.put(name, new Object[] { oldValue, property });
+            }
+
+            if (changes.isEmpty())
+            {
+                return;
             }
 
-            this.connection.commit();
-            this.connection.setAutoCommit(true);
+            this.connection.setAutoCommit(false);
+            try
+            {
+                for (Map.Entry<String, Object[]> e : changes.entrySet())
+                {
+                    Object property = e.getValue()[1];
+                    if (property == null)
+                    {
+                        this.delete.setString(1, e.getKey());
+                        this.delete.addBatch();
+                    }
+                    else
+                    {
+                        this.insertOrUpdate.setString(1, e.getKey());
+                        this.insertOrUpdate.setString(2, property.toString());
+                        this.insertOrUpdate.addBatch();
+                    }
+                }
+
+                this.delete.executeBatch();
+                this.insertOrUpdate.executeBatch();
+                this.connection.commit();
+            }
+            catch (SQLException e)
+            {
+                this.connection.rollback();
+                throw e;
+            }
+            finally
+            {
+                this.connection.setAutoCommit(true);
+            }
         }
         catch (SQLException e1)
         {
             throw new RuntimeException(e1);
         }
+
+        for (Map.Entry<String, Object[]> e : changes.entrySet())
+        {
+            this.fireChange(e.getKey(), e.getValue()[0], e.getValue()[1]);
+        }
     }
 
     /*
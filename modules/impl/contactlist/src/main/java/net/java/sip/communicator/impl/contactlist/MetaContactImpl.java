@@ -17,6 +17,7 @@
  */
 package net.java.sip.communicator.impl.contactlist;
 
+import java.lang.ref.*;
 import java.util.*;
 
 import net.java.sip.communicator.service.contactlist.*;
@@ -74,9 +75,12 @@
 
     /**
      * A locally cached copy of an avatar that we should return for lazy calls
-     * to the getAvatarMethod() in order to speed up display.
+     * to the getAvatarMethod() in order to speed up display. Softly
+     * referenced as the user interface keeps scaled copies of the avatar, the
+     * full-sized one is read from the avatar cache file again if it was
+     * collected.
      */
-    private byte[] cachedAvatar = null;
+    private SoftReference<byte[]> cachedAvatar = null;
 
     /**
      * A flag that tells us whether or not we have already tried to restore
@@ -617,15 +621,21 @@ public byte[] getAvatar(boolean isLazy)
         //if we get here then the caller is probably not willing to perform
         //network operations and opted for a lazy retrieve (... or the
         //queryAvatar method returned null because we are calling it too often)
-        if((cachedAvatar != null) && (cachedAvatar.length > 0))
+        SoftReference<byte[]> avatarRef = cachedAvatar;
+        if (avatarRef != null)
         {
-            //we already have a cached avatar, so let's return it
-            return cachedAvatar;
+            byte[] avatar = avatarRef.get();
+            if((avatar != null) && (avatar.length > 0))
+            {
+                //we already have a cached avatar, so let's return it
+                return avatar;
+            }
+            //the cached avatar has been collected, it is still in the file
+            //system
         }
-
         //no cached avatar. let's try the file system for previously stored
         //ones. (unless we already did this)
-        if ( avatarFileCacheAlreadyQueried )
+        else if ( avatarFileCacheAlreadyQueried )
             return null;
         avatarFileCacheAlreadyQueried = true;
 
@@ -635,15 +645,19 @@ public byte[] getAvatar(boolean isLazy)
         {
             Contact protoContact = iter.next();
 
-            cachedAvatar = AvatarCacheUtils.getCachedAvatar(protoContact);
+            byte[] avatar = AvatarCacheUtils.getCachedAvatar(protoContact);
             /*
              * Caching a zero-length avatar happens but such an avatar isn't
              * very useful.
              */
-            if ((cachedAvatar != null) && (cachedAvatar.length > 0))
-                return cachedAvatar;
+            if ((avatar != null) && (avatar.length > 0))
+            {
+                cachedAvatar = new SoftReference<byte[]>(avatar);
+                return avatar;
+            }
         }
 
+        cachedAvatar = null;
         return null;
     }
 
@@ -1090,7 +1104,10 @@ public List<String> getDetails(String name)
     public void cacheAvatar( Contact protoContact,
                              byte[] avatarBytes)
     {
-        this.cachedAvatar = avatarBytes;
+        this.cachedAvatar
+            = ((avatarBytes == null) || (avatarBytes.length == 0))
+                ? null
+                : new SoftReference<byte[]>(avatarBytes);
         this.avatarFileCacheAlreadyQueried = true;
 
         AvatarCacheUtils.cacheAvatar(protoContact, avatarBytes);
@@ -1165,7 +1165,7 @@ public void setPeerImage(byte[] image)
         }
         else
         {
-            peerImage = ImageUtils.getScaledRoundedIcon(image, 100, 100);
+            peerImage = AvatarImageCache.getIcon(image, 100, 100);
             if (peerImage == null)
                 peerImage = getPhotoLabelIcon();
 
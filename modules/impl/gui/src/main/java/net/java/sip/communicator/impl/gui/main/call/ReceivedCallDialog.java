@@ -150,7 +150,7 @@ private void initCallLabel(final JLabel callLabel[])
                 byte[] image = CallManager.getPeerImage(peer);
 
                 if (image != null && image.length > 0)
-                    imageIcon = ImageUtils.getScaledRoundedIcon(image, 50, 50);
+                    imageIcon = AvatarImageCache.getIcon(image, 50, 50);
             }
         }
 
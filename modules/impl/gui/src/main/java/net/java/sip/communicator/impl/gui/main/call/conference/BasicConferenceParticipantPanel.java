@@ -663,9 +663,9 @@ private void setParticipantIcon(byte[] image, boolean changed)
     {
         if (image != null && image.length > 0)
             participantImage
-                = ImageUtils.getScaledRoundedIcon(  image,
-                                                    AVATAR_WIDTH,
-                                                    AVATAR_HEIGHT).getImage();
+                = AvatarImageCache.getIcon(image,
+                                           AVATAR_WIDTH,
+                                           AVATAR_HEIGHT).getImage();
         else if (participantImage == null)
             participantImage
                 = ImageLoader.getImage(ImageLoader.DEFAULT_USER_PHOTO)
@@ -19,7 +19,7 @@
 
 import javax.swing.*;
 
-import net.java.sip.communicator.plugin.desktoputil.*;
+import net.java.sip.communicator.impl.gui.utils.*;
 
 /**
  * The <tt>ChatContact</tt> is a wrapping class for the <tt>Contact</tt> and
@@ -122,7 +122,7 @@ public ImageIcon getAvatar()
         if ((this.avatar == null)
                 && (this.avatarBytes != null) && (this.avatarBytes.length > 0))
             this.avatar
-                    = ImageUtils.getScaledRoundedIcon(
+                    = AvatarImageCache.getIcon(
                             this.avatarBytes,
                             AVATAR_ICON_WIDTH,
                             AVATAR_ICON_HEIGHT);
@@ -25,6 +25,7 @@
 import java.text.*;
 import java.util.*;
 import java.util.Map;
+import java.util.concurrent.*;
 import java.util.regex.*;
 
 import javax.swing.*;
@@ -39,7 +40,6 @@
 import net.java.sip.communicator.impl.gui.main.chat.replacers.*;
 import net.java.sip.communicator.impl.gui.utils.*;
 import net.java.sip.communicator.plugin.desktoputil.*;
-import net.java.sip.communicator.plugin.desktoputil.SwingWorker;
 import net.java.sip.communicator.service.gui.*;
 import net.java.sip.communicator.service.history.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -147,6 +147,28 @@
         "([^<]*+)(?:<(?:[^>\"]*(?:\"[^\"]*+\"?)*)*+>?)?",
         Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
+    /**
+     * The number of threads processing replacements for all chat panels.
+     */
+    private static final int REPLACEMENT_THREADS = 2;
+
+    /**
+     * The executor shared by all chat panels to process replacements, so
+     * that a burst of messages queues up instead of creating a thread per
+     * message.
+     */
+    private static final ExecutorService replacementExecutor
+        = Executors.newFixedThreadPool(REPLACEMENT_THREADS,
+            new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "ChatReplacementWorker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
     /**
      * List for observing text messages.
      */
@@ -234,6 +256,17 @@
      */
     private boolean scrollToBottomIsPending = false;
 
+    /**
+     * Whether {@link #scrollToBottomRunnable} has been scheduled and has not
+     * run yet, so that a burst of appended messages scrolls only once.
+     */
+    private boolean scrollToBottomIsScheduled = false;
+
+    /**
+     * The index of the message elements of {@link #document}.
+     */
+    private ChatMessageIndex messageIndex = null;
+
     private String lastMessageUID = null;
 
     private boolean isSimpleTheme = true;
@@ -252,6 +285,11 @@
          */
         public void run()
         {
+            synchronized (this)
+            {
+                scrollToBottomIsScheduled = false;
+            }
+
             JScrollBar verticalScrollBar = getVerticalScrollBar();
 
             if (verticalScrollBar != null)
@@ -465,10 +503,7 @@ public void setBounds(int x, int y, int width, int height)
      */
     public String getMessageContents(String messageUID)
     {
-        Element root = document.getDefaultRootElement();
-        Element e = document.getElement(
-            root,
-            Attribute.ID,
+        Element e = getMessageElement(
             ChatHtmlUtils.MESSAGE_TEXT_ID + messageUID);
         if (e == null)
         {
@@ -723,7 +758,7 @@ public void run()
             return;
         }
 
-        Element lastMsgElement = document.getElement(
+        Element lastMsgElement = getMessageElement(
             ChatHtmlUtils.MESSAGE_TEXT_ID + previousMessageUID);
 
         String contactAddress
@@ -757,11 +792,14 @@ public void run()
                 Element parentElement = lastMsgElement.getParentElement();
 
                 document.insertBeforeEnd(parentElement, newMessage);
+                getMessageIndex().elementAppended(
+                    ChatHtmlUtils.MESSAGE_TEXT_ID + chatMessage.getMessageUID(),
+                    parentElement);
 
                 // Need to call explicitly scrollToBottom, because for some
                 // reason the componentResized event isn't fired every time
                 // we add text.
-                SwingUtilities.invokeLater(scrollToBottomRunnable);
+                scheduleScrollToBottom();
             }
             catch (BadLocationException ex)
             {
@@ -803,11 +841,8 @@ public void run()
             lastMessageUID = chatMessage.getMessageUID();
         }
 
-        Element root = document.getDefaultRootElement();
         Element correctedMsgElement
-            = document.getElement(root,
-                                  Attribute.ID,
-                                  ChatHtmlUtils.MESSAGE_TEXT_ID + correctedUID);
+            = getMessageElement(ChatHtmlUtils.MESSAGE_TEXT_ID + correctedUID);
 
         if (correctedMsgElement == null)
         {
@@ -842,12 +877,18 @@ public void run()
         {
             try
             {
+                Element parent = correctedMsgElement.getParentElement();
+
+                // only the element of the corrected message is replaced
                 document.setOuterHTML(correctedMsgElement, newMessage);
+                getMessageIndex().elementReplaced(
+                    ChatHtmlUtils.MESSAGE_TEXT_ID + chatMessage.getMessageUID(),
+                    parent);
 
                 // Need to call explicitly scrollToBottom, because for some
                 // reason the componentResized event isn't fired every time
                 // we add text.
-                SwingUtilities.invokeLater(scrollToBottomRunnable);
+                scheduleScrollToBottom();
             }
             catch (BadLocationException ex)
             {
@@ -909,16 +950,22 @@ public void run()
 
             try
             {
+                // the body element
+                Element body = root.getElement(root.getElementCount() - 1);
+
                 document.insertBeforeEnd(
-                            // the body element
-                            root.getElement(root.getElementCount() - 1),
+                            body,
                             // the message to insert
                             message);
 
+                if (lastMessageUID != null)
+                    getMessageIndex().elementAppended(
+                        ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID, body);
+
                 // Need to call explicitly scrollToBottom, because for some
                 // reason the componentResized event isn't fired every time we
                 // add text.
-                SwingUtilities.invokeLater(scrollToBottomRunnable);
+                scheduleScrollToBottom();
             }
             catch (BadLocationException e)
             {
@@ -938,6 +985,50 @@ public void run()
         }
     }
 
+    /**
+     * Schedules a scroll to the bottom of the conversation, unless one is
+     * already scheduled. Messages appended in a burst are laid out and
+     * scrolled to once.
+     */
+    private void scheduleScrollToBottom()
+    {
+        synchronized (scrollToBottomRunnable)
+        {
+            if (scrollToBottomIsScheduled)
+                return;
+            scrollToBottomIsScheduled = true;
+        }
+
+        SwingUtilities.invokeLater(scrollToBottomRunnable);
+    }
+
+    /**
+     * Returns the index of the message elements of the current document.
+     *
+     * @return the index of the message elements of the current document.
+     */
+    private ChatMessageIndex getMessageIndex()
+    {
+        ChatMessageIndex index = messageIndex;
+        if (index == null || index.getDocument() != document)
+        {
+            index = new ChatMessageIndex(document);
+            messageIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the element of the current document with the given id.
+     *
+     * @param id the id of the element.
+     * @return the element or <tt>null</tt> if there is no such element.
+     */
+    private Element getMessageElement(String id)
+    {
+        return getMessageIndex().getElement(id);
+    }
+
     /**
      * Performs all operations needed in order to finish the adding of the
      * message to the document.
@@ -971,31 +1062,41 @@ private void finishMessageAdd(final String message)
     /**
     * Formats the given message. Processes the messages and replaces links to
     * video/image sources with their previews or any other substitution. Spawns
-    * a separate thread for replacement.
+    * the replacement on the shared replacement executor.
     *
     * @param messageID the messageID element.
     * @param chatString the message.
     */
     void processReplacement(final String messageID, final String chatString)
     {
-        new ReplacementWorker(messageID, chatString).start();
+        replacementExecutor.execute(
+            new ReplacementWorker(messageID, chatString));
     }
 
     /**
-     * Ensures that the document won't become too big. When the document reaches
-     * a certain size the first message in the page is removed.
+     * The prefixes of the ids of the elements which are removed as a whole
+     * when the document becomes too big.
+     */
+    private static final String[] MESSAGE_ELEMENT_IDS
+        = new String[]
+                {ChatHtmlUtils.MESSAGE_TEXT_ID,
+                 "statusMessage",
+                 "systemMessage",
+                 "actionMessage"};
+
+    /**
+     * Ensures that the document won't become too big. While the document
+     * exceeds the buffer size the oldest messages are removed, the block
+     * holding the latest message is always kept.
      */
     private void ensureDocumentSize()
     {
-        if (document.getLength() > Chat.CHAT_BUFFER_SIZE)
+        while (document.getLength() > Chat.CHAT_BUFFER_SIZE)
         {
-            String[] ids = new String[]
-                                      {ChatHtmlUtils.MESSAGE_TEXT_ID,
-                                       "statusMessage",
-                                       "systemMessage",
-                                       "actionMessage"};
+            Element firstMsgElement = findFirstMessageElement();
 
-            Element firstMsgElement = findElement(Attribute.ID, ids);
+            if (firstMsgElement == null)
+                return;
 
             int startIndex = firstMsgElement.getStartOffset();
             int endIndex = firstMsgElement.getEndOffset();
@@ -1008,6 +1109,7 @@ private void ensureDocumentSize()
             catch (BadLocationException e)
             {
                 logger.error("Error removing messages from chat: ", e);
+                return;
             }
 
             if(firstMsgElement.getName().equals("table"))
@@ -1021,47 +1123,54 @@ private void ensureDocumentSize()
 
     /**
      * Deletes all messages "div"s that are missing their header the table tag.
-     * The method calls itself recursively.
      */
     private void deleteAllMessagesWithoutHeader()
     {
-        String[] ids = new String[]
-            {ChatHtmlUtils.MESSAGE_TEXT_ID,
-                "statusMessage",
-                "systemMessage",
-                "actionMessage"};
+        Element firstMsgElement;
 
-        Element firstMsgElement = findElement(Attribute.ID, ids);
-
-        if(firstMsgElement == null
-            || !firstMsgElement.getName().equals("div"))
+        while ((firstMsgElement = findFirstMessageElement()) != null
+                && firstMsgElement.getName().equals("div"))
         {
-            return;
-        }
-
-        int startIndex = firstMsgElement.getStartOffset();
-        int endIndex = firstMsgElement.getEndOffset();
+            int startIndex = firstMsgElement.getStartOffset();
+            int endIndex = firstMsgElement.getEndOffset();
 
-        try
-        {
-            // Remove the message.
-            if(endIndex - startIndex < document.getLength())
+            try
+            {
+                // Remove the message.
                 this.document.remove(startIndex, endIndex - startIndex);
-            else
+            }
+            catch (BadLocationException e)
             {
-                // currently there is a problem of deleting the last message
-                // if it is the last message on the view
+                logger.error("Error removing messages from chat: ", e);
                 return;
             }
         }
-        catch (BadLocationException e)
+    }
+
+    /**
+     * Finds the oldest message element of the document. Messages are
+     * appended to the body, so only its leading top level blocks are
+     * searched and the search stops at the first block holding a message.
+     * The last block is never returned as it holds the latest message.
+     *
+     * @return the oldest message element which may be removed or
+     * <tt>null</tt>.
+     */
+    private Element findFirstMessageElement()
+    {
+        Element root = document.getDefaultRootElement();
+        Element body = root.getElement(root.getElementCount() - 1);
+
+        for (int i = 0; i < body.getElementCount() - 1; i++)
         {
-            logger.error("Error removing messages from chat: ", e);
+            Element element = findFirstElement(
+                body.getElement(i), Attribute.ID, MESSAGE_ELEMENT_IDS);
 
-            return;
+            if (element != null)
+                return element;
         }
 
-        deleteAllMessagesWithoutHeader();
+        return null;
     }
 
     /**
@@ -1445,7 +1554,7 @@ public Date getPageLastMsgTimestamp()
         if (lastMessageUID != null)
         {
             Element lastMsgElement
-                = document.getElement(
+                = getMessageElement(
                         ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID);
 
             if (lastMsgElement != null)
@@ -1709,7 +1818,7 @@ private boolean isConsecutiveMessage(ChatMessage chatMessage)
         if (lastMessageUID == null)
             return false;
 
-        Element lastMsgElement = document.getElement(
+        Element lastMsgElement = getMessageElement(
             ChatHtmlUtils.MESSAGE_TEXT_ID + lastMessageUID);
 
         if (lastMsgElement == null)
@@ -1778,20 +1887,6 @@ public void dispose()
         clear();
     }
 
-    /**
-     *
-     * @param attribute
-     * @param matchStrings
-     * @return
-     */
-    private Element findElement(HTML.Attribute attribute,
-                                String[] matchStrings)
-    {
-        return findFirstElement(document.getDefaultRootElement(),
-                                attribute,
-                                matchStrings);
-    }
-
     /**
      * Finds the first element with <tt>name</tt>.
      * @param name the name to search for.
@@ -1870,20 +1965,20 @@ private Element findFirstElement(   Element element,
      */
     private String getElementContent(String elementId, String message)
     {
-        Pattern p = Pattern.compile(
-            ".*(<div.*id=[\\\"']"
-            + ChatHtmlUtils.MESSAGE_TEXT_ID
-            + elementId
-            + "[\\\"'].*?</div>)", Pattern.DOTALL);
-
-        Matcher m = p.matcher(message);
+        // the last div declaring the id, up to the first closing div after it
+        String id = ChatHtmlUtils.MESSAGE_TEXT_ID + elementId;
+        int idIndex = Math.max(
+            message.lastIndexOf("id=\"" + id + "\""),
+            message.lastIndexOf("id='" + id + "'"));
+        if (idIndex < 0)
+            return null;
 
-        if (m.find())
-        {
-            return m.group(1);
-        }
+        int start = message.lastIndexOf("<div", idIndex);
+        int end = message.indexOf("</div>", idIndex + id.length());
+        if (start < 0 || end < 0)
+            return null;
 
-        return null;
+        return message.substring(start, end + "</div>".length());
     }
 
     /**
@@ -2019,10 +2114,12 @@ public void debug()
     }
 
     /**
-     * Swing worker used by processReplacement.
+     * Worker used by processReplacement. Finds the replacements of all
+     * sources in a single pass over the message and then updates the
+     * document in the event dispatching thread.
      */
     private final class ReplacementWorker
-        extends SwingWorker
+        implements Runnable
     {
         /**
          * The messageID element.
@@ -2049,6 +2146,18 @@ public void debug()
          */
         private final boolean isProposalEnabled;
 
+        /**
+         * Is smiley replacement enabled.
+         */
+        private final boolean isSmileyEnabled;
+
+        /**
+         * Whether replacement is enabled per source, looked up once per
+         * message.
+         */
+        private final Map<ReplacementService, Boolean> isEnabledForSource
+            = new HashMap<ReplacementService, Boolean>();
+
         /**
          * Constructs worker.
          *
@@ -2069,14 +2178,47 @@ private ReplacementWorker(final String messageID,
                 = cfg.getBoolean(
                 ReplacementProperty.REPLACEMENT_PROPOSAL,
                 true);
+            isSmileyEnabled
+                = cfg.getBoolean(
+                ReplacementProperty.getPropertyName("SMILEY"),
+                true);
         }
 
         /**
-         * Called on the event dispatching thread (not on the worker thread)
-         * after the <code>construct</code> method has returned.
+         * Processes the message and schedules the document update.
          */
-        @Override
-        public void finished()
+        public void run()
+        {
+            final String newMessage;
+            try
+            {
+                newMessage = construct();
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+
+                logger.error("Error processing replacements", t);
+                return;
+            }
+
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    finished(newMessage);
+                }
+            });
+        }
+
+        /**
+         * Called on the event dispatching thread after the message has been
+         * processed.
+         *
+         * @param newMessage the processed message.
+         */
+        private void finished(String newMessage)
         {
             ShowPreviewDialog previewDialog = showPreview;
             // There is a race between the replacement worker and the
@@ -2088,8 +2230,6 @@ public void finished()
                 return;
             }
 
-            String newMessage = (String) get();
-
             if (newMessage != null && !newMessage.equals(chatString))
             {
                 previewDialog.getMsgIDToChatString().put(
@@ -2100,8 +2240,13 @@ public void finished()
 
                     try
                     {
-                        Element elem = document.getElement(messageID);
+                        Element elem = getMessageElement(messageID);
+                        if (elem == null)
+                            return;
+
+                        Element parent = elem.getParentElement();
                         document.setOuterHTML(elem, newMessage);
+                        getMessageIndex().elementReplaced(messageID, parent);
                     }
                     catch (BadLocationException ex)
                     {
@@ -2115,8 +2260,12 @@ public void finished()
             }
         }
 
-        @Override
-        public Object construct() throws Exception
+        /**
+         * Processes the replacements of all sources.
+         *
+         * @return the processed message.
+         */
+        private String construct()
         {
             Matcher divMatcher = DIV_PATTERN.matcher(chatString);
             String openingTag = "";
@@ -2129,33 +2278,28 @@ public Object construct() throws Exception
                 closingTag = divMatcher.group(3);
             }
 
-            StringBuilder msgBuff;
-            for (Map.Entry<String, ReplacementService> entry : GuiActivator
-                .getReplacementSources().entrySet())
-            {
-                msgBuff = new StringBuilder();
-                processReplacementService(entry.getValue(), msgStore, msgBuff);
-                msgStore = msgBuff.toString();
-            }
+            ReplacementMatcher replacementMatcher
+                = ReplacementMatcher.getInstance(
+                    GuiActivator.getReplacementSources());
+
+            StringBuilder msgBuff = new StringBuilder(msgStore.length());
+            processReplacementSources(replacementMatcher, msgStore, msgBuff);
 
-            return openingTag + msgStore + closingTag;
+            return openingTag + msgBuff + closingTag;
         }
 
         /**
-         * Process message for a ReplacementService.
+         * Process message for all replacement sources at once.
          *
-         * @param service the service.
+         * @param replacementMatcher the compiled replacement sources.
          * @param msg the message.
          * @param buff current accumulated buffer.
          */
-        private void processReplacementService(final ReplacementService service,
-            final String msg, final StringBuilder buff)
+        private void processReplacementSources(
+            final ReplacementMatcher replacementMatcher,
+            final String msg,
+            final StringBuilder buff)
         {
-            String sourcePattern = service.getPattern();
-            Pattern pattern =
-                Pattern.compile(sourcePattern, Pattern.CASE_INSENSITIVE
-                    | Pattern.DOTALL);
-
             int startPos = 0;
 
             Matcher plainTextInHtmlMatcher =
@@ -2184,7 +2328,8 @@ private void processReplacementService(final ReplacementService service,
                     final boolean isURL =
                         URL_PATTERN.matcher(plaintext).matches();
 
-                    processText(plaintext, buff, pattern, service, isURL);
+                    processText(plaintext, buff,
+                        replacementMatcher.findMatches(plaintext, isURL));
 
                     startPos = endMatchPosition;
                 }
@@ -2194,21 +2339,37 @@ private void processReplacementService(final ReplacementService service,
             buff.append(msg.substring(startPos));
         }
 
+        /**
+         * Checks whether replacement is enabled for the given source.
+         *
+         * @param rService the replacement service.
+         * @return whether replacement is enabled for <tt>rService</tt>.
+         */
+        private boolean isEnabledForSource(ReplacementService rService)
+        {
+            Boolean enabled = isEnabledForSource.get(rService);
+            if (enabled == null)
+            {
+                enabled = GuiActivator.getConfigurationService().getBoolean(
+                    ReplacementProperty.getPropertyName(
+                        rService.getSourceName()), true);
+                isEnabledForSource.put(rService, enabled);
+            }
+            return enabled;
+        }
+
         /**
          * Process plain text content.
          *
          * @param plainText the nodes text.
          * @param msgBuff the currently accumulated buffer.
-         * @param pattern the pattern for current replacement service, created
-         *            earlier so we don't create it for every text we check.
-         * @param rService the replacement service.
-         * @param isURL whether this content matches the URL pattern
+         * @param matches the matches of all replacement sources in
+         *            <tt>plainText</tt>, ordered by position.
          */
-        private void processText(final String plainText,
-                                 final StringBuilder msgBuff,
-                                 final Pattern pattern,
-                                 final ReplacementService rService,
-                                 final boolean isURL)
+        private void processText(
+            final String plainText,
+            final StringBuilder msgBuff,
+            final java.util.List<ReplacementMatcher.Match> matches)
         {
             final ShowPreviewDialog previewDialog = showPreview;
             // There is a race between the replacement worker and the
@@ -2220,104 +2381,83 @@ private void processText(final String plainText,
                 return;
             }
 
-            Matcher m = pattern.matcher(plainText);
-
-            ConfigurationService cfg = GuiActivator.getConfigurationService();
-            boolean isSmiley
-                = rService instanceof SmiliesReplacementService;
-            boolean isDirectImage
-                = rService instanceof DirectImageReplacementService;
-            boolean isEnabledForSource
-                = cfg.getBoolean(
-                ReplacementProperty.getPropertyName(
-                    rService.getSourceName()), true);
-
             int startPos = 0;
-            while (m.find())
+            for (ReplacementMatcher.Match m : matches)
             {
                 msgBuff.append(StringEscapeUtils.escapeHtml4(plainText
-                    .substring(startPos, m.start())));
-                startPos = m.end();
+                    .substring(startPos, m.start)));
+                startPos = m.end;
 
-                String group = m.group();
-                String temp = rService.getReplacement(group);
-                String group0 = m.group(0);
+                ReplacementService rService = m.service;
+                String group = m.group;
+                String temp = m.replacement;
 
-                if (!temp.equals(group0) || isDirectImage)
+                if (rService instanceof SmiliesReplacementService)
                 {
-                    if (isSmiley)
+                    if (isSmileyEnabled)
                     {
-                        if (cfg.getBoolean(ReplacementProperty.
-                                getPropertyName("SMILEY"),
-                            true) && !isURL)
-                        {
-                            msgBuff.append("<IMG SRC=\"");
-                            msgBuff.append(temp);
-                            msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                            msgBuff.append(group0);
-                            msgBuff.append("\"></IMG>");
-                        }
-                        else
-                        {
-                            msgBuff
-                                .append(StringEscapeUtils.escapeHtml4(group));
-                        }
+                        msgBuff.append("<IMG SRC=\"");
+                        msgBuff.append(temp);
+                        msgBuff.append("\" BORDER=\"0\" ALT=\"");
+                        msgBuff.append(group);
+                        msgBuff.append("\"></IMG>");
                     }
-                    else if (isProposalEnabled)
+                    else
                     {
-                        msgBuff.append(StringEscapeUtils.escapeHtml4(group));
-                        msgBuff.append("</A> <A href=\"jitsi://"
-                            + previewDialog.getClass().getName()
-                            + "/SHOWPREVIEW?" + messageID
-                            + "#"
-                            + linkCounter
-                            + "\">"
-                            + StringEscapeUtils.escapeHtml4(GuiActivator
-                                .getResources().getI18NString(
-                                    "service.gui.SHOW_PREVIEW")));
-
-                        previewDialog.getMsgIDandPositionToLink()
-                            .put(messageID + "#" + linkCounter++, group);
-                        previewDialog.getLinkToReplacement()
-                            .put(group, temp);
+                        msgBuff
+                            .append(StringEscapeUtils.escapeHtml4(group));
                     }
-                    else if (isEnabled && isEnabledForSource)
+                }
+                else if (isProposalEnabled)
+                {
+                    msgBuff.append(StringEscapeUtils.escapeHtml4(group));
+                    msgBuff.append("</A> <A href=\"jitsi://"
+                        + previewDialog.getClass().getName()
+                        + "/SHOWPREVIEW?" + messageID
+                        + "#"
+                        + linkCounter
+                        + "\">"
+                        + StringEscapeUtils.escapeHtml4(GuiActivator
+                            .getResources().getI18NString(
+                                "service.gui.SHOW_PREVIEW")));
+
+                    previewDialog.getMsgIDandPositionToLink()
+                        .put(messageID + "#" + linkCounter++, group);
+                    previewDialog.getLinkToReplacement()
+                        .put(group, temp);
+                }
+                else if (isEnabled && isEnabledForSource(rService))
+                {
+                    if (rService instanceof DirectImageReplacementService)
                     {
-                        if (isDirectImage)
-                        {
-                            DirectImageReplacementService service
-                                = (DirectImageReplacementService) rService;
-                            if (service.isDirectImage(group)
-                                && service.getImageSize(group) != -1)
-                            {
-                                msgBuff.append(
-                                    "<IMG HEIGHT=\"90\" "
-                                        + "WIDTH=\"120\" SRC=\"");
-                                msgBuff.append(temp);
-                                msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                                msgBuff.append(group0);
-                                msgBuff.append("\"></IMG>");
-                            }
-                            else
-                            {
-                                msgBuff.append(StringEscapeUtils
-                                    .escapeHtml4(group));
-                            }
-                        }
-                        else
+                        DirectImageReplacementService service
+                            = (DirectImageReplacementService) rService;
+                        if (service.isDirectImage(group)
+                            && service.getImageSize(group) != -1)
                         {
                             msgBuff.append(
                                 "<IMG HEIGHT=\"90\" "
                                     + "WIDTH=\"120\" SRC=\"");
                             msgBuff.append(temp);
                             msgBuff.append("\" BORDER=\"0\" ALT=\"");
-                            msgBuff.append(group0);
+                            msgBuff.append(group);
                             msgBuff.append("\"></IMG>");
                         }
+                        else
+                        {
+                            msgBuff.append(StringEscapeUtils
+                                .escapeHtml4(group));
+                        }
                     }
                     else
                     {
-                        msgBuff.append(StringEscapeUtils.escapeHtml4(group));
+                        msgBuff.append(
+                            "<IMG HEIGHT=\"90\" "
+                                + "WIDTH=\"120\" SRC=\"");
+                        msgBuff.append(temp);
+                        msgBuff.append("\" BORDER=\"0\" ALT=\"");
+                        msgBuff.append(group);
+                        msgBuff.append("\"></IMG>");
                     }
                 }
                 else
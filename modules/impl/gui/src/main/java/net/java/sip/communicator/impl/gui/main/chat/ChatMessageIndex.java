@@ -0,0 +1,210 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+
+import javax.swing.text.*;
+import javax.swing.text.html.*;
+
+/**
+ * Keeps the elements of the messages shown in a chat conversation document
+ * indexed by their id, so that finding a message to correct, to replace
+ * after processing or to append a consecutive message to does not walk the
+ * whole document. The index is bounded and is mostly used from the event
+ * dispatching thread, like the document itself.
+ * <p>
+ * Entries are validated on lookup: an element which has been removed from
+ * the document or replaced through <tt>setOuterHTML</tt> is looked up again
+ * in the document and re-indexed.
+ * </p>
+ */
+public class ChatMessageIndex
+{
+    /**
+     * The maximum number of indexed elements, older ones are dropped first.
+     */
+    private static final int MAX_SIZE = 2000;
+
+    /**
+     * The document whose elements are indexed.
+     */
+    private final HTMLDocument document;
+
+    /**
+     * The indexed elements by id, in insertion order.
+     */
+    private final Map<String, Element> elements
+        = new LinkedHashMap<String, Element>(64, 0.75f, false)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Element> eldest)
+            {
+                return size() > MAX_SIZE;
+            }
+        };
+
+    /**
+     * Creates an index for the given document.
+     *
+     * @param document the document whose elements to index.
+     */
+    public ChatMessageIndex(HTMLDocument document)
+    {
+        this.document = document;
+    }
+
+    /**
+     * Returns the document this index is for.
+     *
+     * @return the document this index is for.
+     */
+    public HTMLDocument getDocument()
+    {
+        return document;
+    }
+
+    /**
+     * Returns the element with the given id.
+     *
+     * @param id the value of the id attribute of the element.
+     * @return the element or <tt>null</tt> if it is not in the document.
+     */
+    public synchronized Element getElement(String id)
+    {
+        Element element = elements.get(id);
+
+        if (element != null && isAttached(element, id))
+            return element;
+
+        element = document.getElement(
+            document.getDefaultRootElement(), HTML.Attribute.ID, id);
+
+        if (element != null)
+            elements.put(id, element);
+        else
+            elements.remove(id);
+
+        return element;
+    }
+
+    /**
+     * Indexes the element with the given id which has just been inserted at
+     * the end of <tt>parent</tt>, searching only its last children.
+     *
+     * @param id the value of the id attribute of the new element.
+     * @param parent the element the new content was appended to.
+     * @return the element or <tt>null</tt> if it was not found.
+     */
+    public synchronized Element elementAppended(String id, Element parent)
+    {
+        int count = parent.getElementCount();
+        for (int i = count - 1; i >= 0 && i >= count - 3; i--)
+        {
+            Element element = document.getElement(
+                parent.getElement(i), HTML.Attribute.ID, id);
+            if (element != null)
+            {
+                elements.put(id, element);
+                return element;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the element with the given id which has just replaced
+     * <tt>replaced</tt> through <tt>setOuterHTML</tt>, searching only below
+     * the parent of the old element.
+     *
+     * @param id the value of the id attribute of the new element.
+     * @param parent the parent of the replaced element.
+     * @return the element or <tt>null</tt> if it is not in the document.
+     */
+    public synchronized Element elementReplaced(String id, Element parent)
+    {
+        Element element = null;
+
+        if (parent != null && isAttached(parent, null))
+            element = document.getElement(parent, HTML.Attribute.ID, id);
+
+        if (element != null)
+        {
+            elements.put(id, element);
+            return element;
+        }
+
+        elements.remove(id);
+        return getElement(id);
+    }
+
+    /**
+     * Drops all indexed elements.
+     */
+    public synchronized void clear()
+    {
+        elements.clear();
+    }
+
+    /**
+     * Returns the number of indexed elements.
+     *
+     * @return the number of indexed elements.
+     */
+    public synchronized int size()
+    {
+        return elements.size();
+    }
+
+    /**
+     * Checks whether <tt>element</tt> is still part of the document and still
+     * has the given id.
+     *
+     * @param element the element to check.
+     * @param id the expected id or <tt>null</tt> to skip this check.
+     * @return <tt>true</tt> if the element can be used.
+     */
+    private boolean isAttached(Element element, String id)
+    {
+        if (id != null
+            && !id.equals(
+                element.getAttributes().getAttribute(HTML.Attribute.ID)))
+            return false;
+
+        Element root = document.getDefaultRootElement();
+        Element child = element;
+        Element parent = element.getParentElement();
+        while (parent != null)
+        {
+            int index = parent.getElementIndex(child.getStartOffset());
+            if (index < 0
+                || index >= parent.getElementCount()
+                || parent.getElement(index) != child)
+                return false;
+
+            child = parent;
+            parent = parent.getParentElement();
+        }
+
+        return child == root;
+    }
+}
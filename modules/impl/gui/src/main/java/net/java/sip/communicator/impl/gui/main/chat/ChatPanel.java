@@ -418,9 +418,11 @@ else if (chatSession instanceof ConferenceChatSession)
             // Initialize chat participants' panel.
             Iterator<ChatContact<?>> chatParticipants
                 = chatSession.getParticipants();
+            List<ChatContact<?>> chatContacts = new ArrayList<ChatContact<?>>();
 
             while (chatParticipants.hasNext())
-                chatContactListPanel.addContact(chatParticipants.next());
+                chatContacts.add(chatParticipants.next());
+            chatContactListPanel.addContacts(chatContacts);
         }
     }
 
@@ -2299,6 +2301,18 @@ public void addChatContact(ChatContact<?> chatContact)
             chatContactListPanel.addContact(chatContact);
     }
 
+    /**
+     * Adds the given <tt>chatContacts</tt> to the list of chat contacts
+     * participating in the corresponding to this chat panel chat.
+     * @param chatContacts the contacts to add
+     */
+    public void addChatContacts(
+        Collection<? extends ChatContact<?>> chatContacts)
+    {
+        if (chatContactListPanel != null)
+            chatContactListPanel.addContacts(chatContacts);
+    }
+
     /**
      * Removes the given <tt>chatContact</tt> from the list of chat contacts
      * participating in the corresponding to this chat panel chat.
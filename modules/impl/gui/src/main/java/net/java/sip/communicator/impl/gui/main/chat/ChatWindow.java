@@ -1039,9 +1039,9 @@ private void setChatContactPhoto(ChatSession chatSession)
         ImageIcon contactPhotoIcon;
         if (chatAvatar != null && chatAvatar.length > 0)
         {
-            contactPhotoIcon = ImageUtils.getScaledRoundedIcon(chatAvatar,
-                                                                128,
-                                                                128);
+            contactPhotoIcon = AvatarImageCache.getIcon(chatAvatar,
+                                                        128,
+                                                        128);
 
             if (contactPhotoIcon != null)
                 this.setIconImage(contactPhotoIcon.getImage());
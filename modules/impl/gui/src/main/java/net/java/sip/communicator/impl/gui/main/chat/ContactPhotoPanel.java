@@ -111,7 +111,7 @@ public void setChatSession(ChatSession chatSession)
             this.tooltipIcon = new ImageIcon(chatAvatar);
 
             ImageIcon contactPhotoIcon
-                = ImageUtils.getScaledRoundedIcon(chatAvatar,
+                = AvatarImageCache.getIcon(chatAvatar,
                     ChatContact.AVATAR_ICON_WIDTH ,
                     ChatContact.AVATAR_ICON_HEIGHT);
 
@@ -0,0 +1,469 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+import java.util.regex.*;
+
+import net.java.sip.communicator.service.replacement.*;
+import net.java.sip.communicator.service.replacement.directimage.*;
+import net.java.sip.communicator.service.replacement.smilies.*;
+
+/**
+ * Finds the text matched by all <tt>ReplacementService</tt>s in a single
+ * pass over a piece of plain text. The patterns of the sources are compiled
+ * once and reused for every message, smileys are matched with an
+ * Aho-Corasick automaton built from the smiley strings of the current pack.
+ * <p>
+ * Matches of the sources are resolved in the iteration order of the
+ * sources: text claimed by an earlier source is not offered to later ones,
+ * just as if the sources had been applied one after another.
+ * </p>
+ */
+public class ReplacementMatcher
+{
+    /**
+     * The matcher for the last seen set of sources, rebuilt when the sources
+     * or their patterns change.
+     */
+    private static ReplacementMatcher instance;
+
+    /**
+     * The compiled sources in processing order.
+     */
+    private final List<CompiledSource> sources;
+
+    /**
+     * A piece of text matched by a source.
+     */
+    public static class Match
+    {
+        /**
+         * The index of the first matched character.
+         */
+        public final int start;
+
+        /**
+         * The index after the last matched character.
+         */
+        public final int end;
+
+        /**
+         * The source which matched.
+         */
+        public final ReplacementService service;
+
+        /**
+         * The matched text.
+         */
+        public final String group;
+
+        /**
+         * The replacement returned by the source for the matched text.
+         */
+        public final String replacement;
+
+        private Match(int start, int end, ReplacementService service,
+            String group, String replacement)
+        {
+            this.start = start;
+            this.end = end;
+            this.service = service;
+            this.group = group;
+            this.replacement = replacement;
+        }
+    }
+
+    /**
+     * Returns a matcher for the given sources, reusing the previously
+     * compiled one if none of the sources or their patterns has changed.
+     *
+     * @param replacementSources the sources by name, in processing order.
+     * @return the matcher for <tt>replacementSources</tt>.
+     */
+    public static synchronized ReplacementMatcher getInstance(
+        Map<String, ReplacementService> replacementSources)
+    {
+        if (instance == null || !instance.isCompiledFor(replacementSources))
+            instance = new ReplacementMatcher(replacementSources);
+
+        return instance;
+    }
+
+    /**
+     * Compiles the given sources.
+     *
+     * @param replacementSources the sources by name, in processing order.
+     */
+    ReplacementMatcher(Map<String, ReplacementService> replacementSources)
+    {
+        List<CompiledSource> sources
+            = new ArrayList<CompiledSource>(replacementSources.size());
+
+        for (ReplacementService service : replacementSources.values())
+            sources.add(new CompiledSource(service));
+
+        this.sources = Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * Checks whether this matcher has been compiled for the current state of
+     * <tt>replacementSources</tt>.
+     *
+     * @param replacementSources the sources to check.
+     * @return <tt>true</tt> if this matcher can be reused.
+     */
+    private boolean isCompiledFor(
+        Map<String, ReplacementService> replacementSources)
+    {
+        if (replacementSources.size() != sources.size())
+            return false;
+
+        Iterator<CompiledSource> iter = sources.iterator();
+        for (ReplacementService service : replacementSources.values())
+        {
+            if (!iter.next().isCompiledFor(service))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Finds the matches of all sources in <tt>plainText</tt>.
+     *
+     * @param plainText the text to search.
+     * @param isURL whether <tt>plainText</tt> is a URL, in which case
+     * smileys are not looked for.
+     * @return the non-overlapping matches ordered by position.
+     */
+    public List<Match> findMatches(String plainText, boolean isURL)
+    {
+        List<Match> matches = new ArrayList<Match>();
+
+        for (CompiledSource source : sources)
+        {
+            if (isURL && source.automaton != null)
+                continue;
+
+            source.findMatches(plainText, matches);
+        }
+
+        Collections.sort(matches, new Comparator<Match>()
+        {
+            public int compare(Match m1, Match m2)
+            {
+                return m1.start - m2.start;
+            }
+        });
+
+        return matches;
+    }
+
+    /**
+     * A source with its pattern compiled.
+     */
+    private static class CompiledSource
+    {
+        /**
+         * The source.
+         */
+        private final ReplacementService service;
+
+        /**
+         * The pattern string we compiled, <tt>null</tt> for smileys.
+         */
+        private final String patternString;
+
+        /**
+         * The compiled pattern, <tt>null</tt> for smileys.
+         */
+        private final Pattern pattern;
+
+        /**
+         * The smiley pack the automaton was built for, <tt>null</tt> if not
+         * a smiley source.
+         */
+        private final Collection<Smiley> smileyPack;
+
+        /**
+         * The automaton matching the smiley strings, <tt>null</tt> if not
+         * a smiley source.
+         */
+        private final StringsAutomaton automaton;
+
+        /**
+         * Whether every match has to be reported even if the source does not
+         * change the matched text.
+         */
+        private final boolean isDirectImage;
+
+        CompiledSource(ReplacementService service)
+        {
+            this.service = service;
+            this.isDirectImage
+                = service instanceof DirectImageReplacementService;
+
+            if (service instanceof SmiliesReplacementService)
+            {
+                smileyPack
+                    = ((SmiliesReplacementService) service).getSmiliesPack();
+
+                List<String> smileyStrings = new ArrayList<String>();
+                for (Smiley smiley : smileyPack)
+                    smileyStrings.addAll(smiley.getSmileyStrings());
+
+                automaton = new StringsAutomaton(smileyStrings);
+                patternString = null;
+                pattern = null;
+            }
+            else
+            {
+                smileyPack = null;
+                automaton = null;
+                patternString = service.getPattern();
+                pattern = Pattern.compile(patternString,
+                    Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+            }
+        }
+
+        /**
+         * Checks whether this is still the compiled form of <tt>service</tt>.
+         *
+         * @param service the source to check against.
+         * @return <tt>true</tt> if nothing changed.
+         */
+        boolean isCompiledFor(ReplacementService service)
+        {
+            if (this.service != service)
+                return false;
+
+            if (automaton != null)
+                return smileyPack
+                    == ((SmiliesReplacementService) service).getSmiliesPack();
+
+            return patternString.equals(service.getPattern());
+        }
+
+        /**
+         * Adds the matches of this source which do not overlap already found
+         * matches of preceding sources.
+         *
+         * @param text the text to search.
+         * @param matches the matches found so far, to be added to.
+         */
+        void findMatches(String text, List<Match> matches)
+        {
+            int found = matches.size();
+
+            if (automaton != null)
+            {
+                for (int[] m : automaton.findAll(text))
+                    addMatch(text, m[0], m[1], matches, found);
+            }
+            else
+            {
+                Matcher m = pattern.matcher(text);
+                while (m.find())
+                {
+                    if (m.end() > m.start())
+                        addMatch(text, m.start(), m.end(), matches, found);
+                }
+            }
+        }
+
+        private void addMatch(String text, int start, int end,
+            List<Match> matches, int preceding)
+        {
+            for (int i = 0; i < preceding; i++)
+            {
+                Match other = matches.get(i);
+                if (start < other.end && other.start < end)
+                    return;
+            }
+
+            String group = text.substring(start, end);
+            String replacement = service.getReplacement(group);
+
+            if (isDirectImage || !replacement.equals(group))
+                matches.add(
+                    new Match(start, end, service, group, replacement));
+        }
+    }
+
+    /**
+     * An Aho-Corasick automaton which finds the leftmost-longest,
+     * non-overlapping occurrences of a set of strings in a single pass.
+     */
+    static class StringsAutomaton
+    {
+        /**
+         * The outgoing transitions of each state.
+         */
+        private final List<Map<Character, Integer>> transitions
+            = new ArrayList<Map<Character, Integer>>();
+
+        /**
+         * The failure link of each state.
+         */
+        private int[] failure;
+
+        /**
+         * The length of the longest string ending in each state, following
+         * failure links, or 0.
+         */
+        private int[] longestOutput;
+
+        /**
+         * The length of the string ending exactly in each state, or 0.
+         */
+        private final List<Integer> terminal = new ArrayList<Integer>();
+
+        /**
+         * The failure link to follow for further (shorter) outputs.
+         */
+        private int[] outputLink;
+
+        /**
+         * Builds the automaton.
+         *
+         * @param strings the strings to match.
+         */
+        StringsAutomaton(Collection<String> strings)
+        {
+            newState();
+
+            for (String s : strings)
+            {
+                if (s.length() == 0)
+                    continue;
+
+                int state = 0;
+                for (int i = 0; i < s.length(); i++)
+                {
+                    Integer next = transitions.get(state).get(s.charAt(i));
+                    if (next == null)
+                    {
+                        next = newState();
+                        transitions.get(state).put(s.charAt(i), next);
+                    }
+                    state = next;
+                }
+                terminal.set(state, s.length());
+            }
+
+            int count = transitions.size();
+            failure = new int[count];
+            longestOutput = new int[count];
+            outputLink = new int[count];
+
+            // breadth first, so failure targets are always complete
+            Deque<Integer> queue = new ArrayDeque<Integer>();
+            for (int child : transitions.get(0).values())
+            {
+                failure[child] = 0;
+                longestOutput[child] = terminal.get(child);
+                queue.add(child);
+            }
+
+            while (!queue.isEmpty())
+            {
+                int state = queue.poll();
+                for (Map.Entry<Character, Integer> e
+                        : transitions.get(state).entrySet())
+                {
+                    int child = e.getValue();
+                    int f = failure[state];
+                    while (f != 0 && !transitions.get(f).containsKey(e.getKey()))
+                        f = failure[f];
+                    Integer target = transitions.get(f).get(e.getKey());
+                    failure[child]
+                        = (target != null && target != child) ? target : 0;
+
+                    outputLink[child] = terminal.get(failure[child]) > 0
+                        ? failure[child] : outputLink[failure[child]];
+                    longestOutput[child] = terminal.get(child) > 0
+                        ? terminal.get(child)
+                        : longestOutput[failure[child]];
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int newState()
+        {
+            transitions.add(new HashMap<Character, Integer>(4));
+            terminal.add(0);
+            return transitions.size() - 1;
+        }
+
+        /**
+         * Finds the occurrences in <tt>text</tt>, preferring the leftmost and
+         * then the longest one.
+         *
+         * @param text the text to search.
+         * @return pairs of start and end index ordered by start.
+         */
+        List<int[]> findAll(String text)
+        {
+            // best[start] = longest match starting at start
+            int[] best = null;
+            int state = 0;
+
+            for (int i = 0; i < text.length(); i++)
+            {
+                char c = text.charAt(i);
+                Integer next;
+                while ((next = transitions.get(state).get(c)) == null
+                        && state != 0)
+                    state = failure[state];
+                state = next == null ? 0 : next;
+
+                if (longestOutput[state] == 0)
+                    continue;
+
+                if (best == null)
+                    best = new int[text.length()];
+
+                for (int s = state; s != 0; s = outputLink[s])
+                {
+                    int len = terminal.get(s);
+                    if (len == 0)
+                        continue;
+                    int start = i + 1 - len;
+                    if (len > best[start])
+                        best[start] = len;
+                }
+            }
+
+            if (best == null)
+                return Collections.emptyList();
+
+            List<int[]> result = new ArrayList<int[]>();
+            for (int start = 0; start < best.length; start++)
+            {
+                if (best[start] > 0)
+                {
+                    result.add(new int[] { start, start + best[start] });
+                    start += best[start] - 1;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -318,8 +318,7 @@ else if (member != null)
 
                                 if(binBytes != null)
                                     this.rightLabel.setIcon(
-                                        ImageUtils.getScaledRoundedIcon(
-                                            binBytes, 25, 25));
+                                        getAvatarIcon(list, binBytes));
                                 break;
                             }
                         }
@@ -365,8 +364,7 @@ else if (member != null)
 
                         if (cImage != null)
                             this.rightLabel.setIcon(
-                                ImageUtils.getScaledRoundedIcon(
-                                    cImage, 25, 25));
+                                getAvatarIcon(list, cImage));
                     }
                 }
             }
@@ -386,6 +384,28 @@ else if (member != null)
         return this;
     }
 
+    /**
+     * Returns the scaled icon of a member avatar if it is ready, otherwise
+     * scales it in the background and repaints <tt>list</tt> once it is.
+     *
+     * @param list the list being painted
+     * @param avatarBytes the bytes of the avatar
+     * @return the scaled icon or <tt>null</tt> if it is not ready yet
+     */
+    private static ImageIcon getAvatarIcon(
+        final JList<?> list, byte[] avatarBytes)
+    {
+        return AvatarImageCache.getIcon(
+            avatarBytes, 25, 25, AvatarImageCache.Shape.ROUNDED,
+            new Runnable()
+            {
+                public void run()
+                {
+                    list.repaint();
+                }
+            });
+    }
+
     /**
      * Gets the avatar of a specific <tt>MetaContact</tt> in the form of an
      * <tt>ImageIcon</tt> value.
@@ -180,6 +180,48 @@ public void addElement(ChatContact<?> chatContact)
         fireIntervalAdded(this, index, index);
     }
 
+    /**
+     * Adds the given <tt>ChatContact</tt>s to this <tt>AbstractListModel</tt>
+     * implementation at once, sorting the list and notifying the listeners
+     * only once rather than for each of them. Used when the whole member list
+     * of a chat room is reported.
+     *
+     * @param contacts the <tt>ChatContact</tt>s to be added to this
+     * <tt>AbstractListModel</tt>
+     */
+    public void addElements(Collection<? extends ChatContact<?>> contacts)
+    {
+        int oldSize;
+        int newSize;
+
+        synchronized(chatContacts)
+        {
+            oldSize = chatContacts.size();
+
+            // We don't want duplicates.
+            Set<ChatContact<?>> contained
+                = new HashSet<ChatContact<?>>(chatContacts);
+
+            for (ChatContact<?> chatContact : contacts)
+            {
+                if (chatContact == null)
+                    throw new IllegalArgumentException("chatContact");
+                if (contained.add(chatContact))
+                    chatContacts.add(chatContact);
+            }
+
+            newSize = chatContacts.size();
+            if (newSize == oldSize)
+                return;
+
+            Collections.sort(chatContacts, sorter);
+        }
+
+        if (oldSize > 0)
+            fireContentsChanged(this, 0, oldSize - 1);
+        fireIntervalAdded(this, oldSize, newSize - 1);
+    }
+
     /* Implements ListModel#getElementAt(int). */
     public ChatContact<?> getElementAt(int index)
     {
@@ -19,6 +19,7 @@
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.*;
 
 import javax.swing.*;
 
@@ -163,6 +164,17 @@ public void addContact(ChatContact<?> chatContact)
         memberListModel.addElement(chatContact);
     }
 
+    /**
+     * Adds the given <tt>ChatContact</tt>s to the list of contacts contained
+     * in the chat at once.
+     *
+     * @param chatContacts the <tt>ChatContact</tt>s to add
+     */
+    public void addContacts(Collection<? extends ChatContact<?>> chatContacts)
+    {
+        memberListModel.addElements(chatContacts);
+    }
+
     /**
      * Removes the given <tt>ChatContact</tt> from the list of chat contacts.
      *
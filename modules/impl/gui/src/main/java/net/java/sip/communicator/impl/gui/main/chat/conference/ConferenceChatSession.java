@@ -40,7 +40,7 @@
  */
 public class ConferenceChatSession
     extends ChatSession
-    implements  ChatRoomMemberPresenceListener,
+    implements  ChatRoomMemberPresenceBatchListener,
                 ChatRoomPropertyChangeListener,
                 ChatRoomConferencePublishedListener
 {
@@ -389,6 +389,93 @@ public ChatSessionRenderer getChatSessionRenderer()
         return sessionRenderer;
     }
 
+    /**
+     * Invoked when several <tt>ChatRoomMemberPresenceChangeEvent</tt>s are
+     * received at once, for example the list of members of a chat room we
+     * have just joined. The members which were there before us are added to
+     * the list of chat participants in one go, the other events are handled
+     * as in {@link #memberPresenceChanged(ChatRoomMemberPresenceChangeEvent)}.
+     * @param evts the <tt>ChatRoomMemberPresenceChangeEvent</tt>s that
+     * notified us
+     */
+    public void membersPresenceChanged(
+        final List<ChatRoomMemberPresenceChangeEvent> evts)
+    {
+        if(!SwingUtilities.isEventDispatchThread())
+        {
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    membersPresenceChanged(evts);
+                }
+            });
+            return;
+        }
+
+        List<ChatRoomMember> listedMembers = new ArrayList<ChatRoomMember>();
+
+        for (ChatRoomMemberPresenceChangeEvent evt : evts)
+        {
+            if (evt.isReasonUserList()
+                && evt.getEventType().equals(
+                        ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED)
+                && evt.getSource().equals(chatRoomWrapper.getChatRoom()))
+            {
+                listedMembers.add(evt.getChatRoomMember());
+            }
+            else
+            {
+                // keep the order of the changes
+                addListedMembers(listedMembers);
+                listedMembers.clear();
+                memberPresenceChanged(evt);
+            }
+        }
+        addListedMembers(listedMembers);
+    }
+
+    /**
+     * Adds the given members of the chat room, which were already in the
+     * room when we joined it, to the list of chat participants.
+     *
+     * @param members the <tt>ChatRoomMember</tt>s to add
+     */
+    private void addListedMembers(List<ChatRoomMember> members)
+    {
+        if (members.isEmpty())
+            return;
+
+        List<ChatContact<?>> chatContacts = new ArrayList<ChatContact<?>>();
+
+        synchronized (chatParticipants)
+        {
+            Set<ChatContact<?>> contained
+                = new HashSet<ChatContact<?>>(chatParticipants);
+
+            for (ChatRoomMember member : members)
+            {
+                ConferenceChatContact chatContact
+                    = new ConferenceChatContact(member);
+
+                if (contained.add(chatContact))
+                {
+                    chatParticipants.add(chatContact);
+                    chatContacts.add(chatContact);
+                }
+            }
+        }
+        sessionRenderer.addChatContacts(chatContacts);
+
+        ChatRoom room = chatRoomWrapper.getChatRoom();
+        if (room != null)
+        {
+            for (ChatRoomMember member : members)
+                room.updatePrivateContactPresenceStatus(member.getName());
+        }
+    }
+
     /**
      * Invoked when <tt>ChatRoomMemberPresenceChangeEvent</tt> are received.
      * When a new <tt>ChatRoomMember</tt> has joined the chat adds it to the
@@ -572,12 +659,8 @@ public void loadChatRoom(ChatRoom chatRoom)
             this.chatParticipants.clear();
             // Add the new list of members.
             for (ChatRoomMember member : chatRoom.getMembers())
-            {
-                ConferenceChatContact contact =
-                    new ConferenceChatContact(member);
-                chatParticipants.add(contact);
-                sessionRenderer.addChatContact(contact);
-            }
+                chatParticipants.add(new ConferenceChatContact(member));
+            sessionRenderer.addChatContacts(chatParticipants);
         }
 
         // Add all listeners to the new chat room.
@@ -545,7 +545,22 @@ public void progressChanged(FileTransferProgressEvent event)
 
         String bytesString = ByteFormat.format(transferredBytes);
 
-        if ((progressTimestamp - lastSpeedTimestamp)
+        if (event.getFileTransfer() instanceof AbstractFileTransfer)
+        {
+            // the transfer keeps a moving average of its rate, so the labels
+            // can follow every progress update
+            AbstractFileTransfer transfer
+                = (AbstractFileTransfer) event.getFileTransfer();
+
+            long rate = transfer.getTransferRate();
+            if (rate >= 0)
+                lastProgressSpeed = rate;
+
+            long timeLeft = transfer.getEstimatedTimeLeft(transferredFileSize);
+            if (timeLeft >= 0)
+                lastEstimatedTime = Math.round(timeLeft / 1000d);
+        }
+        else if ((progressTimestamp - lastSpeedTimestamp)
                 >= SPEED_CALCULATE_DELAY)
         {
             lastProgressSpeed
@@ -555,7 +570,8 @@ public void progressChanged(FileTransferProgressEvent event)
             this.lastTransferredBytes = transferredBytes;
         }
 
-        if ((progressTimestamp - lastEstimatedTimeTimestamp)
+        if (!(event.getFileTransfer() instanceof AbstractFileTransfer)
+            && (progressTimestamp - lastEstimatedTimeTimestamp)
                 >= SPEED_CALCULATE_DELAY
             && lastProgressSpeed > 0)
         {
@@ -21,7 +21,7 @@
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
-import java.util.regex.*;
+import java.util.concurrent.*;
 
 import javax.swing.*;
 
@@ -94,6 +94,29 @@
      */
     private int index = 0;
 
+    /**
+     * The search index over the names and addresses of all meta contacts,
+     * kept up to date through the contact list events we receive.
+     */
+    private final MetaContactSearchIndex searchIndex
+        = new MetaContactSearchIndex();
+
+    /**
+     * Runs the queries one after another, so that a query started for every
+     * typed character does not need its own thread and stale queries which
+     * have been canceled in the meantime return right away.
+     */
+    private static final ExecutorService queryExecutor
+        = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "MetaContactListSource query");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
     /**
      * The logger.
      */
@@ -200,22 +223,40 @@ public static boolean isRootGroup(MetaContactGroup group)
     /**
      * Starts the query.
      *
-     * @param filterPattern the pattern to filter through
+     * @param filterString the string to filter through
      * @param query the query to be started
      */
     public void startQuery(final MetaContactQuery query,
-        final Pattern filterPattern)
+        final String filterString)
     {
-        new Thread()
+        queryExecutor.execute(new Runnable()
         {
-            @Override
             public void run()
             {
-                int resultCount = 0;
-                queryMetaContactSource( filterPattern,
-                        GuiActivator.getContactListService().getRoot(),
-                        query,
-                        resultCount);
+                if (!query.isCanceled())
+                {
+                    searchIndex.ensureBuilt(
+                        GuiActivator.getContactListService().getRoot());
+
+                    int resultCount = 0;
+                    for (MetaContact metaContact
+                            : searchIndex.search(filterString))
+                    {
+                        if (query.isCanceled())
+                            break;
+
+                        MetaContactGroup parentGroup
+                            = metaContact.getParentMetaContactGroup();
+
+                        // removed in the meantime
+                        if (parentGroup == null)
+                            continue;
+
+                        resultCount++;
+                        addQueryResult(
+                            metaContact, parentGroup, query, resultCount);
+                    }
+                }
 
                 if (!query.isCanceled())
                     query.fireQueryEvent(
@@ -224,150 +265,63 @@ public void run()
                     query.fireQueryEvent(
                         MetaContactQueryStatusEvent.QUERY_CANCELED);
             }
-        }.start();
+        });
     }
 
     /**
-     * Filters the children in the given <tt>MetaContactGroup</tt> to match the
-     * given <tt>filterPattern</tt> and stores the result in the given
-     * <tt>treeModel</tt>.
-     * @param filterPattern the pattern to filter through
-     * @param parentGroup the <tt>MetaContactGroup</tt> to filter
+     * Adds a contact matching a query to the contact list directly if it is
+     * among the first results or fires a query event for it otherwise.
+     * @param metaContact the matching contact
+     * @param parentGroup the parent group of <tt>metaContact</tt>
      * @param query the object that tracks the query
-     * @param resultCount the initial result count we would insert directly to
-     * the contact list without firing events
+     * @param resultCount the number of results including this one
      */
-    public void queryMetaContactSource(Pattern filterPattern,
-                                        MetaContactGroup parentGroup,
-                                        MetaContactQuery query,
-                                        int resultCount)
+    private void addQueryResult(MetaContact metaContact,
+                                MetaContactGroup parentGroup,
+                                MetaContactQuery query,
+                                int resultCount)
     {
-        Iterator<MetaContact> childContacts = parentGroup.getChildContacts();
-
-        while (childContacts.hasNext() && !query.isCanceled())
+        if (resultCount <= INITIAL_CONTACT_COUNT)
         {
-            MetaContact metaContact = childContacts.next();
-
-            if (isMatching(filterPattern, metaContact))
+            UIGroup uiGroup = null;
+            if (!MetaContactListSource.isRootGroup(parentGroup))
             {
-                resultCount++;
-
-                if (resultCount <= INITIAL_CONTACT_COUNT)
-                {
-                    UIGroup uiGroup = null;
-                    if (!MetaContactListSource.isRootGroup(parentGroup))
-                    {
-                        synchronized (parentGroup)
-                        {
-                            uiGroup = MetaContactListSource
-                                .getUIGroup(parentGroup);
-                            if (uiGroup == null)
-                                uiGroup = MetaContactListSource
-                                    .createUIGroup(parentGroup);
-                        }
-                    }
-
-                    UIContact newUIContact;
-                    synchronized (metaContact)
-                    {
-                        newUIContact
-                            = MetaContactListSource.getUIContact(metaContact);
-
-                        if (newUIContact == null)
-                        {
-                            newUIContact
-                                = MetaContactListSource
-                                    .createUIContact(metaContact);
-                        }
-
-                        GuiActivator.getContactList().addContact(
-                            newUIContact,
-                            uiGroup,
-                            true,
-                            true);
-                    }
-
-                    query.setInitialResultCount(resultCount);
-                }
-                else
+                synchronized (parentGroup)
                 {
-                    query.fireQueryEvent(metaContact);
+                    uiGroup = MetaContactListSource
+                        .getUIGroup(parentGroup);
+                    if (uiGroup == null)
+                        uiGroup = MetaContactListSource
+                            .createUIGroup(parentGroup);
                 }
             }
-        }
-
-        // If in the meantime the query is canceled we return here.
-        if(query.isCanceled())
-            return;
-
-        Iterator<MetaContactGroup> subgroups = parentGroup.getSubgroups();
-        while (subgroups.hasNext() && !query.isCanceled())
-        {
-            MetaContactGroup subgroup = subgroups.next();
-
-            queryMetaContactSource(filterPattern, subgroup, query, resultCount);
-        }
-    }
-
-    /**
-     * Checks if the given <tt>metaContact</tt> is matching the given
-     * <tt>filterPattern</tt>.
-     * A <tt>MetaContact</tt> would be matching the filter if one of the
-     * following is true:<br>
-     * - its display name contains the filter string
-     * - at least one of its child protocol contacts has a display name or an
-     * address that contains the filter string.
-     * @param filterPattern the filter pattern to check for matches
-     * @param metaContact the <tt>MetaContact</tt> to check
-     * @return <tt>true</tt> to indicate that the given <tt>metaContact</tt> is
-     * matching the current filter, otherwise returns <tt>false</tt>
-     */
-    private boolean isMatching(Pattern filterPattern, MetaContact metaContact)
-    {
-        Matcher matcher = filterPattern.matcher(metaContact.getDisplayName());
-
-        if(matcher.find())
-            return true;
-
-        Iterator<Contact> contacts = metaContact.getContacts();
-        while (contacts.hasNext())
-        {
-            Contact contact = contacts.next();
 
-            matcher = filterPattern.matcher(contact.getDisplayName());
+            UIContact newUIContact;
+            synchronized (metaContact)
+            {
+                newUIContact
+                    = MetaContactListSource.getUIContact(metaContact);
 
-            if (matcher.find())
-                return true;
+                if (newUIContact == null)
+                {
+                    newUIContact
+                        = MetaContactListSource
+                            .createUIContact(metaContact);
+                }
 
-            matcher = filterPattern.matcher(contact.getAddress());
+                GuiActivator.getContactList().addContact(
+                    newUIContact,
+                    uiGroup,
+                    true,
+                    true);
+            }
 
-            if (matcher.find())
-                return true;
+            query.setInitialResultCount(resultCount);
         }
-        return false;
-    }
-
-    /**
-     * Checks if the given <tt>metaGroup</tt> is matching the current filter. A
-     * group is matching the current filter only if it contains at least one
-     * child <tt>MetaContact</tt>, which is matching the current filter.
-     * @param filterPattern the filter pattern to check for matches
-     * @param metaGroup the <tt>MetaContactGroup</tt> to check
-     * @return <tt>true</tt> to indicate that the given <tt>metaGroup</tt> is
-     * matching the current filter, otherwise returns <tt>false</tt>
-     */
-    public boolean isMatching(Pattern filterPattern, MetaContactGroup metaGroup)
-    {
-        Iterator<MetaContact> contacts = metaGroup.getChildContacts();
-
-        while (contacts.hasNext())
+        else
         {
-            MetaContact metaContact = contacts.next();
-
-            if (isMatching(filterPattern, metaContact))
-                return true;
+            query.fireQueryEvent(metaContact);
         }
-        return false;
     }
 
     public void contactPresenceStatusChanged(
@@ -499,6 +453,8 @@ public void childContactsReordered(MetaContactGroupEvent evt)
      */
     public void metaContactAdded(final MetaContactEvent evt)
     {
+        searchIndex.update(evt.getSourceMetaContact());
+
         metaContactAdded(evt.getSourceMetaContact(),
                         evt.getParentGroup());
     }
@@ -560,6 +516,9 @@ public void metaContactGroupAdded(MetaContactGroupEvent evt)
     {
         final MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        // a group may arrive with its contacts, rebuild on next search
+        searchIndex.invalidate();
+
         UIGroup uiGroup;
 
         synchronized (metaGroup)
@@ -637,6 +596,9 @@ public void metaContactGroupRemoved(final MetaContactGroupEvent evt)
     {
         MetaContactGroup metaGroup = evt.getSourceMetaContactGroup();
 
+        // the contacts of the group go away with it, rebuild on next search
+        searchIndex.invalidate();
+
         UIGroup uiGroup;
         synchronized (metaGroup)
         {
@@ -656,6 +618,8 @@ public void metaContactModified(final MetaContactModifiedEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -766,6 +730,8 @@ public void metaContactRemoved(final MetaContactEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.remove(metaContact);
+
         UIContact uiContact;
         synchronized (metaContact)
         {
@@ -786,6 +752,8 @@ public void metaContactRenamed(final MetaContactRenamedEvent evt)
     {
         MetaContact metaContact = evt.getSourceMetaContact();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -818,6 +786,9 @@ public void metaContactAvatarUpdated(final MetaContactAvatarUpdateEvent evt)
             uiContact = MetaContactListSource.getUIContact(metaContact);
         }
 
+        if (uiContact instanceof MetaUIContact)
+            ((MetaUIContact) uiContact).reloadAvatar();
+
         if (uiContact != null)
         {
             synchronized (uiContact)
@@ -841,6 +812,8 @@ public void protoContactAdded(ProtoContactEvent evt)
     {
         final MetaContact metaContact = evt.getNewParent();
 
+        searchIndex.update(metaContact);
+
         UIContact parentUIContact;
         boolean parentUIContactCreated = false;
         synchronized (metaContact)
@@ -898,6 +871,8 @@ public void protoContactModified(ProtoContactEvent evt)
     {
         MetaContact metaContact = evt.getNewParent();
 
+        searchIndex.update(metaContact);
+
         UIContactImpl uiContact;
         synchronized (metaContact)
         {
@@ -926,6 +901,9 @@ public void protoContactMoved(ProtoContactEvent evt)
         final MetaContact oldParent = evt.getOldParent();
         final MetaContact newParent = evt.getNewParent();
 
+        searchIndex.update(oldParent);
+        searchIndex.update(newParent);
+
         UIContact oldUIContact;
         synchronized (oldParent)
         {
@@ -998,6 +976,8 @@ public void protoContactRemoved(ProtoContactEvent evt)
     {
         final MetaContact oldParent = evt.getOldParent();
 
+        searchIndex.update(oldParent);
+
         UIContactImpl oldUIContact;
         synchronized (oldParent)
         {
@@ -0,0 +1,356 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.util.*;
+
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * An in-memory search index over the display names and addresses of the
+ * <tt>MetaContact</tt>s and their protocol contacts. Strings are normalized
+ * to lower case, addresses which look like phone numbers are also indexed
+ * without separators. Every normalized string is split into trigrams, so
+ * that a search only verifies the contacts sharing the rarest trigram of the
+ * searched string instead of matching every contact in the list.
+ * <p>
+ * The index is built from the contact list once and then updated for single
+ * contacts through {@link #update(MetaContact)} and
+ * {@link #remove(MetaContact)} as the contact list reports changes. Every
+ * contact keeps the position it was first indexed at, search results are
+ * returned in that order.
+ * </p>
+ */
+public class MetaContactSearchIndex
+{
+    /**
+     * The length of the indexed n-grams.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The characters separating the parts of a phone number.
+     */
+    private static final String PHONE_SEPARATORS = " -()./";
+
+    /**
+     * The normalized search strings of each indexed contact.
+     */
+    private final Map<MetaContact, String[]> contactStrings
+        = new LinkedHashMap<MetaContact, String[]>();
+
+    /**
+     * The position each contact was first indexed at.
+     */
+    private final Map<MetaContact, Long> positions
+        = new HashMap<MetaContact, Long>();
+
+    /**
+     * The position of the next newly indexed contact.
+     */
+    private long nextPosition = 0;
+
+    /**
+     * Orders contacts by the position they were first indexed at.
+     */
+    private final Comparator<MetaContact> positionComparator
+        = new Comparator<MetaContact>()
+        {
+            public int compare(MetaContact c1, MetaContact c2)
+            {
+                return positions.get(c1).compareTo(positions.get(c2));
+            }
+        };
+
+    /**
+     * The contacts by trigram of their normalized search strings.
+     */
+    private final Map<String, Set<MetaContact>> grams
+        = new HashMap<String, Set<MetaContact>>();
+
+    /**
+     * Whether the index has been built from the contact list.
+     */
+    private boolean isBuilt = false;
+
+    /**
+     * Builds the index from all contacts below <tt>root</tt>, unless it has
+     * been built already.
+     *
+     * @param root the root group of the contact list.
+     */
+    public synchronized void ensureBuilt(MetaContactGroup root)
+    {
+        if (isBuilt)
+            return;
+
+        addGroup(root);
+        isBuilt = true;
+    }
+
+    /**
+     * Indexes all contacts in <tt>group</tt> and its subgroups.
+     *
+     * @param group the group to index.
+     */
+    private void addGroup(MetaContactGroup group)
+    {
+        Iterator<MetaContact> contacts = group.getChildContacts();
+        while (contacts.hasNext())
+            add(contacts.next());
+
+        Iterator<MetaContactGroup> subgroups = group.getSubgroups();
+        while (subgroups.hasNext())
+            addGroup(subgroups.next());
+    }
+
+    /**
+     * Reindexes the search strings of the given contact, after it has been
+     * added, renamed or its protocol contacts have changed. Does nothing
+     * before the index is built, the contact will be picked up then.
+     *
+     * @param metaContact the contact to reindex.
+     */
+    public synchronized void update(MetaContact metaContact)
+    {
+        if (!isBuilt)
+            return;
+
+        removeStrings(metaContact);
+        add(metaContact);
+    }
+
+    /**
+     * Removes the given contact from the index.
+     *
+     * @param metaContact the contact to remove.
+     */
+    public synchronized void remove(MetaContact metaContact)
+    {
+        if (!isBuilt)
+            return;
+
+        removeStrings(metaContact);
+        positions.remove(metaContact);
+    }
+
+    /**
+     * Drops the whole index, it will be rebuilt on the next search.
+     */
+    public synchronized void invalidate()
+    {
+        contactStrings.clear();
+        positions.clear();
+        grams.clear();
+        nextPosition = 0;
+        isBuilt = false;
+    }
+
+    /**
+     * Returns the contacts with a display name or address containing the
+     * given string, ignoring case.
+     *
+     * @param query the string to search for.
+     * @return the matching contacts, in the order they were first indexed.
+     */
+    public synchronized List<MetaContact> search(String query)
+    {
+        String normalized = normalize(query);
+        Set<MetaContact> result = new HashSet<MetaContact>();
+
+        search(normalized, result);
+
+        String phoneNumber = stripPhoneSeparators(normalized);
+        if (phoneNumber != null && !phoneNumber.equals(normalized))
+            search(phoneNumber, result);
+
+        List<MetaContact> sorted = new ArrayList<MetaContact>(result);
+        Collections.sort(sorted, positionComparator);
+        return sorted;
+    }
+
+    /**
+     * Adds the contacts containing <tt>normalized</tt> to <tt>result</tt>.
+     *
+     * @param normalized the normalized string to search for.
+     * @param result the set to add the matching contacts to.
+     */
+    private void search(String normalized, Set<MetaContact> result)
+    {
+        Collection<MetaContact> candidates;
+
+        if (normalized.length() < GRAM_LENGTH)
+        {
+            candidates = contactStrings.keySet();
+        }
+        else
+        {
+            Set<MetaContact> smallest = null;
+            for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++)
+            {
+                Set<MetaContact> posting
+                    = grams.get(normalized.substring(i, i + GRAM_LENGTH));
+
+                if (posting == null)
+                    return;
+
+                if (smallest == null || posting.size() < smallest.size())
+                    smallest = posting;
+            }
+            candidates = smallest;
+        }
+
+        for (MetaContact candidate : candidates)
+        {
+            if (result.contains(candidate))
+                continue;
+
+            for (String s : contactStrings.get(candidate))
+            {
+                if (s.contains(normalized))
+                {
+                    result.add(candidate);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the given contact.
+     *
+     * @param metaContact the contact to index.
+     */
+    private void add(MetaContact metaContact)
+    {
+        Set<String> strings = new LinkedHashSet<String>();
+
+        addString(strings, metaContact.getDisplayName());
+
+        Iterator<Contact> contacts = metaContact.getContacts();
+        while (contacts.hasNext())
+        {
+            Contact contact = contacts.next();
+
+            addString(strings, contact.getDisplayName());
+            addString(strings, contact.getAddress());
+        }
+
+        String[] normalized = strings.toArray(new String[strings.size()]);
+        contactStrings.put(metaContact, normalized);
+        if (!positions.containsKey(metaContact))
+            positions.put(metaContact, nextPosition++);
+
+        for (String s : normalized)
+        {
+            for (int i = 0; i + GRAM_LENGTH <= s.length(); i++)
+            {
+                String gram = s.substring(i, i + GRAM_LENGTH);
+                Set<MetaContact> posting = grams.get(gram);
+                if (posting == null)
+                {
+                    posting = new HashSet<MetaContact>(4);
+                    grams.put(gram, posting);
+                }
+                posting.add(metaContact);
+            }
+        }
+    }
+
+    /**
+     * Removes the search strings of the given contact from the index, its
+     * position is kept.
+     *
+     * @param metaContact the contact to remove.
+     */
+    private void removeStrings(MetaContact metaContact)
+    {
+        String[] strings = contactStrings.remove(metaContact);
+        if (strings == null)
+            return;
+
+        for (String s : strings)
+        {
+            for (int i = 0; i + GRAM_LENGTH <= s.length(); i++)
+            {
+                String gram = s.substring(i, i + GRAM_LENGTH);
+                Set<MetaContact> posting = grams.get(gram);
+                if (posting != null)
+                {
+                    posting.remove(metaContact);
+                    if (posting.isEmpty())
+                        grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the normalized form of <tt>s</tt> and, if it looks like a phone
+     * number, its form without separators.
+     *
+     * @param strings the set to add to.
+     * @param s the string to add, may be <tt>null</tt>.
+     */
+    private static void addString(Set<String> strings, String s)
+    {
+        if (s == null || s.length() == 0)
+            return;
+
+        String normalized = normalize(s);
+        strings.add(normalized);
+
+        String phoneNumber = stripPhoneSeparators(normalized);
+        if (phoneNumber != null)
+            strings.add(phoneNumber);
+    }
+
+    /**
+     * Normalizes the given string for case insensitive matching.
+     *
+     * @param s the string to normalize.
+     * @return the normalized string.
+     */
+    static String normalize(String s)
+    {
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Removes the phone number separators from the given string.
+     *
+     * @param s the string to strip.
+     * @return the digits of <tt>s</tt> with a leading plus kept, or
+     * <tt>null</tt> if <tt>s</tt> does not look like a phone number.
+     */
+    static String stripPhoneSeparators(String s)
+    {
+        StringBuilder digits = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (Character.isDigit(c) || (c == '+' && digits.length() == 0))
+                digits.append(c);
+            else if (PHONE_SEPARATORS.indexOf(c) < 0)
+                return null;
+        }
+
+        return digits.length() > 0 ? digits.toString() : null;
+    }
+}
@@ -17,6 +17,7 @@
  */
 package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
 
+import java.lang.ref.*;
 import java.util.*;
 
 import javax.swing.*;
@@ -43,13 +44,6 @@
 public class MetaUIContact
     extends UIContactImpl
 {
-    /**
-     * The key of the user data in <tt>MetaContact</tt> which specifies
-     * the avatar cached from previous invocations.
-     */
-    private static final String AVATAR_DATA_KEY
-        = MetaUIContact.class.getName() + ".avatar";
-
     /**
      * A list of all search strings available for the underlying
      * <tt>MetaContact</tt>.
@@ -78,6 +72,26 @@
      */
     boolean subscribed = false;
 
+    /**
+     * Whether the avatar of the underlying <tt>MetaContact</tt> has been
+     * loaded.
+     */
+    private volatile boolean avatarLoaded = false;
+
+    /**
+     * The avatar of the underlying <tt>MetaContact</tt> once loaded,
+     * <tt>null</tt> if it has none. Softly referenced like the one of the
+     * <tt>MetaContact</tt>, the scaled icons are kept by
+     * <tt>AvatarImageCache</tt>.
+     */
+    private volatile SoftReference<byte[]> avatar;
+
+    /**
+     * Whether the avatar of the underlying <tt>MetaContact</tt> is being
+     * loaded or has been loaded.
+     */
+    private boolean avatarLoading = false;
+
     /**
      * Creates an instance of <tt>MetaUIContact</tt> by specifying the
      * underlying <tt>MetaContact</tt>, on which it's based.
@@ -332,7 +346,22 @@ public byte[] getAvatar()
     public ImageIcon getScaledAvatar(
         boolean isSelected, int width, int height)
     {
-        byte[] avatarBytes = metaContact.getAvatar(true);
+        // The avatar may have to be read from the avatar cache files, which
+        // we don't do while painting. It is loaded again in the background
+        // once it has been collected and left out meanwhile.
+        byte[] avatarBytes = null;
+        if (avatarLoaded)
+        {
+            SoftReference<byte[]> avatarRef = avatar;
+            if (avatarRef != null)
+            {
+                avatarBytes = avatarRef.get();
+                if (avatarBytes == null)
+                    reloadAvatar();
+            }
+        }
+        else
+            loadAvatar();
 
         // If there's no avatar we have nothing more to do here.
         if((avatarBytes == null) || (avatarBytes.length <= 0))
@@ -347,40 +376,63 @@ public ImageIcon getScaledAvatar(
             return null;
         }
 
-        // If the cell is selected we return a zoomed version of the avatar
-        // image.
-        if (isSelected)
-            return ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-
-        // In any other case try to get the avatar from the cache.
-        Object[] avatarCache
-            = (Object[]) metaContact.getData(AVATAR_DATA_KEY);
-        ImageIcon avatar = null;
+        // Scaled avatars are shared by size, a missing one is scaled in the
+        // background and the contact repainted once it is ready.
+        return AvatarImageCache.getIcon(
+            avatarBytes, width, height, AvatarImageCache.Shape.ROUNDED,
+            new Runnable()
+            {
+                public void run()
+                {
+                    refreshContact();
+                }
+            });
+    }
 
-        if ((avatarCache != null) && (avatarCache[0] == avatarBytes))
-            avatar = (ImageIcon) avatarCache[1];
+    /**
+     * Loads the avatar of the underlying <tt>MetaContact</tt> in the
+     * background and repaints the contact when done.
+     */
+    private synchronized void loadAvatar()
+    {
+        if (avatarLoading)
+            return;
+        avatarLoading = true;
 
-        // If the avatar isn't available or it's not up-to-date, create it.
-        if (avatar == null)
+        AvatarImageCache.execute(new Runnable()
         {
-            avatar = ImageUtils.getScaledRoundedIcon(avatarBytes, width, height);
-        }
+            public void run()
+            {
+                byte[] avatarBytes = metaContact.getAvatar(true);
+                avatar = ((avatarBytes == null) || (avatarBytes.length <= 0))
+                    ? null
+                    : new SoftReference<byte[]>(avatarBytes);
+                avatarLoaded = true;
+                refreshContact();
+            }
+        });
+    }
 
-        // Cache the avatar in case it has changed.
-        if (avatarCache == null)
-        {
-            if (avatar != null)
-                metaContact.setData(
-                    AVATAR_DATA_KEY,
-                    new Object[] { avatarBytes, avatar });
-        }
-        else
-        {
-            avatarCache[0] = avatarBytes;
-            avatarCache[1] = avatar;
-        }
+    /**
+     * Loads the avatar of the underlying <tt>MetaContact</tt> again in the
+     * background, because it has been collected or it has changed.
+     */
+    synchronized void reloadAvatar()
+    {
+        avatarLoaded = false;
+        avatarLoading = false;
+        loadAvatar();
+    }
+
+    /**
+     * Repaints this contact in the contact list.
+     */
+    private void refreshContact()
+    {
+        TreeContactList contactList = GuiActivator.getContactList();
 
-        return avatar;
+        if (contactList != null)
+            contactList.refreshContact(this);
     }
 
     /**
@@ -0,0 +1,446 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.*;
+
+import net.java.sip.communicator.plugin.desktoputil.*;
+
+/**
+ * Scales avatars once per size and shape and shares the scaled icons between
+ * the contact list, the chat and the call panels. Icons are keyed by a digest
+ * of the avatar bytes, so that the same avatar held in different arrays maps
+ * to the same entry. The least recently used icons are dropped once their
+ * pixels exceed {@link #MAX_CACHED_PIXELS}.
+ * <p>
+ * Renderers painting many avatars use {@link #getIcon(byte[], int, int,
+ * Shape, Runnable)}, which decodes and scales missing icons on a worker
+ * thread and runs a callback in the event dispatching thread once the icon is
+ * ready, so that the caller can paint a placeholder and repaint later.
+ * </p>
+ */
+public class AvatarImageCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>AvatarImageCache</tt> class for
+     * logging output.
+     */
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(AvatarImageCache.class);
+
+    /**
+     * The shapes avatars are cropped to.
+     */
+    public enum Shape
+    {
+        /**
+         * A rectangle with rounded corners.
+         */
+        ROUNDED,
+
+        /**
+         * An ellipse.
+         */
+        ELLIPTICAL
+    }
+
+    /**
+     * The maximum number of pixels of all cached icons, roughly 16 MB.
+     */
+    static final long MAX_CACHED_PIXELS = 4L * 1024 * 1024;
+
+    /**
+     * The number of threads decoding and scaling avatars.
+     */
+    static final int WORKER_COUNT = 2;
+
+    /**
+     * Cached in place of the icon of an avatar which cannot be decoded, so
+     * that it is not decoded again every time it is painted.
+     */
+    private static final ImageIcon UNDECODABLE = new ImageIcon();
+
+    /**
+     * The scaled icons in least recently used order.
+     */
+    private static final LinkedHashMap<Key, ImageIcon> icons
+        = new LinkedHashMap<Key, ImageIcon>(64, 0.75f, true);
+
+    /**
+     * The number of pixels of the icons in {@link #icons}.
+     */
+    private static long cachedPixels = 0;
+
+    /**
+     * The digests of the avatar arrays seen recently. Arrays do not override
+     * <tt>equals</tt>, so the map is keyed by identity and forgets an array
+     * once it is no longer used.
+     */
+    private static final Map<byte[], String> digests
+        = new WeakHashMap<byte[], String>();
+
+    /**
+     * The callbacks waiting for the icons being decoded on a worker.
+     */
+    private static final Map<Key, List<Runnable>> pending
+        = new HashMap<Key, List<Runnable>>();
+
+    /**
+     * The workers decoding and scaling avatars.
+     */
+    private static ExecutorService workers;
+
+    /**
+     * Returns the scaled icon of an avatar, decoding and scaling it in the
+     * calling thread if it is not cached.
+     *
+     * @param avatar the bytes of the avatar image.
+     * @param width the maximum width of the icon.
+     * @param height the maximum height of the icon.
+     * @return the rounded scaled icon or <tt>null</tt> if <tt>avatar</tt> is
+     * empty or cannot be decoded.
+     */
+    public static ImageIcon getIcon(byte[] avatar, int width, int height)
+    {
+        return getIcon(avatar, width, height, Shape.ROUNDED);
+    }
+
+    /**
+     * Returns the scaled icon of an avatar, decoding and scaling it in the
+     * calling thread if it is not cached.
+     *
+     * @param avatar the bytes of the avatar image.
+     * @param width the maximum width of the icon.
+     * @param height the maximum height of the icon.
+     * @param shape the shape to crop the icon to.
+     * @return the scaled icon or <tt>null</tt> if <tt>avatar</tt> is empty or
+     * cannot be decoded.
+     */
+    public static ImageIcon getIcon(
+        byte[] avatar, int width, int height, Shape shape)
+    {
+        if (avatar == null || avatar.length == 0)
+            return null;
+
+        Key key = new Key(digest(avatar), width, height, shape);
+        ImageIcon icon = getCached(key);
+
+        if (icon == null)
+        {
+            icon = scale(avatar, width, height, shape);
+            put(key, icon);
+        }
+        return (icon == UNDECODABLE) ? null : icon;
+    }
+
+    /**
+     * Returns the scaled icon of an avatar if it is cached, otherwise
+     * schedules its decoding on a worker thread and returns <tt>null</tt>.
+     *
+     * @param avatar the bytes of the avatar image.
+     * @param width the maximum width of the icon.
+     * @param height the maximum height of the icon.
+     * @param shape the shape to crop the icon to.
+     * @param onReady run in the event dispatching thread once the icon is
+     * cached, may be <tt>null</tt>. It is not run if the avatar cannot be
+     * decoded.
+     * @return the cached icon or <tt>null</tt> if it is not ready yet or the
+     * avatar cannot be decoded.
+     */
+    public static ImageIcon getIcon(
+        final byte[] avatar,
+        final int width,
+        final int height,
+        final Shape shape,
+        Runnable onReady)
+    {
+        if (avatar == null || avatar.length == 0)
+            return null;
+
+        final Key key = new Key(digest(avatar), width, height, shape);
+        ImageIcon icon = getCached(key);
+
+        if (icon != null)
+            return (icon == UNDECODABLE) ? null : icon;
+
+        synchronized (pending)
+        {
+            List<Runnable> callbacks = pending.get(key);
+            if (callbacks != null)
+            {
+                if (onReady != null)
+                    callbacks.add(onReady);
+                return null;
+            }
+
+            callbacks = new ArrayList<Runnable>(1);
+            if (onReady != null)
+                callbacks.add(onReady);
+            pending.put(key, callbacks);
+        }
+
+        execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ImageIcon icon = null;
+                try
+                {
+                    icon = scale(avatar, width, height, shape);
+                    put(key, icon);
+                }
+                finally
+                {
+                    final List<Runnable> callbacks;
+                    synchronized (pending)
+                    {
+                        callbacks = pending.remove(key);
+                    }
+
+                    // there is nothing new to paint for an undecodable
+                    // avatar, repainting would only schedule it again
+                    if (icon != null
+                            && callbacks != null
+                            && !callbacks.isEmpty())
+                    {
+                        SwingUtilities.invokeLater(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                for (Runnable callback : callbacks)
+                                    callback.run();
+                            }
+                        });
+                    }
+                }
+            }
+        });
+
+        return null;
+    }
+
+    /**
+     * Runs a task on the avatar workers, for loading avatar bytes from a
+     * slow source before they are scaled.
+     *
+     * @param task the task to run.
+     */
+    public static void execute(Runnable task)
+    {
+        getWorkers().execute(task);
+    }
+
+    /**
+     * Returns the cached icon for a key.
+     *
+     * @param key the key of the icon.
+     * @return the icon or <tt>null</tt> if it is not cached.
+     */
+    private static ImageIcon getCached(Key key)
+    {
+        synchronized (icons)
+        {
+            return icons.get(key);
+        }
+    }
+
+    /**
+     * Caches an icon, dropping the least recently used ones when the cache
+     * grows too large.
+     *
+     * @param key the key of the icon.
+     * @param icon the icon or <tt>null</tt> if the avatar cannot be decoded.
+     */
+    private static void put(Key key, ImageIcon icon)
+    {
+        if (icon == null)
+            icon = UNDECODABLE;
+
+        synchronized (icons)
+        {
+            ImageIcon old = icons.put(key, icon);
+            if (old != null)
+                cachedPixels -= pixels(old);
+            cachedPixels += pixels(icon);
+
+            Iterator<ImageIcon> iter = icons.values().iterator();
+            while (cachedPixels > MAX_CACHED_PIXELS && iter.hasNext())
+            {
+                cachedPixels -= pixels(iter.next());
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached icons.
+     *
+     * @return the number of cached icons.
+     */
+    static int size()
+    {
+        synchronized (icons)
+        {
+            return icons.size();
+        }
+    }
+
+    /**
+     * Returns the number of pixels of an icon.
+     *
+     * @param icon the icon.
+     * @return the number of pixels of <tt>icon</tt>.
+     */
+    private static long pixels(ImageIcon icon)
+    {
+        return (long) Math.max(icon.getIconWidth(), 1)
+            * Math.max(icon.getIconHeight(), 1);
+    }
+
+    /**
+     * Decodes and scales an avatar.
+     *
+     * @param avatar the bytes of the avatar image.
+     * @param width the maximum width of the icon.
+     * @param height the maximum height of the icon.
+     * @param shape the shape to crop the icon to.
+     * @return the scaled icon or <tt>null</tt> if it cannot be decoded.
+     */
+    private static ImageIcon scale(
+        byte[] avatar, int width, int height, Shape shape)
+    {
+        return (shape == Shape.ELLIPTICAL)
+            ? ImageUtils.getScaledEllipticalIcon(avatar, width, height)
+            : ImageUtils.getScaledRoundedIcon(avatar, width, height);
+    }
+
+    /**
+     * Returns the digest of the content of an avatar, computing it only once
+     * per array.
+     *
+     * @param avatar the bytes of the avatar image.
+     * @return the digest of <tt>avatar</tt>.
+     */
+    private static String digest(byte[] avatar)
+    {
+        synchronized (digests)
+        {
+            String digest = digests.get(avatar);
+            if (digest != null)
+                return digest;
+        }
+
+        String digest;
+        try
+        {
+            byte[] hash
+                = MessageDigest.getInstance("SHA-1").digest(avatar);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                hex.append(String.format("%02x", b & 0xff));
+            digest = hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            logger.warn("SHA-1 not available, keying avatars by content", e);
+            digest = avatar.length + ":" + Arrays.hashCode(avatar);
+        }
+
+        synchronized (digests)
+        {
+            digests.put(avatar, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Returns the workers decoding and scaling avatars.
+     *
+     * @return the executor of the workers.
+     */
+    private static synchronized ExecutorService getWorkers()
+    {
+        if (workers == null)
+        {
+            workers = Executors.newFixedThreadPool(
+                WORKER_COUNT,
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "Avatar renderer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return workers;
+    }
+
+    /**
+     * The key of a scaled icon: the digest of the avatar, the size and the
+     * shape.
+     */
+    private static class Key
+    {
+        private final String digest;
+
+        private final int width;
+
+        private final int height;
+
+        private final Shape shape;
+
+        Key(String digest, int width, int height, Shape shape)
+        {
+            this.digest = digest;
+            this.width = width;
+            this.height = height;
+            this.shape = shape;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+
+            Key other = (Key) o;
+            return width == other.width
+                && height == other.height
+                && shape == other.shape
+                && digest.equals(other.digest);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((digest.hashCode() * 31 + width) * 31 + height) * 31
+                + shape.hashCode();
+        }
+    }
+}
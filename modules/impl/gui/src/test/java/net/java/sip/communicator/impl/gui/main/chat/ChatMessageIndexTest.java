@@ -0,0 +1,174 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import javax.swing.*;
+import javax.swing.text.*;
+import javax.swing.text.html.*;
+
+import junit.framework.*;
+
+/**
+ * Tests for the ChatMessageIndex, on its own and with the document laid out
+ * in an editor pane.
+ */
+public class ChatMessageIndexTest
+    extends TestCase
+{
+    private HTMLDocument document;
+
+    private ChatMessageIndex index;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        document = (HTMLDocument) new HTMLEditorKit().createDefaultDocument();
+        Element root = document.getDefaultRootElement();
+        document.insertBeforeEnd(
+            root.getElement(root.getElementCount() - 1),
+            "<div id=\"start\"></div>");
+        index = new ChatMessageIndex(document);
+    }
+
+    private static String message(int i)
+    {
+        return "<div id=\"" + ChatHtmlUtils.MESSAGE_TEXT_ID + i
+            + "\">message " + i + "</div>";
+    }
+
+    private void append(int i)
+        throws Exception
+    {
+        Element root = document.getDefaultRootElement();
+        Element body = root.getElement(root.getElementCount() - 1);
+        document.insertBeforeEnd(body, message(i));
+        index.elementAppended(ChatHtmlUtils.MESSAGE_TEXT_ID + i, body);
+    }
+
+    public void testLookup()
+        throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+            append(i);
+
+        Element e = index.getElement(ChatHtmlUtils.MESSAGE_TEXT_ID + 5);
+        assertNotNull(e);
+        assertSame(e, index.getElement(ChatHtmlUtils.MESSAGE_TEXT_ID + 5));
+        assertNull(index.getElement(ChatHtmlUtils.MESSAGE_TEXT_ID + 42));
+        assertEquals(10, index.size());
+    }
+
+    public void testReplacedElement()
+        throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+            append(i);
+
+        String id = ChatHtmlUtils.MESSAGE_TEXT_ID + 3;
+        Element old = index.getElement(id);
+        Element parent = old.getParentElement();
+        document.setOuterHTML(old,
+            "<div id=\"" + id + "\">corrected</div>");
+
+        Element replaced = index.elementReplaced(id, parent);
+        assertNotNull(replaced);
+        assertNotSame(old, replaced);
+        assertSame(replaced, index.getElement(id));
+        assertEquals("corrected", document.getText(
+            replaced.getStartOffset(),
+            replaced.getEndOffset() - replaced.getStartOffset()).trim());
+    }
+
+    public void testRemovedElement()
+        throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+            append(i);
+
+        String id = ChatHtmlUtils.MESSAGE_TEXT_ID + 0;
+        Element e = index.getElement(id);
+        document.removeElement(e);
+
+        assertNull(index.getElement(id));
+    }
+
+    /**
+     * Appends 1,000 messages the way the conversation panel does, to a
+     * document shown in an editor pane, looking up the previous message for
+     * each one and laying out the pane after each append like scrolling to
+     * the bottom does. Measures the time spent in the event dispatching
+     * thread, which must stay below ten seconds per 1,000 messages even
+     * though the whole pane is laid out again after every message.
+     */
+    public void testAppendThousandMessagesToLaidOutPane()
+        throws Exception
+    {
+        final Exception[] failure = new Exception[1];
+        final long[] elapsed = new long[1];
+
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    JEditorPane pane = new JEditorPane();
+                    pane.setEditorKit(new HTMLEditorKit());
+                    pane.setDocument(document);
+                    pane.setSize(400, 300);
+
+                    int previousHeight = 0;
+                    long start = System.nanoTime();
+                    for (int i = 0; i < 1000; i++)
+                    {
+                        if (i > 0)
+                            assertNotNull(index.getElement(
+                                ChatHtmlUtils.MESSAGE_TEXT_ID + (i - 1)));
+                        append(i);
+
+                        pane.setSize(
+                            pane.getWidth(),
+                            pane.getPreferredSize().height);
+                        assertNotNull(
+                            pane.modelToView2D(document.getLength()));
+
+                        if (i % 100 == 99)
+                        {
+                            assertTrue(pane.getHeight() > previousHeight);
+                            previousHeight = pane.getHeight();
+                        }
+                    }
+                    elapsed[0] = System.nanoTime() - start;
+
+                    assertEquals(1000, index.size());
+                }
+                catch (Exception e)
+                {
+                    failure[0] = e;
+                }
+            }
+        });
+
+        if (failure[0] != null)
+            throw failure[0];
+
+        long ms = elapsed[0] / 1000000;
+        assertTrue("EDT time for 1000 messages: " + ms + " ms", ms < 10000);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat;
+
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests for the smiley automaton of the ReplacementMatcher.
+ */
+public class ReplacementMatcherTest
+    extends TestCase
+{
+    private final ReplacementMatcher.StringsAutomaton automaton
+        = new ReplacementMatcher.StringsAutomaton(Arrays.asList(
+            ":(", ":((", ":-(", ":-((", ":)", ":-)", ";)", "(lol)", "(n)",
+            "lo"));
+
+    private List<String> find(String text)
+    {
+        List<String> found = new ArrayList<String>();
+        for (int[] m : automaton.findAll(text))
+            found.add(text.substring(m[0], m[1]));
+        return found;
+    }
+
+    public void testNoMatch()
+    {
+        assertTrue(find("").isEmpty());
+        assertTrue(find("plain text without smileys").isEmpty());
+    }
+
+    public void testSingleMatches()
+    {
+        assertEquals(Arrays.asList(":)"), find(":)"));
+        assertEquals(Arrays.asList(":-)"), find("hi :-) there"));
+        assertEquals(Arrays.asList("(n)"), find("(n)"));
+    }
+
+    public void testLongestMatchWins()
+    {
+        assertEquals(Arrays.asList(":(("), find("oh :(("));
+        assertEquals(Arrays.asList(":-(("), find(":-(("));
+        assertEquals(Arrays.asList("(lol)"), find("(lol)"));
+    }
+
+    public void testLeftmostMatchWins()
+    {
+        // "lo" starts later than "(lol)" and overlaps it
+        assertEquals(Arrays.asList("(lol)"), find("x(lol)x"));
+        assertEquals(Arrays.asList("lo", "(lol)"), find("lo (lol)"));
+    }
+
+    public void testMultipleMatches()
+    {
+        assertEquals(Arrays.asList(":)", ";)", ":-("),
+            find(":) and ;) but :-( then"));
+        assertEquals(Arrays.asList(":)", ":)"), find(":):)"));
+    }
+
+    public void testMatchAfterFailedPrefix()
+    {
+        // ":-" is a prefix of several strings but not followed by one
+        assertEquals(Arrays.asList(":)"), find(":-x:)"));
+        assertEquals(Arrays.asList(":("), find("::("));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.chat.conference;
+
+import java.util.*;
+
+import javax.swing.*;
+import javax.swing.event.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.impl.gui.main.chat.*;
+
+/**
+ * Tests for adding the members of a chat room to the ChatContactListModel
+ * and a rough measurement of the time needed to show the member list of a
+ * room with 10,000 members.
+ */
+public class ChatContactListModelTest
+    extends TestCase
+{
+    private static final int LARGE_ROOM_SIZE = 10000;
+
+    private ChatContactListModel model;
+
+    private int events;
+
+    @Override
+    protected void setUp()
+    {
+        model = new ChatContactListModel(new TestChatSession());
+        model.addListDataListener(new ListDataListener()
+        {
+            public void intervalAdded(ListDataEvent e)
+            {
+                events++;
+            }
+
+            public void intervalRemoved(ListDataEvent e)
+            {
+                events++;
+            }
+
+            public void contentsChanged(ListDataEvent e)
+            {
+                events++;
+            }
+        });
+    }
+
+    private static List<ChatContact<?>> contacts(String... names)
+    {
+        List<ChatContact<?>> contacts = new ArrayList<ChatContact<?>>();
+        for (String name : names)
+            contacts.add(new TestChatContact(name));
+        return contacts;
+    }
+
+    private List<String> names()
+    {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < model.getSize(); i++)
+            names.add(model.getElementAt(i).getName());
+        return names;
+    }
+
+    public void testAddElementsSorted()
+    {
+        model.addElements(contacts("carol", "alice", "bob"));
+
+        assertEquals(Arrays.asList("alice", "bob", "carol"), names());
+        assertEquals(1, events);
+    }
+
+    public void testAddElementsToExisting()
+    {
+        model.addElement(new TestChatContact("bob"));
+        events = 0;
+
+        model.addElements(contacts("dave", "alice", "bob", "alice"));
+
+        assertEquals(Arrays.asList("alice", "bob", "dave"), names());
+        // the existing rows may have moved, then the new ones are appended
+        assertEquals(2, events);
+    }
+
+    public void testAddElementsNothingNew()
+    {
+        model.addElements(contacts("alice", "bob"));
+        events = 0;
+
+        model.addElements(contacts("bob"));
+
+        assertEquals(2, model.getSize());
+        assertEquals(0, events);
+    }
+
+    /**
+     * Lists the members of a room with 10,000 members, once one member at a
+     * time and once at once, and checks that listing them at once takes
+     * less time in the event dispatching thread, and less than a second.
+     */
+    public void testJoinLargeRoom()
+        throws Exception
+    {
+        final List<ChatContact<?>> members
+            = new ArrayList<ChatContact<?>>(LARGE_ROOM_SIZE);
+        for (int i = 0; i < LARGE_ROOM_SIZE; i++)
+            members.add(new TestChatContact("member" + ((i * 7919) % 100003)));
+
+        final long[] elapsed = new long[2];
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            public void run()
+            {
+                long start = System.nanoTime();
+                for (ChatContact<?> member : members)
+                    model.addElement(member);
+                elapsed[0] = System.nanoTime() - start;
+
+                model.removeAllElements();
+
+                start = System.nanoTime();
+                model.addElements(members);
+                elapsed[1] = System.nanoTime() - start;
+            }
+        });
+
+        assertEquals(LARGE_ROOM_SIZE, model.getSize());
+        for (int i = 1; i < model.getSize(); i++)
+        {
+            assertTrue(model.getElementAt(i - 1).getName().compareToIgnoreCase(
+                model.getElementAt(i).getName()) < 0);
+        }
+
+        long oneByOne = elapsed[0] / 1000000;
+        long atOnce = elapsed[1] / 1000000;
+        assertTrue("EDT time to list " + LARGE_ROOM_SIZE + " members: "
+                + oneByOne + " ms one by one, " + atOnce + " ms at once",
+            atOnce < oneByOne && atOnce < 1000);
+    }
+
+    private static class TestChatContact
+        extends ChatContact<String>
+    {
+        TestChatContact(String name)
+        {
+            super(name);
+        }
+
+        @Override
+        protected byte[] getAvatarBytes()
+        {
+            return null;
+        }
+
+        @Override
+        public String getName()
+        {
+            return descriptor;
+        }
+
+        @Override
+        public String getUID()
+        {
+            return descriptor;
+        }
+    }
+
+    private static class TestChatSession
+        extends ChatSession
+    {
+        @Override
+        public Object getDescriptor()
+        {
+            return this;
+        }
+
+        @Override
+        public boolean isDescriptorPersistent()
+        {
+            return false;
+        }
+
+        @Override
+        public ChatTransport getCurrentChatTransport()
+        {
+            return null;
+        }
+
+        @Override
+        public ChatSessionRenderer getChatSessionRenderer()
+        {
+            return null;
+        }
+
+        @Override
+        public void setCurrentChatTransport(ChatTransport chatTransport)
+        {
+        }
+
+        @Override
+        public String getChatName()
+        {
+            return "test";
+        }
+
+        @Override
+        public Collection<Object> getHistory(int count)
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Collection<Object> getHistoryBeforeDate(Date date, int count)
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Collection<Object> getHistoryAfterDate(Date date, int count)
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public Date getHistoryStartDate()
+        {
+            return null;
+        }
+
+        @Override
+        public Date getHistoryEndDate()
+        {
+            return null;
+        }
+
+        @Override
+        public String getDefaultSmsNumber()
+        {
+            return null;
+        }
+
+        @Override
+        public void setDefaultSmsNumber(String smsPhoneNumber)
+        {
+        }
+
+        @Override
+        public void dispose()
+        {
+        }
+
+        @Override
+        public ImageIcon getChatStatusIcon()
+        {
+            return null;
+        }
+
+        @Override
+        public byte[] getChatAvatar()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isContactListSupported()
+        {
+            return true;
+        }
+    }
+}
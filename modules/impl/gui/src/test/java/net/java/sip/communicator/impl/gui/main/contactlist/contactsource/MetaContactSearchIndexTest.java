@@ -0,0 +1,249 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.main.contactlist.contactsource;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import junit.framework.*;
+import net.java.sip.communicator.service.contactlist.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * Tests the <tt>MetaContactSearchIndex</tt> as contacts are added, renamed
+ * and removed.
+ */
+public class MetaContactSearchIndexTest
+    extends TestCase
+{
+    private MetaContactSearchIndex index;
+
+    private List<MetaContact> rootContacts;
+
+    private MetaContactGroup root;
+
+    @Override
+    protected void setUp()
+    {
+        index = new MetaContactSearchIndex();
+        rootContacts = new ArrayList<MetaContact>();
+        root = proxy(MetaContactGroup.class, new Object[]
+            {
+                "getChildContacts", rootContacts,
+                "getSubgroups", Collections.emptyList()
+            });
+    }
+
+    /**
+     * Creates a proxy implementing <tt>type</tt> which answers the given
+     * methods with the given values, collections are returned as iterators.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(
+            final Class<T> type,
+            final Object[] answers)
+    {
+        return (T) Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("equals"))
+                        return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+
+                    for (int i = 0; i < answers.length; i += 2)
+                    {
+                        if (name.equals(answers[i]))
+                        {
+                            Object answer = answers[i + 1];
+                            if (answer instanceof Collection)
+                                return new ArrayList<Object>(
+                                    (Collection<Object>) answer).iterator();
+                            return answer;
+                        }
+                    }
+
+                    if (name.equals("toString"))
+                        return type.getSimpleName();
+                    return null;
+                }
+            });
+    }
+
+    private static Contact contact(String displayName, String address)
+    {
+        return proxy(Contact.class, new Object[]
+            {
+                "getDisplayName", displayName,
+                "getAddress", address
+            });
+    }
+
+    /**
+     * A meta contact whose display name can be changed through the
+     * returned array.
+     */
+    private static MetaContact metaContact(
+            final String[] displayName,
+            final List<Contact> contacts)
+    {
+        return (MetaContact) Proxy.newProxyInstance(
+            MetaContact.class.getClassLoader(),
+            new Class<?>[] { MetaContact.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+
+                    if (name.equals("equals"))
+                        return proxy == args[0];
+                    if (name.equals("hashCode"))
+                        return System.identityHashCode(proxy);
+                    if (name.equals("getDisplayName")
+                            || name.equals("toString"))
+                        return displayName[0];
+                    if (name.equals("getContacts"))
+                        return new ArrayList<Contact>(contacts).iterator();
+                    return null;
+                }
+            });
+    }
+
+    private MetaContact addToRoot(String displayName, Contact... contacts)
+    {
+        MetaContact metaContact = metaContact(
+            new String[] { displayName }, Arrays.asList(contacts));
+        rootContacts.add(metaContact);
+        return metaContact;
+    }
+
+    public void testBuildAndSearch()
+    {
+        MetaContact alice = addToRoot("Alice Liddell",
+            contact("alice", "alice@example.com"));
+        MetaContact bob = addToRoot("Bob",
+            contact("Bobby", "+1 (555) 010-2030"));
+        MetaContact carol = addToRoot("Carol",
+            contact("carol", "carol@example.org"));
+
+        index.ensureBuilt(root);
+
+        assertEquals(Arrays.asList(alice), index.search("LIDD"));
+        assertEquals(Arrays.asList(alice, carol), index.search("example"));
+        assertEquals(Arrays.asList(bob), index.search("bobb"));
+        // phone numbers match with and without separators
+        assertEquals(Arrays.asList(bob), index.search("5550102"));
+        assertEquals(Arrays.asList(bob), index.search("555-0102"));
+        // shorter than a trigram
+        assertEquals(Arrays.asList(alice, bob, carol), index.search("o"));
+        assertTrue(index.search("nobody").isEmpty());
+    }
+
+    public void testResultsInIndexedOrder()
+    {
+        List<MetaContact> expected = new ArrayList<MetaContact>();
+        for (int i = 0; i < 50; i++)
+            expected.add(addToRoot("Contact " + i,
+                contact("user" + i, "user" + i + "@example.com")));
+
+        index.ensureBuilt(root);
+
+        assertEquals(expected, index.search("example.com"));
+        assertEquals(expected, index.search("user"));
+    }
+
+    public void testAdd()
+    {
+        MetaContact alice = addToRoot("Alice",
+            contact("alice", "alice@example.com"));
+        index.ensureBuilt(root);
+
+        List<Contact> contacts = new ArrayList<Contact>();
+        contacts.add(contact("dave", "dave@example.com"));
+        MetaContact dave = metaContact(new String[] { "Dave" }, contacts);
+        index.update(dave);
+
+        assertEquals(Arrays.asList(dave), index.search("dave"));
+        assertEquals(Arrays.asList(alice, dave), index.search("example"));
+    }
+
+    public void testUpdateBeforeBuildIsIgnored()
+    {
+        MetaContact alice = metaContact(
+            new String[] { "Alice" }, Collections.<Contact>emptyList());
+        index.update(alice);
+        index.ensureBuilt(root);
+
+        assertTrue(index.search("alice").isEmpty());
+    }
+
+    public void testRename()
+    {
+        String[] name = new String[] { "Alice" };
+        MetaContact alice = metaContact(name,
+            Arrays.asList(contact("al", "al@example.com")));
+        rootContacts.add(alice);
+        MetaContact bob = addToRoot("Bob",
+            contact("bob", "bob@example.com"));
+        index.ensureBuilt(root);
+
+        name[0] = "Zelda";
+        index.update(alice);
+
+        assertTrue(index.search("alice").isEmpty());
+        assertEquals(Arrays.asList(alice), index.search("zelda"));
+        // a renamed contact keeps its position
+        assertEquals(Arrays.asList(alice, bob), index.search("example"));
+    }
+
+    public void testRemove()
+    {
+        MetaContact alice = addToRoot("Alice",
+            contact("alice", "alice@example.com"));
+        MetaContact bob = addToRoot("Bob",
+            contact("bob", "bob@example.com"));
+        index.ensureBuilt(root);
+
+        index.remove(alice);
+
+        assertTrue(index.search("alice").isEmpty());
+        assertEquals(Arrays.asList(bob), index.search("example"));
+        assertEquals(Arrays.asList(bob), index.search("o"));
+    }
+
+    public void testInvalidate()
+    {
+        addToRoot("Alice", contact("alice", "alice@example.com"));
+        index.ensureBuilt(root);
+
+        MetaContact bob = addToRoot("Bob",
+            contact("bob", "bob@example.com"));
+        assertTrue(index.search("bob").isEmpty());
+
+        index.invalidate();
+        index.ensureBuilt(root);
+        assertEquals(Arrays.asList(bob), index.search("bob"));
+    }
+}
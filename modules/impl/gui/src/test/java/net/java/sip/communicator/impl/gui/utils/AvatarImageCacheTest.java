@@ -0,0 +1,189 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.gui.utils;
+
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.imageio.*;
+import javax.swing.*;
+
+import junit.framework.*;
+
+/**
+ * Tests for the AvatarImageCache.
+ */
+public class AvatarImageCacheTest
+    extends TestCase
+{
+    private static byte[] createAvatar(int rgb)
+        throws IOException
+    {
+        BufferedImage image
+            = new BufferedImage(96, 96, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < 96; x++)
+            for (int y = 0; y < 96; y++)
+                image.setRGB(x, y, rgb);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    public void testSharedBySizeAndContent()
+        throws Exception
+    {
+        byte[] avatar = createAvatar(0x336699);
+
+        ImageIcon icon = AvatarImageCache.getIcon(avatar, 30, 30);
+        assertNotNull(icon);
+        assertSame(icon, AvatarImageCache.getIcon(avatar, 30, 30));
+        assertSame(icon,
+            AvatarImageCache.getIcon(Arrays.copyOf(avatar, avatar.length),
+                30, 30));
+
+        ImageIcon larger = AvatarImageCache.getIcon(avatar, 64, 64);
+        assertNotNull(larger);
+        assertNotSame(icon, larger);
+
+        assertNotSame(icon,
+            AvatarImageCache.getIcon(avatar, 30, 30,
+                AvatarImageCache.Shape.ELLIPTICAL));
+    }
+
+    public void testEmptyAvatar()
+    {
+        assertNull(AvatarImageCache.getIcon(null, 30, 30));
+        assertNull(AvatarImageCache.getIcon(new byte[0], 30, 30));
+    }
+
+    public void testAsynchronousScaling()
+        throws Exception
+    {
+        byte[] avatar = createAvatar(0x996633);
+        final CountDownLatch ready = new CountDownLatch(1);
+        final boolean[] onEdt = new boolean[1];
+
+        ImageIcon icon = AvatarImageCache.getIcon(
+            avatar, 41, 41, AvatarImageCache.Shape.ROUNDED,
+            new Runnable()
+            {
+                public void run()
+                {
+                    onEdt[0] = SwingUtilities.isEventDispatchThread();
+                    ready.countDown();
+                }
+            });
+
+        assertNull(icon);
+        assertTrue(ready.await(10, TimeUnit.SECONDS));
+        assertTrue(onEdt[0]);
+        assertNotNull(AvatarImageCache.getIcon(
+            avatar, 41, 41, AvatarImageCache.Shape.ROUNDED, null));
+    }
+
+    /**
+     * Waits until the avatar tasks scheduled so far have completed and their
+     * callbacks have run in the event dispatching thread.
+     */
+    private static void awaitWorkers()
+        throws Exception
+    {
+        final CyclicBarrier idle
+            = new CyclicBarrier(AvatarImageCache.WORKER_COUNT + 1);
+
+        for (int i = 0; i < AvatarImageCache.WORKER_COUNT; i++)
+        {
+            AvatarImageCache.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        idle.await();
+                    }
+                    catch (Exception e)
+                    {
+                    }
+                }
+            });
+        }
+        idle.await(10, TimeUnit.SECONDS);
+        SwingUtilities.invokeAndWait(new Runnable()
+        {
+            public void run()
+            {
+            }
+        });
+    }
+
+    /**
+     * An avatar which cannot be decoded is remembered as such, neither
+     * decoded again nor reported as ready, which would repaint it forever.
+     */
+    public void testUndecodableAvatar()
+        throws Exception
+    {
+        byte[] avatar = "not an image".getBytes("UTF-8");
+        final AtomicInteger ready = new AtomicInteger();
+        Runnable onReady = new Runnable()
+        {
+            public void run()
+            {
+                ready.incrementAndGet();
+            }
+        };
+
+        assertNull(AvatarImageCache.getIcon(
+            avatar, 43, 43, AvatarImageCache.Shape.ROUNDED, onReady));
+        awaitWorkers();
+        assertEquals(0, ready.get());
+
+        int size = AvatarImageCache.size();
+        assertNull(AvatarImageCache.getIcon(
+            avatar, 43, 43, AvatarImageCache.Shape.ROUNDED, onReady));
+        assertNull(AvatarImageCache.getIcon(avatar, 43, 43));
+        awaitWorkers();
+        assertEquals(0, ready.get());
+        assertEquals(size, AvatarImageCache.size());
+    }
+
+    /**
+     * Scales many distinct avatars and checks that the pixels kept stay
+     * within the bound.
+     */
+    public void testBoundedMemory()
+        throws Exception
+    {
+        byte[] avatar = createAvatar(0x123456);
+        int size = 512;
+        long count = AvatarImageCache.MAX_CACHED_PIXELS / (size * size) + 4;
+
+        for (int i = 0; i < count; i++)
+        {
+            byte[] copy = Arrays.copyOf(avatar, avatar.length + 1);
+            copy[copy.length - 1] = (byte) i;
+            AvatarImageCache.getIcon(copy, size, size);
+        }
+
+        assertTrue(AvatarImageCache.size() < count);
+    }
+}
@@ -24,11 +24,18 @@
 import net.java.sip.communicator.service.protocol.*;
 import org.jitsi.service.configuration.*;
 
-import java.util.regex.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Implements <tt>PhoneNumberI18nService</tt> which aids the parsing, formatting
  * and validating of international phone numbers.
+ * <p>
+ * Normalization is done in a single pass through a character table. The
+ * results of parsing numbers with <tt>PhoneNumberUtil</tt> are kept in
+ * bounded caches, as the contact sources ask for the same numbers on every
+ * query.
+ * </p>
  *
  * @author Lyubomir Marinov
  * @author Vincent Lucas
@@ -38,70 +45,80 @@
     implements PhoneNumberI18nService
 {
     /**
-     * The configuration service.
+     * The maximum number of entries in each of the caches.
      */
-    private ConfigurationService configService;
+    private static final int MAX_CACHE_SIZE = 100000;
 
     /**
-     * Characters which have to be removed from a phone number in order to
-     * normalized it.
+     * Marks in {@link #parsedNumbers} a number which cannot be parsed without
+     * a default region.
      */
-    private static final Pattern removedCharactersToNormalizedPhoneNumber
-        = Pattern.compile("[-\\(\\)\\.\\\\\\/ ]");
+    private static final Object NOT_PARSEABLE = new Object();
 
     /**
-     * Characters which have to be removed from a number (which is not a phone
-     * number, such as a sip id, a jabber id, etc.) in order to normalized it.
+     * The character a phone number character is normalized to: a digit for
+     * the letters of the dial pad, <tt>0</tt> for the characters to remove,
+     * otherwise the character itself.
      */
-    private static final Pattern removedCharactersToNormalizedIdentifier
-        = Pattern.compile("[\\(\\) ]");
+    private static final char[] PHONE_NUMBER_TABLE = new char[128];
 
     /**
-     * The list of characters corresponding to the number 2 in a phone dial pad.
-     */
-    private static final Pattern charactersFordialPadNumber2
-        = Pattern.compile("[abc]", Pattern.CASE_INSENSITIVE);
-    /**
-     * The list of characters corresponding to the number 3 in a phone dial pad.
+     * The characters to remove from an identifier (which is not a phone
+     * number, such as a sip id, a jabber id, etc.) to normalize it.
      */
-    private static final Pattern charactersFordialPadNumber3
-        = Pattern.compile("[def]", Pattern.CASE_INSENSITIVE);
+    private static final String IDENTIFIER_REMOVED_CHARACTERS = "() ";
 
-    /**
-     * The list of characters corresponding to the number 4 in a phone dial pad.
-     */
-    private static final Pattern charactersFordialPadNumber4
-        = Pattern.compile("[ghi]", Pattern.CASE_INSENSITIVE);
+    static
+    {
+        for (char c = 0; c < PHONE_NUMBER_TABLE.length; c++)
+            PHONE_NUMBER_TABLE[c] = c;
+
+        // the characters of the digits in a phone dial pad
+        String[] dialPad
+            = { "abc", "def", "ghi", "jkl", "mno", "pqrs", "tuv", "wxyz" };
+        for (int i = 0; i < dialPad.length; i++)
+        {
+            for (char c : dialPad[i].toCharArray())
+            {
+                PHONE_NUMBER_TABLE[c] = (char) ('2' + i);
+                PHONE_NUMBER_TABLE[Character.toUpperCase(c)]
+                    = (char) ('2' + i);
+            }
+        }
+
+        for (char c : "-().\\/ ".toCharArray())
+            PHONE_NUMBER_TABLE[c] = 0;
+    }
 
     /**
-     * The list of characters corresponding to the number 5 in a phone dial pad.
+     * The configuration service.
      */
-    private static final Pattern charactersFordialPadNumber5
-        = Pattern.compile("[jkl]", Pattern.CASE_INSENSITIVE);
+    private ConfigurationService configService;
 
     /**
-     * The list of characters corresponding to the number 6 in a phone dial pad.
+     * The numbers parsed without a default region, as the first step of
+     * <tt>PhoneNumberUtil.isNumberMatch</tt>, mapped to the
+     * <tt>PhoneNumber</tt> or to {@link #NOT_PARSEABLE}.
      */
-    private static final Pattern charactersFordialPadNumber6
-        = Pattern.compile("[mno]", Pattern.CASE_INSENSITIVE);
+    private final BoundedCache<Object> parsedNumbers
+        = new BoundedCache<>(MAX_CACHE_SIZE);
 
     /**
-     * The list of characters corresponding to the number 7 in a phone dial pad.
+     * Marks in {@link #matchKeys} a number which has no match key.
      */
-    private static final Pattern charactersFordialPadNumber7
-        = Pattern.compile("[pqrs]", Pattern.CASE_INSENSITIVE);
+    private static final String NO_MATCH_KEY = "";
 
     /**
-     * The list of characters corresponding to the number 8 in a phone dial pad.
+     * The match keys by phone number, or {@link #NO_MATCH_KEY}.
      */
-    private static final Pattern charactersFordialPadNumber8
-        = Pattern.compile("[tuv]", Pattern.CASE_INSENSITIVE);
+    private final BoundedCache<String> matchKeys
+        = new BoundedCache<>(MAX_CACHE_SIZE);
 
     /**
-     * The list of characters corresponding to the number 9 in a phone dial pad.
+     * The numbers formatted for display by phone number.
      */
-    private static final Pattern charactersFordialPadNumber9
-        = Pattern.compile("[wxyz]", Pattern.CASE_INSENSITIVE);
+    private final BoundedCache<String> displayNumbers
+        = new BoundedCache<>(MAX_CACHE_SIZE);
 
     /**
      * Normalizes a <tt>String</tt> which may be a phone number or a identifier
@@ -147,11 +164,27 @@ public String normalize(String possibleNumber)
      *
      * @see net.java.sip.communicator.impl.phonenumbers.PhoneNumberI18nServiceImpl#normalize(String)
      */
-    private static String normalizePhoneNumber(String phoneNumber)
+    static String normalizePhoneNumber(String phoneNumber)
     {
-        phoneNumber = convertAlphaCharactersInNumber(phoneNumber);
-        return removedCharactersToNormalizedPhoneNumber
-            .matcher(phoneNumber).replaceAll("");
+        StringBuilder normalized = null;
+        int length = phoneNumber.length();
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = phoneNumber.charAt(i);
+            char n = c < PHONE_NUMBER_TABLE.length ? PHONE_NUMBER_TABLE[c] : c;
+
+            if (n != c && normalized == null)
+            {
+                normalized = new StringBuilder(length);
+                normalized.append(phoneNumber, 0, i);
+            }
+
+            if (normalized != null && n != 0)
+                normalized.append(n);
+        }
+
+        return normalized == null ? phoneNumber : normalized.toString();
     }
 
     /**
@@ -163,10 +196,28 @@ private static String normalizePhoneNumber(String phoneNumber)
      *
      * @return The normalized identifier.
      */
-    private static String normalizeIdentifier(String id)
+    static String normalizeIdentifier(String id)
     {
-        return removedCharactersToNormalizedIdentifier
-            .matcher(id).replaceAll("");
+        StringBuilder normalized = null;
+        int length = id.length();
+
+        for (int i = 0; i < length; i++)
+        {
+            char c = id.charAt(i);
+            boolean removed = IDENTIFIER_REMOVED_CHARACTERS.indexOf(c) != -1;
+
+            if (removed && normalized == null)
+            {
+                normalized = new StringBuilder(length);
+                normalized.append(id, 0, i);
+            }
+            else if (!removed && normalized != null)
+            {
+                normalized.append(c);
+            }
+        }
+
+        return normalized == null ? id : normalized.toString();
     }
 
     /**
@@ -181,13 +232,112 @@ private static String normalizeIdentifier(String id)
      */
     public boolean phoneNumbersMatch(String aPhoneNumber, String bPhoneNumber)
     {
-        PhoneNumberUtil.MatchType match = PhoneNumberUtil.getInstance()
-            .isNumberMatch(aPhoneNumber, bPhoneNumber);
+        PhoneNumberUtil util = PhoneNumberUtil.getInstance();
+
+        // the same as PhoneNumberUtil.isNumberMatch(String, String) does
+        // first, but without parsing the first number again for every
+        // number it is compared with
+        Object a = parsedNumbers.get(aPhoneNumber);
+        if (a == null)
+        {
+            try
+            {
+                a = util.parse(aPhoneNumber, "ZZ");
+            }
+            catch (NumberParseException e)
+            {
+                a = NOT_PARSEABLE;
+            }
+            parsedNumbers.put(aPhoneNumber, a);
+        }
+
+        PhoneNumberUtil.MatchType match = a == NOT_PARSEABLE
+            ? util.isNumberMatch(aPhoneNumber, bPhoneNumber)
+            : util.isNumberMatch((PhoneNumber) a, bPhoneNumber);
 
         return match != PhoneNumberUtil.MatchType.NOT_A_NUMBER
             && match != PhoneNumberUtil.MatchType.NO_MATCH;
     }
 
+    /**
+     * Returns a key for the given phone number which is equal to the key of
+     * the other writings of the same number: its E.164 form followed by its
+     * extension, if any. The number is parsed the way
+     * {@link #phoneNumbersMatch(String, String)} parses it, without a default
+     * region first, and then for the country of the user so that the
+     * national writings of its numbers get the key of their international
+     * writing.
+     * <p>
+     * Two numbers with the same key always match. The matching is not
+     * transitive though, so numbers which match only as a shortened number,
+     * a number without extension or a national number of another country
+     * than the one of the user have different keys.
+     * </p>
+     *
+     * @param phoneNumber the phone number to get the key for.
+     * @return the key to match <tt>phoneNumber</tt> with or <tt>null</tt> if
+     * it cannot be parsed as a phone number.
+     */
+    public String getMatchKey(String phoneNumber)
+    {
+        String key = matchKeys.get(phoneNumber);
+        if (key != null)
+            return (key == NO_MATCH_KEY) ? null : key;
+
+        PhoneNumberUtil util = PhoneNumberUtil.getInstance();
+        PhoneNumber pn = null;
+        try
+        {
+            pn = util.parse(phoneNumber, "ZZ");
+        }
+        catch (NumberParseException e)
+        {
+            try
+            {
+                pn = util.parse(
+                    phoneNumber, System.getProperty("user.country"));
+            }
+            catch (NumberParseException e1)
+            {
+            }
+        }
+
+        if (pn == null)
+        {
+            key = NO_MATCH_KEY;
+        }
+        else
+        {
+            key = util.format(pn, PhoneNumberFormat.E164);
+            if (pn.hasExtension())
+                key += ";ext=" + pn.getExtension();
+        }
+
+        matchKeys.put(phoneNumber, key);
+        return (key == NO_MATCH_KEY) ? null : key;
+    }
+
+    /**
+     * Returns the keys of many phone numbers at once, see
+     * {@link #getMatchKey(String)}.
+     *
+     * @param phoneNumbers the phone numbers to get the keys for.
+     * @return the keys by phone number, <tt>null</tt> for the numbers which
+     * cannot be parsed.
+     */
+    public Map<String, String> getMatchKeys(Collection<String> phoneNumbers)
+    {
+        Map<String, String> keys = new HashMap<>(phoneNumbers.size() * 2);
+
+        for (String phoneNumber : phoneNumbers)
+        {
+            if (!keys.containsKey(phoneNumber))
+                keys.put(phoneNumber, getMatchKey(phoneNumber));
+        }
+
+        return keys;
+    }
+
     /**
      * Tries to format the passed phone number into the international format. If
      * parsing fails or the string is not recognized as a valid phone number,
@@ -198,13 +348,18 @@ public boolean phoneNumbersMatch(String aPhoneNumber, String bPhoneNumber)
      */
     public String formatForDisplay(String phoneNumber)
     {
+        String formatted = displayNumbers.get(phoneNumber);
+        if (formatted != null)
+            return formatted;
+
+        formatted = phoneNumber;
         try
         {
             PhoneNumber pn = PhoneNumberUtil.getInstance().parse(phoneNumber,
                 System.getProperty("user.country"));
             if (PhoneNumberUtil.getInstance().isPossibleNumber(pn))
             {
-                return PhoneNumberUtil.getInstance().format(pn,
+                formatted = PhoneNumberUtil.getInstance().format(pn,
                     PhoneNumberFormat.INTERNATIONAL);
             }
         }
@@ -212,7 +367,8 @@ public String formatForDisplay(String phoneNumber)
         {
         }
 
-        return phoneNumber;
+        displayNumbers.put(phoneNumber, formatted);
+        return formatted;
     }
 
     /**
@@ -224,62 +380,93 @@ public String formatForDisplay(String phoneNumber)
      */
     public boolean isPhoneNumber(String possibleNumber)
     {
-        // If the string does not contains an "@", this may be a phone number.
-        if(possibleNumber.indexOf('@') == -1)
+        // If the string contains an "@", this is not a phone number.
+        boolean hasAlphaCharacters = false;
+        for (int i = 0; i < possibleNumber.length(); i++)
         {
-            // If the string does not contain any alphabetical characters, then
-            // this is a phone number.
-            if(!possibleNumber.matches(".*[a-zA-Z].*"))
-            {
-                return true;
-            }
-            else
+            char c = possibleNumber.charAt(i);
+            if (c == '@')
+                return false;
+
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+                hasAlphaCharacters = true;
+        }
+
+        // If the string does not contain any alphabetical characters, then
+        // this is a phone number.
+        if (!hasAlphaCharacters)
+            return true;
+
+        // If the property is enabled and the string starts with a "+",
+        // ignoring " ", "(" and ")", then we consider that this is a phone
+        // number.
+        if (configService.getBoolean(
+                "impl.gui.ACCEPT_PHONE_NUMBER_WITH_ALPHA_CHARS",
+                true))
+        {
+            for (int i = 0; i < possibleNumber.length(); i++)
             {
-                // Removes the " ", "(" and ")" in order to search the "+"
-                // character at the beginning at the string.
-                String tmpPossibleNumber
-                    = possibleNumber.replaceAll(" \\(\\)", "");
-                // If the property is enabled and the string starts with a "+",
-                // then we consider that this is a phone number.
-                if(configService.getBoolean(
-                        "impl.gui.ACCEPT_PHONE_NUMBER_WITH_ALPHA_CHARS",
-                        true)
-                        && tmpPossibleNumber.startsWith("+"))
-                {
-                    return true;
-                }
+                char c = possibleNumber.charAt(i);
+                if (IDENTIFIER_REMOVED_CHARACTERS.indexOf(c) == -1)
+                    return c == '+';
             }
         }
-        // Else the string is not a phone number.
+
         return false;
     }
 
     /**
-     * Changes all alphabetical characters into numbers, following phone dial
-     * pad disposition.
-     *
-     * @param phoneNumber The phone number string with some alphabetical
-     * characters.
+     * A concurrent map which is emptied when it grows beyond its maximum
+     * size, which is cheaper than tracking the use of the entries and good
+     * enough for caches of values which are cheap to compute again.
      *
-     * @return The phone number with all alphabetical caracters replaced with
-     * the corresponding dial pad number.
+     * @param <V> the type of the cached values.
      */
-    private static String convertAlphaCharactersInNumber(String phoneNumber)
+    private static class BoundedCache<V>
     {
-        phoneNumber
-            = charactersFordialPadNumber2.matcher(phoneNumber).replaceAll("2");
-        phoneNumber
-            = charactersFordialPadNumber3.matcher(phoneNumber).replaceAll("3");
-        phoneNumber
-            = charactersFordialPadNumber4.matcher(phoneNumber).replaceAll("4");
-        phoneNumber
-            = charactersFordialPadNumber5.matcher(phoneNumber).replaceAll("5");
-        phoneNumber
-            = charactersFordialPadNumber6.matcher(phoneNumber).replaceAll("6");
-        phoneNumber
-            = charactersFordialPadNumber7.matcher(phoneNumber).replaceAll("7");
-        phoneNumber
-            = charactersFordialPadNumber8.matcher(phoneNumber).replaceAll("8");
-        return charactersFordialPadNumber9.matcher(phoneNumber).replaceAll("9");
+        /**
+         * The cached values.
+         */
+        private final Map<String, V> values = new ConcurrentHashMap<>();
+
+        /**
+         * The maximum number of cached values.
+         */
+        private final int maxSize;
+
+        /**
+         * Creates a cache.
+         *
+         * @param maxSize the maximum number of cached values.
+         */
+        BoundedCache(int maxSize)
+        {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Returns the value cached for <tt>key</tt>.
+         *
+         * @param key the key of the value.
+         * @return the value or <tt>null</tt> if it is not cached.
+         */
+        V get(String key)
+        {
+            return values.get(key);
+        }
+
+        /**
+         * Caches a value.
+         *
+         * @param key the key of the value.
+         * @param value the value to cache.
+         */
+        void put(String key, V value)
+        {
+            if (values.size() >= maxSize)
+                values.clear();
+
+            values.put(key, value);
+        }
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.phonenumbers;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.*;
+import java.util.*;
+
+import org.jitsi.service.configuration.*;
+import org.junit.*;
+
+/**
+ * Tests the normalization and matching of phone numbers by
+ * {@link PhoneNumberI18nServiceImpl}.
+ */
+public class PhoneNumberI18nServiceImplTest
+{
+    /**
+     * The value of <tt>impl.gui.ACCEPT_PHONE_NUMBER_WITH_ALPHA_CHARS</tt>
+     * returned by the configuration.
+     */
+    private boolean acceptAlphaCharacters = true;
+
+    private PhoneNumberI18nServiceImpl service;
+
+    /**
+     * The <tt>user.country</tt> to restore after the test.
+     */
+    private String userCountry;
+
+    @Before
+    public void setUp()
+    {
+        userCountry = System.getProperty("user.country");
+        System.setProperty("user.country", "US");
+
+        ConfigurationService config = (ConfigurationService) Proxy
+            .newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ConfigurationService.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method,
+                        Object[] args)
+                    {
+                        if (method.getName().equals("getBoolean"))
+                            return acceptAlphaCharacters;
+                        throw new UnsupportedOperationException(
+                            method.getName());
+                    }
+                });
+        service = new PhoneNumberI18nServiceImpl(config);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (userCountry == null)
+            System.clearProperty("user.country");
+        else
+            System.setProperty("user.country", userCountry);
+    }
+
+    @Test
+    public void testNormalizePhoneNumber()
+    {
+        assertEquals("+15551234567",
+            PhoneNumberI18nServiceImpl.normalizePhoneNumber(
+                "+1 (555) 123-4567"));
+        assertEquals("18003569377",
+            PhoneNumberI18nServiceImpl.normalizePhoneNumber("1-800-FLOWERS"));
+        assertEquals("18003569377",
+            PhoneNumberI18nServiceImpl.normalizePhoneNumber("1-800-flowers"));
+        assertEquals("555123456",
+            PhoneNumberI18nServiceImpl.normalizePhoneNumber("555.123/45\\6"));
+        assertEquals("", PhoneNumberI18nServiceImpl.normalizePhoneNumber(
+            " ()-"));
+    }
+
+    @Test
+    public void testNormalizeUnchangedReturnsInput()
+    {
+        String number = "+4930123456";
+        assertSame(number,
+            PhoneNumberI18nServiceImpl.normalizePhoneNumber(number));
+
+        String id = "alice@example.com";
+        assertSame(id, PhoneNumberI18nServiceImpl.normalizeIdentifier(id));
+    }
+
+    @Test
+    public void testNormalizeIdentifier()
+    {
+        assertEquals("alice.smith@example.com",
+            PhoneNumberI18nServiceImpl.normalizeIdentifier(
+                " alice.smith @example.com "));
+        assertEquals("bob-1@example.com",
+            PhoneNumberI18nServiceImpl.normalizeIdentifier(
+                "(bob-1)@example.com"));
+    }
+
+    @Test
+    public void testNormalize()
+    {
+        // identifiers keep their letters, dots and dashes
+        assertEquals("alice.smith@example.com",
+            service.normalize("alice.smith @example.com"));
+        assertEquals("+18003569377", service.normalize("+1 800 FLOWERS"));
+        assertEquals("0301234567", service.normalize("030 / 123 45-67"));
+
+        acceptAlphaCharacters = false;
+        assertEquals("+1800FLOWERS", service.normalize("+1 800 FLOWERS"));
+    }
+
+    @Test
+    public void testIsPhoneNumber()
+    {
+        assertTrue(service.isPhoneNumber("+49 30 1234567"));
+        assertTrue(service.isPhoneNumber("(030) 123-4567"));
+        assertFalse(service.isPhoneNumber("alice@example.com"));
+        assertFalse(service.isPhoneNumber("+4930@example.com"));
+        assertFalse(service.isPhoneNumber("alice"));
+        assertFalse(service.isPhoneNumber("FLOWERS+1"));
+
+        // letters are accepted after a leading "+"
+        assertTrue(service.isPhoneNumber("+1 800 FLOWERS"));
+        // spaces and parentheses before the "+" are skipped
+        assertTrue(service.isPhoneNumber(" (+1) 800 FLOWERS"));
+        assertTrue(service.isPhoneNumber("( +1 800 FLOWERS)"));
+
+        acceptAlphaCharacters = false;
+        assertFalse(service.isPhoneNumber("+1 800 FLOWERS"));
+        assertTrue(service.isPhoneNumber("+1 800 3569377"));
+    }
+
+    @Test
+    public void testPhoneNumbersMatch()
+    {
+        assertTrue(service.phoneNumbersMatch(
+            "+1 650 253 0000", "16502530000"));
+        assertTrue(service.phoneNumbersMatch(
+            "+1 650 253 0000", "+1 (650) 253-0000"));
+        assertFalse(service.phoneNumbersMatch(
+            "+1 650 253 0000", "+1 650 253 0001"));
+
+        // the first number is cached, the answers must not change
+        assertTrue(service.phoneNumbersMatch(
+            "+1 650 253 0000", "16502530000"));
+        assertFalse(service.phoneNumbersMatch(
+            "+1 650 253 0000", "+1 650 253 0001"));
+
+        // numbers which cannot be parsed without a region
+        assertTrue(service.phoneNumbersMatch("6502530000", "650 253 0000"));
+        assertFalse(service.phoneNumbersMatch("alice", "bob"));
+        assertFalse(service.phoneNumbersMatch("alice", "bob"));
+    }
+
+    @Test
+    public void testFormatForDisplay()
+    {
+        assertEquals("+1 650-253-0000",
+            service.formatForDisplay("+16502530000"));
+        assertEquals("+1 650-253-0000",
+            service.formatForDisplay("+16502530000"));
+        assertEquals("alice", service.formatForDisplay("alice"));
+    }
+
+    @Test
+    public void testGetMatchKey()
+    {
+        String key = service.getMatchKey("+1 650 253 0000");
+        assertEquals("+16502530000", key);
+        assertEquals(key, service.getMatchKey("16502530000"));
+        assertEquals(key, service.getMatchKey("+1 (650) 253-0000"));
+        // a national number in the country of the user
+        assertEquals(key, service.getMatchKey("(650) 253-0000"));
+        assertEquals(key, service.getMatchKey("650 253 0000"));
+
+        assertEquals("+16502530000;ext=12",
+            service.getMatchKey("+1 650 253 0000 ext. 12"));
+        assertFalse(key.equals(service.getMatchKey("+1 650 253 0001")));
+
+        assertNull(service.getMatchKey("alice"));
+        // cached
+        assertNull(service.getMatchKey("alice"));
+        assertEquals(key, service.getMatchKey("(650) 253-0000"));
+    }
+
+    @Test
+    public void testMatchKeysConsistentWithPhoneNumbersMatch()
+    {
+        List<String> numbers = Arrays.asList(
+            "+1 650 253 0000",
+            "16502530000",
+            "(650) 253-0000",
+            "650 253 0000",
+            "253 0000",
+            "+1 650 253 0000 ext. 12",
+            "650 253 0000 x12",
+            "+1 650 253 0001",
+            "+49 30 1234567",
+            "+49 (0)30 1234567",
+            "011 49 30 1234567",
+            "030 1234567",
+            "+44 20 7946 0000",
+            "alice",
+            "12");
+
+        Map<String, String> keys = service.getMatchKeys(numbers);
+        assertEquals(numbers.size(), keys.size());
+
+        for (String a : numbers)
+        {
+            assertEquals(a, service.getMatchKey(a), keys.get(a));
+
+            for (String b : numbers)
+            {
+                String aKey = keys.get(a);
+                if (aKey != null && aKey.equals(keys.get(b)))
+                {
+                    assertTrue(a + " / " + b,
+                        service.phoneNumbersMatch(a, b));
+                }
+            }
+        }
+
+        assertEquals(
+            keys.get("+49 30 1234567"), keys.get("011 49 30 1234567"));
+        assertEquals(
+            keys.get("+1 650 253 0000 ext. 12"), keys.get("650 253 0000 x12"));
+    }
+}
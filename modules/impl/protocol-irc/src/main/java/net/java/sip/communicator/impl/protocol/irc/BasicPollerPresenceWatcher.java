@@ -213,6 +213,16 @@ public void run()
                     + "this presence status query.");
                 return;
             }
+            if (BasicPollerPresenceWatcher.this.irc instanceof QueuedIRCApi
+                && ((QueuedIRCApi) BasicPollerPresenceWatcher.this.irc)
+                    .isQueued("ISON"))
+            {
+                // The previous queries are still waiting for flood control,
+                // their replies will be just as recent.
+                logger.trace("Previous presence status query still queued. "
+                    + "Skipping this presence status query.");
+                return;
+            }
             logger
                 .trace("Watch list contains nicks: querying presence status.");
             final StringBuilder query = new StringBuilder();
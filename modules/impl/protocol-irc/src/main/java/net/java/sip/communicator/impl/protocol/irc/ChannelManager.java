@@ -476,6 +476,9 @@ private void prepareChatRoom(final ChatRoomIrcImpl chatRoom,
         final IRCTopic topic = channel.getTopic();
         chatRoom.updateSubject(topic.getValue());
 
+        final List<ChatRoomMemberIrcImpl> members =
+            new ArrayList<ChatRoomMemberIrcImpl>();
+        ChatRoomMemberIrcImpl localMember = null;
         for (final IRCUser user : channel.getUsers())
         {
             final ChatRoomMemberIrcImpl member =
@@ -503,18 +506,25 @@ private void prepareChatRoom(final ChatRoomIrcImpl chatRoom,
                         e);
                 }
             }
-            chatRoom.addChatRoomMember(member.getContactAddress(), member);
+            members.add(member);
             if (this.connectionState.getNickname().equals(user.getNick()))
             {
-                chatRoom.setLocalUser(member);
-                if (member.getRole() != ChatRoomMemberRole.SILENT_MEMBER)
-                {
-                    ChatRoomLocalUserRoleChangeEvent event =
-                        new ChatRoomLocalUserRoleChangeEvent(chatRoom,
-                            ChatRoomMemberRole.SILENT_MEMBER, member.getRole(),
-                            true);
-                    chatRoom.fireLocalUserRoleChangedEvent(event);
-                }
+                localMember = member;
+            }
+        }
+        // Large channels list thousands of users, add them all at once
+        // rather than invalidating the member list for each of them.
+        chatRoom.addChatRoomMembers(members);
+        if (localMember != null)
+        {
+            chatRoom.setLocalUser(localMember);
+            if (localMember.getRole() != ChatRoomMemberRole.SILENT_MEMBER)
+            {
+                ChatRoomLocalUserRoleChangeEvent event =
+                    new ChatRoomLocalUserRoleChangeEvent(chatRoom,
+                        ChatRoomMemberRole.SILENT_MEMBER,
+                        localMember.getRole(), true);
+                chatRoom.fireLocalUserRoleChangedEvent(event);
             }
         }
     }
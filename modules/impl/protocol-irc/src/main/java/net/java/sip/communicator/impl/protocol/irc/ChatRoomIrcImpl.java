@@ -20,6 +20,7 @@
 import java.beans.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.impl.protocol.irc.exception.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -69,17 +70,26 @@
     private String chatSubject = "";
 
     /**
-     * list of members of this chatRoom.
+     * list of members of this chatRoom. Lookups do not lock, modifications
+     * synchronize on the map so that they can invalidate
+     * <tt>membersSnapshot</tt>.
      */
-    private final Hashtable<String, ChatRoomMember> chatRoomMembers
-        = new Hashtable<String, ChatRoomMember>();
+    private final Map<String, ChatRoomMember> chatRoomMembers
+        = new ConcurrentHashMap<String, ChatRoomMember>();
+
+    /**
+     * The unmodifiable list returned by {@link #getMembers()}, built on
+     * demand and dropped whenever the members change.
+     */
+    private volatile List<ChatRoomMember> membersSnapshot;
 
     /**
      * Listeners that will be notified of changes in member status in the
      * room such as member joined, left or being kicked or dropped.
      */
-    private final Vector<ChatRoomMemberPresenceListener>
-        memberListeners = new Vector<ChatRoomMemberPresenceListener>();
+    private final CopyOnWriteArrayList<ChatRoomMemberPresenceListener>
+        memberListeners
+            = new CopyOnWriteArrayList<ChatRoomMemberPresenceListener>();
 
     /**
      * Listeners that will be notified of changes in member role in the
@@ -300,7 +310,30 @@ public String getIdentifier()
     protected void addChatRoomMember(final String memberID,
         final ChatRoomMember member)
     {
-        chatRoomMembers.put(memberID, member);
+        synchronized (chatRoomMembers)
+        {
+            chatRoomMembers.put(memberID, member);
+            membersSnapshot = null;
+        }
+    }
+
+    /**
+     * Adds the given <tt>ChatRoomMember</tt>s to the list of members of this
+     * chat room at once, keyed by their contact address.
+     *
+     * @param members the <tt>ChatRoomMember</tt>s to add.
+     */
+    protected void addChatRoomMembers(
+        final Collection<? extends ChatRoomMember> members)
+    {
+        synchronized (chatRoomMembers)
+        {
+            for (ChatRoomMember member : members)
+            {
+                chatRoomMembers.put(member.getContactAddress(), member);
+            }
+            membersSnapshot = null;
+        }
     }
 
     /**
@@ -311,7 +344,13 @@ protected void addChatRoomMember(final String memberID,
      */
     protected void removeChatRoomMember(final String memberID)
     {
-        chatRoomMembers.remove(memberID);
+        synchronized (chatRoomMembers)
+        {
+            if (chatRoomMembers.remove(memberID) != null)
+            {
+                membersSnapshot = null;
+            }
+        }
     }
 
     /**
@@ -466,7 +505,7 @@ public void leave()
             return;
         }
         connection.getChannelManager().leave(this);
-        this.chatRoomMembers.clear();
+        clearChatRoomMemberList();
     }
 
     /**
@@ -799,13 +838,7 @@ public void setUserNickname(final String nickName)
     public void addMemberPresenceListener(
         final ChatRoomMemberPresenceListener listener)
     {
-        synchronized (memberListeners)
-        {
-            if (!memberListeners.contains(listener))
-            {
-                memberListeners.add(listener);
-            }
-        }
+        memberListeners.addIfAbsent(listener);
     }
 
     /**
@@ -818,10 +851,7 @@ public void addMemberPresenceListener(
     public void removeMemberPresenceListener(
         final ChatRoomMemberPresenceListener listener)
     {
-        synchronized (memberListeners)
-        {
-            memberListeners.remove(listener);
-        }
+        memberListeners.remove(listener);
     }
 
     /**
@@ -880,6 +910,7 @@ protected void clearChatRoomMemberList()
         synchronized (chatRoomMembers)
         {
             chatRoomMembers.clear();
+            membersSnapshot = null;
         }
     }
 
@@ -909,14 +940,31 @@ public void invite(final String userAddress, final String reason)
 
     /**
      * Returns a <tt>List</tt> of <tt>ChatRoomMembers</tt>s corresponding to all
-     * members currently participating in this room.
+     * members currently participating in this room. The returned list is an
+     * unmodifiable snapshot which is shared by all callers until the members
+     * change.
      *
      * @return a <tt>List</tt> of <tt>Contact</tt> corresponding to all room
      *         members.
      */
     public List<ChatRoomMember> getMembers()
     {
-        return new ArrayList<ChatRoomMember>(chatRoomMembers.values());
+        List<ChatRoomMember> snapshot = membersSnapshot;
+        if (snapshot == null)
+        {
+            synchronized (chatRoomMembers)
+            {
+                snapshot = membersSnapshot;
+                if (snapshot == null)
+                {
+                    snapshot = Collections.unmodifiableList(
+                        new ArrayList<ChatRoomMember>(
+                            chatRoomMembers.values()));
+                    membersSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
     }
 
     /**
@@ -1333,14 +1381,7 @@ public void fireMemberPresenceEvent(final ChatRoomMember member,
             logger.trace("Will dispatch the following ChatRoom event: " + evt);
         }
 
-        Iterable<ChatRoomMemberPresenceListener> listeners;
-        synchronized (memberListeners)
-        {
-            listeners
-                = new ArrayList<ChatRoomMemberPresenceListener>(
-                        memberListeners);
-        }
-        for (ChatRoomMemberPresenceListener listener : listeners)
+        for (ChatRoomMemberPresenceListener listener : memberListeners)
         {
             listener.memberPresenceChanged(evt);
         }
@@ -1799,6 +1840,7 @@ void updateChatRoomMemberName(final String oldName)
             if (member != null)
             {
                 this.chatRoomMembers.put(member.getContactAddress(), member);
+                this.membersSnapshot = null;
             }
         }
     }
@@ -35,6 +35,8 @@
 import com.ircclouds.irc.api.domain.messages.interfaces.*;
 import com.ircclouds.irc.api.listeners.*;
 
+import org.jitsi.service.configuration.*;
+
 /**
  * An implementation of IRC using the irc-api library.
  *
@@ -49,6 +51,20 @@ public class IrcStack implements IrcConnectionListener
      */
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(IrcStack.class);
 
+    /**
+     * Property for the number of commands that may be sent at once before
+     * flood control pacing kicks in.
+     */
+    private static final String SEND_BURST_PROPERTY =
+        "net.java.sip.communicator.impl.protocol.irc.SEND_BURST";
+
+    /**
+     * Property for the interval in milliseconds between commands once the
+     * burst is used up.
+     */
+    private static final String SEND_INTERVAL_PROPERTY =
+        "net.java.sip.communicator.impl.protocol.irc.SEND_INTERVAL";
+
     /**
      * Parent provider for IRC.
      */
@@ -139,7 +155,7 @@ public void connect(final String host, final int port,
 
                 this.params.setServer(server);
 
-                final IRCApi irc = new IRCApiImpl(true);
+                final IRCApi irc = createClient();
 
                 if (logger.isTraceEnabled())
                 {
@@ -149,7 +165,7 @@ public void connect(final String host, final int port,
                     irc.addListener(new DebugListener());
                 }
 
-                // Synchronized IRCApi instance passed on to the connection
+                // Queued IRCApi instance passed on to the connection
                 // instance.
                 this.session.set(new IrcConnection(this.context, config, irc,
                     this.params, password, this));
@@ -209,6 +225,28 @@ public void connect(final String host, final int port,
         }
     }
 
+    /**
+     * Create the IRC client for a new connection, sending all commands
+     * through a paced outbound queue.
+     *
+     * @return returns the IRC client
+     */
+    private static IRCApi createClient()
+    {
+        int burst = QueuedIRCApi.DEFAULT_BURST;
+        long interval = QueuedIRCApi.DEFAULT_INTERVAL;
+        final ConfigurationService configSvc =
+            IrcActivator.getConfigurationService();
+        if (configSvc != null)
+        {
+            burst = Math.max(1, configSvc.getInt(SEND_BURST_PROPERTY, burst));
+            interval =
+                Math.max(0L, configSvc.getLong(SEND_INTERVAL_PROPERTY,
+                    interval));
+        }
+        return new QueuedIRCApi(new IRCApiImpl(true), burst, interval);
+    }
+
     /**
      * Create matching IRCServer instances based on connection parameters.
      *
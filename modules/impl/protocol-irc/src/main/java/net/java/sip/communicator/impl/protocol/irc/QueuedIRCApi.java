@@ -0,0 +1,1143 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.ircclouds.irc.api.*;
+import com.ircclouds.irc.api.ctcp.*;
+import com.ircclouds.irc.api.domain.*;
+import com.ircclouds.irc.api.filters.*;
+import com.ircclouds.irc.api.listeners.*;
+import com.ircclouds.irc.api.state.*;
+import javax.net.ssl.*;
+
+/**
+ * IRCApi wrapper that sends all commands asynchronously through an outbound
+ * queue.
+ *
+ * Commands are sent in order of priority: control commands (such as JOIN,
+ * PART, NICK, MODE and PONG) first, then messages and notices, and finally
+ * bulk queries (such as WHO, ISON and LIST). A control command for a channel
+ * or nick that still has messages queued is queued behind them instead, such
+ * that for example a PART is not sent before the messages that were written to
+ * the channel before it. The queue is paced by a token bucket, such that
+ * pasting a long text or joining many channels at once does not get the
+ * connection closed for excess flood. A query that is identical to one that is
+ * still queued is dropped, as it would return the same reply.
+ *
+ * Connecting, disconnecting, listener management and DCC are passed on
+ * directly. PING requests of the server are answered by the IRC client library
+ * itself and do not go through this queue.
+ *
+ * Callers are not blocked: commands are sent by a daemon thread of the
+ * connection, such that a connection that is stuck on a slow socket does not
+ * hold up the others. As a consequence, a failure to send a command is logged
+ * instead of thrown to the caller. Commands that are still queued when the
+ * connection is closed are not sent; their callbacks are failed.
+ */
+public class QueuedIRCApi
+    implements IRCApi
+{
+    /**
+     * Logger.
+     */
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(QueuedIRCApi.class);
+
+    /**
+     * Default number of commands that may be sent at once.
+     */
+    public static final int DEFAULT_BURST = 5;
+
+    /**
+     * Default interval in milliseconds between commands once the burst is
+     * used up.
+     */
+    public static final long DEFAULT_INTERVAL = 2000L;
+
+    /**
+     * Time in milliseconds a command may wait in the queue before the delay
+     * is reported.
+     */
+    private static final long LATENCY_REPORT_THRESHOLD = 10000L;
+
+    /**
+     * Weight of the latest send latency in the average latency.
+     */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /**
+     * Queries that are dropped when an identical query is still queued.
+     */
+    private static final Set<String> MERGEABLE_QUERIES =
+        new HashSet<String>(Arrays.asList("WHO", "WHOIS", "LIST"));
+
+    /**
+     * Commands that are queued with the lowest priority.
+     */
+    private static final Set<String> QUERIES = new HashSet<String>(
+        Arrays.asList("WHO", "WHOIS", "WHOWAS", "ISON", "LIST", "NAMES",
+            "MONITOR", "WATCH", "USERHOST"));
+
+    /**
+     * Commands whose first parameter is the channel or nick they concern.
+     */
+    private static final Set<String> TARGETED_COMMANDS = new HashSet<String>(
+        Arrays.asList("PRIVMSG", "NOTICE", "JOIN", "PART", "KICK", "TOPIC"));
+
+    /**
+     * Priorities of queued commands, highest first.
+     */
+    enum Priority
+    {
+        /**
+         * Control commands that affect the connection state.
+         */
+        CONTROL,
+
+        /**
+         * Messages, actions and notices.
+         */
+        MESSAGE,
+
+        /**
+         * Bulk queries.
+         */
+        QUERY
+    }
+
+    /**
+     * The wrapped IRCApi instance.
+     */
+    private final IRCApi irc;
+
+    /**
+     * Queues per priority. (Guarded by this.)
+     */
+    private final List<Deque<Command>> queues;
+
+    /**
+     * Pacer for sending commands. (Guarded by this.)
+     */
+    private final TokenBucket bucket;
+
+    /**
+     * Thread for sending the queued commands of this connection, created on
+     * first use. (Guarded by this.)
+     */
+    private ScheduledExecutorService sender;
+
+    /**
+     * Whether a drain of the queue is scheduled. (Guarded by this.)
+     */
+    private boolean drainScheduled = false;
+
+    /**
+     * Whether the connection was closed. (Guarded by this.)
+     */
+    private boolean closed = false;
+
+    /**
+     * Number of sent commands. (Guarded by this.)
+     */
+    private long sentCount = 0;
+
+    /**
+     * Average time in milliseconds commands spent in the queue. (Guarded by
+     * this.)
+     */
+    private double averageLatency = 0;
+
+    /**
+     * Maximum time in milliseconds a command spent in the queue. (Guarded by
+     * this.)
+     */
+    private long maximumLatency = 0;
+
+    /**
+     * Constructor with default pacing.
+     *
+     * @param irc IRCApi instance
+     */
+    public QueuedIRCApi(final IRCApi irc)
+    {
+        this(irc, DEFAULT_BURST, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param irc IRCApi instance
+     * @param burst the number of commands that may be sent at once
+     * @param interval the interval in milliseconds between commands once the
+     *            burst is used up
+     */
+    public QueuedIRCApi(final IRCApi irc, final int burst, final long interval)
+    {
+        if (irc == null)
+        {
+            throw new IllegalArgumentException("irc instance cannot be null");
+        }
+        this.irc = irc;
+        this.bucket =
+            new TokenBucket(burst, TimeUnit.MILLISECONDS.toNanos(interval),
+                System.nanoTime());
+        final ArrayList<Deque<Command>> queues =
+            new ArrayList<Deque<Command>>(Priority.values().length);
+        for (int i = 0; i < Priority.values().length; i++)
+        {
+            queues.add(new ArrayDeque<Command>());
+        }
+        this.queues = queues;
+    }
+
+    /**
+     * Get the sender thread of this connection. Must be called while holding
+     * the lock.
+     *
+     * @return returns the sender
+     */
+    private ScheduledExecutorService getSender()
+    {
+        if (this.sender == null)
+        {
+            this.sender = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(final Runnable r)
+                    {
+                        final Thread t = new Thread(r, "IRC send queue");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return this.sender;
+    }
+
+    /**
+     * Determine the priority of a raw IRC command.
+     *
+     * @param command the command name in upper case
+     * @return returns the priority
+     */
+    static Priority priorityOf(final String command)
+    {
+        if ("PRIVMSG".equals(command) || "NOTICE".equals(command))
+        {
+            return Priority.MESSAGE;
+        }
+        if (QUERIES.contains(command))
+        {
+            return Priority.QUERY;
+        }
+        return Priority.CONTROL;
+    }
+
+    /**
+     * Extract the command name of a raw IRC message.
+     *
+     * @param message the raw message
+     * @return returns the command name in upper case
+     */
+    static String commandOf(final String message)
+    {
+        final String trimmed = message.trim();
+        final int space = trimmed.indexOf(' ');
+        return (space < 0 ? trimmed : trimmed.substring(0, space))
+            .toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Extract the channel or nick a raw IRC message is sent to.
+     *
+     * @param command the command name in upper case
+     * @param message the raw message
+     * @return returns the target, or <tt>null</tt> if the command has none
+     */
+    static String targetOf(final String command, final String message)
+    {
+        if (!TARGETED_COMMANDS.contains(command))
+        {
+            return null;
+        }
+        final String[] parts = message.trim().split(" +", 3);
+        return parts.length > 1 ? parts[1] : null;
+    }
+
+    /**
+     * Queue a command for sending.
+     *
+     * @param priority the priority of the command
+     * @param command the command name
+     * @param target the comma separated channels or nicks the command
+     *            concerns, or <tt>null</tt>
+     * @param line the raw line for merging identical queries, or
+     *            <tt>null</tt> if the command cannot be merged
+     * @param callback the callback to fail if the command is dropped, or
+     *            <tt>null</tt>
+     * @param action the action that sends the command
+     */
+    private void enqueue(final Priority priority, final String command,
+        final String target, final String line, final Callback<?> callback,
+        final Runnable action)
+    {
+        final Command queued =
+            new Command(command, target, line, callback, action);
+        synchronized (this)
+        {
+            if (!this.closed)
+            {
+                Deque<Command> queue = this.queues.get(priority.ordinal());
+                if (priority == Priority.CONTROL && queued.hasTargets())
+                {
+                    // keep the order of the commands for the same target
+                    final Deque<Command> messages =
+                        this.queues.get(Priority.MESSAGE.ordinal());
+                    for (Command message : messages)
+                    {
+                        if (message.sharesTarget(queued))
+                        {
+                            queue = messages;
+                            break;
+                        }
+                    }
+                }
+                if (line != null)
+                {
+                    for (Command other : queue)
+                    {
+                        if (line.equals(other.line))
+                        {
+                            logger.trace("Identical query already queued, "
+                                + "dropping: " + line);
+                            return;
+                        }
+                    }
+                }
+                queue.add(queued);
+                scheduleDrain(0);
+                return;
+            }
+        }
+        // The connection is closed. Pass the command on, such that the
+        // client library reports the problem to the caller.
+        action.run();
+    }
+
+    /**
+     * Schedule draining the queue, unless already scheduled. Must be called
+     * while holding the lock.
+     *
+     * @param delay the delay in nanoseconds
+     */
+    private void scheduleDrain(final long delay)
+    {
+        if (this.drainScheduled || this.closed)
+        {
+            return;
+        }
+        this.drainScheduled = true;
+        getSender().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Send queued commands as long as the pacer allows it.
+     */
+    private void drain()
+    {
+        while (true)
+        {
+            final Command next;
+            final long latency;
+            synchronized (this)
+            {
+                this.drainScheduled = false;
+                final Deque<Command> queue = nextQueue();
+                if (queue == null)
+                {
+                    return;
+                }
+                final long now = System.nanoTime();
+                final long wait = this.bucket.tryAcquire(now);
+                if (wait > 0)
+                {
+                    scheduleDrain(wait);
+                    return;
+                }
+                next = queue.poll();
+                latency = TimeUnit.NANOSECONDS.toMillis(now - next.queued);
+                this.sentCount++;
+                this.averageLatency =
+                    this.sentCount == 1 ? latency : LATENCY_SMOOTHING * latency
+                        + (1 - LATENCY_SMOOTHING) * this.averageLatency;
+                this.maximumLatency = Math.max(this.maximumLatency, latency);
+                // do not schedule other drains while sending
+                this.drainScheduled = true;
+            }
+            if (latency > LATENCY_REPORT_THRESHOLD && logger.isDebugEnabled())
+            {
+                logger.debug(next.command + " was delayed " + latency
+                    + " ms by flood control, " + getQueueSize()
+                    + " commands still queued.");
+            }
+            boolean completed = false;
+            try
+            {
+                next.action.run();
+                completed = true;
+            }
+            catch (RuntimeException e)
+            {
+                completed = true;
+                logger.warn("Failed to send queued " + next.command
+                    + " command: " + e.getMessage());
+            }
+            finally
+            {
+                if (!completed)
+                {
+                    // an Error ends this drain, let another one continue
+                    synchronized (this)
+                    {
+                        this.drainScheduled = false;
+                        scheduleDrain(0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the non-empty queue with the highest priority. Must be called while
+     * holding the lock.
+     *
+     * @return returns the queue or <tt>null</tt> if all queues are empty
+     */
+    private Deque<Command> nextQueue()
+    {
+        for (Deque<Command> queue : this.queues)
+        {
+            if (!queue.isEmpty())
+            {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a command is waiting in the queue.
+     *
+     * @param command the command name, such as "ISON"
+     * @return returns <tt>true</tt> if such a command is queued
+     */
+    public synchronized boolean isQueued(final String command)
+    {
+        for (Deque<Command> queue : this.queues)
+        {
+            for (Command queued : queue)
+            {
+                if (queued.command.equals(command))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the number of queued commands.
+     *
+     * @return returns the queue depth
+     */
+    public synchronized int getQueueSize()
+    {
+        int size = 0;
+        for (Deque<Command> queue : this.queues)
+        {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of commands sent through the queue.
+     *
+     * @return returns the number of sent commands
+     */
+    public synchronized long getSentCount()
+    {
+        return this.sentCount;
+    }
+
+    /**
+     * Get the average time commands spent in the queue, weighing recent
+     * commands most.
+     *
+     * @return returns the average send latency in milliseconds
+     */
+    public synchronized long getAverageLatency()
+    {
+        return Math.round(this.averageLatency);
+    }
+
+    /**
+     * Get the maximum time a command spent in the queue.
+     *
+     * @return returns the maximum send latency in milliseconds
+     */
+    public synchronized long getMaximumLatency()
+    {
+        return this.maximumLatency;
+    }
+
+    /**
+     * Close the queue and stop the sender thread. The commands that are
+     * still queued are dropped and their callbacks are failed.
+     */
+    private void close()
+    {
+        final List<Command> dropped = new ArrayList<Command>();
+        final ScheduledExecutorService stopped;
+        synchronized (this)
+        {
+            this.closed = true;
+            for (Deque<Command> queue : this.queues)
+            {
+                dropped.addAll(queue);
+                queue.clear();
+            }
+            stopped = this.sender;
+            this.sender = null;
+        }
+        if (stopped != null)
+        {
+            // lets a command that is being sent finish
+            stopped.shutdown();
+        }
+        if (!dropped.isEmpty())
+        {
+            logger.info("Connection closed, dropping " + dropped.size()
+                + " unsent commands.");
+        }
+        for (Command command : dropped)
+        {
+            command.fail();
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Send queue closed: " + getSentCount()
+                + " commands sent, average latency " + getAverageLatency()
+                + " ms, maximum latency " + getMaximumLatency() + " ms.");
+        }
+    }
+
+    @Override
+    public void connect(final IServerParameters aServerParameters,
+        final Callback<IIRCState> aCallback)
+    {
+        this.irc.connect(aServerParameters, aCallback);
+    }
+
+    @Override
+    public void connect(final IServerParameters aServerParameters,
+        final Callback<IIRCState> aCallback,
+        final CapabilityNegotiator negotiator)
+    {
+        this.irc.connect(aServerParameters, aCallback, negotiator);
+    }
+
+    @Override
+    public void secureConnection(SSLContext context, String hostname, int port)
+        throws SSLException
+    {
+        this.irc.secureConnection(context, hostname, port);
+    }
+
+    @Override
+    public void disconnect()
+    {
+        close();
+        this.irc.disconnect();
+    }
+
+    @Override
+    public void disconnect(final String aQuitMessage)
+    {
+        close();
+        this.irc.disconnect(aQuitMessage);
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName)
+    {
+        enqueue(Priority.CONTROL, "JOIN", aChannelName, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.joinChannel(aChannelName);
+                }
+            });
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName,
+        final Callback<IRCChannel> aCallback)
+    {
+        enqueue(Priority.CONTROL, "JOIN", aChannelName, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.joinChannel(aChannelName, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName, final String aKey)
+    {
+        enqueue(Priority.CONTROL, "JOIN", aChannelName, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.joinChannel(aChannelName, aKey);
+                }
+            });
+    }
+
+    @Override
+    public void joinChannel(final String aChannelName, final String aKey,
+        final Callback<IRCChannel> aCallback)
+    {
+        enqueue(Priority.CONTROL, "JOIN", aChannelName, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.joinChannel(aChannelName, aKey, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName)
+    {
+        enqueue(Priority.CONTROL, "PART", aChannelName, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.leaveChannel(aChannelName);
+                }
+            });
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName,
+        final Callback<String> aCallback)
+    {
+        enqueue(Priority.CONTROL, "PART", aChannelName, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.leaveChannel(aChannelName, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName,
+        final String aPartMessage)
+    {
+        enqueue(Priority.CONTROL, "PART", aChannelName, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.leaveChannel(aChannelName, aPartMessage);
+                }
+            });
+    }
+
+    @Override
+    public void leaveChannel(final String aChannelName,
+        final String aPartMessage, final Callback<String> aCallback)
+    {
+        enqueue(Priority.CONTROL, "PART", aChannelName, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.leaveChannel(aChannelName, aPartMessage, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void changeNick(final String aNewNick)
+    {
+        enqueue(Priority.CONTROL, "NICK", null, null, null, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                irc.changeNick(aNewNick);
+            }
+        });
+    }
+
+    @Override
+    public void changeNick(final String aNewNick,
+        final Callback<String> aCallback)
+    {
+        enqueue(Priority.CONTROL, "NICK", null, null, aCallback, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                irc.changeNick(aNewNick, aCallback);
+            }
+        });
+    }
+
+    @Override
+    public void message(final String aTarget, final String aMessage)
+    {
+        enqueue(Priority.MESSAGE, "PRIVMSG", aTarget, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.message(aTarget, aMessage);
+                }
+            });
+    }
+
+    @Override
+    public void message(final String aTarget, final String aMessage,
+        final Callback<String> aCallback)
+    {
+        enqueue(Priority.MESSAGE, "PRIVMSG", aTarget, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.message(aTarget, aMessage, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void act(final String aTarget, final String aMessage)
+    {
+        enqueue(Priority.MESSAGE, "PRIVMSG", aTarget, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.act(aTarget, aMessage);
+                }
+            });
+    }
+
+    @Override
+    public void act(final String aTarget, final String aMessage,
+        final Callback<String> aCallback)
+    {
+        enqueue(Priority.MESSAGE, "PRIVMSG", aTarget, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.act(aTarget, aMessage, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void notice(final String aTarget, final String aMessage)
+    {
+        enqueue(Priority.MESSAGE, "NOTICE", aTarget, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.notice(aTarget, aMessage);
+                }
+            });
+    }
+
+    @Override
+    public void notice(final String aTarget, final String aMessage,
+        final Callback<String> aCallback)
+    {
+        enqueue(Priority.MESSAGE, "NOTICE", aTarget, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.notice(aTarget, aMessage, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick)
+    {
+        enqueue(Priority.CONTROL, "KICK", aChannel, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.kick(aChannel, aNick);
+                }
+            });
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick,
+        final String aKickMessage)
+    {
+        enqueue(Priority.CONTROL, "KICK", aChannel, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.kick(aChannel, aNick, aKickMessage);
+                }
+            });
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick,
+        final Callback<String> aCallback)
+    {
+        enqueue(Priority.CONTROL, "KICK", aChannel, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.kick(aChannel, aNick, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void kick(final String aChannel, final String aNick,
+        final String aKickMessage, final Callback<String> aCallback)
+    {
+        enqueue(Priority.CONTROL, "KICK", aChannel, null, aCallback,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.kick(aChannel, aNick, aKickMessage, aCallback);
+                }
+            });
+    }
+
+    @Override
+    public void changeTopic(final String aChannel, final String aTopic)
+    {
+        enqueue(Priority.CONTROL, "TOPIC", aChannel, null, null,
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.changeTopic(aChannel, aTopic);
+                }
+            });
+    }
+
+    @Override
+    public void changeMode(final String aModeString)
+    {
+        enqueue(Priority.CONTROL, "MODE", null, null, null, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                irc.changeMode(aModeString);
+            }
+        });
+    }
+
+    @Override
+    public void rawMessage(final String aMessage)
+    {
+        final String command = commandOf(aMessage);
+        final String line =
+            MERGEABLE_QUERIES.contains(command) ? aMessage.trim() : null;
+        enqueue(priorityOf(command), command, targetOf(command, aMessage),
+            line, null, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    irc.rawMessage(aMessage);
+                }
+            });
+    }
+
+    @Override
+    public void dccSend(final String aNick, final File aFile,
+        final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aFile, aCallback);
+    }
+
+    @Override
+    public void dccSend(final String aNick, final File aFile,
+        final Integer aTimeout, final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aFile, aTimeout, aCallback);
+    }
+
+    @Override
+    public void dccSend(final String aNick, final Integer aListeningPort,
+        final File aFile, final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aListeningPort, aFile, aCallback);
+    }
+
+    @Override
+    public void dccSend(final String aNick, final File aFile,
+        final Integer aListeningPort, final Integer aTimeout,
+        final DCCSendCallback aCallback)
+    {
+        this.irc.dccSend(aNick, aFile, aListeningPort, aTimeout, aCallback);
+    }
+
+    @Override
+    public void dccAccept(final String aNick, final File aFile,
+        final Integer aPort, final Integer aResumePosition,
+        final DCCSendCallback aCallback)
+    {
+        this.irc.dccAccept(aNick, aFile, aPort, aResumePosition, aCallback);
+    }
+
+    @Override
+    public void dccAccept(final String aNick, final File aFile,
+        final Integer aPort, final Integer aResumePosition,
+        final Integer aTimeout, final DCCSendCallback aCallback)
+    {
+        this.irc.dccAccept(aNick, aFile, aPort, aResumePosition, aTimeout,
+            aCallback);
+    }
+
+    @Override
+    public void dccReceive(final File aFile, final Integer aSize,
+        final SocketAddress aAddress, final DCCReceiveCallback aCallback)
+    {
+        this.irc.dccReceive(aFile, aSize, aAddress, aCallback);
+    }
+
+    @Override
+    public void dccReceive(final File aFile, final Integer aSize,
+        final SocketAddress aAddress, final DCCReceiveCallback aCallback,
+        final Proxy aProxy)
+    {
+        this.irc.dccReceive(aFile, aSize, aAddress, aCallback, aProxy);
+    }
+
+    @Override
+    public void dccResume(final File aFile, final Integer aResumePosition,
+        final Integer aSize, final SocketAddress aAddress,
+        final DCCReceiveCallback aCallback)
+    {
+        this.irc.dccResume(aFile, aResumePosition, aSize, aAddress, aCallback);
+    }
+
+    @Override
+    public void dccResume(final File aFile, final Integer aResumePosition,
+        final Integer aSize, final SocketAddress aAddress,
+        final DCCReceiveCallback aCallback, final Proxy aProxy)
+    {
+        this.irc.dccResume(aFile, aResumePosition, aSize, aAddress, aCallback,
+            aProxy);
+    }
+
+    @Override
+    public DCCManager getDCCManager()
+    {
+        return this.irc.getDCCManager();
+    }
+
+    @Override
+    public void addListener(final IMessageListener aListener)
+    {
+        this.irc.addListener(aListener);
+    }
+
+    @Override
+    public void deleteListener(final IMessageListener aListener)
+    {
+        this.irc.deleteListener(aListener);
+    }
+
+    @Override
+    public void setMessageFilter(final IMessageFilter aFilter)
+    {
+        this.irc.setMessageFilter(aFilter);
+    }
+
+    /**
+     * A queued command.
+     */
+    private static final class Command
+    {
+        /**
+         * The command name.
+         */
+        private final String command;
+
+        /**
+         * The channels and nicks the command concerns, in lower case.
+         */
+        private final Set<String> targets;
+
+        /**
+         * The raw line of a mergeable query, or <tt>null</tt>.
+         */
+        private final String line;
+
+        /**
+         * The callback to fail if the command is dropped, or <tt>null</tt>.
+         */
+        private final Callback<?> callback;
+
+        /**
+         * The action that sends the command.
+         */
+        private final Runnable action;
+
+        /**
+         * The time the command was queued, in nanoseconds.
+         */
+        private final long queued = System.nanoTime();
+
+        /**
+         * Constructor.
+         *
+         * @param command the command name
+         * @param target the comma separated channels or nicks the command
+         *            concerns, or <tt>null</tt>
+         * @param line the raw line of a mergeable query, or <tt>null</tt>
+         * @param callback the callback to fail if the command is dropped, or
+         *            <tt>null</tt>
+         * @param action the action that sends the command
+         */
+        private Command(final String command, final String target,
+            final String line, final Callback<?> callback,
+            final Runnable action)
+        {
+            this.command = command;
+            if (target == null)
+            {
+                this.targets = Collections.emptySet();
+            }
+            else
+            {
+                this.targets = new HashSet<String>(Arrays.asList(
+                    target.toLowerCase(Locale.ROOT).split(",")));
+            }
+            this.line = line;
+            this.callback = callback;
+            this.action = action;
+        }
+
+        /**
+         * Check whether the command concerns a channel or nick.
+         *
+         * @return returns <tt>true</tt> if it has targets
+         */
+        private boolean hasTargets()
+        {
+            return !this.targets.isEmpty();
+        }
+
+        /**
+         * Check whether two commands concern the same channel or nick.
+         *
+         * @param other the other command
+         * @return returns <tt>true</tt> if they share a target
+         */
+        private boolean sharesTarget(final Command other)
+        {
+            return !Collections.disjoint(this.targets, other.targets);
+        }
+
+        /**
+         * Report to the caller that the command was not sent.
+         */
+        private void fail()
+        {
+            if (this.callback == null)
+            {
+                return;
+            }
+            try
+            {
+                this.callback.onFailure(new IOException(
+                    "Connection closed before " + this.command
+                        + " was sent."));
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Callback of dropped " + this.command
+                    + " command failed: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+/**
+ * Token bucket for pacing the commands sent to an IRC server.
+ *
+ * The bucket holds at most <tt>capacity</tt> tokens and gains one token per
+ * interval. Sending a command takes one token, so a burst of up to
+ * <tt>capacity</tt> commands is sent at once, after which commands are sent
+ * at one per interval. This matches the flood control of the common IRC
+ * servers, which allow a few commands at once and then penalize every
+ * command by a fixed amount of time.
+ *
+ * Instances are not thread-safe.
+ */
+final class TokenBucket
+{
+    /**
+     * Maximum number of tokens.
+     */
+    private final int capacity;
+
+    /**
+     * Nanoseconds needed to gain one token.
+     */
+    private final long interval;
+
+    /**
+     * Number of available tokens at {@link #lastRefill}.
+     */
+    private int tokens;
+
+    /**
+     * The time of the last refill, in nanoseconds.
+     */
+    private long lastRefill;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of tokens, i.e. the burst size
+     * @param interval the interval in nanoseconds for gaining one token
+     * @param now the current time in nanoseconds
+     */
+    TokenBucket(final int capacity, final long interval, final long now)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (interval < 0)
+        {
+            throw new IllegalArgumentException("interval cannot be negative");
+        }
+        this.capacity = capacity;
+        this.interval = interval;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Try to take a token.
+     *
+     * @param now the current time in nanoseconds
+     * @return returns 0 if a token was taken, otherwise the number of
+     *         nanoseconds until the next token is available
+     */
+    long tryAcquire(final long now)
+    {
+        refill(now);
+        if (this.tokens > 0)
+        {
+            this.tokens--;
+            return 0;
+        }
+        return Math.max(1, this.lastRefill + this.interval - now);
+    }
+
+    /**
+     * Get the number of available tokens.
+     *
+     * @param now the current time in nanoseconds
+     * @return returns the number of available tokens
+     */
+    int available(final long now)
+    {
+        refill(now);
+        return this.tokens;
+    }
+
+    /**
+     * Add the tokens gained since the last refill.
+     *
+     * @param now the current time in nanoseconds
+     */
+    private void refill(final long now)
+    {
+        if (this.tokens >= this.capacity || this.interval == 0)
+        {
+            this.tokens = this.capacity;
+            this.lastRefill = now;
+            return;
+        }
+        final long gained = (now - this.lastRefill) / this.interval;
+        if (gained <= 0)
+        {
+            return;
+        }
+        if (gained >= this.capacity - this.tokens)
+        {
+            this.tokens = this.capacity;
+            this.lastRefill = now;
+        }
+        else
+        {
+            this.tokens += (int) gained;
+            this.lastRefill += gained * this.interval;
+        }
+    }
+}
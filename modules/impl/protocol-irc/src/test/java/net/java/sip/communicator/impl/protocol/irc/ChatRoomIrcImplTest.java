@@ -255,6 +255,34 @@ public void testMemberCount()
         assertEquals(0, room.getMembersCount());
     }
 
+    @Test
+    public void testMembersSnapshot()
+    {
+        ChatRoomMemberIrcImpl user =
+            EasyMock.createMock(ChatRoomMemberIrcImpl.class);
+        EasyMock.replay(this.providerMock, this.stackMock, this.connectionMock,
+            this.channelMock,
+            user);
+        ChatRoomIrcImpl room =
+            new ChatRoomIrcImpl("#my-cool-channel", this.providerMock);
+        List<ChatRoomMember> empty = room.getMembers();
+        assertTrue(empty.isEmpty());
+        assertSame(empty, room.getMembers());
+
+        // the snapshot is replaced, not modified, when a user joins
+        room.addChatRoomMember("user", user);
+        List<ChatRoomMember> members = room.getMembers();
+        assertNotSame(empty, members);
+        assertTrue(empty.isEmpty());
+        assertEquals(1, members.size());
+        assertSame(user, members.get(0));
+        assertSame(members, room.getMembers());
+
+        room.removeChatRoomMember("user");
+        assertTrue(room.getMembers().isEmpty());
+        assertEquals(1, members.size());
+    }
+
     @Test
     public void testAddMember()
     {
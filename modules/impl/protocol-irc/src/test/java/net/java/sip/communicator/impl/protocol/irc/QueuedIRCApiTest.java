@@ -0,0 +1,240 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+
+import com.ircclouds.irc.api.*;
+import org.easymock.*;
+import org.junit.*;
+
+public class QueuedIRCApiTest
+{
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionNullIrc()
+    {
+        new QueuedIRCApi(null);
+    }
+
+    @Test
+    public void testCommandOf()
+    {
+        assertEquals("WHO", QueuedIRCApi.commandOf("who #jitsi"));
+        assertEquals("ISON", QueuedIRCApi.commandOf(" ISON a b c"));
+        assertEquals("AWAY", QueuedIRCApi.commandOf("AWAY"));
+    }
+
+    @Test
+    public void testPriorityOf()
+    {
+        assertEquals(QueuedIRCApi.Priority.CONTROL,
+            QueuedIRCApi.priorityOf("PONG"));
+        assertEquals(QueuedIRCApi.Priority.CONTROL,
+            QueuedIRCApi.priorityOf("AWAY"));
+        assertEquals(QueuedIRCApi.Priority.MESSAGE,
+            QueuedIRCApi.priorityOf("PRIVMSG"));
+        assertEquals(QueuedIRCApi.Priority.QUERY,
+            QueuedIRCApi.priorityOf("ISON"));
+        assertEquals(QueuedIRCApi.Priority.QUERY,
+            QueuedIRCApi.priorityOf("WHO"));
+    }
+
+    @Test
+    public void testTargetOf()
+    {
+        assertEquals("#jitsi",
+            QueuedIRCApi.targetOf("PRIVMSG", "PRIVMSG #jitsi :hi there"));
+        assertEquals("#a,#b", QueuedIRCApi.targetOf("PART", " PART  #a,#b"));
+        assertNull(QueuedIRCApi.targetOf("PART", "PART"));
+        assertNull(QueuedIRCApi.targetOf("WHO", "WHO #jitsi"));
+    }
+
+    @Test
+    public void testQueueAndMerge() throws InterruptedException
+    {
+        IRCApi ircMock = EasyMock.createNiceMock(IRCApi.class);
+        EasyMock.replay(ircMock);
+        QueuedIRCApi irc = new QueuedIRCApi(ircMock, 1, 3600000L);
+        // uses the only token
+        irc.message("#jitsi", "hello");
+        for (int i = 0; i < 100 && irc.getSentCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(1, irc.getSentCount());
+        irc.rawMessage("WHO #jitsi");
+        irc.rawMessage("WHO #jitsi");
+        irc.rawMessage("ISON a b");
+        irc.rawMessage("ISON c d");
+        assertEquals(3, irc.getQueueSize());
+        assertTrue(irc.isQueued("WHO"));
+        assertTrue(irc.isQueued("ISON"));
+        assertFalse(irc.isQueued("PRIVMSG"));
+        irc.disconnect();
+        assertEquals(0, irc.getQueueSize());
+    }
+
+    @Test
+    public void testPriorityOrder() throws InterruptedException
+    {
+        IRCApi ircMock = EasyMock.createStrictMock(IRCApi.class);
+        ircMock.rawMessage("WHO #jitsi");
+        ircMock.joinChannel("#other");
+        ircMock.message("#jitsi", "hello");
+        ircMock.rawMessage("WHO #other");
+        EasyMock.replay(ircMock);
+        QueuedIRCApi irc = new QueuedIRCApi(ircMock, 1, 200L);
+        irc.rawMessage("WHO #jitsi");
+        for (int i = 0; i < 100 && irc.getSentCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        irc.rawMessage("WHO #other");
+        irc.message("#jitsi", "hello");
+        irc.joinChannel("#other");
+        for (int i = 0; i < 200 && irc.getSentCount() < 4; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(4, irc.getSentCount());
+        EasyMock.verify(ircMock);
+    }
+
+    @Test
+    public void testControlCommandKeepsOrderOfTarget()
+        throws InterruptedException
+    {
+        IRCApi ircMock = EasyMock.createStrictMock(IRCApi.class);
+        ircMock.message("#jitsi", "first");
+        ircMock.leaveChannel("#other");
+        ircMock.message("#jitsi", "second");
+        ircMock.leaveChannel("#JITSI");
+        ircMock.joinChannel("#jitsi");
+        EasyMock.replay(ircMock);
+        QueuedIRCApi irc = new QueuedIRCApi(ircMock, 1, 100L);
+        irc.message("#jitsi", "first");
+        for (int i = 0; i < 100 && irc.getSentCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        irc.message("#jitsi", "second");
+        // may go first, no messages are queued for it
+        irc.leaveChannel("#other");
+        // must wait for the message that was written before
+        irc.leaveChannel("#JITSI");
+        // must not rejoin before leaving
+        irc.joinChannel("#jitsi");
+        for (int i = 0; i < 200 && irc.getSentCount() < 5; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(5, irc.getSentCount());
+        EasyMock.verify(ircMock);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDisconnectFailsQueuedCommands()
+        throws InterruptedException
+    {
+        IRCApi ircMock = EasyMock.createNiceMock(IRCApi.class);
+        Callback<String> callback = EasyMock.createStrictMock(Callback.class);
+        callback.onFailure(EasyMock.anyObject(Exception.class));
+        EasyMock.replay(ircMock, callback);
+        QueuedIRCApi irc = new QueuedIRCApi(ircMock, 1, 3600000L);
+        irc.message("#jitsi", "sent");
+        for (int i = 0; i < 100 && irc.getSentCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        irc.message("#jitsi", "queued", callback);
+        irc.notice("#jitsi", "queued");
+        assertEquals(2, irc.getQueueSize());
+        irc.disconnect("bye");
+        assertEquals(0, irc.getQueueSize());
+        assertEquals(1, irc.getSentCount());
+        EasyMock.verify(callback);
+    }
+
+    @Test
+    public void testErrorDoesNotStallQueue() throws InterruptedException
+    {
+        IRCApi ircMock = EasyMock.createStrictMock(IRCApi.class);
+        ircMock.message("#jitsi", "first");
+        EasyMock.expectLastCall().andThrow(new AssertionError("test"));
+        ircMock.message("#jitsi", "second");
+        EasyMock.replay(ircMock);
+        QueuedIRCApi irc = new QueuedIRCApi(ircMock, 5, 100L);
+        irc.message("#jitsi", "first");
+        for (int i = 0; i < 100 && irc.getSentCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        irc.message("#jitsi", "second");
+        for (int i = 0; i < 100 && irc.getSentCount() < 2; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(2, irc.getSentCount());
+        EasyMock.verify(ircMock);
+    }
+
+    @Test
+    public void testBlockedConnectionDoesNotBlockOthers()
+        throws InterruptedException
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        IRCApi blockedMock = EasyMock.createNiceMock(IRCApi.class);
+        blockedMock.message("#jitsi", "stuck");
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>()
+        {
+            @Override
+            public Object answer() throws Throwable
+            {
+                release.await();
+                return null;
+            }
+        });
+        IRCApi otherMock = EasyMock.createNiceMock(IRCApi.class);
+        EasyMock.replay(blockedMock, otherMock);
+        QueuedIRCApi blocked = new QueuedIRCApi(blockedMock);
+        QueuedIRCApi other = new QueuedIRCApi(otherMock);
+        try
+        {
+            blocked.message("#jitsi", "stuck");
+            for (int i = 0; i < 100 && blocked.getSentCount() == 0; i++)
+            {
+                Thread.sleep(10);
+            }
+            other.message("#jitsi", "hello");
+            for (int i = 0; i < 100 && other.getSentCount() == 0; i++)
+            {
+                Thread.sleep(10);
+            }
+            assertEquals(1, other.getSentCount());
+        }
+        finally
+        {
+            release.countDown();
+            blocked.disconnect();
+            other.disconnect();
+        }
+    }
+}
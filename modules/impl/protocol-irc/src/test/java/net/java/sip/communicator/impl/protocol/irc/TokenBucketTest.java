@@ -0,0 +1,86 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.irc;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+public class TokenBucketTest
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionZeroCapacity()
+    {
+        new TokenBucket(0, SECOND, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionNegativeInterval()
+    {
+        new TokenBucket(1, -1, 0);
+    }
+
+    @Test
+    public void testBurst()
+    {
+        TokenBucket bucket = new TokenBucket(3, 2 * SECOND, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(2 * SECOND, bucket.tryAcquire(0));
+        assertEquals(SECOND, bucket.tryAcquire(SECOND));
+    }
+
+    @Test
+    public void testRefill()
+    {
+        TokenBucket bucket = new TokenBucket(3, 2 * SECOND, 0);
+        for (int i = 0; i < 3; i++)
+        {
+            bucket.tryAcquire(0);
+        }
+        assertEquals(0, bucket.available(SECOND));
+        assertEquals(1, bucket.available(3 * SECOND));
+        assertEquals(0, bucket.tryAcquire(3 * SECOND));
+        // the partial interval is kept for the next token
+        assertEquals(SECOND, bucket.tryAcquire(3 * SECOND));
+        assertEquals(0, bucket.tryAcquire(4 * SECOND));
+    }
+
+    @Test
+    public void testRefillLimitedToCapacity()
+    {
+        TokenBucket bucket = new TokenBucket(3, 2 * SECOND, 0);
+        bucket.tryAcquire(0);
+        assertEquals(3, bucket.available(100 * SECOND));
+    }
+
+    @Test
+    public void testZeroInterval()
+    {
+        TokenBucket bucket = new TokenBucket(1, 0, 0);
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(0, bucket.tryAcquire(0));
+        }
+    }
+}
@@ -51,6 +51,7 @@
 import java.beans.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.jivesoftware.smack.packet.StanzaError.Condition.*;
 
@@ -81,8 +82,8 @@
      * Listeners that will be notified of changes in member status in the
      * room such as member joined, left or being kicked or dropped.
      */
-    private final Vector<ChatRoomMemberPresenceListener> memberListeners
-        = new Vector<>();
+    private final CopyOnWriteArrayList<ChatRoomMemberPresenceListener>
+        memberListeners = new CopyOnWriteArrayList<>();
 
     /**
      * Listeners that will be notified of changes in member role in the
@@ -133,10 +134,25 @@
     private final OperationSetMultiUserChatJabberImpl opSetMuc;
 
     /**
-     * The list of members of this chat room.
+     * The list of members of this chat room. Lookups do not lock,
+     * modifications synchronize on the map so that they can invalidate
+     * <tt>membersSnapshot</tt>.
      */
-    private final Hashtable<Resourcepart, ChatRoomMemberJabberImpl> members
-        = new Hashtable<>();
+    private final ConcurrentHashMap<Resourcepart, ChatRoomMemberJabberImpl>
+        members = new ConcurrentHashMap<>();
+
+    /**
+     * The unmodifiable list returned by {@link #getMembers()}, built on
+     * demand and dropped whenever the members change.
+     */
+    private volatile List<ChatRoomMember> membersSnapshot;
+
+    /**
+     * The join events of the occupants reported while we are joining the
+     * room, delivered together once the join completes. <tt>null</tt> when
+     * not joining. Guarded by <tt>members</tt>.
+     */
+    private List<ChatRoomMemberPresenceChangeEvent> pendingJoins;
 
     /**
      * The list of banned members of this chat room.
@@ -420,11 +436,7 @@ public void removeMessageListener(ChatRoomMessageListener listener)
     public void addMemberPresenceListener(
         ChatRoomMemberPresenceListener listener)
     {
-        synchronized(memberListeners)
-        {
-            if (!memberListeners.contains(listener))
-                memberListeners.add(listener);
-        }
+        memberListeners.addIfAbsent(listener);
     }
 
     /**
@@ -437,10 +449,7 @@ public void addMemberPresenceListener(
     public void removeMemberPresenceListener(
         ChatRoomMemberPresenceListener listener)
     {
-        synchronized(memberListeners)
-        {
-            memberListeners.remove(listener);
-        }
+        memberListeners.remove(listener);
     }
 
 
@@ -506,17 +515,31 @@ public Message createMessage(String messageText)
 
     /**
      * Returns a <tt>List</tt> of <tt>Member</tt>s corresponding to all
-     * members currently participating in this room.
+     * members currently participating in this room. The returned list is an
+     * unmodifiable snapshot which is shared by all callers until the members
+     * change.
      *
      * @return a <tt>List</tt> of <tt>Member</tt> corresponding to all room
      *   members.
      */
     public List<ChatRoomMember> getMembers()
     {
-        synchronized (members)
+        List<ChatRoomMember> snapshot = membersSnapshot;
+
+        if (snapshot == null)
         {
-            return new LinkedList<>(members.values());
+            synchronized (members)
+            {
+                snapshot = membersSnapshot;
+                if (snapshot == null)
+                {
+                    snapshot = Collections.unmodifiableList(
+                        new ArrayList<ChatRoomMember>(members.values()));
+                    membersSnapshot = snapshot;
+                }
+            }
         }
+        return snapshot;
     }
 
     /**
@@ -736,10 +759,19 @@ public void joinAs(String nickname, byte[] password)
                     presenceListener,
                     new AndFilter(FromMatchesFilter.create(multiUserChat.getRoom()), StanzaTypeFilter.PRESENCE));
 
+                // the room sends the presence of every occupant before
+                // ours, collect them and report them together
+                synchronized (members)
+                {
+                    pendingJoins = new ArrayList<>();
+                }
+
                 if(password == null)
                     multiUserChat.join(this.nickname);
                 else
                     multiUserChat.join(this.nickname, new String(password));
+
+                firePendingJoins();
             }
 
             ChatRoomMemberJabberImpl member
@@ -750,6 +782,7 @@ public void joinAs(String nickname, byte[] password)
             synchronized (members)
             {
                 members.put(this.nickname, member);
+                membersSnapshot = null;
             }
 
             // We don't specify a reason.
@@ -858,6 +891,88 @@ else if(ex.getStanzaError().getCondition() == registration_required)
                 OperationFailedException.GENERAL_ERROR,
                 ex);
         }
+        finally
+        {
+            // drop what has been collected if the join failed
+            synchronized (members)
+            {
+                pendingJoins = null;
+            }
+        }
+    }
+
+    /**
+     * Delivers the join events of the occupants collected while joining the
+     * room at once and stops collecting them.
+     */
+    private void firePendingJoins()
+    {
+        List<ChatRoomMemberPresenceChangeEvent> evts;
+
+        synchronized (members)
+        {
+            evts = pendingJoins;
+            pendingJoins = null;
+        }
+
+        if (evts == null || evts.isEmpty())
+            return;
+
+        if (logger.isDebugEnabled())
+            logger.debug("Will dispatch " + evts.size()
+                + " member join events of " + getName());
+
+        fireMemberPresenceEvents(memberListeners, evts);
+    }
+
+    /**
+     * Checks whether the join event of an occupant is still collected for
+     * delivery once we have joined the room. Must be called with
+     * <tt>members</tt> held.
+     *
+     * @param member the occupant.
+     * @return <tt>true</tt> if the join of <tt>member</tt> has not been
+     * reported yet.
+     */
+    private boolean isJoinPending(ChatRoomMember member)
+    {
+        if (pendingJoins == null)
+            return false;
+
+        for (ChatRoomMemberPresenceChangeEvent evt : pendingJoins)
+        {
+            if (evt.getChatRoomMember() == member)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the join event of an occupant which is no longer in the room
+     * before the collected join events have been delivered, so that it is
+     * neither reported as joined nor as gone. Must be called with
+     * <tt>members</tt> held.
+     *
+     * @param member the occupant.
+     * @return <tt>true</tt> if the join of <tt>member</tt> had not been
+     * reported yet and has been dropped.
+     */
+    private boolean removePendingJoin(ChatRoomMember member)
+    {
+        if (pendingJoins == null)
+            return false;
+
+        Iterator<ChatRoomMemberPresenceChangeEvent> iter
+            = pendingJoins.iterator();
+        while (iter.hasNext())
+        {
+            if (iter.next().getChatRoomMember() == member)
+            {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -1086,20 +1201,23 @@ public void leave()
         }
 
         // FIXME Do we have to do the following when we leave the room?
-        Hashtable<Resourcepart, ChatRoomMemberJabberImpl> membersCopy;
+        List<ChatRoomMemberPresenceChangeEvent> leftEvts;
         synchronized (members)
         {
-            membersCopy = new Hashtable<>(members);
+            leftEvts = new ArrayList<>(members.size());
+            for (ChatRoomMember member : members.values())
+                leftEvts.add(new ChatRoomMemberPresenceChangeEvent(
+                    this,
+                    member,
+                    ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT,
+                    "Local user has left the chat room."));
 
             // Delete the list of members
             members.clear();
+            membersSnapshot = null;
         }
 
-        for (ChatRoomMember member : membersCopy.values())
-            fireMemberPresenceEvent(
-                member,
-                ChatRoomMemberPresenceChangeEvent.MEMBER_LEFT,
-                "Local user has left the chat room.");
+        fireMemberPresenceEvents(memberListeners, leftEvts);
 
         // connection can be null if we are leaving cause connection failed
         if(connection != null)
@@ -1331,13 +1449,22 @@ public void banned(EntityFullJid participant, Jid actor, String reason)
             if(member == null)
                 return;
 
+            boolean wasPending;
             synchronized (members)
             {
                 members.remove(participant.getResourceOrThrow());
+                membersSnapshot = null;
+                wasPending = removePendingJoin(member);
             }
 
             banList.put(participant.getResourceOrThrow(), member);
 
+            if (wasPending)
+            {
+                member.setRole(ChatRoomMemberRole.OUTCAST);
+                return;
+            }
+
             fireMemberRoleEvent(member, member.getCurrentRole(),
                 ChatRoomMemberRole.OUTCAST);
         }
@@ -1427,7 +1554,23 @@ public void joined(EntityFullJid participant)
             // let's update the participant last presence
             updateMemberLastPresence(member, multiUserChat.getOccupantPresence(participant));
 
-            members.put(participantName, member);
+            synchronized (members)
+            {
+                members.put(participantName, member);
+                membersSnapshot = null;
+
+                // the occupants listed while we are joining were there
+                // before us
+                if (pendingJoins != null)
+                {
+                    pendingJoins.add(new ChatRoomMemberPresenceChangeEvent(
+                        ChatRoomJabberImpl.this,
+                        member,
+                        ChatRoomMemberPresenceChangeEvent.MEMBER_JOINED,
+                        ChatRoomMemberPresenceChangeEvent.REASON_USER_LIST));
+                    return;
+                }
+            }
 
             //we don't specify a reason
             fireMemberPresenceEvent(member,
@@ -1457,6 +1600,11 @@ public void left(EntityFullJid participant)
             synchronized (members)
             {
                 members.remove(participant.getResourceOrThrow());
+                membersSnapshot = null;
+
+                // gone before we have reported it
+                if (removePendingJoin(member))
+                    return;
             }
 
             fireMemberPresenceEvent(member,
@@ -1487,6 +1635,11 @@ public void nicknameChanged(EntityFullJid participant, Resourcepart newNickname)
                 // change the member key
                 ChatRoomMemberJabberImpl mem = members.remove(participant.getResourceOrThrow());
                 members.put(newNickname, mem);
+                membersSnapshot = null;
+
+                // the pending join reports the member with its new name
+                if (isJoinPending(member))
+                    return;
             }
 
             ChatRoomMemberPropertyChangeEvent evt
@@ -1548,6 +1701,11 @@ public void kicked(EntityFullJid participant, Jid actor, String reason)
             synchronized (members)
             {
                 members.remove(participant.getResourceOrThrow());
+                membersSnapshot = null;
+
+                // gone before we have reported it
+                if (removePendingJoin(member))
+                    return;
             }
 
             fireMemberPresenceEvent(member, actorMember,
@@ -1977,18 +2135,8 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
         if (logger.isTraceEnabled())
             logger.trace("Will dispatch the following ChatRoom event: " + evt);
 
-        Iterator<ChatRoomMemberPresenceListener> listeners;
-        synchronized (memberListeners)
-        {
-            listeners = new ArrayList<>(memberListeners).iterator();
-        }
-
-        while (listeners.hasNext())
-        {
-            ChatRoomMemberPresenceListener listener = listeners.next();
-
+        for (ChatRoomMemberPresenceListener listener : memberListeners)
             listener.memberPresenceChanged(evt);
-        }
     }
 
     /**
@@ -2013,13 +2161,7 @@ private void fireMemberPresenceEvent(ChatRoomMember member,
         if (logger.isTraceEnabled())
             logger.trace("Will dispatch the following ChatRoom event: " + evt);
 
-        Iterable<ChatRoomMemberPresenceListener> listeners;
-        synchronized (memberListeners)
-        {
-            listeners = new ArrayList<>(memberListeners);
-        }
-
-        for (ChatRoomMemberPresenceListener listener : listeners)
+        for (ChatRoomMemberPresenceListener listener : memberListeners)
             listener.memberPresenceChanged(evt);
     }
 
@@ -440,13 +440,15 @@ public boolean isResolved()
     }
 
     /**
-     * Resolve this contact group against the specified group
+     * Resolve this contact group against the specified group. A group which
+     * is already resolved, after a reconnect, only picks up the entries which
+     * are new or changed, the others do not fire any event.
      * @param source the server stored group
+     * @return <tt>true</tt> if the group was not resolved yet.
      */
-    void setResolved(RosterGroup source)
+    boolean setResolved(RosterGroup source)
     {
-        if(isResolved)
-            return;
+        boolean wasResolved = isResolved;
 
         this.isResolved = true;
 
@@ -474,9 +476,10 @@ void setResolved(RosterGroup source)
 
             if(contact != null)
             {
-                contact.setResolved(item);
-
-                ssclCallback.fireContactResolved(this, contact);
+                if(contact.setResolved(item))
+                    ssclCallback.fireContactResolved(this, contact);
+                else
+                    ssclCallback.fireCachedPresence(contact);
             }
             else
             {
@@ -487,6 +490,8 @@ void setResolved(RosterGroup source)
                 ssclCallback.fireContactAdded(this, newContact);
             }
         }
+
+        return !wasResolved;
     }
 
     /**
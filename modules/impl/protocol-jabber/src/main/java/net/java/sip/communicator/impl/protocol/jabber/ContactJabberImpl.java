@@ -418,16 +418,25 @@ void setPersistent(boolean persistent)
     /**
      * Resolve this contact against the given entry
      * @param entry the server stored entry
+     * @return <tt>true</tt> if the contact was not resolved yet or the entry
+     * has a different server stored name, <tt>false</tt> if nothing changed.
      */
-    void setResolved(RosterEntry entry)
+    boolean setResolved(RosterEntry entry)
     {
         if(isResolved)
-            return;
+        {
+            if(Objects.equals(serverDisplayName, entry.getName()))
+                return false;
+
+            this.serverDisplayName = entry.getName();
+            return true;
+        }
 
         this.isResolved = true;
         this.isPersistent = true;
         this.jid = entry.getJid();
         this.serverDisplayName = entry.getName();
+        return true;
     }
 
     /**
@@ -0,0 +1,586 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.java.sip.communicator.service.netaddr.*;
+import net.java.sip.communicator.service.netaddr.event.*;
+import net.java.sip.communicator.service.protocol.*;
+import net.java.sip.communicator.service.protocol.event.*;
+
+import org.ice4j.*;
+import org.ice4j.ice.harvest.*;
+import org.ice4j.security.*;
+import org.jitsi.service.configuration.*;
+import org.jxmpp.jid.parts.*;
+
+/**
+ * Resolves the STUN and TURN servers of an account once, so that a call does
+ * not wait for the STUN/TURN SRV lookups and a possible password prompt
+ * before it can gather candidates. Only the servers are kept: their address,
+ * transport and long-term credential. Every ICE agent gets harvesters of its
+ * own, as harvesters keep the state of the agent they harvest for.
+ * <p>
+ * The servers are resolved in the background when the account registers,
+ * unless they are still valid, and are dropped when the network
+ * configuration changes, when the user unregisters the account and after a
+ * configurable time to live, in which case the next call resolves them
+ * again. Jingle Nodes harvesters are not covered, as the provider already
+ * keeps its discovered service node.
+ * </p>
+ */
+class IceHarvesterRegistry
+    implements NetworkConfigurationChangeListener,
+               RegistrationStateChangeListener
+{
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(IceHarvesterRegistry.class);
+
+    /**
+     * The name of the property with the number of seconds the resolved
+     * servers are kept.
+     */
+    static final String PNAME_HARVESTERS_TTL
+        = "net.java.sip.communicator.impl.protocol.jabber.ICE_HARVESTERS_TTL";
+
+    /**
+     * The default time to live of the resolved servers in seconds.
+     */
+    private static final int DEFAULT_HARVESTERS_TTL = 600;
+
+    /**
+     * Default STUN server address.
+     */
+    static final String DEFAULT_STUN_SERVER_ADDRESS = "turn.jitsi.net";
+
+    /**
+     * Default STUN server port.
+     */
+    static final int DEFAULT_STUN_SERVER_PORT = 3478;
+
+    /**
+     * The executor resolving the servers of registered accounts in the
+     * background.
+     */
+    private static ExecutorService resolveExecutor;
+
+    /**
+     * The provider of the account whose servers are kept.
+     */
+    private final ProtocolProviderServiceJabberImpl provider;
+
+    /**
+     * The resolved servers, <tt>null</tt> if they are to be resolved on the
+     * next request.
+     */
+    private List<StunServer> servers;
+
+    /**
+     * The time in nanoseconds, as returned by <tt>System.nanoTime()</tt>,
+     * after which {@link #servers} are resolved again.
+     */
+    private long expiry;
+
+    /**
+     * Counts the invalidations, so that a resolution started before one is
+     * not kept.
+     */
+    private int generation;
+
+    /**
+     * Creates the registry of the given provider.
+     *
+     * @param provider the provider of the account.
+     */
+    IceHarvesterRegistry(ProtocolProviderServiceJabberImpl provider)
+    {
+        this.provider = provider;
+    }
+
+    /**
+     * Starts listening for registration and network configuration changes.
+     */
+    void start()
+    {
+        provider.addRegistrationStateChangeListener(this);
+
+        NetworkAddressManagerService namSer
+            = JabberActivator.getNetworkAddressManagerService();
+        if (namSer != null)
+            namSer.addNetworkConfigurationChangeListener(this);
+    }
+
+    /**
+     * Stops listening for changes and drops the resolved servers.
+     */
+    void stop()
+    {
+        provider.removeRegistrationStateChangeListener(this);
+
+        NetworkAddressManagerService namSer
+            = JabberActivator.getNetworkAddressManagerService();
+        if (namSer != null)
+            namSer.removeNetworkConfigurationChangeListener(this);
+
+        invalidate();
+    }
+
+    /**
+     * Creates new STUN, TURN and UPnP harvesters for an ICE agent of the
+     * account, resolving the servers if they are not known or have expired.
+     * May ask the user for the password of the account.
+     *
+     * @return the harvesters to add to a new ICE agent or <tt>null</tt> if
+     * the user has canceled the password prompt.
+     */
+    List<CandidateHarvester> getHarvesters()
+    {
+        List<StunServer> resolved = getServers(true);
+
+        if (resolved == null)
+            return null;
+
+        List<CandidateHarvester> harvesters = new ArrayList<>();
+        for (StunServer server : resolved)
+            harvesters.add(server.createHarvester());
+
+        if (((JabberAccountIDImpl) provider.getAccountID()).isUPNPEnabled())
+            harvesters.add(new UPNPHarvester());
+
+        return harvesters;
+    }
+
+    /**
+     * Returns the resolved servers, resolving them when needed.
+     *
+     * @param mayPrompt whether the user may be asked for the password of the
+     * account.
+     * @return the servers or <tt>null</tt> if the password of the account is
+     * needed but unknown.
+     */
+    private List<StunServer> getServers(boolean mayPrompt)
+    {
+        int resolveGeneration;
+        synchronized (this)
+        {
+            if (isValid())
+                return servers;
+
+            resolveGeneration = generation;
+        }
+
+        long start = System.currentTimeMillis();
+        List<StunServer> resolved = resolve(mayPrompt);
+
+        if (resolved == null)
+            return null;
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Resolved " + resolved + " for "
+                + provider.getAccountID() + " within "
+                + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        synchronized (this)
+        {
+            if (resolveGeneration == generation)
+            {
+                servers = resolved;
+                expiry = System.nanoTime()
+                    + TimeUnit.SECONDS.toNanos(getTimeToLive());
+            }
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Checks whether the servers have been resolved and have not expired.
+     *
+     * @return <tt>true</tt> if the resolved servers may be used.
+     */
+    private synchronized boolean isValid()
+    {
+        return servers != null && System.nanoTime() - expiry < 0;
+    }
+
+    /**
+     * Drops the resolved servers, the next call resolves them again.
+     */
+    synchronized void invalidate()
+    {
+        servers = null;
+        generation++;
+    }
+
+    /**
+     * Resolves the servers of the account in the background, without asking
+     * the user for a password, unless they are still valid.
+     */
+    void prewarm()
+    {
+        if (isValid())
+            return;
+
+        getResolveExecutor().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    getServers(false);
+                }
+                catch (Throwable t)
+                {
+                    logger.warn("Failed to resolve the STUN/TURN servers of "
+                        + provider.getAccountID(), t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Resolves the registered accounts again after a change of the network
+     * configuration, as the discovered servers and the UPnP gateway may
+     * differ.
+     *
+     * @param event the change event.
+     */
+    @Override
+    public void configurationChanged(ChangeEvent event)
+    {
+        invalidate();
+
+        if (provider.isRegistered())
+            prewarm();
+    }
+
+    /**
+     * Resolves the servers when the account registers and drops them when
+     * the user unregisters it. A reconnect keeps them until they expire, as
+     * a change of the network is reported on its own.
+     *
+     * @param evt the registration state change event.
+     */
+    @Override
+    public void registrationStateChanged(RegistrationStateChangeEvent evt)
+    {
+        RegistrationState newState = evt.getNewState();
+
+        if (RegistrationState.REGISTERED.equals(newState))
+        {
+            prewarm();
+        }
+        else if (RegistrationState.UNREGISTERED.equals(newState)
+            && evt.isUserRequest())
+        {
+            invalidate();
+        }
+    }
+
+    /**
+     * Resolves the STUN/TURN servers of the account: the auto discovered
+     * one, the configured ones or the default one.
+     *
+     * @param mayPrompt whether the user may be asked for the password of the
+     * account.
+     * @return the servers or <tt>null</tt> if the password of the account is
+     * needed and the user canceled the prompt or may not be asked.
+     */
+    private List<StunServer> resolve(boolean mayPrompt)
+    {
+        NetworkAddressManagerService namSer
+            = JabberActivator.getNetworkAddressManagerService();
+        JabberAccountIDImpl accID
+            = (JabberAccountIDImpl) provider.getAccountID();
+        List<StunServer> resolved = new ArrayList<>();
+        boolean atLeastOneStunServer = false;
+
+        if (accID.isStunServerDiscoveryEnabled())
+        {
+            //the default server is supposed to use the same user name and
+            //password as the account itself.
+            Localpart username = provider.getOurJID().getLocalpartOrThrow();
+            String password = getPassword(accID, mayPrompt);
+
+            if (password == null)
+                return null;
+
+            byte[] usernameBytes
+                = username.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+
+            long start = System.currentTimeMillis();
+            StunCandidateHarvester autoHarvester
+                = namSer.discoverStunServer(
+                        accID.getService(),
+                        usernameBytes,
+                        passwordBytes);
+
+            if (logger.isInfoEnabled())
+            {
+                logger.info("Auto discovered harvester is " + autoHarvester
+                    + " within " + (System.currentTimeMillis() - start)
+                    + " ms");
+            }
+
+            // only the discovered server is kept, the harvester is used once
+            if (autoHarvester != null)
+            {
+                atLeastOneStunServer = true;
+                resolved.add(
+                    (autoHarvester instanceof TurnCandidateHarvester)
+                        ? new StunServer(
+                            autoHarvester.stunServer,
+                            usernameBytes,
+                            passwordBytes)
+                        : new StunServer(autoHarvester.stunServer));
+            }
+        }
+
+        //now create stun server descriptors for whatever other STUN/TURN
+        //servers the user may have set.
+        for(StunServerDescriptor desc : accID.getStunServers())
+        {
+            TransportAddress addr
+                = new TransportAddress(
+                        desc.getAddress(),
+                        desc.getPort(),
+                        Transport.UDP);
+
+            // if we get STUN server from automatic discovery, it may just
+            // be server name (i.e. stun.domain.org) and it may be possible that
+            // it cannot be resolved
+            if(addr.getAddress() == null)
+            {
+                logger.info("Unresolved address for " + addr);
+                continue;
+            }
+
+            StunServer server;
+
+            if(desc.isTurnSupported())
+            {
+                //Yay! a TURN server
+                server
+                    = new StunServer(
+                            addr,
+                            desc.getUsername(),
+                            desc.getPassword());
+            }
+            else
+            {
+                //this is a STUN only server
+                server = new StunServer(addr);
+            }
+
+            if (logger.isInfoEnabled())
+                logger.info("Adding pre-configured server " + server);
+
+            atLeastOneStunServer = true;
+            resolved.add(server);
+        }
+
+        if(!atLeastOneStunServer && accID.isUseDefaultStunServer())
+        {
+            /* we have no configured or discovered STUN server so takes the
+             * default provided by us if user allows it
+             */
+            TransportAddress addr
+                = new TransportAddress(
+                        DEFAULT_STUN_SERVER_ADDRESS,
+                        DEFAULT_STUN_SERVER_PORT,
+                        Transport.UDP);
+
+            resolved.add(new StunServer(addr));
+        }
+
+        return Collections.unmodifiableList(resolved);
+    }
+
+    /**
+     * Returns the password of the account for the auto discovered STUN/TURN
+     * server, asking the user for it if it is not known.
+     *
+     * @param accID the account.
+     * @param mayPrompt whether the user may be asked for the password.
+     * @return the password or <tt>null</tt> if it is not known and the user
+     * canceled the prompt or may not be asked.
+     */
+    private String getPassword(JabberAccountIDImpl accID, boolean mayPrompt)
+    {
+        String password
+            = JabberActivator.getProtocolProviderFactory().loadPassword(accID);
+        UserCredentials credentials = provider.getUserCredentials();
+
+        if(credentials != null)
+            password = credentials.getPasswordAsString();
+
+        if (password != null || !mayPrompt)
+            return password;
+
+        //create a default credentials object
+        credentials = new UserCredentials();
+        credentials.setUserName(accID.getUserID());
+        //request a password from the user
+        credentials
+            = provider.getAuthority().obtainCredentials(
+                    accID.getDisplayName(),
+                    credentials,
+                    SecurityAuthority.AUTHENTICATION_REQUIRED);
+
+        // in case user has canceled the login window
+        if(credentials == null)
+        {
+            logger.info("Credentials were null. User has most likely canceled the login operation");
+            return null;
+        }
+
+        //extract the password the user passed us.
+        char[] pass = credentials.getPassword();
+
+        // the user didn't provide us a password (i.e. canceled the
+        // operation)
+        if(pass == null)
+        {
+            logger.info("Password was null. User has most likely canceled the login operation");
+            return null;
+        }
+        password = new String(pass);
+
+        if (credentials.isPasswordPersistent())
+        {
+            JabberActivator.getProtocolProviderFactory()
+                .storePassword(accID, password);
+        }
+
+        return password;
+    }
+
+    /**
+     * Returns the configured time to live of the resolved servers.
+     *
+     * @return the time to live in seconds.
+     */
+    private static int getTimeToLive()
+    {
+        ConfigurationService cfg = JabberActivator.getConfigurationService();
+
+        return (cfg == null)
+            ? DEFAULT_HARVESTERS_TTL
+            : cfg.getInt(PNAME_HARVESTERS_TTL, DEFAULT_HARVESTERS_TTL);
+    }
+
+    /**
+     * Returns the executor resolving servers in the background.
+     *
+     * @return the executor.
+     */
+    private static synchronized ExecutorService getResolveExecutor()
+    {
+        if (resolveExecutor == null)
+        {
+            resolveExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "ICE harvester resolver");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return resolveExecutor;
+    }
+
+    /**
+     * A resolved STUN or TURN server, from which a new harvester is created
+     * for every ICE agent.
+     */
+    private static class StunServer
+    {
+        /**
+         * The address and transport of the server.
+         */
+        final TransportAddress address;
+
+        /**
+         * The user name of the long-term credential of a TURN server,
+         * <tt>null</tt> for a STUN only server.
+         */
+        final byte[] username;
+
+        /**
+         * The password of the long-term credential of a TURN server,
+         * <tt>null</tt> for a STUN only server.
+         */
+        final byte[] password;
+
+        /**
+         * Creates a STUN only server.
+         *
+         * @param address the address and transport of the server.
+         */
+        StunServer(TransportAddress address)
+        {
+            this(address, null, null);
+        }
+
+        /**
+         * Creates a TURN server, or a STUN only server if there is no user
+         * name.
+         *
+         * @param address the address and transport of the server.
+         * @param username the user name of the long-term credential.
+         * @param password the password of the long-term credential.
+         */
+        StunServer(TransportAddress address, byte[] username, byte[] password)
+        {
+            this.address = address;
+            this.username = username;
+            this.password = password;
+        }
+
+        /**
+         * Creates a harvester for this server.
+         *
+         * @return a new harvester for a single ICE agent.
+         */
+        StunCandidateHarvester createHarvester()
+        {
+            return (username == null)
+                ? new StunCandidateHarvester(address)
+                : new TurnCandidateHarvester(
+                    address,
+                    new LongTermCredential(username, password));
+        }
+
+        @Override
+        public String toString()
+        {
+            return ((username == null) ? "STUN " : "TURN ") + address;
+        }
+    }
+}
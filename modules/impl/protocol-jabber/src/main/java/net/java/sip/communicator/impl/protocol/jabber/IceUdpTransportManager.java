@@ -19,7 +19,6 @@
 
 import java.beans.*;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import org.jitsi.xmpp.extensions.jingle.*;
@@ -33,11 +32,9 @@
 import org.ice4j.ice.harvest.*;
 import org.ice4j.socket.*;
 import org.ice4j.socket.DatagramPacketFilter;
-import org.ice4j.security.*;
 import org.jitsi.service.neomedia.*;
 import org.jitsi.utils.*;
 import org.jivesoftware.smack.packet.*;
-import org.jxmpp.jid.parts.*;
 import org.xmpp.jnodes.smack.*;
 
 /**
@@ -58,16 +55,6 @@
      */
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(IceUdpTransportManager.class);
 
-    /**
-     * Default STUN server address.
-     */
-    protected static final String DEFAULT_STUN_SERVER_ADDRESS = "turn.jitsi.net";
-
-    /**
-     * Default STUN server port.
-     */
-    protected static final int DEFAULT_STUN_SERVER_PORT = 3478;
-
     /**
      * The ICE <tt>Component</tt> IDs in their common order used, for example,
      * by <tt>DefaultStreamConnector</tt>, <tt>MediaStreamTarget</tt>.
@@ -176,7 +163,6 @@ protected Agent createIceAgent()
         CallPeerJabberImpl peer = getCallPeer();
         ProtocolProviderServiceJabberImpl provider = peer.getProtocolProvider();
         NetworkAddressManagerService namSer = getNetAddrMgr();
-        boolean atLeastOneStunServer = false;
         Agent agent = namSer.createIceAgent();
 
         /*
@@ -185,135 +171,20 @@ protected Agent createIceAgent()
          */
         agent.setControlling(!peer.isInitiator());
 
-        //we will now create the harvesters
-        JabberAccountIDImpl accID
-            = (JabberAccountIDImpl) provider.getAccountID();
-
-        if (accID.isStunServerDiscoveryEnabled())
-        {
-            //the default server is supposed to use the same user name and
-            //password as the account itself.
-            Localpart username = provider.getOurJID().getLocalpartOrThrow();
-            String password
-                = JabberActivator.getProtocolProviderFactory().loadPassword(
-                        accID);
-            UserCredentials credentials = provider.getUserCredentials();
-
-            if(credentials != null)
-                password = credentials.getPasswordAsString();
-
-            // ask for password if not saved
-            if (password == null)
-            {
-                //create a default credentials object
-                credentials = new UserCredentials();
-                credentials.setUserName(accID.getUserID());
-                //request a password from the user
-                credentials
-                    = provider.getAuthority().obtainCredentials(
-                            accID.getDisplayName(),
-                            credentials,
-                            SecurityAuthority.AUTHENTICATION_REQUIRED);
-
-                // in case user has canceled the login window
-                if(credentials == null)
-                {
-                    logger.info("Credentials were null. User has most likely canceled the login operation");
-                    return null;
-                }
-
-                //extract the password the user passed us.
-                char[] pass = credentials.getPassword();
-
-                // the user didn't provide us a password (i.e. canceled the
-                // operation)
-                if(pass == null)
-                {
-                    logger.info("Password was null. User has most likely canceled the login operation");
-                    return null;
-                }
-                password = new String(pass);
-
-                if (credentials.isPasswordPersistent())
-                {
-                    JabberActivator.getProtocolProviderFactory()
-                        .storePassword(accID, password);
-                }
-            }
+        //the STUN/TURN servers are resolved once per account, the
+        //harvesters are new for every agent
+        List<CandidateHarvester> harvesters
+            = provider.getIceHarvesterRegistry().getHarvesters();
 
-            StunCandidateHarvester autoHarvester
-                = namSer.discoverStunServer(
-                        accID.getService(),
-                        username.toString().getBytes(StandardCharsets.UTF_8),
-                        password.getBytes(StandardCharsets.UTF_8));
-
-            if (logger.isInfoEnabled())
-                logger.info("Auto discovered harvester is " + autoHarvester);
-
-            if (autoHarvester != null)
-            {
-                atLeastOneStunServer = true;
-                agent.addCandidateHarvester(autoHarvester);
-            }
-        }
-
-        //now create stun server descriptors for whatever other STUN/TURN
-        //servers the user may have set.
-        for(StunServerDescriptor desc : accID.getStunServers())
-        {
-            TransportAddress addr
-                = new TransportAddress(
-                        desc.getAddress(),
-                        desc.getPort(),
-                        Transport.UDP);
-
-            // if we get STUN server from automatic discovery, it may just
-            // be server name (i.e. stun.domain.org) and it may be possible that
-            // it cannot be resolved
-            if(addr.getAddress() == null)
-            {
-                logger.info("Unresolved address for " + addr);
-                continue;
-            }
-
-            StunCandidateHarvester harvester;
-
-            if(desc.isTurnSupported())
-            {
-                //Yay! a TURN server
-                harvester
-                    = new TurnCandidateHarvester(
-                            addr,
-                            new LongTermCredential(
-                                    desc.getUsername(),
-                                    desc.getPassword()));
-            }
-            else
-            {
-                //this is a STUN only server
-                harvester = new StunCandidateHarvester(addr);
-            }
-
-            if (logger.isInfoEnabled())
-                logger.info("Adding pre-configured harvester " + harvester);
+        // in case user has canceled the login window
+        if (harvesters == null)
+            return null;
 
-            atLeastOneStunServer = true;
+        for (CandidateHarvester harvester : harvesters)
             agent.addCandidateHarvester(harvester);
-        }
 
-        if(!atLeastOneStunServer && accID.isUseDefaultStunServer())
-        {
-            /* we have no configured or discovered STUN server so takes the
-             * default provided by us if user allows it
-             */
-            TransportAddress addr
-                = new TransportAddress(
-                        DEFAULT_STUN_SERVER_ADDRESS,
-                        DEFAULT_STUN_SERVER_PORT,
-                        Transport.UDP);
-
-            agent.addCandidateHarvester(new StunCandidateHarvester(addr));
-        }
+        JabberAccountIDImpl accID
+            = (JabberAccountIDImpl) provider.getAccountID();
 
         /* Jingle nodes candidate */
         if(accID.isJingleNodesRelayEnabled())
@@ -330,9 +201,6 @@ protected Agent createIceAgent()
             }
         }
 
-        if(accID.isUPNPEnabled())
-            agent.addCandidateHarvester(new UPNPHarvester());
-
         long stopGatheringHarvesterTime = System.currentTimeMillis();
 
         if (logger.isInfoEnabled())
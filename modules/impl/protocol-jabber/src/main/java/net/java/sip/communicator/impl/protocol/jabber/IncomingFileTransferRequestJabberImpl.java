@@ -185,7 +185,7 @@ public FileTransfer acceptFile(File file)
             jabberTransfer.receiveFile(file);
 
             new OperationSetFileTransferJabberImpl
-                .FileTransferProgressThread(
+                .FileTransferProgressTracker(
                 jabberTransfer, incomingTransfer, getFileSize()).start();
         }
         catch (IOException | SmackException e)
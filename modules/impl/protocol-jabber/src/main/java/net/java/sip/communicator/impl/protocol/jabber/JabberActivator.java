@@ -29,6 +29,7 @@
 import net.java.sip.communicator.util.osgi.DependentActivator;
 import net.java.sip.communicator.util.osgi.ServiceUtils;
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.service.neomedia.*;
 import org.jitsi.service.packetlogging.*;
 import org.jitsi.service.resources.*;
@@ -126,6 +127,11 @@
      */
     private static PhoneNumberI18nService phoneNumberI18nService;
 
+    /**
+     * The registered <tt>FileAccessService</tt>.
+     */
+    private static FileAccessService fileAccessService;
+
     /**
      * The global display details service instance.
      */
@@ -474,6 +480,23 @@ public static PhoneNumberI18nService getPhoneNumberI18nService()
         return phoneNumberI18nService;
     }
 
+    /**
+     * Returns the <tt>FileAccessService</tt>.
+     * @return the <tt>FileAccessService</tt> or <tt>null</tt> if none is
+     * registered.
+     */
+    public static FileAccessService getFileAccessService()
+    {
+        if(fileAccessService == null)
+        {
+            fileAccessService = ServiceUtils.getService(
+                bundleContext,
+                FileAccessService.class);
+        }
+
+        return fileAccessService;
+    }
+
     /**
      * Returns the <tt>GlobalDisplayDetailsService</tt> obtained from the bundle
      * context.
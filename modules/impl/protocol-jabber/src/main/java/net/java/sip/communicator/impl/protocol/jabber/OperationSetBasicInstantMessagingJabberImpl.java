@@ -647,7 +647,9 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
                             packetFilters.toArray(
                                 new StanzaFilter[packetFilters.size()])));
             }
-            else if (evt.getNewState() == RegistrationState.REGISTERED)
+            // carbons stay enabled on a resumed stream
+            else if (evt.getNewState() == RegistrationState.REGISTERED
+                && evt.getOldState() != RegistrationState.UPDATING_REGISTRATION)
             {
                 new Thread(new Runnable()
                 {
@@ -21,6 +21,7 @@
 import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.jitsi.xmpp.extensions.thumbnail.*;
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.FileTransfer;
@@ -206,8 +207,8 @@ else if(priority == bestPriority && jabberStatus != null)
             // Send the file through the Jabber file transfer.
             transfer.sendFile(file, "Sending file");
 
-            // Start the status and progress thread.
-            new FileTransferProgressThread(
+            // Start tracking status and progress.
+            new FileTransferProgressTracker(
                 transfer, outgoingTransfer).start();
         }
         catch(XmppStringprepException | SmackException e)
@@ -341,7 +342,9 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
                          + evt.getOldState()
                          + " to: " + evt.getNewState());
 
-            if (evt.getNewState() != RegistrationState.REGISTERED)
+            // a resumed stream keeps the listener of the connection
+            if (evt.getNewState() != RegistrationState.REGISTERED
+                || evt.getOldState() == RegistrationState.UPDATING_REGISTRATION)
             {
                 return;
             }
@@ -498,11 +501,77 @@ void fireFileTransferCreated(FileTransferCreatedEvent event)
         }
     }
 
+    /**
+     * The name of the property which specifies, in milliseconds, how often
+     * the status and progress of active file transfers is checked.
+     */
+    private static final String PROGRESS_INTERVAL_PROPERTY
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".FILE_TRANSFER_PROGRESS_INTERVAL";
+
+    /**
+     * The default interval between status and progress checks, in
+     * milliseconds.
+     */
+    private static final long DEFAULT_PROGRESS_INTERVAL = 250;
+
+    /**
+     * The single thread which checks the status and progress of all active
+     * file transfers.
+     */
+    private static ScheduledExecutorService progressTicker;
+
+    /**
+     * Returns the executor shared by all file transfers to check their
+     * status and progress, creating it if needed.
+     *
+     * @return the progress ticker
+     */
+    private static synchronized ScheduledExecutorService getProgressTicker()
+    {
+        if (progressTicker == null)
+        {
+            progressTicker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "FileTransferProgressTicker");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return progressTicker;
+    }
+
+    /**
+     * Returns the configured interval between status and progress checks.
+     *
+     * @return the interval in milliseconds
+     */
+    private static long getProgressInterval()
+    {
+        long interval = DEFAULT_PROGRESS_INTERVAL;
+        try
+        {
+            interval = JabberActivator.getConfigurationService().getLong(
+                PROGRESS_INTERVAL_PROPERTY, DEFAULT_PROGRESS_INTERVAL);
+        }
+        catch (Exception e)
+        {
+            // no configuration, use the default
+        }
+        return interval > 0 ? interval : DEFAULT_PROGRESS_INTERVAL;
+    }
+
     /**
      * Updates file transfer progress and status while sending or receiving a
-     * file.
+     * file. All trackers run on a shared ticker thread and fire progress
+     * events only when the number of transferred bytes has changed.
      */
-    protected static class FileTransferProgressThread extends Thread
+    protected static class FileTransferProgressTracker
+        implements Runnable
     {
         private final org.jivesoftware.smackx.filetransfer.FileTransfer
             jabberTransfer;
@@ -510,7 +579,22 @@ protected static class FileTransferProgressThread extends Thread
 
         private long initialFileSize;
 
-        public FileTransferProgressThread(
+        /**
+         * The last progress reported to the listeners, -1 if none yet.
+         */
+        private long lastProgress = -1;
+
+        /**
+         * The scheduled execution of this tracker.
+         */
+        private ScheduledFuture<?> future;
+
+        /**
+         * Whether the transfer has ended and the final events were fired.
+         */
+        private boolean finished = false;
+
+        public FileTransferProgressTracker(
             org.jivesoftware.smackx.filetransfer.FileTransfer jabberTransfer,
             AbstractFileTransfer transfer,
             long initialFileSize)
@@ -520,7 +604,7 @@ public FileTransferProgressThread(
             this.initialFileSize = initialFileSize;
         }
 
-        public FileTransferProgressThread(
+        public FileTransferProgressTracker(
             org.jivesoftware.smackx.filetransfer.FileTransfer jabberTransfer,
             AbstractFileTransfer transfer)
         {
@@ -529,66 +613,104 @@ public FileTransferProgressThread(
         }
 
         /**
-         * Thread entry point.
+         * Starts tracking the transfer on the shared progress ticker.
          */
-        @Override
-        public void run()
+        public synchronized void start()
         {
-            int status;
-            long progress;
-            String statusReason = "";
+            long interval = getProgressInterval();
+            future = getProgressTicker().scheduleWithFixedDelay(
+                this, interval, interval, TimeUnit.MILLISECONDS);
+        }
 
-            while (true)
+        /**
+         * Checks the status and progress of the transfer once.
+         */
+        public void run()
+        {
+            synchronized (this)
             {
-                try
-                {
-                    Thread.sleep(10);
-
-                    status = parseJabberStatus(jabberTransfer.getStatus());
-                    progress = fileTransfer.getTransferedBytes();
+                if (finished)
+                    return;
+            }
 
-                    if (status == FileTransferStatusChangeEvent.FAILED
-                        || status == FileTransferStatusChangeEvent.COMPLETED
-                        || status == FileTransferStatusChangeEvent.CANCELED
-                        || status == FileTransferStatusChangeEvent.REFUSED)
-                    {
-                        if (fileTransfer instanceof
-                                OutgoingFileTransferJabberImpl)
-                        {
-                            ((OutgoingFileTransferJabberImpl) fileTransfer)
-                                .removeThumbnailHandler();
-                        }
+            try
+            {
+                check();
+            }
+            catch (Throwable t)
+            {
+                logger.error("Error checking file transfer progress", t);
+            }
+        }
 
-                        // sometimes a filetransfer can be preparing
-                        // and than completed :
-                        // transfered in one iteration of current thread
-                        // so it won't go through intermediate state - inProgress
-                        // make sure this won't happen
-                        if(status == FileTransferStatusChangeEvent.COMPLETED
-                            && fileTransfer.getStatus()
-                                == FileTransferStatusChangeEvent.PREPARING)
-                        {
-                            fileTransfer.fireStatusChangeEvent(
-                                FileTransferStatusChangeEvent.IN_PROGRESS,
-                                "Status changed");
-                            fileTransfer.fireProgressChangeEvent(
-                                System.currentTimeMillis(), progress);
-                        }
+        /**
+         * Fires status and progress changes since the last check and the
+         * final events once the transfer has ended.
+         */
+        private void check()
+        {
+            int status = parseJabberStatus(jabberTransfer.getStatus());
+            long progress = fileTransfer.getTransferedBytes();
 
-                        break;
-                    }
+            if (status == FileTransferStatusChangeEvent.FAILED
+                || status == FileTransferStatusChangeEvent.COMPLETED
+                || status == FileTransferStatusChangeEvent.CANCELED
+                || status == FileTransferStatusChangeEvent.REFUSED)
+            {
+                if (fileTransfer instanceof
+                        OutgoingFileTransferJabberImpl)
+                {
+                    ((OutgoingFileTransferJabberImpl) fileTransfer)
+                        .removeThumbnailHandler();
+                }
 
-                    fileTransfer.fireStatusChangeEvent(status, "Status changed");
+                // sometimes a filetransfer can be preparing
+                // and than completed :
+                // transfered in one iteration of the ticker
+                // so it won't go through intermediate state - inProgress
+                // make sure this won't happen
+                if(status == FileTransferStatusChangeEvent.COMPLETED
+                    && fileTransfer.getStatus()
+                        == FileTransferStatusChangeEvent.PREPARING)
+                {
+                    fileTransfer.fireStatusChangeEvent(
+                        FileTransferStatusChangeEvent.IN_PROGRESS,
+                        "Status changed");
                     fileTransfer.fireProgressChangeEvent(
                         System.currentTimeMillis(), progress);
                 }
-                catch (InterruptedException e)
-                {
-                    if (logger.isDebugEnabled())
-                        logger.debug("Unable to sleep thread.", e);
-                }
+
+                finish(status, progress);
+                return;
             }
 
+            fileTransfer.fireStatusChangeEvent(status, "Status changed");
+
+            if (progress != lastProgress)
+            {
+                lastProgress = progress;
+                fileTransfer.fireProgressChangeEvent(
+                    System.currentTimeMillis(), progress);
+            }
+        }
+
+        /**
+         * Stops tracking and fires the final status and progress.
+         *
+         * @param status the final status reported by smack
+         * @param progress the transferred bytes
+         */
+        private void finish(int status, long progress)
+        {
+            synchronized (this)
+            {
+                finished = true;
+                if (future != null)
+                    future.cancel(false);
+            }
+
+            String statusReason = "";
+
             if (jabberTransfer.getError() != null)
             {
                 logger.error("An error occured while transfering file: "
@@ -837,7 +837,9 @@ public void invitationDeclined(EntityBareJid invitee,
          */
         public void registrationStateChanged(RegistrationStateChangeEvent evt)
         {
-            if (evt.getNewState() == RegistrationState.REGISTERED)
+            // the invitation listener is kept when the stream is resumed
+            if (evt.getNewState() == RegistrationState.REGISTERED
+                && evt.getOldState() != RegistrationState.UPDATING_REGISTRATION)
             {
                 if (logger.isDebugEnabled())
                     logger.debug("adding an Invitation listener to the smack muc");
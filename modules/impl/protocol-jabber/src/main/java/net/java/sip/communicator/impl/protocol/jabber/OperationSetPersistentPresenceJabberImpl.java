@@ -1158,7 +1158,9 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
                                 new StanzaTypeFilter(Presence.class));
                 }
             }
-            else if(evt.getNewState() == RegistrationState.REGISTERED)
+            // after a resumed stream the photo listener is still there
+            else if(evt.getNewState() == RegistrationState.REGISTERED
+                && evt.getOldState() != RegistrationState.UPDATING_REGISTRATION)
             {
                 JabberAccountIDImpl accountID
                     = (JabberAccountIDImpl)parentProvider.getAccountID();
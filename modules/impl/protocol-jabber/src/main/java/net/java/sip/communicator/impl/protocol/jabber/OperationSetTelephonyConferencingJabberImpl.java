@@ -161,22 +161,21 @@ private void notify(CallPeer callPeer)
 
             logger.info("Scheduling to send a COIN to " + callPeerJabber);
             callPeerJabber.setConfInfoScheduled(true);
-            new Thread(() ->
-            {
-                try
-                {
-                    Thread.sleep(1 + COIN_MIN_INTERVAL - timeSinceLastCoin);
-                }
-                catch (InterruptedException ie)
-                {
-                    // ignore
-                    Thread.currentThread().interrupt();
-                }
+            scheduleConferenceInfo(
+                () -> OperationSetTelephonyConferencingJabberImpl.this
+                        .notify(callPeerJabber),
+                1 + COIN_MIN_INTERVAL - timeSinceLastCoin);
 
-                OperationSetTelephonyConferencingJabberImpl.this
-                        .notify(callPeerJabber);
-            }).start();
+            return;
+        }
 
+        // nothing changed since the last COIN sent to this peer
+        long generation = getConferenceStateGeneration();
+        if (callPeerJabber.getLastConferenceInfoSent() != null
+                && callPeerJabber.getLastConferenceInfoSentGeneration()
+                    == generation)
+        {
+            callPeerJabber.setConfInfoScheduled(false);
             return;
         }
 
@@ -248,6 +247,7 @@ private void notify(CallPeer callPeer)
                 callPeerJabber.setLastConferenceInfoSent(currentConfInfo);
                 callPeerJabber.setLastConferenceInfoSentTimestamp(
                         System.currentTimeMillis());
+                callPeerJabber.setLastConferenceInfoSentGeneration(generation);
             }
         }
         callPeerJabber.setConfInfoScheduled(false);
@@ -249,7 +249,9 @@ public void registrationStateChanged(RegistrationStateChangeEvent evt)
                 logger.debug("The provider changed state from: "
                          + evt.getOldState()
                          + " to: " + evt.getNewState());
-            if (evt.getNewState() == RegistrationState.REGISTERED)
+            // the listeners survive a resumed stream on the same connection
+            if (evt.getNewState() == RegistrationState.REGISTERED
+                && evt.getOldState() != RegistrationState.UPDATING_REGISTRATION)
             {
                 opSetPersPresence =
                     (OperationSetPersistentPresenceJabberImpl) parentProvider
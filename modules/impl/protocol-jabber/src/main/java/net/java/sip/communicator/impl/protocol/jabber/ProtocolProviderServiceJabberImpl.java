@@ -235,6 +235,24 @@
      */
     private AbstractXMPPConnection connection;
 
+    /**
+     * Resumes the stream of <tt>connection</tt> when it has been dropped and
+     * counts resumed streams and full reconnects.
+     */
+    private final StreamResumption streamResumption = new StreamResumption();
+
+    /**
+     * The dropped connection whose stream is being resumed, if any. Further
+     * errors on it are handled by the resumption itself.
+     */
+    private volatile XMPPTCPConnection resumingConnection;
+
+    /**
+     * The STUN, TURN and UPnP harvesters resolved for the calls of this
+     * account.
+     */
+    private IceHarvesterRegistry iceHarvesterRegistry;
+
     /**
      * The socket address of the XMPP server.
      */
@@ -1269,12 +1287,15 @@ else if (loginStrategy.isTlsRequired())
         }
         else
         {
-            connection =
+            XMPPTCPConnection tcpConnection =
                 new XMPPTCPConnection(
                     (XMPPTCPConnectionConfiguration) confConn.build());
+            StreamResumption.configure(tcpConnection);
+            connection = tcpConnection;
         }
 
         ReconnectionManager.getInstanceFor(connection).disableAutomaticReconnection();
+        RosterVersioning.configure(connection, getAccountID());
         this.address = address;
 
         if(debugger == null)
@@ -1638,6 +1659,11 @@ protected void initialize(EntityBareJid screenname,
             this.clearRegistrationStateChangeListener();
             this.clearSupportedOperationSet();
 
+            if (iceHarvesterRegistry != null)
+                iceHarvesterRegistry.stop();
+            iceHarvesterRegistry = new IceHarvesterRegistry(this);
+            iceHarvesterRegistry.start();
+
             String protocolIconPath
                 = accountID.getAccountPropertyString(
                         ProtocolProviderFactory.PROTOCOL_ICON_PATH);
@@ -2039,6 +2065,9 @@ public void shutdown()
 
             disconnectAndCleanConnection();
 
+            if (iceHarvesterRegistry != null)
+                iceHarvesterRegistry.stop();
+
             isInitialized = false;
         }
     }
@@ -2162,6 +2191,94 @@ public XMPPConnection getConnection()
         return connection;
     }
 
+    /**
+     * Returns the stream resumption of this account, which counts the
+     * resumed streams and the full reconnects along with the time it took to
+     * resume.
+     *
+     * @return the stream resumption of this provider.
+     */
+    public StreamResumption getStreamResumption()
+    {
+        return streamResumption;
+    }
+
+    /**
+     * Returns the ICE harvesters resolved for the calls of this account.
+     *
+     * @return the ICE harvester registry of this provider.
+     */
+    IceHarvesterRegistry getIceHarvesterRegistry()
+    {
+        return iceHarvesterRegistry;
+    }
+
+    /**
+     * Tries to resume the stream of a dropped connection in a separate thread.
+     * Reports {@link RegistrationState#UPDATING_REGISTRATION} meanwhile and
+     * {@link RegistrationState#REGISTERED} again once the stream has been
+     * resumed. Handles the drop like any other connection failure if the
+     * connection cannot be established again in time or the server has bound
+     * a new session, since the presence of the contacts and the chat rooms
+     * of the old session are then gone.
+     *
+     * @param tcpConnection the dropped connection.
+     * @param reason the reason of the failure to report.
+     * @param reasonText the description of the failure to report.
+     */
+    private void resumeStream(final XMPPTCPConnection tcpConnection,
+        final int reason, final String reasonText)
+    {
+        resumingConnection = tcpConnection;
+        fireRegistrationStateChanged(RegistrationState.REGISTERED,
+            RegistrationState.UPDATING_REGISTRATION,
+            reason,
+            reasonText);
+
+        new Thread(() ->
+        {
+            StreamResumption.Outcome outcome;
+            try
+            {
+                outcome = streamResumption.resume(tcpConnection);
+            }
+            finally
+            {
+                resumingConnection = null;
+            }
+
+            if (connection != tcpConnection)
+            {
+                // unregistered or reconnected in the meantime
+                if (outcome != StreamResumption.Outcome.FAILED)
+                    tcpConnection.disconnect();
+                return;
+            }
+
+            if (outcome != StreamResumption.Outcome.RESUMED)
+            {
+                // a new session starts without the chat rooms and presence
+                // subscriptions of the old one, the listeners of
+                // CONNECTION_FAILED clean up and the reconnect plugin logs in
+                // again from scratch
+                fireRegistrationStateChanged(
+                    RegistrationState.UPDATING_REGISTRATION,
+                    RegistrationState.CONNECTION_FAILED,
+                    reason,
+                    reasonText);
+
+                disconnectAndCleanConnection();
+                return;
+            }
+
+            fireRegistrationStateChanged(
+                RegistrationState.UPDATING_REGISTRATION,
+                RegistrationState.REGISTERED,
+                RegistrationStateChangeEvent.REASON_NOT_SPECIFIED,
+                null);
+        }, "Jabber stream resumption").start();
+    }
+
     /**
      * Determines whether a specific <tt>XMPPException</tt> signals that
      * attempted authentication has failed.
@@ -2368,6 +2485,24 @@ else if(exception instanceof XmlPullParserException)
                 }
             }
 
+            // a dropped stream can be resumed without a new session
+            AbstractXMPPConnection droppedConnection = connection;
+            if (droppedConnection != null
+                && droppedConnection == resumingConnection)
+            {
+                // the stream resumption retries on its own
+                return;
+            }
+            if (droppedConnection instanceof XMPPTCPConnection
+                && StreamResumption.isResumptionPossible(
+                    (XMPPTCPConnection) droppedConnection))
+            {
+                resumeStream((XMPPTCPConnection) droppedConnection,
+                    reason, exception.getMessage());
+                return;
+            }
+            streamResumption.fullReconnectRequired();
+
             fireRegistrationStateChanged(getRegistrationState(),
                 RegistrationState.CONNECTION_FAILED,
                 reason,
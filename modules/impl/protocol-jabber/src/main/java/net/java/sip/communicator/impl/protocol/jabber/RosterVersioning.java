@@ -0,0 +1,149 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+
+import net.java.sip.communicator.service.protocol.*;
+
+import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.roster.*;
+import org.jivesoftware.smack.roster.rosterstore.*;
+
+/**
+ * Keeps a copy of the roster of every account on disk, so that on login the
+ * roster version (XEP-0237) can be sent along with the roster request. A
+ * server supporting roster versioning then only pushes the items changed
+ * since the stored version, or nothing at all, instead of the full roster.
+ * <p>
+ * The store is a cache: when it is missing or cannot be read the roster is
+ * simply requested in full and the store is written anew.
+ * </p>
+ */
+class RosterVersioning
+{
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(RosterVersioning.class);
+
+    /**
+     * The name of the property which enables the persistent roster store.
+     */
+    static final String PNAME_ROSTER_VERSIONING_ENABLED
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".ROSTER_VERSIONING_ENABLED";
+
+    /**
+     * The directory, relative to the cache directory, with the roster stores
+     * of all accounts.
+     */
+    private static final String ROSTER_STORE_DIR = "jabber/roster";
+
+    /**
+     * Sets the roster store of <tt>accountID</tt> on the roster of a new
+     * connection, before it logs in, unless disabled in the configuration.
+     *
+     * @param connection the connection to configure.
+     * @param accountID the account the connection belongs to.
+     */
+    static void configure(XMPPConnection connection, AccountID accountID)
+    {
+        ConfigurationService cfg = JabberActivator.getConfigurationService();
+
+        if (cfg != null
+            && !cfg.getBoolean(PNAME_ROSTER_VERSIONING_ENABLED, true))
+        {
+            return;
+        }
+
+        RosterStore store = openStore(accountID);
+        if (store != null)
+            Roster.getInstanceFor(connection).setRosterStore(store);
+    }
+
+    /**
+     * Opens the roster store of the given account, creating it if it does
+     * not exist or is unreadable.
+     *
+     * @param accountID the account whose store to open.
+     * @return the roster store or <tt>null</tt> if there is no place to keep
+     * it.
+     */
+    private static RosterStore openStore(AccountID accountID)
+    {
+        FileAccessService fas = JabberActivator.getFileAccessService();
+        if (fas == null)
+            return null;
+
+        try
+        {
+            File dir = fas.getPrivatePersistentDirectory(
+                ROSTER_STORE_DIR + File.separator
+                    + toDirectoryName(accountID.getAccountUniqueID()),
+                FileCategory.CACHE);
+
+            if (!dir.isDirectory() && !dir.mkdirs())
+            {
+                logger.warn("Cannot create roster store directory " + dir);
+                return null;
+            }
+
+            RosterStore store = DirectoryRosterStore.open(dir);
+            if (store == null)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Creating roster store for " + accountID);
+                store = DirectoryRosterStore.init(dir);
+            }
+
+            return store;
+        }
+        catch (Exception e)
+        {
+            logger.warn("Failed to open the roster store of " + accountID, e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the characters of an account ID which cannot appear in a file
+     * name on all platforms.
+     *
+     * @param accountUID the unique ID of the account.
+     * @return a directory name for the account.
+     */
+    static String toDirectoryName(String accountUID)
+    {
+        StringBuilder name = new StringBuilder(accountUID.length());
+        for (int i = 0; i < accountUID.length(); i++)
+        {
+            char c = accountUID.charAt(i);
+            if (Character.isLetterOrDigit(c)
+                || c == '.' || c == '-' || c == '@')
+            {
+                name.append(c);
+            }
+            else
+            {
+                name.append('_');
+            }
+        }
+        return name.toString();
+    }
+}
@@ -17,6 +17,7 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber;
 
+import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -24,6 +25,7 @@
 import net.java.sip.communicator.service.protocol.*;
 
 import org.jitsi.service.configuration.*;
+import org.jitsi.service.fileaccess.*;
 import org.jitsi.util.*;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.SmackException.*;
@@ -60,11 +62,31 @@
     private final boolean cacheNonCaps;
 
     /**
-     * The cache of non-caps. Used only if {@link #cacheNonCaps} is
-     * <tt>true</tt>.
+     * The maximum number of entities kept in {@link #nonCapsCache}.
+     */
+    private static final int NON_CAPS_CACHE_SIZE = 500;
+
+    /**
+     * The name of the file, in the cache directory, with the persistent
+     * entity capabilities cache.
+     */
+    private static final String CAPS_CACHE_FILE_NAME = "jabber/caps.cache";
+
+    /**
+     * The cache of non-caps, evicting the least recently used entities. Used
+     * only if {@link #cacheNonCaps} is <tt>true</tt>.
      */
     private final Map<Jid, DiscoverInfo> nonCapsCache
-        = new ConcurrentHashMap<>();
+        = Collections.synchronizedMap(
+            new LinkedHashMap<Jid, DiscoverInfo>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(
+                    Map.Entry<Jid, DiscoverInfo> eldest)
+                {
+                    return size() > NON_CAPS_CACHE_SIZE;
+                }
+            });
 
     /**
      * The <tt>EntityCapsManager</tt> used by this instance to handle entity
@@ -201,11 +223,34 @@ public ScServiceDiscoveryManager(
         // For every XMPPConnection, add one EntityCapsManager.
         this.capsManager = EntityCapsManager.getInstanceFor(connection);
         EntityCapsManager.setPersistentCache(
-            new CapsConfigurationPersistence(configService));
+            CapsFileCache.getInstance(configService, getCapsCacheFile()));
         connection.addAsyncStanzaListener(
             this, new StanzaTypeFilter(Presence.class));
     }
 
+    /**
+     * Returns the file of the persistent entity capabilities cache.
+     *
+     * @return the file or <tt>null</tt> if there is no place to store it.
+     */
+    private static File getCapsCacheFile()
+    {
+        FileAccessService fas = JabberActivator.getFileAccessService();
+        if (fas == null)
+            return null;
+
+        try
+        {
+            return fas.getPrivatePersistentFile(
+                CAPS_CACHE_FILE_NAME, FileCategory.CACHE);
+        }
+        catch (Exception e)
+        {
+            logger.warn("Failed to locate the caps cache file", e);
+            return null;
+        }
+    }
+
     /**
      * Registers that a new feature is supported by this XMPP entity. When this
      * client is queried for its information the registered features will be
@@ -347,7 +392,7 @@ private DiscoverInfo discoverInfo(
 
         if (caps == null)
         {
-            if (cacheNonCaps)
+            if (cacheNonCaps && discoverInfo != null)
             {
                 nonCapsCache.put(entityID, discoverInfo);
                 fireEvent = true;
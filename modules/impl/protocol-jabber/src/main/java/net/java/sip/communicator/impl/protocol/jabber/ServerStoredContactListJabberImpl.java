@@ -1075,12 +1075,11 @@ private synchronized void initRoster()
                     {
                         contactMoved(group, rootGroup, contact);
                     }
-                    // if contact exist so resolve it
-                    contact.setResolved(item);
-
-                    //fire an event saying that the unfiled contact has been
-                    //resolved
-                    fireContactResolved(rootGroup, contact);
+                    // if contact exist so resolve it and fire an event saying
+                    // that the unfiled contact has been resolved, unless it
+                    // was resolved already and is unchanged
+                    if(contact.setResolved(item))
+                        fireContactResolved(rootGroup, contact);
                 }
 
                 try
@@ -1131,11 +1130,12 @@ private synchronized void initRoster()
             {
                 // the group exist so just resolved. The group will check and
                 // create or resolve its entries
-                group.setResolved(item);
-
-                //fire an event saying that the group has been resolved
-                fireGroupEvent(group
-                               , ServerStoredGroupEvent.GROUP_RESOLVED_EVENT);
+                if(group.setResolved(item))
+                {
+                    //fire an event saying that the group has been resolved
+                    fireGroupEvent(group
+                                   , ServerStoredGroupEvent.GROUP_RESOLVED_EVENT);
+                }
             }
         }
 
@@ -1302,6 +1302,21 @@ void fireContactResolved( ContactGroup parentGroup,
             SubscriptionEvent.SUBSCRIPTION_RESOLVED);
     }
 
+    /**
+     * Makes the parent persistent presence operation set dispatch the
+     * presence the roster holds for a contact which is not otherwise
+     * reported, as it may have been received before the roster was loaded.
+     * @param contact the contact whose presence to dispatch
+     */
+    void fireCachedPresence(ContactJabberImpl contact)
+    {
+        if(parentOperationSet != null && roster != null)
+        {
+            parentOperationSet.firePresenceStatusChanged(
+                    roster.getPresence(contact.getAddressAsJid().asBareJid()));
+        }
+    }
+
     /**
      * when there is no image for contact we must retrieve it
      * add contacts for image update
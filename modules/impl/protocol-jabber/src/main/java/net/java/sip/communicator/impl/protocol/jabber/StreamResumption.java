@@ -0,0 +1,353 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.util.concurrent.*;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smack.sm.predicates.*;
+import org.jivesoftware.smack.tcp.*;
+
+/**
+ * Resumes XMPP streams through stream management (XEP-0198) after the
+ * connection has been dropped, so that a short network outage does not
+ * require a new session with its roster, presence, service discovery and
+ * chat room joins. Stanzas the server has not acknowledged are sent again by
+ * the connection once the stream is resumed.
+ * <p>
+ * The same connection is tried again with an exponential backoff for as long
+ * as the server keeps the dropped stream, that is the lower of the preferred
+ * resumption time and the maximum announced by the server.
+ * </p>
+ * <p>
+ * Keeps the number of resumed streams and of full reconnects along with the
+ * time it took to resume, per account. They are available through
+ * {@link ProtocolProviderServiceJabberImpl#getStreamResumption()}.
+ * </p>
+ */
+public class StreamResumption
+{
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(StreamResumption.class);
+
+    /**
+     * The name of the property which enables stream management.
+     */
+    static final String PNAME_STREAM_MANAGEMENT_ENABLED
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".STREAM_MANAGEMENT_ENABLED";
+
+    /**
+     * The name of the property with the number of seconds the server should
+     * keep a dropped stream available for resumption.
+     */
+    static final String PNAME_RESUMPTION_TIME
+        = "net.java.sip.communicator.impl.protocol.jabber"
+            + ".STREAM_RESUMPTION_TIME";
+
+    /**
+     * The default resumption time in seconds.
+     */
+    private static final int DEFAULT_RESUMPTION_TIME = 300;
+
+    /**
+     * The delay in milliseconds before the second attempt to resume a stream.
+     */
+    private static final long INITIAL_RETRY_DELAY = 1000;
+
+    /**
+     * The longest delay in milliseconds between two attempts to resume a
+     * stream.
+     */
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    /**
+     * The weight of the last resumption in the average latency.
+     */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    /**
+     * The outcome of an attempt to resume a dropped stream.
+     */
+    enum Outcome
+    {
+        /**
+         * The stream has been resumed along with its session.
+         */
+        RESUMED,
+
+        /**
+         * The connection has been established and logged in again, but the
+         * server has bound a new session instead of resuming the stream.
+         */
+        NEW_SESSION,
+
+        /**
+         * The connection could not be established again before the server
+         * discarded the stream.
+         */
+        FAILED
+    }
+
+    /**
+     * The delay in milliseconds before the second attempt to resume a stream.
+     */
+    private final long initialRetryDelay;
+
+    /**
+     * The longest delay in milliseconds between two attempts to resume a
+     * stream.
+     */
+    private final long maxRetryDelay;
+
+    /**
+     * The number of resumed streams.
+     */
+    private int resumedCount;
+
+    /**
+     * The number of dropped streams which required a new session.
+     */
+    private int fullReconnectCount;
+
+    /**
+     * The moving average of the time to resume a stream in milliseconds.
+     */
+    private double averageLatency;
+
+    /**
+     * The longest time it took to resume a stream in milliseconds.
+     */
+    private long maximumLatency;
+
+    /**
+     * Initializes a new <tt>StreamResumption</tt> with the default delays
+     * between two attempts to resume a stream.
+     */
+    StreamResumption()
+    {
+        this(INITIAL_RETRY_DELAY, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * Initializes a new <tt>StreamResumption</tt>.
+     *
+     * @param initialRetryDelay the delay in milliseconds before the second
+     * attempt to resume a stream, doubled after every further attempt.
+     * @param maxRetryDelay the longest delay in milliseconds between two
+     * attempts.
+     */
+    StreamResumption(long initialRetryDelay, long maxRetryDelay)
+    {
+        this.initialRetryDelay = initialRetryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * Enables stream management with resumption on a new connection, unless
+     * disabled in the configuration. Acknowledgements are requested for every
+     * message, so that only the messages actually in flight are kept for
+     * retransmission.
+     *
+     * @param connection the connection to configure.
+     */
+    static void configure(XMPPTCPConnection connection)
+    {
+        ConfigurationService cfg = JabberActivator.getConfigurationService();
+
+        if (cfg != null
+            && !cfg.getBoolean(PNAME_STREAM_MANAGEMENT_ENABLED, true))
+        {
+            connection.setUseStreamManagement(false);
+            return;
+        }
+
+        int resumptionTime = (cfg == null)
+            ? DEFAULT_RESUMPTION_TIME
+            : cfg.getInt(PNAME_RESUMPTION_TIME, DEFAULT_RESUMPTION_TIME);
+
+        connection.setUseStreamManagement(true);
+        connection.setUseStreamManagementResumption(resumptionTime > 0);
+        if (resumptionTime > 0)
+            connection.setPreferredResumptionTime(resumptionTime);
+        connection.addRequestAckPredicate(ForEveryMessage.INSTANCE);
+    }
+
+    /**
+     * Checks whether the stream of a dropped connection can be resumed.
+     *
+     * @param connection the dropped connection.
+     * @return <tt>true</tt> if {@link #resume(XMPPTCPConnection)} may
+     * resume the stream.
+     */
+    static boolean isResumptionPossible(XMPPTCPConnection connection)
+    {
+        return connection.isSmResumptionPossible();
+    }
+
+    /**
+     * Connects the dropped connection again and resumes its stream. Retries
+     * with an exponential backoff until the stream has been resumed, a new
+     * session has been bound or the server can no longer resume the stream.
+     * Blocks until then.
+     *
+     * @param connection the dropped connection.
+     * @return the outcome of the resumption.
+     */
+    Outcome resume(XMPPTCPConnection connection)
+    {
+        long start = System.nanoTime();
+        // the server keeps the stream for the lower of our preferred and its
+        // maximum resumption time
+        long deadline = start
+            + TimeUnit.SECONDS.toNanos(connection.getMaxSmResumptionTime());
+        long retryDelay = initialRetryDelay;
+        int attempts = 0;
+        Outcome outcome = Outcome.FAILED;
+
+        while (true)
+        {
+            attempts++;
+            try
+            {
+                connection.connect();
+                // logs in with the last credentials and resumes the stream
+                // instead of binding a new resource if the server agrees
+                connection.login();
+                outcome = connection.streamWasResumed()
+                    ? Outcome.RESUMED
+                    : Outcome.NEW_SESSION;
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (Exception e)
+            {
+                logger.warn("Failed to resume the XMPP stream (attempt "
+                    + attempts + "): " + e.getMessage());
+
+                // keeps the stream management state for the next attempt,
+                // unlike disconnect()
+                if (connection.isConnected())
+                    connection.instantShutdown();
+            }
+
+            if (!connection.isSmResumptionPossible()
+                || System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(retryDelay)
+                    >= deadline)
+            {
+                break;
+            }
+
+            try
+            {
+                Thread.sleep(retryDelay);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            retryDelay = Math.min(2 * retryDelay, maxRetryDelay);
+        }
+
+        long latency = (System.nanoTime() - start) / 1000000;
+        synchronized (this)
+        {
+            if (outcome == Outcome.RESUMED)
+            {
+                resumedCount++;
+                averageLatency = (resumedCount == 1)
+                    ? latency
+                    : LATENCY_WEIGHT * latency
+                        + (1 - LATENCY_WEIGHT) * averageLatency;
+                maximumLatency = Math.max(maximumLatency, latency);
+            }
+            else
+            {
+                fullReconnectCount++;
+            }
+
+            logger.info("Resuming the XMPP stream of " + connection.getUser()
+                + " ended with " + outcome + " after " + attempts
+                + " attempt(s) in " + latency + " ms, " + this);
+        }
+        return outcome;
+    }
+
+    /**
+     * Records a dropped stream which could not be resumed at all.
+     */
+    synchronized void fullReconnectRequired()
+    {
+        fullReconnectCount++;
+    }
+
+    /**
+     * Returns the number of resumed streams.
+     *
+     * @return the number of resumed streams.
+     */
+    public synchronized int getResumedCount()
+    {
+        return resumedCount;
+    }
+
+    /**
+     * Returns the number of dropped streams which required a new session.
+     *
+     * @return the number of full reconnects.
+     */
+    public synchronized int getFullReconnectCount()
+    {
+        return fullReconnectCount;
+    }
+
+    /**
+     * Returns the moving average of the time to resume a stream.
+     *
+     * @return the average latency in milliseconds.
+     */
+    public synchronized long getAverageLatency()
+    {
+        return Math.round(averageLatency);
+    }
+
+    /**
+     * Returns the longest time it took to resume a stream.
+     *
+     * @return the maximum latency in milliseconds.
+     */
+    public synchronized long getMaximumLatency()
+    {
+        return maximumLatency;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "resumed=" + resumedCount
+            + ", fullReconnects=" + fullReconnectCount
+            + ", averageLatency=" + Math.round(averageLatency) + " ms"
+            + ", maximumLatency=" + maximumLatency + " ms";
+    }
+}
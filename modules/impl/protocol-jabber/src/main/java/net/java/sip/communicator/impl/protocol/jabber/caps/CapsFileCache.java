@@ -0,0 +1,492 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import org.jitsi.service.configuration.*;
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.provider.*;
+import org.jivesoftware.smack.xml.*;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smackx.caps.cache.*;
+import org.jivesoftware.smackx.disco.packet.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * An <tt>EntityCapsPersistentCache</tt> which keeps the <tt>DiscoverInfo</tt>
+ * of the known caps nodes in memory and in a file of its own. The parsed
+ * <tt>DiscoverInfo</tt> is kept once looked up, so a caps node is parsed at
+ * most once per run. The least recently used nodes are evicted when the
+ * cache is full.
+ * <p>
+ * Changes are written to the file in the background, a short while after
+ * they happen, so that the many nodes received after login are written at
+ * once. The nodes previously stored as properties of the
+ * <tt>ConfigurationService</tt> are moved to the cache when it is created.
+ * </p>
+ */
+public class CapsFileCache
+    implements EntityCapsPersistentCache
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>CapsFileCache</tt> class and its
+     * instances for logging output.
+     */
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(CapsFileCache.class);
+
+    /**
+     * The prefix of the <tt>ConfigurationService</tt> properties in which
+     * the caps nodes used to be stored.
+     */
+    private static final String CAPS_PROPERTY_NAME_PREFIX
+        = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
+            + "EntityCapsManager.CAPS";
+
+    /**
+     * The version of the format of the cache file.
+     */
+    private static final int FILE_FORMAT_VERSION = 1;
+
+    /**
+     * The maximum number of caps nodes kept.
+     */
+    static final int MAX_ENTRIES = 5000;
+
+    /**
+     * The maximum length in bytes of the XML of a stored caps node.
+     */
+    private static final int MAX_XML_LENGTH = 64 * 1024;
+
+    /**
+     * The maximum size in bytes of a cache file which is read.
+     */
+    private static final long MAX_FILE_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * The size in bytes of a stored caps node with an empty name and XML.
+     */
+    private static final int MIN_ENTRY_SIZE = 6;
+
+    /**
+     * The time in milliseconds between a change and the write of the file.
+     */
+    private static final long SAVE_DELAY = 10000;
+
+    /**
+     * The single instance shared by all connections, as the persistent cache
+     * of the <tt>EntityCapsManager</tt> is static.
+     */
+    private static CapsFileCache instance;
+
+    /**
+     * The cached nodes in least recently used order.
+     */
+    private final Map<String, CachedInfo> entries
+        = new LinkedHashMap<String, CachedInfo>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, CachedInfo> eldest)
+            {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    /**
+     * The file the cache is stored in, <tt>null</tt> to keep it in memory
+     * only.
+     */
+    private final File file;
+
+    /**
+     * The timer writing the file, created on the first change.
+     */
+    private Timer saveTimer;
+
+    /**
+     * Whether a write of the file is scheduled.
+     */
+    private boolean saveScheduled = false;
+
+    /**
+     * Creates a cache stored in the given file.
+     *
+     * @param file the file to read and write the cache to, <tt>null</tt> to
+     * keep it in memory only.
+     */
+    CapsFileCache(File file)
+    {
+        this.file = file;
+
+        if (file != null && file.exists())
+            load();
+    }
+
+    /**
+     * Returns the cache shared by all connections, creating it and moving
+     * the caps nodes stored in the configuration to it on the first call.
+     * The caps nodes are left in the configuration if the cache is kept in
+     * memory only.
+     *
+     * @param configService the configuration service to migrate the stored
+     * caps nodes from.
+     * @param file the file to store the cache in, <tt>null</tt> to keep it
+     * in memory only.
+     * @return the shared cache.
+     */
+    public static synchronized CapsFileCache getInstance(
+        ConfigurationService configService,
+        File file)
+    {
+        if (instance == null)
+        {
+            instance = new CapsFileCache(file);
+            if (configService != null && file != null)
+                instance.migrate(configService);
+        }
+        return instance;
+    }
+
+    @Override
+    public void addDiscoverInfoByNodePersistent(String nodeVer, DiscoverInfo info)
+    {
+        DiscoverInfo cleanedDiscoverInfo = info.asBuilder(null)
+            .from(null)
+            .to(null)
+            .setNode(nodeVer).build();
+
+        /*
+         * If the specified info is a new association for the specified
+         * node, remember it across application instances in order to not
+         * query for it over the network.
+         */
+        String xml = cleanedDiscoverInfo.getChildElementXML().toString();
+
+        if (xml.length() == 0)
+            return;
+
+        synchronized (this)
+        {
+            CachedInfo existing = entries.get(nodeVer);
+            if (existing != null && existing.xml.equals(xml))
+                return;
+
+            entries.put(nodeVer, new CachedInfo(xml, cleanedDiscoverInfo));
+            scheduleSave();
+        }
+    }
+
+    @Override
+    public DiscoverInfo lookup(String nodeVer)
+    {
+        CachedInfo cached;
+        synchronized (this)
+        {
+            cached = entries.get(nodeVer);
+        }
+
+        if (cached == null)
+            return null;
+
+        DiscoverInfo discoverInfo = cached.info;
+        if (discoverInfo == null)
+        {
+            discoverInfo = parse(cached.xml);
+            if (discoverInfo == null)
+            {
+                logger.error("Invalid DiscoverInfo for " + nodeVer);
+                /*
+                 * We must have stored invalid information. Delete it in
+                 * order to not try to validate it again.
+                 */
+                synchronized (this)
+                {
+                    if (entries.get(nodeVer) == cached)
+                    {
+                        entries.remove(nodeVer);
+                        scheduleSave();
+                    }
+                }
+            }
+            else
+            {
+                cached.info = discoverInfo;
+            }
+        }
+
+        return discoverInfo;
+    }
+
+    @Override
+    public synchronized void emptyCache()
+    {
+        entries.clear();
+        scheduleSave();
+    }
+
+    /**
+     * Returns the number of cached caps nodes.
+     *
+     * @return the number of cached caps nodes.
+     */
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Parses the XML of a stored <tt>DiscoverInfo</tt>.
+     *
+     * @param xml the XML to parse.
+     * @return the parsed <tt>DiscoverInfo</tt> or <tt>null</tt> if it is
+     * invalid.
+     */
+    private static DiscoverInfo parse(String xml)
+    {
+        IqProvider<IQ> discoverInfoProvider
+            = ProviderManager.getIQProvider(
+                "query",
+                "http://jabber.org/protocol/disco#info");
+
+        if (discoverInfoProvider == null)
+            return null;
+
+        try
+        {
+            XmlPullParser parser
+                = SmackXmlParser.newXmlParser(new StringReader(xml));
+            parser.next();
+
+            return (DiscoverInfo) discoverInfoProvider.parse(parser, null);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Moves the caps nodes stored as configuration properties to the cache
+     * and removes the properties once the cache has been written to its file.
+     * The properties are removed with a single call, so that a configuration
+     * stored in a database deletes them in one transaction.
+     *
+     * @param configService the configuration service to migrate from.
+     */
+    void migrate(ConfigurationService configService)
+    {
+        String prefix = CAPS_PROPERTY_NAME_PREFIX + ".";
+        List<String> names
+            = configService.getPropertyNamesByPrefix(prefix, false);
+
+        if (names == null || names.isEmpty())
+            return;
+
+        synchronized (this)
+        {
+            for (String name : names)
+            {
+                String xml = configService.getString(name);
+                String nodeVer = name.substring(prefix.length());
+
+                if (xml != null
+                    && xml.length() != 0
+                    && !entries.containsKey(nodeVer))
+                {
+                    entries.put(nodeVer, new CachedInfo(xml, null));
+                }
+            }
+        }
+
+        if (!save())
+            return;
+
+        Map<String, Object> removed
+            = new HashMap<String, Object>(names.size() * 2 + 2);
+        removed.put(CAPS_PROPERTY_NAME_PREFIX, null);
+        for (String name : names)
+            removed.put(name, null);
+        configService.setProperties(removed);
+
+        if (logger.isInfoEnabled())
+        {
+            logger.info("Moved " + names.size()
+                + " caps nodes from the configuration to " + file);
+        }
+    }
+
+    /**
+     * Schedules a write of the file, unless one is already pending.
+     */
+    private synchronized void scheduleSave()
+    {
+        if (file == null || saveScheduled)
+            return;
+
+        if (saveTimer == null)
+            saveTimer = new Timer("Entity caps cache writer", true);
+
+        saveScheduled = true;
+        saveTimer.schedule(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                save();
+            }
+        }, SAVE_DELAY);
+    }
+
+    /**
+     * Reads the cached caps nodes from the file. They are parsed when they
+     * are first looked up. A file which cannot be read is deleted, so that it
+     * is written anew.
+     */
+    private synchronized void load()
+    {
+        try
+        {
+            if (file.length() > MAX_FILE_SIZE)
+                throw new IOException("File too large: " + file.length());
+
+            // the remaining bytes of the file are known exactly in memory
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(file.toPath())));
+
+            if (in.readInt() != FILE_FORMAT_VERSION)
+                return;
+
+            int count = in.readInt();
+            if (count < 0
+                || count > MAX_ENTRIES
+                || count > in.available() / MIN_ENTRY_SIZE)
+            {
+                throw new IOException("Invalid number of caps nodes: " + count);
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                String nodeVer = in.readUTF();
+                int length = in.readInt();
+                if (length < 0
+                    || length > MAX_XML_LENGTH
+                    || length > in.available())
+                {
+                    throw new IOException("Invalid length of the caps node "
+                        + nodeVer + ": " + length);
+                }
+
+                byte[] xml = new byte[length];
+                in.readFully(xml);
+
+                entries.put(nodeVer, new CachedInfo(
+                    new String(xml, StandardCharsets.UTF_8), null));
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.warn("Failed to read the caps cache " + file
+                + ", deleting it", e);
+            entries.clear();
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes the cached caps nodes to a temporary file which then replaces
+     * the file of the cache, the least recently used first so that the order
+     * is kept when it is read again.
+     *
+     * @return <tt>true</tt> if the file has been written, <tt>false</tt>
+     * otherwise.
+     */
+    private boolean save()
+    {
+        List<Map.Entry<String, String>> snapshot;
+        synchronized (this)
+        {
+            saveScheduled = false;
+            snapshot = new ArrayList<>(entries.size());
+            for (Map.Entry<String, CachedInfo> e : entries.entrySet())
+            {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(
+                    e.getKey(), e.getValue().xml));
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try
+        {
+            File dir = file.getParentFile();
+            if (dir != null && !dir.isDirectory())
+                dir.mkdirs();
+
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp))))
+            {
+                out.writeInt(FILE_FORMAT_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, String> e : snapshot)
+                {
+                    byte[] xml = e.getValue().getBytes(StandardCharsets.UTF_8);
+                    out.writeUTF(e.getKey());
+                    out.writeInt(xml.length);
+                    out.write(xml);
+                }
+            }
+
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Failed to write the caps cache " + file, e);
+            tmp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * A cached caps node: the XML as stored and, once looked up, the parsed
+     * <tt>DiscoverInfo</tt>.
+     */
+    private static class CachedInfo
+    {
+        /**
+         * The child element XML of the <tt>DiscoverInfo</tt>.
+         */
+        final String xml;
+
+        /**
+         * The parsed <tt>DiscoverInfo</tt>, <tt>null</tt> until looked up.
+         */
+        volatile DiscoverInfo info;
+
+        CachedInfo(String xml, DiscoverInfo info)
+        {
+            this.xml = xml;
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+
+import junit.framework.*;
+
+import org.jivesoftware.smack.*;
+import org.jivesoftware.smack.tcp.*;
+
+/**
+ * Tests {@link StreamResumption} against a local socket server standing in
+ * for an XMPP server with stream management (XEP-0198).
+ */
+public class TestStreamResumption
+    extends TestCase
+{
+    /**
+     * The delay before the second attempt to resume a stream in the tests.
+     */
+    private static final long RETRY_DELAY = 100;
+
+    private XmppStandIn server;
+
+    private XMPPTCPConnection connection;
+
+    /**
+     * Starts the stand-in and logs a connection with stream management in.
+     *
+     * @throws Exception if the connection cannot log in.
+     */
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        server = new XmppStandIn();
+        server.start();
+    }
+
+    /**
+     * Disconnects the connection and stops the stand-in.
+     *
+     * @throws Exception if anything goes wrong.
+     */
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        if (connection != null)
+            connection.instantShutdown();
+        server.stop();
+
+        super.tearDown();
+    }
+
+    /**
+     * A dropped stream is resumed on the same connection.
+     *
+     * @throws Exception if anything goes wrong.
+     */
+    public void testResumesDroppedStream()
+        throws Exception
+    {
+        StreamResumption resumption = login();
+
+        server.dropConnections();
+        waitForDrop();
+        assertTrue(StreamResumption.isResumptionPossible(connection));
+
+        assertEquals(
+            StreamResumption.Outcome.RESUMED, resumption.resume(connection));
+        assertTrue(connection.isAuthenticated());
+        assertEquals(1, server.resumed.get());
+        assertEquals(1, server.bound.get());
+        assertEquals(1, resumption.getResumedCount());
+        assertEquals(0, resumption.getFullReconnectCount());
+    }
+
+    /**
+     * A session bound again because the server could not resume the stream
+     * is kept.
+     *
+     * @throws Exception if anything goes wrong.
+     */
+    public void testKeepsNewSession()
+        throws Exception
+    {
+        StreamResumption resumption = login();
+
+        server.resume = false;
+        server.dropConnections();
+        waitForDrop();
+
+        assertEquals(
+            StreamResumption.Outcome.NEW_SESSION,
+            resumption.resume(connection));
+        assertTrue(connection.isConnected());
+        assertTrue(connection.isAuthenticated());
+        assertEquals(0, server.resumed.get());
+        assertEquals(2, server.bound.get());
+        assertEquals(0, resumption.getResumedCount());
+        assertEquals(1, resumption.getFullReconnectCount());
+    }
+
+    /**
+     * The same connection is tried again until the server is back.
+     *
+     * @throws Exception if anything goes wrong.
+     */
+    public void testRetriesUntilServerIsBack()
+        throws Exception
+    {
+        StreamResumption resumption = login();
+
+        server.stop();
+        waitForDrop();
+
+        Thread restart = new Thread(() ->
+        {
+            try
+            {
+                Thread.sleep(4 * RETRY_DELAY);
+                server.start();
+            }
+            catch (Exception e)
+            {
+                throw new RuntimeException(e);
+            }
+        });
+        restart.start();
+
+        assertEquals(
+            StreamResumption.Outcome.RESUMED, resumption.resume(connection));
+        restart.join();
+        assertEquals(1, server.resumed.get());
+        assertEquals(1, resumption.getResumedCount());
+        assertTrue(
+            resumption.getMaximumLatency() >= 4 * RETRY_DELAY);
+    }
+
+    /**
+     * Resuming stops once the resumption time of the server is over.
+     *
+     * @throws Exception if anything goes wrong.
+     */
+    public void testGivesUpAfterResumptionTime()
+        throws Exception
+    {
+        server.maxResumptionTime = 1;
+        StreamResumption resumption = login();
+        assertEquals(1, connection.getMaxSmResumptionTime());
+
+        server.stop();
+        waitForDrop();
+
+        long start = System.currentTimeMillis();
+        assertEquals(
+            StreamResumption.Outcome.FAILED, resumption.resume(connection));
+        long elapsed = System.currentTimeMillis() - start;
+
+        // waited 100, 200 and 400 ms, waiting 400 ms more would miss the
+        // second the server keeps the stream
+        assertTrue("gave up after " + elapsed + " ms",
+            elapsed >= 7 * RETRY_DELAY && elapsed < 1000);
+        assertEquals(1, resumption.getFullReconnectCount());
+    }
+
+    /**
+     * Creates a connection to the stand-in with stream management and logs it
+     * in.
+     *
+     * @return the stream resumption to resume the stream of the connection.
+     * @throws Exception if the connection cannot log in.
+     */
+    private StreamResumption login()
+        throws Exception
+    {
+        connection = new XMPPTCPConnection(
+            XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain(XmppStandIn.DOMAIN)
+                .setHostAddress(InetAddress.getLoopbackAddress())
+                .setPort(server.port)
+                .setSecurityMode(ConnectionConfiguration.SecurityMode.disabled)
+                .setUsernameAndPassword("alice", "secret")
+                .setResource("jitsi")
+                .setSendPresence(false)
+                .build());
+        connection.setReplyTimeout(2000);
+        StreamResumption.configure(connection);
+
+        connection.connect();
+        connection.login();
+        assertTrue(connection.isSmEnabled());
+
+        return new StreamResumption(RETRY_DELAY, 4 * RETRY_DELAY);
+    }
+
+    /**
+     * Waits until the connection has noticed that the stand-in dropped it.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void waitForDrop()
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!connection.isDisconnectedButSmResumptionPossible())
+        {
+            assertTrue(
+                "connection not dropped",
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Answers just enough of XMPP for a client to log in, enable stream
+     * management and resume its stream: SASL PLAIN without TLS, resource
+     * binding and XEP-0198.
+     */
+    private static class XmppStandIn
+    {
+        static final String DOMAIN = "example.org";
+
+        private static final String SM = "urn:xmpp:sm:3";
+
+        private static final Pattern ELEMENT = Pattern.compile(
+            "<stream:stream\\b[^>]*>"
+                + "|</stream:stream>"
+                + "|<auth\\b[^>]*>[^<]*</auth>"
+                + "|<iq\\b[^>]*?\\bid=['\"]([^'\"]*)['\"][^>]*?"
+                    + "(?:/>|>.*?</iq>)"
+                + "|<enable\\b[^>]*/>"
+                + "|<resume\\b[^>]*?\\bprevid=['\"]([^'\"]*)['\"][^>]*/>"
+                + "|<r\\b[^>]*/>",
+            Pattern.DOTALL);
+
+        /**
+         * Whether streams may be resumed.
+         */
+        volatile boolean resume = true;
+
+        /**
+         * The maximum resumption time in seconds announced to the clients, or
+         * 0 to announce none.
+         */
+        volatile int maxResumptionTime;
+
+        final AtomicInteger bound = new AtomicInteger();
+
+        final AtomicInteger resumed = new AtomicInteger();
+
+        int port;
+
+        private ServerSocket serverSocket;
+
+        private final List<Socket> sockets
+            = Collections.synchronizedList(new ArrayList<Socket>());
+
+        private final AtomicInteger streamIds = new AtomicInteger();
+
+        /**
+         * Starts listening, on the same port as before if restarted.
+         *
+         * @throws IOException if the port cannot be bound.
+         */
+        synchronized void start()
+            throws IOException
+        {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            port = serverSocket.getLocalPort();
+
+            final ServerSocket listening = serverSocket;
+            Thread acceptor = new Thread(() ->
+            {
+                try
+                {
+                    while (true)
+                    {
+                        Socket socket = listening.accept();
+                        sockets.add(socket);
+                        new Thread(() -> serve(socket)).start();
+                    }
+                }
+                catch (IOException e)
+                {
+                    // stopped
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        /**
+         * Stops listening and drops all connections.
+         *
+         * @throws IOException if the server socket cannot be closed.
+         */
+        synchronized void stop()
+            throws IOException
+        {
+            if (serverSocket != null)
+                serverSocket.close();
+            dropConnections();
+        }
+
+        /**
+         * Closes the sockets of all connections without closing their
+         * streams.
+         */
+        void dropConnections()
+        {
+            synchronized (sockets)
+            {
+                for (Socket socket : sockets)
+                {
+                    try
+                    {
+                        socket.close();
+                    }
+                    catch (IOException e)
+                    {
+                        // already closed
+                    }
+                }
+                sockets.clear();
+            }
+        }
+
+        /**
+         * Reads the elements the client sends and answers them.
+         *
+         * @param socket the socket of the client.
+         */
+        private void serve(Socket socket)
+        {
+            boolean authenticated = false;
+            StringBuilder received = new StringBuilder();
+            char[] buffer = new char[4096];
+
+            try
+            {
+                Reader in = new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8);
+                Writer out = new OutputStreamWriter(
+                    socket.getOutputStream(), StandardCharsets.UTF_8);
+                int read;
+
+                while ((read = in.read(buffer)) != -1)
+                {
+                    received.append(buffer, 0, read);
+
+                    Matcher m;
+                    while ((m = ELEMENT.matcher(received)).find())
+                    {
+                        String element = m.group();
+                        String reply;
+
+                        if (element.startsWith("<stream:stream"))
+                        {
+                            reply = "<stream:stream xmlns='jabber:client'"
+                                + " xmlns:stream="
+                                    + "'http://etherx.jabber.org/streams'"
+                                + " from='" + DOMAIN + "' id='s"
+                                + streamIds.incrementAndGet()
+                                + "' version='1.0' xml:lang='en'>"
+                                + "<stream:features>"
+                                + (authenticated
+                                    ? "<bind xmlns="
+                                        + "'urn:ietf:params:xml:ns:xmpp-bind'/>"
+                                        + "<sm xmlns='" + SM + "'/>"
+                                    : "<mechanisms xmlns="
+                                        + "'urn:ietf:params:xml:ns:xmpp-sasl'>"
+                                        + "<mechanism>PLAIN</mechanism>"
+                                        + "</mechanisms>")
+                                + "</stream:features>";
+                        }
+                        else if (element.startsWith("</stream:stream"))
+                        {
+                            out.write("</stream:stream>");
+                            out.flush();
+                            socket.close();
+                            return;
+                        }
+                        else if (element.startsWith("<auth"))
+                        {
+                            authenticated = true;
+                            reply = "<success"
+                                + " xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>";
+                        }
+                        else if (element.startsWith("<iq"))
+                        {
+                            if (element.contains("xmpp-bind"))
+                            {
+                                bound.incrementAndGet();
+                                reply = "<iq type='result' id='" + m.group(1)
+                                    + "'><bind xmlns="
+                                    + "'urn:ietf:params:xml:ns:xmpp-bind'>"
+                                    + "<jid>alice@" + DOMAIN + "/jitsi</jid>"
+                                    + "</bind></iq>";
+                            }
+                            else
+                            {
+                                reply = "<iq type='result' id='"
+                                    + m.group(1) + "'/>";
+                            }
+                        }
+                        else if (element.startsWith("<enable"))
+                        {
+                            reply = "<enabled xmlns='" + SM + "' id='sm-"
+                                + bound.get() + "' resume='true'"
+                                + (maxResumptionTime > 0
+                                    ? " max='" + maxResumptionTime + "'"
+                                    : "")
+                                + "/>";
+                        }
+                        else if (element.startsWith("<resume"))
+                        {
+                            if (resume)
+                            {
+                                resumed.incrementAndGet();
+                                reply = "<resumed xmlns='" + SM
+                                    + "' h='0' previd='" + m.group(2) + "'/>";
+                            }
+                            else
+                            {
+                                reply = "<failed xmlns='" + SM + "'>"
+                                    + "<item-not-found xmlns="
+                                    + "'urn:ietf:params:xml:ns:xmpp-stanzas'/>"
+                                    + "</failed>";
+                            }
+                        }
+                        else
+                        {
+                            // an acknowledgement request
+                            reply = "<a xmlns='" + SM + "' h='0'/>";
+                        }
+
+                        received.delete(0, m.end());
+                        out.write(reply);
+                        out.flush();
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                // dropped
+            }
+        }
+    }
+}
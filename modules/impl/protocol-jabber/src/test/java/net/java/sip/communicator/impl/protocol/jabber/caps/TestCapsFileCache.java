@@ -0,0 +1,203 @@
+/*
+ * Copyright @ 2018 - present 8x8, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package net.java.sip.communicator.impl.protocol.jabber.caps;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import junit.framework.*;
+
+import org.jitsi.service.configuration.*;
+
+/**
+ * Tests that {@link CapsFileCache} reads back the files it writes and drops
+ * files it cannot read.
+ */
+public class TestCapsFileCache
+    extends TestCase
+{
+    private static final String XML
+        = "<query xmlns='http://jabber.org/protocol/disco#info'/>";
+
+    private File file;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+
+        file = File.createTempFile("caps", ".bin");
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        file.delete();
+
+        super.tearDown();
+    }
+
+    /**
+     * The stored caps nodes are read back.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void testReadsStoredNodes()
+        throws IOException
+    {
+        write(1, 2, "node#1", XML, "node#2", XML);
+
+        assertEquals(2, new CapsFileCache(file).size());
+        assertTrue(file.exists());
+    }
+
+    /**
+     * A number of nodes the file cannot hold is rejected before anything is
+     * allocated.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void testRejectsInvalidCount()
+        throws IOException
+    {
+        write(1, Integer.MAX_VALUE, "node#1", XML);
+
+        assertEquals(0, new CapsFileCache(file).size());
+        assertFalse(file.exists());
+    }
+
+    /**
+     * An XML length beyond the end of the file is rejected.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void testRejectsInvalidLength()
+        throws IOException
+    {
+        try (DataOutputStream out
+                = new DataOutputStream(new FileOutputStream(file)))
+        {
+            out.writeInt(1);
+            out.writeInt(1);
+            out.writeUTF("node#1");
+            out.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertEquals(0, new CapsFileCache(file).size());
+        assertFalse(file.exists());
+    }
+
+    /**
+     * A truncated file is dropped along with the nodes read from it.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void testDropsTruncatedFile()
+        throws IOException
+    {
+        write(1, 2, "node#1", XML, "node#2", XML);
+        byte[] content = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(),
+            Arrays.copyOf(content, content.length - 5));
+
+        assertEquals(0, new CapsFileCache(file).size());
+        assertFalse(file.exists());
+    }
+
+    /**
+     * The caps nodes stored as configuration properties are moved to the
+     * cache and removed with a single call.
+     */
+    @SuppressWarnings("unchecked")
+    public void testMigratesConfigurationProperties()
+    {
+        final String prefix
+            = "net.java.sip.communicator.impl.protocol.jabber.extensions.caps."
+                + "EntityCapsManager.CAPS";
+        final List<String> names
+            = Arrays.asList(prefix + ".node#1", prefix + ".node#2");
+        final List<Map<String, Object>> calls
+            = new ArrayList<Map<String, Object>>();
+
+        ConfigurationService config = (ConfigurationService) Proxy
+            .newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ConfigurationService.class },
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method,
+                        Object[] args)
+                    {
+                        String name = method.getName();
+                        if (name.equals("getPropertyNamesByPrefix"))
+                            return names;
+                        if (name.equals("getString"))
+                            return XML;
+                        if (name.equals("setProperties"))
+                        {
+                            calls.add(new HashMap<String, Object>(
+                                (Map<String, Object>) args[0]));
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+
+        file.delete();
+        CapsFileCache cache = new CapsFileCache(file);
+        cache.migrate(config);
+
+        assertEquals(2, cache.size());
+        assertEquals(2, new CapsFileCache(file).size());
+        assertEquals(1, calls.size());
+        Map<String, Object> removed = calls.get(0);
+        assertEquals(3, removed.size());
+        assertTrue(removed.containsKey(prefix));
+        assertTrue(removed.keySet().containsAll(names));
+        assertFalse(removed.values().contains(XML));
+    }
+
+    /**
+     * Writes a cache file.
+     *
+     * @param version the format version to write.
+     * @param count the number of nodes to announce.
+     * @param nodes the names and XML of the nodes to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private void write(int version, int count, String... nodes)
+        throws IOException
+    {
+        try (DataOutputStream out
+                = new DataOutputStream(new FileOutputStream(file)))
+        {
+            out.writeInt(version);
+            out.writeInt(count);
+            for (int i = 0; i < nodes.length; i += 2)
+            {
+                byte[] xml = nodes[i + 1].getBytes(StandardCharsets.UTF_8);
+                out.writeUTF(nodes[i]);
+                out.writeInt(xml.length);
+                out.write(xml);
+            }
+        }
+    }
+}
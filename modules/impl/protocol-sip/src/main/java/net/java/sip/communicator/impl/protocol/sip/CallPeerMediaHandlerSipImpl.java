@@ -95,6 +95,22 @@
      */
     private final Object offerAnswerLock = new Object();
 
+    /**
+     * The last offer received from the remote party, exactly as received.
+     * Guarded by {@link #offerAnswerLock}.
+     */
+    private String lastRemoteOffer = null;
+
+    /**
+     * The answer that we sent to {@link #lastRemoteOffer}. A re-offer
+     * identical to <tt>lastRemoteOffer</tt>, such as a session timer
+     * refresh, is answered with it without being parsed or touching the
+     * streams. RFC 3264 requires an unchanged session to keep its version,
+     * which the previous answer already carries. Guarded by
+     * {@link #offerAnswerLock}.
+     */
+    private String lastLocalAnswer = null;
+
     /**
      * Creates a new handler that will be managing media streams for
      * <tt>peer</tt>.
@@ -129,6 +145,10 @@ public CallPeerMediaHandlerSipImpl(CallPeerSipImpl peer)
     public String createOffer()
         throws OperationFailedException
     {
+        // we are changing the session, a repeated remote offer no longer
+        // gets the same answer
+        forgetLastOfferAnswer();
+
         SessionDescription offer
             = (localSess == null)
                 ? createFirstOffer()
@@ -424,10 +444,24 @@ public String processOffer(String offerString)
         throws OperationFailedException,
                IllegalArgumentException
     {
+        synchronized (offerAnswerLock)
+        {
+            if (localSess != null
+                    && lastLocalAnswer != null
+                    && offerString.equals(lastRemoteOffer))
+            {
+                logger.debug("Answering unchanged offer with the previous"
+                        + " answer");
+                return lastLocalAnswer;
+            }
+        }
+
         SessionDescription offer = SdpUtils.parseSdpString(offerString);
 
         synchronized (offerAnswerLock)
         {
+            forgetLastOfferAnswer();
+
             SessionDescription answer = (localSess == null)
                     ? processFirstOffer(offer)
                     : processUpdateOffer(offer, localSess);
@@ -440,7 +474,23 @@ public String processOffer(String offerString)
                 SdpUtils.setSessionDirection(answer);
             }
 
-            return answer.toString();
+            String answerString = answer.toString();
+            lastRemoteOffer = offerString;
+            lastLocalAnswer = answerString;
+            return answerString;
+        }
+    }
+
+    /**
+     * Forgets the last offer received from the remote party and our answer to
+     * it, so that the next offer is processed in full.
+     */
+    private void forgetLastOfferAnswer()
+    {
+        synchronized (offerAnswerLock)
+        {
+            lastRemoteOffer = null;
+            lastLocalAnswer = null;
         }
     }
 
@@ -1362,6 +1412,7 @@ private void processAnswer(SessionDescription answer)
     {
         synchronized (offerAnswerLock)
         {
+            forgetLastOfferAnswer();
             doNonSynchronisedProcessAnswer(answer);
         }
     }
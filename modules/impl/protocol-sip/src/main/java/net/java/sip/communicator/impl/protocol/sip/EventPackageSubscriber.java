@@ -469,6 +469,20 @@ protected void populateSubscribeRequest(
                     e);
         }
         req.setHeader(expHeader);
+
+        try
+        {
+            subscription.populateSubscribeRequest(req, headerFactory);
+        }
+        catch (ParseException e)
+        {
+            logger.error("failed to add the subscription specific headers", e);
+            throw new OperationFailedException(
+                    "An unexpected error occurred while"
+                    + "constructing the subscription specific headers",
+                    OperationFailedException.INTERNAL_ERROR,
+                    e);
+        }
     }
 
     /**
@@ -575,7 +589,9 @@ public boolean processRequest(RequestEvent requestEvent)
         ContentTypeHeader ctheader
             = (ContentTypeHeader) request.getHeader(ContentTypeHeader.NAME);
         if ((ctheader != null)
-                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType))
+                && !ctheader.getContentSubType().equalsIgnoreCase(contentSubType)
+                && ((subscription == null)
+                        || !subscription.isContentTypeSupported(ctheader)))
         {
             // send a 415 response (rfc3261)
             Response response;
@@ -1198,6 +1214,38 @@ protected abstract void processActiveRequest(
             RequestEvent requestEvent,
             byte[] rawContent);
 
+        /**
+         * Adds the headers specific to this <tt>Subscription</tt> to a
+         * SUBSCRIBE <tt>Request</tt> after the common Event, Accept and
+         * Expires headers have been set. Does nothing by default.
+         *
+         * @param req the SUBSCRIBE <tt>Request</tt> to populate
+         * @param headerFactory the <tt>HeaderFactory</tt> to create the
+         * headers with
+         * @throws ParseException if creating one of the headers fails
+         */
+        protected void populateSubscribeRequest(
+                Request req,
+                HeaderFactory headerFactory)
+            throws ParseException
+        {
+        }
+
+        /**
+         * Determines whether this <tt>Subscription</tt> accepts NOTIFY bodies
+         * of a specific content type in addition to the content sub-type of
+         * the event package. By default only the latter is accepted.
+         *
+         * @param contentType the Content-Type header of the received NOTIFY
+         * @return <tt>true</tt> if the body is to be delivered to
+         * {@link #processActiveRequest(RequestEvent, byte[])} without
+         * answering 415 first; otherwise, <tt>false</tt>
+         */
+        protected boolean isContentTypeSupported(ContentTypeHeader contentType)
+        {
+            return false;
+        }
+
         /**
          * Notifies this <tt>Subscription</tt> that a <tt>Response</tt>
          * to a previous SUBSCRIBE <tt>Request</tt> has been received with a
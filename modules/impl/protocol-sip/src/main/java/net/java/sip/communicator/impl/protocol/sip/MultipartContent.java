@@ -0,0 +1,306 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * The body parts of a MIME multipart content (RFC 2046), as carried by the
+ * multipart/related NOTIFY requests of resource list subscriptions
+ * (RFC 4662). The parts are located in a single pass over the raw content
+ * and refer to it by offset instead of being copied.
+ */
+final class MultipartContent
+{
+    /**
+     * The raw content the parts refer to.
+     */
+    private final byte[] content;
+
+    /**
+     * The parts of the content in the order they appear in it.
+     */
+    private final List<Part> parts = new ArrayList<Part>();
+
+    /**
+     * Splits the given range of <tt>content</tt> into its body parts.
+     *
+     * @param content the raw multipart content
+     * @param offset the offset of the multipart content in <tt>content</tt>
+     * @param length the length of the multipart content
+     * @param boundary the value of the boundary parameter of the content type
+     */
+    MultipartContent(byte[] content, int offset, int length, String boundary)
+    {
+        this.content = content;
+
+        byte[] delimiter
+            = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        int end = offset + length;
+        int partStart = -1;
+        int i = offset;
+
+        while (i + delimiter.length <= end)
+        {
+            // a delimiter is only recognized at the beginning of a line
+            if ((i > offset && content[i - 1] != '\n')
+                    || !startsWith(i, delimiter))
+            {
+                i++;
+                continue;
+            }
+
+            int j = i + delimiter.length;
+            boolean close
+                = j + 1 < end && content[j] == '-' && content[j + 1] == '-';
+
+            // only transport padding may follow the delimiter on its line,
+            // anything else makes it a line of the part e.g. the delimiter
+            // of a nested multipart with a longer boundary
+            int lineEnd = close ? end : skipTransportPadding(j, end);
+            if (lineEnd < 0)
+            {
+                i++;
+                continue;
+            }
+
+            if (partStart >= 0)
+            {
+                // the line break preceding the delimiter belongs to it
+                int partEnd = i - 1;
+                if (partEnd > partStart && content[partEnd - 1] == '\r')
+                    partEnd--;
+                parts.add(createPart(partStart, Math.max(partStart, partEnd)));
+            }
+
+            if (close)
+                return;
+
+            partStart = i = lineEnd + 1;
+        }
+
+        // tolerate a missing close delimiter
+        if (partStart >= 0 && partStart < end)
+            parts.add(createPart(partStart, end));
+    }
+
+    /**
+     * Returns the body parts of this content.
+     *
+     * @return the body parts in the order they appear in the content
+     */
+    List<Part> getParts()
+    {
+        return parts;
+    }
+
+    /**
+     * Determines whether <tt>prefix</tt> occurs in the content at
+     * <tt>offset</tt>.
+     *
+     * @param offset the offset to compare at
+     * @param prefix the bytes to look for
+     * @return <tt>true</tt> if the content continues with <tt>prefix</tt> at
+     * <tt>offset</tt>
+     */
+    private boolean startsWith(int offset, byte[] prefix)
+    {
+        for (int k = 0; k < prefix.length; k++)
+        {
+            if (content[offset + k] != prefix[k])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Skips the linear white space which may pad a delimiter line up to its
+     * line break.
+     *
+     * @param offset the offset right after the delimiter
+     * @param end the offset right after the multipart content
+     * @return the offset of the line feed ending the delimiter line,
+     * <tt>end</tt> if the content ends first or <tt>-1</tt> if the line
+     * goes on with something else than padding
+     */
+    private int skipTransportPadding(int offset, int end)
+    {
+        for (int k = offset; k < end; k++)
+        {
+            byte b = content[k];
+
+            if (b == '\n')
+                return k;
+            if (b != ' ' && b != '\t' && b != '\r')
+                return -1;
+        }
+        return end;
+    }
+
+    /**
+     * Parses the headers of the body part between <tt>start</tt> and
+     * <tt>end</tt>.
+     *
+     * @param start the offset of the first header line of the part
+     * @param end the offset right after the last byte of the part
+     * @return the new <tt>Part</tt>
+     */
+    private Part createPart(int start, int end)
+    {
+        String contentType = null;
+        int lineStart = start;
+
+        while (lineStart < end)
+        {
+            int lineEnd = lineStart;
+            while (lineEnd < end && content[lineEnd] != '\n')
+                lineEnd++;
+
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && content[lineEnd - 1] == '\r')
+                lineEnd--;
+
+            // an empty line separates the headers from the body
+            if (lineEnd == lineStart)
+            {
+                lineStart = next;
+                break;
+            }
+
+            String line
+                = new String(
+                        content,
+                        lineStart,
+                        lineEnd - lineStart,
+                        StandardCharsets.ISO_8859_1);
+            int colon = line.indexOf(':');
+            if (colon > 0)
+            {
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+
+                if ("Content-Type".equalsIgnoreCase(name))
+                    contentType = value;
+            }
+            lineStart = next;
+        }
+
+        int bodyStart = Math.min(lineStart, end);
+        return new Part(contentType, bodyStart, end - bodyStart);
+    }
+
+    /**
+     * A body part of a <tt>MultipartContent</tt>, located by its offset in
+     * the raw content.
+     */
+    static final class Part
+    {
+        /**
+         * The value of the Content-Type header of this part, RFC 2046
+         * defaults to text/plain when it is missing.
+         */
+        private final String contentType;
+
+        /**
+         * The offset of the body of this part in the raw content.
+         */
+        private final int offset;
+
+        /**
+         * The length of the body of this part.
+         */
+        private final int length;
+
+        /**
+         * Initializes a new <tt>Part</tt>.
+         *
+         * @param contentType the value of the Content-Type header
+         * @param offset the offset of the body in the raw content
+         * @param length the length of the body
+         */
+        private Part(String contentType, int offset, int length)
+        {
+            this.contentType
+                = (contentType == null) ? "text/plain" : contentType;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns the media type of this part without its parameters.
+         *
+         * @return the lower case media type e.g. <tt>application/pidf+xml</tt>
+         */
+        String getMediaType()
+        {
+            int semicolon = contentType.indexOf(';');
+            String mediaType
+                = (semicolon < 0)
+                    ? contentType
+                    : contentType.substring(0, semicolon);
+
+            return mediaType.trim().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Returns the value of a parameter of the Content-Type of this part.
+         *
+         * @param name the name of the parameter e.g. <tt>boundary</tt>
+         * @return the value of the parameter without quotes or <tt>null</tt>
+         */
+        String getParameter(String name)
+        {
+            for (String param : contentType.split(";"))
+            {
+                int eq = param.indexOf('=');
+                if (eq > 0
+                        && name.equalsIgnoreCase(param.substring(0, eq).trim()))
+                {
+                    String value = param.substring(eq + 1).trim();
+                    if (value.length() > 1
+                            && value.startsWith("\"")
+                            && value.endsWith("\""))
+                        value = value.substring(1, value.length() - 1);
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the offset of the body of this part in the raw content.
+         *
+         * @return the offset of the body
+         */
+        int getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the body of this part.
+         *
+         * @return the length of the body
+         */
+        int getLength()
+        {
+            return length;
+        }
+    }
+}
@@ -17,7 +17,9 @@
  */
 package net.java.sip.communicator.impl.protocol.sip;
 
+import java.io.*;
 import java.net.URI;
+import java.nio.charset.*;
 import java.text.*;
 import java.util.*;
 
@@ -25,6 +27,7 @@
 import javax.sip.address.*;
 import javax.sip.header.*;
 import javax.sip.message.*;
+import javax.xml.stream.*;
 
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -125,6 +128,46 @@
      */
     private PollOfflineContactsTask pollingTask = null;
 
+    /**
+     * The number of contacts polled at once by the polling task.
+     */
+    private static final int POLLING_BATCH_SIZE = 10;
+
+    /**
+     * The interval between two batches of polled contacts (in ms.)
+     */
+    private static final int POLLING_BATCH_INTERVAL = 1000;
+
+    /**
+     * Guards {@link #pollingTask} and the state of the resource list
+     * subscription.
+     */
+    private final Object pollingSyncRoot = new Object();
+
+    /**
+     * The source of the jitter added to the polling delays, so that clients
+     * registering at the same time do not keep polling in step.
+     */
+    private final Random pollingRandom = new Random();
+
+    /**
+     * The URI of the resource list (RFC 4662) of our contacts, or
+     * <tt>null</tt> to subscribe to each contact separately.
+     */
+    private final String resourceListUri;
+
+    /**
+     * The current subscription to {@link #resourceListUri}, if any.
+     */
+    private ResourceListSubscriberSubscription resourceListSubscription
+        = null;
+
+    /**
+     * Whether the resource list server is notifying us about our contacts,
+     * in which case they are not polled.
+     */
+    private boolean resourceListActive = false;
+
     /**
      * If we should be totally silenced, just doing local operations
      */
@@ -151,6 +194,29 @@
      */
     private static final String WATCHERINFO_XML = "watcherinfo+xml";
 
+    /**
+     * XML documents types.
+     * The resource list meta-information as said in rfc4662.
+     */
+    private static final String RLMI_XML        = "rlmi+xml";
+
+    /**
+     * The option tag of the event list extension (rfc4662).
+     */
+    private static final String EVENTLIST_OPTION_TAG = "eventlist";
+
+    // rlmi elements and attributes
+    private static final String RESOURCE_ELEMENT = "resource";
+    private static final String INSTANCE_ELEMENT = "instance";
+    private static final String URI_ATTRIBUTE    = "uri";
+    private static final String REASON_ATTRIBUTE = "reason";
+
+    /**
+     * The factory of the readers parsing the resource list meta-information.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY
+        = createXMLInputFactory();
+
     // pidf elements and attributes
     private static final String PRESENCE_ELEMENT= "presence";
     private static final String NS_ELEMENT      = "xmlns";
@@ -376,6 +442,14 @@ protected Subscription createSubscription(
         this.pollingTaskPeriod
             = (pollingPeriod > 0) ? (pollingPeriod * 1000) : 30000;
 
+        String resourceListUri
+            = provider.getAccountID().getAccountPropertyString(
+                    SipAccountID.RESOURCE_LIST_URI);
+        this.resourceListUri
+            = (resourceListUri == null || resourceListUri.trim().length() == 0)
+                ? null
+                : resourceListUri.trim();
+
         // if we force the p2p mode, we start by not using a distant PA
         this.useDistantPA = !forceP2PMode;
 
@@ -2952,6 +3026,21 @@ private void unsubscribeToAllEventSubscribers()
                         "for watcher info.", ex);
             }
         }
+
+        ResourceListSubscriberSubscription resourceList
+            = takeResourceListSubscription();
+        if (resourceList != null)
+        {
+            try
+            {
+                subscriber.unsubscribe(resourceList.getAddress(), false);
+            }
+            catch (Throwable ex)
+            {
+                logger.error("Failed to send the unsubscription " +
+                        "for the resource list.", ex);
+            }
+        }
     }
 
     /**
@@ -3000,8 +3089,10 @@ private void cancelTimer()
           */
          if (republishTask != null)
              republishTask = null;
-         if (pollingTask != null)
+         synchronized (pollingSyncRoot)
+         {
              pollingTask = null;
+         }
 
          timer.cancel();
      }
@@ -3062,49 +3153,217 @@ public void run()
      }
 
      /**
-      * A task handling polling of offline contacts.
+      * A task handling polling of offline contacts. Every round polls the
+      * contacts in small batches and the next round starts after a jittered
+      * polling period, so that large contact lists do not turn into bursts
+      * of SUBSCRIBE requests. Rounds are skipped while the resource list
+      * server notifies us about the contacts.
       */
      private class PollOfflineContactsTask extends TimerTask
      {
          /**
-          * Check if we can't subscribe to this contact now
+          * The contacts of the current round which are still to be polled,
+          * <tt>null</tt> for a task starting a new round.
+          */
+         private final Iterator<ContactSipImpl> contacts;
+
+         /**
+          * Creates a task starting a new polling round.
+          */
+         PollOfflineContactsTask()
+         {
+             this(null);
+         }
+
+         /**
+          * Creates a task polling the next batch of a round.
+          *
+          * @param contacts the contacts of the round still to be polled
+          */
+         PollOfflineContactsTask(Iterator<ContactSipImpl> contacts)
+         {
+             this.contacts = contacts;
+         }
+
+         /**
+          * Polls the next batch of contacts and schedules the following one.
           */
          @Override
         public void run()
          {
-             // send a subscription for every contact
-             Iterator<Contact> rootContactsIter
-                = getServerStoredContactListRoot().contacts();
+             List<ContactSipImpl> batch
+                 = new ArrayList<ContactSipImpl>(POLLING_BATCH_SIZE);
 
-            while (rootContactsIter.hasNext())
-            {
-                ContactSipImpl contact =
-                    (ContactSipImpl) rootContactsIter.next();
+             synchronized (pollingSyncRoot)
+             {
+                 // canceled or replaced in the meantime
+                 if (pollingTask != this)
+                     return;
+
+                 Iterator<ContactSipImpl> contacts = this.contacts;
+                 if (contacts == null && !resourceListActive)
+                 {
+                     contacts
+                         = ssContactList
+                             .getAllContacts(ssContactList.getRootGroup())
+                                 .iterator();
+                 }
+
+                 while (contacts != null
+                         && contacts.hasNext()
+                         && batch.size() < POLLING_BATCH_SIZE)
+                 {
+                     ContactSipImpl contact = contacts.next();
+
+                     if (contact.isResolvable() && contact.isPersistent())
+                         batch.add(contact);
+                 }
+
+                 if (contacts != null && contacts.hasNext())
+                 {
+                     schedulePollingTask(
+                         new PollOfflineContactsTask(contacts),
+                         jitter(POLLING_BATCH_INTERVAL));
+                 }
+                 else
+                 {
+                     schedulePollingTask(
+                         new PollOfflineContactsTask(),
+                         jitter(pollingTaskPeriod));
+                 }
+             }
 
-                 // poll this contact
+             for (ContactSipImpl contact : batch)
                  forcePollContact(contact);
+         }
+     }
+
+     /**
+      * Makes <tt>task</tt> the current polling task and schedules it.
+      * Must be called while holding {@link #pollingSyncRoot}.
+      *
+      * @param task the new polling task
+      * @param delay the delay before running <tt>task</tt> (in ms.)
+      */
+     private void schedulePollingTask(PollOfflineContactsTask task, long delay)
+     {
+         pollingTask = task;
+         timer.schedule(task, delay);
+     }
+
+     /**
+      * Randomizes a polling delay by up to a quarter of its value.
+      *
+      * @param delay the nominal delay (in ms.)
+      * @return a delay between 75% and 125% of <tt>delay</tt>
+      */
+     private long jitter(long delay)
+     {
+         return delay - delay / 4
+             + (long) (pollingRandom.nextDouble() * (delay / 2));
+     }
+
+     /**
+      * Starts watching the presence of our contacts after we have
+      * registered: through a single subscription to the resource list when
+      * one is configured, by polling them otherwise. Polling is started
+      * anyway in case the resource list server never answers.
+      *
+      * @return <tt>false</tt> if the presence of our contacts is already
+      * being watched; otherwise, <tt>true</tt>
+      */
+     private boolean startWatchingContacts()
+     {
+         ResourceListSubscriberSubscription resourceList = null;
+
+         synchronized (pollingSyncRoot)
+         {
+             if (pollingTask != null)
+                 return false;
+
+             if (resourceListUri != null)
+             {
+                 try
+                 {
+                     resourceList
+                         = new ResourceListSubscriberSubscription(
+                                 parentProvider.parseAddressString(
+                                         resourceListUri));
+                 }
+                 catch (ParseException ex)
+                 {
+                     logger.error("Invalid resource list URI "
+                         + resourceListUri, ex);
+                 }
              }
 
-             Iterator<ContactGroup> groupsIter
-                 = getServerStoredContactListRoot().subgroups();
+             resourceListSubscription = resourceList;
+             resourceListActive = false;
+             schedulePollingTask(
+                 new PollOfflineContactsTask(),
+                 (resourceList == null) ? 0 : pollingTaskPeriod);
+         }
 
-             while (groupsIter.hasNext())
+         if (resourceList != null)
+         {
+             try
              {
-                 ContactGroup group = groupsIter.next();
-                 Iterator<Contact> contactsIter = group.contacts();
+                 subscriber.subscribe(resourceList);
+             }
+             catch (OperationFailedException ex)
+             {
+                 logger.error("Failed to create and send the subcription " +
+                         "for the resource list.", ex);
+                 fallBackToPolling(resourceList);
+             }
+         }
+         return true;
+     }
 
-                 while (contactsIter.hasNext())
-                 {
-                     ContactSipImpl contact
-                         = (ContactSipImpl) contactsIter.next();
+     /**
+      * Stops relying on a specific resource list subscription and polls the
+      * contacts instead, starting right away.
+      *
+      * @param resourceList the resource list subscription which failed
+      */
+     private void fallBackToPolling(
+             ResourceListSubscriberSubscription resourceList)
+     {
+         synchronized (pollingSyncRoot)
+         {
+             if (resourceListSubscription != resourceList)
+                 return;
 
-                     // poll this contact
-                     forcePollContact(contact);
-                 }
+             resourceListSubscription = null;
+             resourceListActive = false;
+
+             if (pollingTask != null)
+             {
+                 schedulePollingTask(
+                     new PollOfflineContactsTask(),
+                     jitter(POLLING_BATCH_INTERVAL));
              }
          }
      }
 
+     /**
+      * Forgets the current resource list subscription, if any.
+      *
+      * @return the forgotten subscription or <tt>null</tt>
+      */
+     private ResourceListSubscriberSubscription takeResourceListSubscription()
+     {
+         synchronized (pollingSyncRoot)
+         {
+             ResourceListSubscriberSubscription resourceList
+                 = resourceListSubscription;
+
+             resourceListSubscription = null;
+             resourceListActive = false;
+             return resourceList;
+         }
+     }
+
      /**
      * Will wait for every SUBSCRIBE, NOTIFY and PUBLISH transaction
      * to finish before continuing the unsubscription
@@ -3189,24 +3448,11 @@ else if (evt.getNewState().equals(RegistrationState.REGISTERED))
             * anything because we've already set it up in response to
             * the first REGISTERED.
             */
-            if ((!presenceEnabled) || (pollingTask != null))
+            if ((!presenceEnabled) || !startWatchingContacts())
             {
                 return;
             }
 
-            // Subcribe to each contact in the list
-            for (ContactSipImpl contact : ssContactList
-                    .getAllContacts(ssContactList.getRootGroup()))
-            {
-                forcePollContact(contact);
-            }
-
-            // create the new polling task
-            pollingTask = new PollOfflineContactsTask();
-
-            // start polling the offline contacts
-            timer.schedule(pollingTask, pollingTaskPeriod, pollingTaskPeriod);
-
             if(this.useDistantPA)
             {
                 try
@@ -3283,6 +3529,11 @@ else if (evt.getNewState().equals(RegistrationState.CONNECTION_FAILED)
                 }
             }
 
+            ResourceListSubscriberSubscription resourceList
+                = takeResourceListSubscription();
+            if (resourceList != null)
+                subscriber.removeSubscription(resourceList.getAddress());
+
             // stop any task associated with the timer
             cancelTimer();
             waitedCallIds.clear();
@@ -3326,6 +3577,112 @@ private Address getAddress(ContactSipImpl contact)
         }
     }
 
+    /**
+     * Creates the factory of the readers parsing the resource list
+     * meta-information, with DTDs and external entities disabled.
+     *
+     * @return the new <tt>XMLInputFactory</tt>
+     */
+    private static XMLInputFactory createXMLInputFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        return factory;
+    }
+
+    /**
+     * Reads the states of the resources of the list. The presence of the
+     * active resources is carried by their pidf parts, the contacts whose
+     * subscription is pending or terminated are updated by
+     * <tt>handler</tt>.
+     *
+     * @param in the rlmi+xml document
+     * @param handler the handler to pass the state of each resource to
+     */
+    static void processResourceListMetaInformation(
+            InputStream in,
+            ResourceStateHandler handler)
+    {
+        try
+        {
+            XMLStreamReader reader
+                = XML_INPUT_FACTORY.createXMLStreamReader(in);
+
+            try
+            {
+                String uri = null;
+                String state = null;
+                String reason = null;
+
+                while (reader.hasNext())
+                {
+                    int event = reader.next();
+
+                    if (event == XMLStreamConstants.START_ELEMENT)
+                    {
+                        String name = reader.getLocalName();
+
+                        if (RESOURCE_ELEMENT.equals(name))
+                        {
+                            uri = reader.getAttributeValue(
+                                    null, URI_ATTRIBUTE);
+                            state = null;
+                            reason = null;
+                        }
+                        else if (INSTANCE_ELEMENT.equals(name)
+                                && !SubscriptionStateHeader.ACTIVE
+                                        .equalsIgnoreCase(state))
+                        {
+                            // one active instance makes it active
+                            state = reader.getAttributeValue(
+                                    null, STATE_ATTRIBUTE);
+                            reason = reader.getAttributeValue(
+                                    null, REASON_ATTRIBUTE);
+                        }
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT
+                            && RESOURCE_ELEMENT.equals(
+                                    reader.getLocalName()))
+                    {
+                        if (uri != null)
+                            handler.processResourceState(uri, state, reason);
+                        uri = null;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException ex)
+        {
+            logger.error("Failed to parse the resource list notification",
+                ex);
+        }
+    }
+
+    /**
+     * Receives the states of the resources read from the resource list
+     * meta-information.
+     */
+    interface ResourceStateHandler
+    {
+        /**
+         * Handles the state of a resource of the list.
+         *
+         * @param uri the URI of the resource
+         * @param state the state of its subscription or <tt>null</tt> if the
+         * resource has no instance yet
+         * @param reason the termination reason or <tt>null</tt>
+         */
+        void processResourceState(String uri, String state, String reason);
+    }
+
     /**
      * Frees allocated resources.
      */
@@ -3663,6 +4020,297 @@ protected void processTerminatedRequest(
         }
     }
 
+    /**
+     * Represents a subscription to the presence event package of a resource
+     * list (rfc4662), through which a single dialog carries the presence of
+     * all our contacts. If the server turns out not to support resource
+     * lists, the contacts are polled instead.
+     */
+    private class ResourceListSubscriberSubscription
+        extends EventPackageSubscriber.Subscription
+        implements ResourceStateHandler
+    {
+        /**
+         * Initializes a new <tt>ResourceListSubscriberSubscription</tt>.
+         *
+         * @param listAddress the URI of the resource list
+         */
+        public ResourceListSubscriberSubscription(Address listAddress)
+        {
+            super(listAddress);
+        }
+
+        /**
+         * Announces the support of resource lists and of their multipart
+         * notifications in addition to the pidf accepted by default.
+         *
+         * @param req the SUBSCRIBE request to populate
+         * @param headerFactory the factory to create the headers with
+         * @throws ParseException if creating one of the headers fails
+         */
+        @Override
+        protected void populateSubscribeRequest(
+                Request req,
+                HeaderFactory headerFactory)
+            throws ParseException
+        {
+            req.addHeader(
+                headerFactory.createSupportedHeader(EVENTLIST_OPTION_TAG));
+            req.addHeader(
+                headerFactory.createAcceptHeader("application", RLMI_XML));
+            req.addHeader(
+                headerFactory.createAcceptHeader("multipart", "related"));
+        }
+
+        /**
+         * Accepts the multipart/related and rlmi+xml notifications of the
+         * resource list server.
+         *
+         * @param contentType the Content-Type of the received NOTIFY
+         * @return <tt>true</tt> for the resource list content types
+         */
+        @Override
+        protected boolean isContentTypeSupported(ContentTypeHeader contentType)
+        {
+            String subType = contentType.getContentSubType();
+
+            return ("multipart".equalsIgnoreCase(contentType.getContentType())
+                        && "related".equalsIgnoreCase(subType))
+                || RLMI_XML.equalsIgnoreCase(subType);
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processActiveRequest(RequestEvent
+         * , byte[]).
+         */
+        @Override
+        protected void processActiveRequest(
+            RequestEvent requestEvent,
+            byte[] rawContent)
+        {
+            Request request = requestEvent.getRequest();
+            ContentTypeHeader contentType
+                = (ContentTypeHeader)
+                    request.getHeader(ContentTypeHeader.NAME);
+
+            if (!isEventList(request, contentType))
+            {
+                // the server handles the list URI as a single presentity
+                if (logger.isInfoEnabled())
+                    logger.info("No resource list server for "
+                        + getAddress() + ", polling the contacts instead");
+
+                fallBackToPolling(this);
+                try
+                {
+                    subscriber.unsubscribe(getAddress(), false);
+                }
+                catch (Throwable ex)
+                {
+                    logger.error("Failed to send the unsubscription " +
+                            "for the resource list.", ex);
+                }
+                return;
+            }
+
+            synchronized (pollingSyncRoot)
+            {
+                SubscriptionStateHeader stateHeader
+                    = (SubscriptionStateHeader)
+                        request.getHeader(SubscriptionStateHeader.NAME);
+
+                if (resourceListSubscription == this
+                        && !SubscriptionStateHeader.TERMINATED
+                                .equalsIgnoreCase(stateHeader.getState()))
+                    resourceListActive = true;
+            }
+
+            if (rawContent != null && contentType != null)
+            {
+                processContent(
+                    contentType.getContentType() + "/"
+                        + contentType.getContentSubType(),
+                    contentType.getParameter("boundary"),
+                    rawContent, 0, rawContent.length);
+            }
+        }
+
+        /**
+         * Determines whether a NOTIFY request comes from a resource list
+         * server, i.e. requires the eventlist extension or carries one of its
+         * content types.
+         *
+         * @param request the NOTIFY request
+         * @param contentType the Content-Type of <tt>request</tt> or
+         * <tt>null</tt>
+         * @return <tt>true</tt> if <tt>request</tt> describes a resource list
+         */
+        private boolean isEventList(
+                Request request,
+                ContentTypeHeader contentType)
+        {
+            ListIterator<?> requireHeaders
+                = request.getHeaders(RequireHeader.NAME);
+
+            while (requireHeaders != null && requireHeaders.hasNext())
+            {
+                RequireHeader require = (RequireHeader) requireHeaders.next();
+
+                if (EVENTLIST_OPTION_TAG.equalsIgnoreCase(
+                        require.getOptionTag()))
+                    return true;
+            }
+            return (contentType != null) && isContentTypeSupported(contentType);
+        }
+
+        /**
+         * Dispatches a part of a resource list notification by its media
+         * type: multipart/related parts are split in a single pass without
+         * copying, the rlmi+xml meta-information is streamed and every
+         * pidf+xml document updates the contact it describes.
+         *
+         * @param mediaType the lower case media type of the content
+         * @param boundary the boundary parameter of a multipart content
+         * @param content the raw content
+         * @param offset the offset of the part in <tt>content</tt>
+         * @param length the length of the part
+         */
+        private void processContent(
+                String mediaType,
+                String boundary,
+                byte[] content,
+                int offset,
+                int length)
+        {
+            if ("multipart/related".equalsIgnoreCase(mediaType))
+            {
+                if (boundary == null)
+                {
+                    logger.error("no boundary in the multipart notification");
+                    return;
+                }
+
+                for (MultipartContent.Part part
+                        : new MultipartContent(
+                                content, offset, length, boundary)
+                            .getParts())
+                {
+                    processContent(
+                        part.getMediaType(),
+                        part.getParameter("boundary"),
+                        content,
+                        part.getOffset(),
+                        part.getLength());
+                }
+            }
+            else if (("application/" + RLMI_XML).equalsIgnoreCase(mediaType))
+            {
+                processResourceListMetaInformation(
+                    new ByteArrayInputStream(content, offset, length), this);
+            }
+            else if (("application/" + PIDF_XML).equalsIgnoreCase(mediaType))
+            {
+                setPidfPresenceStatus(
+                    new String(
+                            content, offset, length, StandardCharsets.UTF_8));
+            }
+            else if (logger.isDebugEnabled())
+            {
+                logger.debug("ignoring resource list content " + mediaType);
+            }
+        }
+
+        /**
+         * Updates the contact of a resource of the list after its state has
+         * been read from the meta-information.
+         *
+         * @param uri the URI of the resource
+         * @param state the state of its subscription or <tt>null</tt> if the
+         * resource has no instance yet
+         * @param reason the termination reason or <tt>null</tt>
+         */
+        public void processResourceState(
+                String uri,
+                String state,
+                String reason)
+        {
+            ContactSipImpl contact = resolveContactID(uri);
+
+            if (contact == null)
+                return;
+
+            if (SubscriptionStateHeader.ACTIVE.equalsIgnoreCase(state))
+            {
+                contact.setSubscriptionState(SubscriptionStateHeader.ACTIVE);
+                return;
+            }
+
+            if (SubscriptionStateHeader.PENDING.equalsIgnoreCase(state))
+            {
+                contact.setSubscriptionState(SubscriptionStateHeader.PENDING);
+            }
+            else if (SubscriptionStateHeader.TERMINATED
+                    .equalsIgnoreCase(state))
+            {
+                contact.setSubscriptionState(
+                    SubscriptionStateHeader.TERMINATED);
+
+                // don't poll it either, should we fall back to polling
+                if (SubscriptionStateHeader.REJECTED.equalsIgnoreCase(reason))
+                    contact.setResolvable(false);
+            }
+
+            PresenceStatus offline
+                = sipStatusEnum.getStatus(SipStatusEnum.OFFLINE);
+            if (!offline.equals(contact.getPresenceStatus()))
+                changePresenceStatusForContact(contact, offline);
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processFailureResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processFailureResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            if (logger.isInfoEnabled())
+                logger.info("Resource list subscription failed with "
+                    + statusCode + ", polling the contacts instead");
+
+            fallBackToPolling(this);
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processSuccessResponse(
+         * ResponseEvent, int).
+         */
+        @Override
+        protected void processSuccessResponse(
+            ResponseEvent responseEvent,
+            int statusCode)
+        {
+            // the contacts are updated by the NOTIFY requests
+        }
+
+        /*
+         * Implements
+         * EventPackageSubscriber.Subscription#processTerminatedRequest(
+         * RequestEvent, String).
+         */
+        @Override
+        protected void processTerminatedRequest(
+            RequestEvent requestEvent,
+            String reasonCode)
+        {
+            fallBackToPolling(this);
+        }
+    }
+
     /**
      * Represents a subscription to the presence.winfo event package.
      *
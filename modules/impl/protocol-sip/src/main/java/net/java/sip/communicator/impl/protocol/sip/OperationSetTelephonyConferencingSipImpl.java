@@ -910,17 +910,11 @@ public void notify( final Subscription subscription,
                 logger.info("Scheduling to send a conference-info NOTIFY to "
                         + callPeer);
                 callPeer.setConfInfoScheduled(true);
-                new Thread(new Runnable(){
+                scheduleConferenceInfo(new Runnable()
+                {
                     @Override
                     public void run()
                     {
-                        try
-                        {
-                            Thread.sleep(1 + MIN_NOTIFY_INTERVAL
-                                         - timeSinceLastNotify);
-                        }
-                        catch (InterruptedException ie) {}
-
                         try
                         {
                             ConferenceEventPackageNotifier.this.notify(
@@ -931,11 +925,22 @@ public void run()
                             logger.error("Failed to send NOTIFY request");
                         }
                     }
-                }).start();
+                }, 1 + MIN_NOTIFY_INTERVAL - timeSinceLastNotify);
 
                 return;
             }
 
+            // nothing changed since the last document sent to this peer
+            long generation = getConferenceStateGeneration();
+            if (SubscriptionState.ACTIVE.equals(subscriptionState)
+                    && callPeer.getLastConferenceInfoSent() != null
+                    && callPeer.getLastConferenceInfoSentGeneration()
+                        == generation)
+            {
+                callPeer.setConfInfoScheduled(false);
+                return;
+            }
+
             ConferenceInfoDocument currentConfInfo
                     = getCurrentConferenceInfo(callPeer);
             ConferenceInfoDocument lastSentConfInfo
@@ -1001,6 +1006,7 @@ public void run()
                     callPeer.setLastConferenceInfoSent(currentConfInfo);
                     callPeer.setLastConferenceInfoSentTimestamp(
                             System.currentTimeMillis());
+                    callPeer.setLastConferenceInfoSentGeneration(generation);
                 }
                 catch (SipException sex)
                 {
@@ -22,6 +22,7 @@
 import java.net.URI;
 
 import java.nio.charset.*;
+import java.util.*;
 import java.util.concurrent.atomic.*;
 import javax.sip.address.*;
 
@@ -38,6 +39,7 @@
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.*;
 import org.apache.http.impl.client.*;
+import org.apache.http.util.*;
 
 /**
  * Base HTTP XCAP client implementation.
@@ -68,6 +70,11 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
+    /**
+     * HTTP If-Match header.
+     */
+    public static final String HEADER_IF_MATCH = "If-Match";
+
     /**
      * XCap-error content type.
      */
@@ -99,6 +106,25 @@ public abstract class BaseHttpXCapClient implements HttpXCapClient
      */
     private boolean connected;
 
+    /**
+     * The HTTP client shared by all requests while connected, so that
+     * connections to the server are kept alive and reused.
+     */
+    private CloseableHttpClient httpClient;
+
+    /**
+     * The last retrieved content of the documents by URI, used to answer
+     * requests for unchanged documents with a conditional request. Kept
+     * across reconnects to the same server.
+     */
+    private final Map<URI, XCapHttpResponse> documentCache
+        = new HashMap<>();
+
+    /**
+     * The server uri and user name the cached documents belong to.
+     */
+    private String documentCacheOwner;
+
     /**
      * Connects user to XCap server.
      *
@@ -115,6 +141,15 @@ public void connect(URI uri, Address userAddress, String username, String passwo
         {
             throw new IllegalArgumentException("Address must contains SipUri");
         }
+        String owner = uri + "|" + username;
+        synchronized (documentCache)
+        {
+            if (!owner.equals(documentCacheOwner))
+            {
+                documentCache.clear();
+                documentCacheOwner = owner;
+            }
+        }
         this.uri = uri;
         this.userAddress = (Address) userAddress.clone();
         this.username = username;
@@ -141,6 +176,7 @@ public void disconnect()
         this.userAddress = null;
         this.password = null;
         connected = false;
+        closeHttpClient();
     }
 
     /**
@@ -168,13 +204,31 @@ public XCapHttpResponse get(XCapResourceId resourceId)
     protected XCapHttpResponse get(URI uri)
             throws XCapException
     {
-        try (CloseableHttpClient httpClient = createHttpClient())
+        XCapHttpResponse cached;
+        synchronized (documentCache)
         {
-            HttpGet getMethod = new HttpGet(uri);
-            getMethod.setHeader("Connection", "close");
+            cached = documentCache.get(uri);
+        }
+
+        HttpGet getMethod = new HttpGet(uri);
+        if (cached != null)
+            getMethod.setHeader(HEADER_IF_NONE_MATCH, cached.getETag());
+
+        try (CloseableHttpResponse response =
+                getHttpClient().execute(getMethod))
+        {
+            XCapHttpResponse result;
+            if (cached != null && response.getStatusLine().getStatusCode()
+                    == HttpStatus.SC_NOT_MODIFIED)
+            {
+                EntityUtils.consumeQuietly(response.getEntity());
+                if (logger.isDebugEnabled())
+                    logger.debug("Resource " + uri + " not modified");
+                return copyResponse(cached);
+            }
 
-            HttpResponse response = httpClient.execute(getMethod);
-            XCapHttpResponse result = createResponse(response);
+            result = createResponse(response);
+            updateDocumentCache(uri, result);
             if (logger.isDebugEnabled())
             {
                 byte[] contentBytes = result.getContent();
@@ -257,11 +311,11 @@ static void showError(Exception ex, String title, String message)
     public XCapHttpResponse put(XCapResource resource)
             throws XCapException
     {
-        try (CloseableHttpClient httpClient = createHttpClient())
+        URI resourceUri = getResourceURI(resource.getId());
+        HttpPut putMethod = new HttpPut(resourceUri);
+        setIfMatch(putMethod, resourceUri);
+        try
         {
-            URI resourceUri = getResourceURI(resource.getId());
-            HttpPut putMethod = new HttpPut(resourceUri);
-            putMethod.setHeader("Connection", "close");
             StringEntity stringEntity = new StringEntity(resource.getContent());
             stringEntity.setContentType(resource.getContentType());
             stringEntity.setContentEncoding("UTF-8");
@@ -276,8 +330,28 @@ public XCapHttpResponse put(XCapResource resource)
                 );
                 logger.debug(logMessage);
             }
-            HttpResponse response = httpClient.execute(putMethod);
-            return createResponse(response);
+            try (CloseableHttpResponse response =
+                    getHttpClient().execute(putMethod))
+            {
+                XCapHttpResponse result = createResponse(response);
+                documentModified(resourceUri, result);
+
+                // the server tells us the new ETag of what we just stored
+                int httpCode = result.getHttpCode();
+                if ((httpCode == HttpStatus.SC_OK
+                        || httpCode == HttpStatus.SC_CREATED)
+                    && result.getETag() != null)
+                {
+                    XCapHttpResponse stored = new XCapHttpResponse();
+                    stored.setHttpCode(HttpStatus.SC_OK);
+                    stored.setContentType(resource.getContentType());
+                    stored.setContent(resource.getContent()
+                        .getBytes(StandardCharsets.UTF_8));
+                    stored.setETag(result.getETag());
+                    updateDocumentCache(resourceUri, stored);
+                }
+                return result;
+            }
         }
         catch (IOException e)
         {
@@ -300,12 +374,11 @@ public XCapHttpResponse delete(XCapResourceId resourceId)
             throws XCapException
     {
         assertConnected();
-        try (CloseableHttpClient httpClient = createHttpClient())
+        URI resourceUri = getResourceURI(resourceId);
+        HttpDelete deleteMethod = new HttpDelete(resourceUri);
+        setIfMatch(deleteMethod, resourceUri);
+        try
         {
-            URI resourceUri = getResourceURI(resourceId);
-            HttpDelete deleteMethod = new HttpDelete(resourceUri);
-            deleteMethod.setHeader("Connection", "close");
-
             if (logger.isDebugEnabled())
             {
                 String logMessage = String.format(
@@ -314,8 +387,13 @@ public XCapHttpResponse delete(XCapResourceId resourceId)
                 );
                 logger.debug(logMessage);
             }
-            HttpResponse response = httpClient.execute(deleteMethod);
-            return createResponse(response);
+            try (CloseableHttpResponse response =
+                    getHttpClient().execute(deleteMethod))
+            {
+                XCapHttpResponse result = createResponse(response);
+                documentModified(resourceUri, result);
+                return result;
+            }
         }
         catch (IOException e)
         {
@@ -380,24 +458,141 @@ protected URI getResourceURI(XCapResourceId resourceId)
     }
 
     /**
-     * Creates HTTP client with special parameters.
+     * Returns the HTTP client used while connected, creating it with special
+     * parameters on first use. The client pools its connections, so
+     * consecutive requests reuse the same keep-alive connection.
      *
      * @return the HTTP client.
      */
-    private CloseableHttpClient createHttpClient()
+    private synchronized CloseableHttpClient getHttpClient()
         throws IOException
     {
-        XCapCredentialsProvider credentialsProvider
-            = new XCapCredentialsProvider();
-        credentialsProvider.setCredentials(
-            AuthScope.ANY,
-            new UsernamePasswordCredentials(getUserName(), password));
+        if (httpClient == null)
+        {
+            XCapCredentialsProvider credentialsProvider
+                = new XCapCredentialsProvider();
+            credentialsProvider.setCredentials(
+                AuthScope.ANY,
+                new UsernamePasswordCredentials(getUserName(), password));
+
+            httpClient = createHttpClient(credentialsProvider);
+        }
+        return httpClient;
+    }
 
+    /**
+     * Creates the HTTP client used while connected.
+     *
+     * @param credentialsProvider provides the credentials of the user.
+     * @return the new HTTP client.
+     * @throws IOException if the client cannot be created.
+     */
+    protected CloseableHttpClient createHttpClient(
+        CredentialsProvider credentialsProvider)
+        throws IOException
+    {
         return HttpUtils.getHttpClient(
             null , null, uri.getHost(),
             new AtomicReference<>(credentialsProvider));
     }
 
+    /**
+     * Closes the HTTP client and its pooled connections.
+     */
+    private synchronized void closeHttpClient()
+    {
+        if (httpClient == null)
+            return;
+
+        try
+        {
+            httpClient.close();
+        }
+        catch (IOException e)
+        {
+            logger.debug("Error closing XCAP http client", e);
+        }
+        httpClient = null;
+    }
+
+    /**
+     * Makes the given modification conditional on the document not having
+     * changed on the server since we last retrieved it.
+     *
+     * @param request the PUT or DELETE request.
+     * @param resourceUri the document uri.
+     */
+    private void setIfMatch(HttpRequestBase request, URI resourceUri)
+    {
+        XCapHttpResponse cached;
+        synchronized (documentCache)
+        {
+            cached = documentCache.get(resourceUri);
+        }
+
+        if (cached != null)
+            request.setHeader(HEADER_IF_MATCH, cached.getETag());
+    }
+
+    /**
+     * Caches a retrieved document if the server provided its ETag, or drops
+     * the cached document if it is gone.
+     *
+     * @param resourceUri the document uri.
+     * @param response the response to the GET request.
+     */
+    private void updateDocumentCache(URI resourceUri,
+                                     XCapHttpResponse response)
+    {
+        synchronized (documentCache)
+        {
+            if (response.getHttpCode() == HttpStatus.SC_OK
+                    && response.getETag() != null)
+                documentCache.put(resourceUri, copyResponse(response));
+            else
+                documentCache.remove(resourceUri);
+        }
+    }
+
+    /**
+     * Drops the cached content of a document after it was modified, the
+     * next retrieval has to fetch the new content.
+     *
+     * @param resourceUri the document uri.
+     * @param response the response to the modification.
+     */
+    private void documentModified(URI resourceUri, XCapHttpResponse response)
+    {
+        synchronized (documentCache)
+        {
+            documentCache.remove(resourceUri);
+        }
+
+        if (response.getHttpCode() == HttpStatus.SC_PRECONDITION_FAILED)
+        {
+            logger.warn("Resource " + resourceUri
+                + " has been modified on the server by another client");
+        }
+    }
+
+    /**
+     * Returns a copy of the given response, so that cached responses cannot
+     * be changed by the callers.
+     *
+     * @param response the response to copy.
+     * @return the copy.
+     */
+    private static XCapHttpResponse copyResponse(XCapHttpResponse response)
+    {
+        XCapHttpResponse copy = new XCapHttpResponse();
+        copy.setHttpCode(response.getHttpCode());
+        copy.setContentType(response.getContentType());
+        copy.setETag(response.getETag());
+        byte[] content = response.getContent();
+        copy.setContent(content == null ? null : content.clone());
+        return copy;
+    }
+
     /**
      * Creates XCAP response from HTTP response.
      * If HTTP code is 200, 201 or 409 the HTTP content would be read.
@@ -424,6 +619,11 @@ private XCapHttpResponse createResponse(HttpResponse response)
             xcapHttpResponse.setContent(content);
             xcapHttpResponse.setETag(eTag);
         }
+        else
+        {
+            // release the connection for reuse
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
         xcapHttpResponse.setHttpCode(statusCode);
         return xcapHttpResponse;
     }
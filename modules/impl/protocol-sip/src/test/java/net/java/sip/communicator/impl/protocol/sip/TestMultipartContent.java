@@ -0,0 +1,347 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import junit.framework.*;
+
+/**
+ * Tests the splitting of multipart contents by {@link MultipartContent} and
+ * the reading of the resource list meta-information of a resource list
+ * notification (RFC 4662).
+ */
+public class TestMultipartContent
+    extends TestCase
+{
+    private static final String CRLF = "\r\n";
+
+    /**
+     * A resource list notification as sent by a resource list server, its
+     * parts carry the rlmi document and the pidf of the active resource.
+     */
+    private static final String NOTIFICATION
+        = "--50UBfW7LSCVLtggUPe5z" + CRLF
+        + "Content-Transfer-Encoding: binary" + CRLF
+        + "Content-ID: <nXYxAE@pres.example.com>" + CRLF
+        + "Content-Type: application/rlmi+xml;charset=\"UTF-8\"" + CRLF
+        + CRLF
+        + "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CRLF
+        + "<list xmlns=\"urn:ietf:params:xml:ns:rlmi\"" + CRLF
+        + "      uri=\"sip:adam-friends@pres.example.com\"" + CRLF
+        + "      version=\"1\" fullState=\"true\">" + CRLF
+        + "  <name xml:lang=\"en\">Buddy List at COM</name>" + CRLF
+        + "  <resource uri=\"sip:bob@example.com\">" + CRLF
+        + "    <name>Bob Smith</name>" + CRLF
+        + "    <instance id=\"juwigmtboe\" state=\"active\"" + CRLF
+        + "              cid=\"bUZBsM@pres.example.com\"/>" + CRLF
+        + "  </resource>" + CRLF
+        + "  <resource uri=\"sip:dave@example.com\">" + CRLF
+        + "    <name>Dave Jones</name>" + CRLF
+        + "    <instance id=\"hqzsuxtfyq\" state=\"pending\"/>" + CRLF
+        + "  </resource>" + CRLF
+        + "  <resource uri=\"sip:ed@example.net\">" + CRLF
+        + "    <instance id=\"ptlkyrvbqc\" state=\"terminated\"" + CRLF
+        + "              reason=\"rejected\"/>" + CRLF
+        + "  </resource>" + CRLF
+        + "  <resource uri=\"sip:fay@example.net\">" + CRLF
+        + "    <instance id=\"rwqnqfmzgs\" state=\"terminated\"" + CRLF
+        + "              reason=\"timeout\"/>" + CRLF
+        + "    <instance id=\"dqrzjgmyhf\" state=\"active\"" + CRLF
+        + "              cid=\"ZvSvkz@pres.example.com\"/>" + CRLF
+        + "  </resource>" + CRLF
+        + "  <resource uri=\"sip:gil@example.net\">" + CRLF
+        + "    <name>Gil</name>" + CRLF
+        + "  </resource>" + CRLF
+        + "</list>" + CRLF
+        + CRLF
+        + "--50UBfW7LSCVLtggUPe5z" + CRLF
+        + "Content-Transfer-Encoding: binary" + CRLF
+        + "Content-ID: <bUZBsM@pres.example.com>" + CRLF
+        + "Content-Type: application/pidf+xml;charset=\"UTF-8\"" + CRLF
+        + CRLF
+        + "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + CRLF
+        + "<presence xmlns=\"urn:ietf:params:xml:ns:pidf\"" + CRLF
+        + "    entity=\"sip:bob@example.com\">" + CRLF
+        + "  <tuple id=\"sg89ae\">" + CRLF
+        + "    <status><basic>open</basic></status>" + CRLF
+        + "  </tuple>" + CRLF
+        + "</presence>" + CRLF
+        + "--50UBfW7LSCVLtggUPe5z--" + CRLF;
+
+    private byte[] content;
+
+    private MultipartContent parse(String text, String boundary)
+    {
+        content = text.getBytes(StandardCharsets.ISO_8859_1);
+        return new MultipartContent(content, 0, content.length, boundary);
+    }
+
+    private String body(MultipartContent.Part part)
+    {
+        return new String(
+                content,
+                part.getOffset(),
+                part.getLength(),
+                StandardCharsets.ISO_8859_1);
+    }
+
+    private List<String> bodies(MultipartContent multipart)
+    {
+        List<String> bodies = new ArrayList<String>();
+        for (MultipartContent.Part part : multipart.getParts())
+            bodies.add(body(part));
+        return bodies;
+    }
+
+    private void assertLineBreaks(String lineBreak)
+    {
+        MultipartContent multipart
+            = parse(
+                "--b" + lineBreak
+                    + "Content-Type: text/plain" + lineBreak
+                    + lineBreak
+                    + "one" + lineBreak
+                    + "two" + lineBreak
+                    + "--b" + lineBreak
+                    + "Content-Type: application/pidf+xml" + lineBreak
+                    + lineBreak
+                    + "three" + lineBreak
+                    + "--b--" + lineBreak,
+                "b");
+
+        assertEquals(
+            Arrays.asList("one" + lineBreak + "two", "three"),
+            bodies(multipart));
+        assertEquals(
+            "text/plain", multipart.getParts().get(0).getMediaType());
+        assertEquals(
+            "application/pidf+xml",
+            multipart.getParts().get(1).getMediaType());
+    }
+
+    public void testCrlfLineBreaks()
+    {
+        assertLineBreaks(CRLF);
+    }
+
+    public void testLfLineBreaks()
+    {
+        assertLineBreaks("\n");
+    }
+
+    public void testPreambleAndEpilogueIgnored()
+    {
+        MultipartContent multipart
+            = parse(
+                "This is the preamble." + CRLF
+                    + "--b" + CRLF
+                    + CRLF
+                    + "body" + CRLF
+                    + "--b--" + CRLF
+                    + "This is the epilogue." + CRLF,
+                "b");
+
+        assertEquals(Arrays.asList("body"), bodies(multipart));
+    }
+
+    public void testTransportPadding()
+    {
+        MultipartContent multipart
+            = parse(
+                "--b \t " + CRLF
+                    + CRLF
+                    + "one" + CRLF
+                    + "--b\t" + CRLF
+                    + CRLF
+                    + "two" + CRLF
+                    + "--b--  " + CRLF,
+                "b");
+
+        assertEquals(Arrays.asList("one", "two"), bodies(multipart));
+    }
+
+    public void testMissingCloseDelimiter()
+    {
+        MultipartContent multipart
+            = parse(
+                "--b" + CRLF
+                    + CRLF
+                    + "one" + CRLF
+                    + "--b" + CRLF
+                    + CRLF
+                    + "truncated",
+                "b");
+
+        assertEquals(Arrays.asList("one", "truncated"), bodies(multipart));
+    }
+
+    public void testBoundaryNotAtLineStart()
+    {
+        String body
+            = "see --b in the text" + CRLF
+                + "x--b" + CRLF
+                + "--bb is another boundary";
+        MultipartContent multipart
+            = parse(
+                "--b" + CRLF
+                    + CRLF
+                    + body + CRLF
+                    + "--b--",
+                "b");
+
+        assertEquals(Arrays.asList(body), bodies(multipart));
+    }
+
+    public void testNestedMultipart()
+    {
+        // the inner boundary extends the outer one
+        MultipartContent multipart
+            = parse(
+                "--outer" + CRLF
+                    + "Content-Type: multipart/alternative;"
+                    + " boundary=\"outer-inner\"" + CRLF
+                    + CRLF
+                    + "--outer-inner" + CRLF
+                    + CRLF
+                    + "first" + CRLF
+                    + "--outer-inner" + CRLF
+                    + "Content-Type: text/html" + CRLF
+                    + CRLF
+                    + "<p>second</p>" + CRLF
+                    + "--outer-inner--" + CRLF
+                    + CRLF
+                    + "--outer" + CRLF
+                    + CRLF
+                    + "last" + CRLF
+                    + "--outer--" + CRLF,
+                "outer");
+
+        List<MultipartContent.Part> parts = multipart.getParts();
+        assertEquals(2, parts.size());
+        assertEquals("last", body(parts.get(1)));
+
+        MultipartContent.Part nested = parts.get(0);
+        assertEquals("multipart/alternative", nested.getMediaType());
+        assertEquals("outer-inner", nested.getParameter("boundary"));
+
+        MultipartContent inner
+            = new MultipartContent(
+                    content,
+                    nested.getOffset(),
+                    nested.getLength(),
+                    nested.getParameter("boundary"));
+        assertEquals(Arrays.asList("first", "<p>second</p>"), bodies(inner));
+        assertEquals("text/plain", inner.getParts().get(0).getMediaType());
+        assertEquals("text/html", inner.getParts().get(1).getMediaType());
+    }
+
+    public void testPartWithoutHeaders()
+    {
+        MultipartContent multipart
+            = parse("--b" + CRLF + CRLF + "body" + CRLF + "--b--", "b");
+
+        MultipartContent.Part part = multipart.getParts().get(0);
+        assertEquals("text/plain", part.getMediaType());
+        assertNull(part.getParameter("charset"));
+        assertEquals("body", body(part));
+    }
+
+    public void testRangeOfContent()
+    {
+        String multipart = "--b" + CRLF + CRLF + "body" + CRLF + "--b--";
+        content
+            = ("--b" + CRLF + "before" + CRLF + multipart + CRLF + "--b")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        int offset = 3 + CRLF.length() + "before".length() + CRLF.length();
+
+        assertEquals(
+            Arrays.asList("body"),
+            bodies(
+                new MultipartContent(
+                        content, offset, multipart.length(), "b")));
+    }
+
+    public void testResourceListNotification()
+    {
+        MultipartContent multipart
+            = parse(NOTIFICATION, "50UBfW7LSCVLtggUPe5z");
+        List<MultipartContent.Part> parts = multipart.getParts();
+
+        assertEquals(2, parts.size());
+        assertEquals("application/pidf+xml", parts.get(1).getMediaType());
+        assertTrue(body(parts.get(1)).endsWith("</presence>"));
+
+        MultipartContent.Part rlmi = parts.get(0);
+        assertEquals("application/rlmi+xml", rlmi.getMediaType());
+        assertEquals("UTF-8", rlmi.getParameter("charset"));
+
+        final List<String> states = new ArrayList<String>();
+        OperationSetPresenceSipImpl.processResourceListMetaInformation(
+            new ByteArrayInputStream(
+                    content, rlmi.getOffset(), rlmi.getLength()),
+            new OperationSetPresenceSipImpl.ResourceStateHandler()
+            {
+                public void processResourceState(
+                        String uri,
+                        String state,
+                        String reason)
+                {
+                    states.add(uri + " " + state + " " + reason);
+                }
+            });
+
+        assertEquals(
+            Arrays.asList(
+                "sip:bob@example.com active null",
+                "sip:dave@example.com pending null",
+                "sip:ed@example.net terminated rejected",
+                "sip:fay@example.net active null",
+                "sip:gil@example.net null null"),
+            states);
+    }
+
+    public void testMalformedResourceListMetaInformation()
+    {
+        final List<String> uris = new ArrayList<String>();
+        byte[] rlmi
+            = ("<list xmlns=\"urn:ietf:params:xml:ns:rlmi\">"
+                    + "<resource uri=\"sip:bob@example.com\">"
+                    + "<instance id=\"a\" state=\"pending\"/></resource>"
+                    + "<resource uri=\"sip:dave@example.com\"><instance")
+                .getBytes(StandardCharsets.UTF_8);
+
+        OperationSetPresenceSipImpl.processResourceListMetaInformation(
+            new ByteArrayInputStream(rlmi),
+            new OperationSetPresenceSipImpl.ResourceStateHandler()
+            {
+                public void processResourceState(
+                        String uri,
+                        String state,
+                        String reason)
+                {
+                    uris.add(uri);
+                }
+            });
+
+        // the resources read before the error are still reported
+        assertEquals(Arrays.asList("sip:bob@example.com"), uris);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.sip.xcap;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.*;
+import java.net.URI;
+import java.nio.charset.*;
+import java.util.*;
+import javax.sip.*;
+import javax.sip.address.*;
+
+import junit.framework.*;
+
+import org.apache.http.*;
+import org.apache.http.client.*;
+import org.apache.http.impl.client.*;
+
+/**
+ * Tests the connection reuse and the ETag revalidation of
+ * {@link BaseHttpXCapClient} against a local HTTP server standing in for an
+ * XCAP server.
+ */
+public class TestBaseHttpXCapClient
+    extends TestCase
+{
+    private static final String CONTENT_TYPE
+        = "application/resource-lists+xml";
+
+    private static final XCapResourceId RESOURCE_ID
+        = new XCapResourceId("resource-lists/users/sip:alice@example.com/index");
+
+    /**
+     * A request received by the stand-in.
+     */
+    private static class Received
+    {
+        final String method;
+
+        final String ifMatch;
+
+        final String ifNoneMatch;
+
+        final InetSocketAddress remote;
+
+        Received(HttpExchange exchange)
+        {
+            method = exchange.getRequestMethod();
+            ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+            ifNoneMatch
+                = exchange.getRequestHeaders().getFirst("If-None-Match");
+            remote = exchange.getRemoteAddress();
+        }
+    }
+
+    private final List<Received> received
+        = Collections.synchronizedList(new ArrayList<Received>());
+
+    private HttpServer server;
+
+    private URI serverUri;
+
+    private Address userAddress;
+
+    private BaseHttpXCapClient client;
+
+    /**
+     * The document stored on the stand-in and its ETag.
+     */
+    private volatile String document = "<resource-lists/>";
+
+    private volatile int version = 1;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/xcap-root", this::handle);
+        server.start();
+
+        serverUri = new URI("http://"
+            + server.getAddress().getAddress().getHostAddress() + ":"
+            + server.getAddress().getPort() + "/xcap-root");
+        userAddress = SipFactory.getInstance().createAddressFactory()
+            .createAddress("sip:alice@example.com");
+
+        client = new BaseHttpXCapClient()
+        {
+            @Override
+            protected CloseableHttpClient createHttpClient(
+                CredentialsProvider credentialsProvider)
+            {
+                return HttpClientBuilder.create()
+                    .setDefaultCredentialsProvider(credentialsProvider)
+                    .build();
+            }
+        };
+        client.connect(serverUri, userAddress, "alice", "secret");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        client.disconnect();
+        server.stop(0);
+    }
+
+    public void testConnectionIsReused()
+        throws Exception
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(HttpStatus.SC_OK,
+                client.get(RESOURCE_ID).getHttpCode());
+        }
+
+        assertEquals(3, received.size());
+        assertEquals(received.get(0).remote, received.get(1).remote);
+        assertEquals(received.get(0).remote, received.get(2).remote);
+
+        // a new connection after reconnecting
+        client.disconnect();
+        client.connect(serverUri, userAddress, "alice", "secret");
+        client.get(RESOURCE_ID);
+        assertFalse(received.get(0).remote.equals(received.get(3).remote));
+    }
+
+    public void testUnchangedDocumentIsRevalidated()
+        throws Exception
+    {
+        XCapHttpResponse first = client.get(RESOURCE_ID);
+        assertEquals(HttpStatus.SC_OK, first.getHttpCode());
+        assertEquals(etag(1), first.getETag());
+        assertNull(received.get(0).ifNoneMatch);
+
+        XCapHttpResponse second = client.get(RESOURCE_ID);
+        assertEquals(etag(1), received.get(1).ifNoneMatch);
+        assertEquals(HttpStatus.SC_OK, second.getHttpCode());
+        assertEquals(document, content(second));
+        assertEquals(CONTENT_TYPE, second.getContentType());
+
+        // a changed document is returned in full
+        document = "<resource-lists><list name=\"buddies\"/></resource-lists>";
+        version++;
+        XCapHttpResponse third = client.get(RESOURCE_ID);
+        assertEquals(document, content(third));
+        assertEquals(etag(2), third.getETag());
+    }
+
+    public void testPutIsConditionalAndCachesNewETag()
+        throws Exception
+    {
+        client.get(RESOURCE_ID);
+
+        String stored = "<resource-lists><list name=\"new\"/></resource-lists>";
+        XCapHttpResponse put = client.put(
+            new XCapResource(RESOURCE_ID, stored, CONTENT_TYPE));
+        assertEquals(HttpStatus.SC_OK, put.getHttpCode());
+        assertEquals(etag(1), received.get(1).ifMatch);
+
+        // the stored document is known under its new ETag
+        XCapHttpResponse get = client.get(RESOURCE_ID);
+        assertEquals(etag(2), received.get(2).ifNoneMatch);
+        assertEquals(stored, content(get));
+        assertEquals(3, received.size());
+    }
+
+    public void testConcurrentModificationFailsPut()
+        throws Exception
+    {
+        client.get(RESOURCE_ID);
+
+        // another client changes the document
+        document = "<resource-lists><list name=\"other\"/></resource-lists>";
+        version++;
+
+        XCapHttpResponse put = client.put(new XCapResource(
+            RESOURCE_ID, "<resource-lists/>", CONTENT_TYPE));
+        assertEquals(HttpStatus.SC_PRECONDITION_FAILED, put.getHttpCode());
+
+        // the stale copy is gone, the next retrieval is unconditional
+        XCapHttpResponse get = client.get(RESOURCE_ID);
+        assertNull(received.get(2).ifNoneMatch);
+        assertEquals(document, content(get));
+    }
+
+    public void testDeleteDropsCachedDocument()
+        throws Exception
+    {
+        client.get(RESOURCE_ID);
+        assertEquals(HttpStatus.SC_OK,
+            client.delete(RESOURCE_ID).getHttpCode());
+        assertEquals(etag(1), received.get(1).ifMatch);
+
+        assertEquals(HttpStatus.SC_NOT_FOUND,
+            client.get(RESOURCE_ID).getHttpCode());
+        assertNull(received.get(2).ifNoneMatch);
+    }
+
+    public void testCacheIsKeptForSameUserOnly()
+        throws Exception
+    {
+        client.get(RESOURCE_ID);
+
+        client.disconnect();
+        client.connect(serverUri, userAddress, "alice", "secret");
+        client.get(RESOURCE_ID);
+        assertEquals(etag(1), received.get(1).ifNoneMatch);
+
+        client.disconnect();
+        client.connect(serverUri, userAddress, "bob", "secret");
+        client.get(RESOURCE_ID);
+        assertNull(received.get(2).ifNoneMatch);
+    }
+
+    /**
+     * Answers the requests to the single document like an XCAP server.
+     */
+    private void handle(HttpExchange exchange)
+        throws IOException
+    {
+        Received request = new Received(exchange);
+        received.add(request);
+
+        try
+        {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            String current = document == null ? null : etag(version);
+
+            if (request.ifMatch != null && !request.ifMatch.equals(current))
+            {
+                exchange.sendResponseHeaders(
+                    HttpStatus.SC_PRECONDITION_FAILED, -1);
+                return;
+            }
+
+            switch (request.method)
+            {
+            case "GET":
+                if (document == null)
+                {
+                    exchange.sendResponseHeaders(HttpStatus.SC_NOT_FOUND, -1);
+                }
+                else if (current.equals(request.ifNoneMatch))
+                {
+                    exchange.getResponseHeaders().set("ETag", current);
+                    exchange.sendResponseHeaders(
+                        HttpStatus.SC_NOT_MODIFIED, -1);
+                }
+                else
+                {
+                    byte[] content
+                        = document.getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set(
+                        "Content-Type", CONTENT_TYPE);
+                    exchange.getResponseHeaders().set("ETag", current);
+                    exchange.sendResponseHeaders(
+                        HttpStatus.SC_OK, content.length);
+                    exchange.getResponseBody().write(content);
+                }
+                break;
+            case "PUT":
+                document = new String(body, StandardCharsets.UTF_8);
+                version++;
+                exchange.getResponseHeaders().set("ETag", etag(version));
+                exchange.sendResponseHeaders(HttpStatus.SC_OK, -1);
+                break;
+            case "DELETE":
+                document = null;
+                exchange.sendResponseHeaders(HttpStatus.SC_OK, -1);
+                break;
+            default:
+                exchange.sendResponseHeaders(
+                    HttpStatus.SC_METHOD_NOT_ALLOWED, -1);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static String etag(int version)
+    {
+        return "\"v" + version + "\"";
+    }
+
+    private static String content(XCapHttpResponse response)
+    {
+        return new String(response.getContent(), StandardCharsets.UTF_8);
+    }
+}
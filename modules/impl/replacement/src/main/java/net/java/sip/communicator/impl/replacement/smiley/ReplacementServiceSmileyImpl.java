@@ -50,6 +50,11 @@
      */
     public static String smileyRegex;
 
+    /**
+     * The smiley pack {@link #smileyRegex} was built for.
+     */
+    private static Collection<Smiley> smileyPack;
+
     /**
      * Replaces the smiley strings with their corresponding smiley image.
      *
@@ -89,6 +94,11 @@ private static String getSmileyPattern(Collection<Smiley> smileys)
     {
         synchronized (smileyStrings)
         {
+            // the pack is cached until reloaded, don't compare all its
+            // strings when we are asked again for the same one
+            if (smileyRegex != null && smileys == smileyPack)
+                return smileyRegex;
+
             boolean smileyStringsIsEqual;
 
             if (smileyRegex == null)
@@ -137,6 +147,7 @@ private static String getSmileyPattern(Collection<Smiley> smileys)
 
                 smileyRegex = regex.toString();
             }
+            smileyPack = smileys;
             return smileyRegex;
         }
     }
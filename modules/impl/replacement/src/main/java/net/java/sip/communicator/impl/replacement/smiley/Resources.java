@@ -34,6 +34,11 @@
      */
     private static Collection<Smiley> defaultSmileyPack;
 
+    /**
+     * The <tt>Smiley</tt>s of {@link #defaultSmileyPack} by smiley string.
+     */
+    private static Map<String, Smiley> smileysByString;
+
     /**
      * Load default smileys pack.
      *
@@ -112,6 +117,13 @@ public static Collection<Smiley> getDefaultSmileyPack()
         defaultSmileyList.add(new SmileyImpl("service.gui.smileys.SMILEY21",
             new String[] {";-)", ";)"}, "Wink"));
 
+        Map<String, Smiley> byString = new HashMap<String, Smiley>();
+        for (Smiley smiley : defaultSmileyList)
+            for (String srcString : smiley.getSmileyStrings())
+                if (!byString.containsKey(srcString))
+                    byString.put(srcString, smiley);
+
+        smileysByString = byString;
         defaultSmileyPack
             = Collections.unmodifiableCollection(defaultSmileyList);
 
@@ -125,11 +137,10 @@ public static Collection<Smiley> getDefaultSmileyPack()
      */
     public static Smiley getSmiley(String smileyString)
     {
-        for (Smiley smiley : getDefaultSmileyPack())
-            for (String srcString : smiley.getSmileyStrings())
-                if (srcString.equals(smileyString))
-                    return smiley;
-        return null;
+        getDefaultSmileyPack();
+
+        Map<String, Smiley> byString = smileysByString;
+        return (byString == null) ? null : byString.get(smileyString);
     }
 
     /**
@@ -56,6 +56,8 @@
 
     private SpellDictionary dict;
 
+    private volatile WordCheckCache wordChecks; // results of dict
+
     private boolean isAttached = false;
 
     private final ResourceManagementService resources = Resources
@@ -67,6 +69,7 @@ public ChatAttachments(Chat chat, final SpellDictionary dict)
     {
         this.chat = chat;
         this.dict = dict;
+        this.wordChecks = WordCheckCache.getInstance(dict);
 
         this.docListener = new DocUnderliner(chat.getHighlighter())
         {
@@ -75,7 +78,7 @@ boolean getFormatting(String word)
             {
                 try
                 {
-                    return !ChatAttachments.this.dict.isCorrect(word);
+                    return !wordChecks.isCorrect(word);
                 }
                 catch (NullPointerException exc)
                 {
@@ -86,6 +89,13 @@ boolean getFormatting(String word)
                 }
             }
 
+            @Override
+            Boolean getCachedFormatting(String word)
+            {
+                Boolean correct = wordChecks.getCached(word);
+                return (correct == null) ? null : !correct;
+            }
+
             @Override
             int getCaretPosition()
             {
@@ -208,6 +218,7 @@ void setDictionary(SpellDictionary dict)
         synchronized (this.dict)
         {
             this.dict = dict;
+            this.wordChecks = WordCheckCache.getInstance(dict);
             this.docListener.reset(this.chat.getMessage());
         }
     }
@@ -243,6 +254,7 @@ public void actionPerformed(ActionEvent event)
                         try
                         {
                             dict.addWord(clickedWord.getText());
+                            wordChecks.wordAdded(clickedWord.getText());
 
                             // clears underline
                             docListener.format(clickedWord);
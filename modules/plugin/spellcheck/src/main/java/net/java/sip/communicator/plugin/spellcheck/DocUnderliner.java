@@ -18,6 +18,9 @@
 package net.java.sip.communicator.plugin.spellcheck;
 
 import java.awt.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
 
 import javax.swing.*;
 import javax.swing.event.*;
@@ -27,6 +30,12 @@
  * Notifies subclasses when words are changed and lets them decide if text
  * should be underlined with a red squiggle. Text appended to the end isn't
  * formatted until the word's completed.
+ * <p>
+ * Words whose formatting is not known in advance are checked on a background
+ * thread shared by all underliners. The underlines of all the words of a
+ * change are then applied together on the event dispatching thread, so that
+ * typing and pasting don't wait for the dictionary.
+ * </p>
  *
  * @author Damian Johnson
  */
@@ -45,6 +54,28 @@
 
     private boolean isEnabled = true;
 
+    /**
+     * The thread checking words for all underliners, created on first use.
+     */
+    private static ExecutorService checker;
+
+    /**
+     * The words waiting to be sent to the checker.
+     */
+    private final List<PendingWord> pending = new ArrayList<PendingWord>();
+
+    /**
+     * Incremented whenever the underlining is reset, so that results of
+     * checks started before are dropped.
+     */
+    private volatile int generation;
+
+    /**
+     * The document the underlined text belongs to, known after the first
+     * change.
+     */
+    private Document document;
+
     static
     {
         UNDERLINER =
@@ -122,6 +153,7 @@ public void caretUpdate(CaretEvent event)
                     boolean currentlyAtEnd = event.getDot() == doc.getLength();
                     if (isEnabled && this.atEnd && !currentlyAtEnd)
                     {
+                        document = doc;
                         String text = comp.getText();
                         Word changed =
                             Word.getWord(text, text.length() - 1, false);
@@ -136,15 +168,29 @@ public void caretUpdate(CaretEvent event)
     }
 
     /**
-     * Queries to see if a word should be underlined. This is called on every
-     * internal change and whenever a word's completed so it should be a
-     * lightweight process.
+     * Queries to see if a word should be underlined. This is called on the
+     * checker thread for every word whose formatting isn't known in advance.
      *
      * @param word word to be checked
      * @return true if the word should be underlined, false otherwise
      */
     abstract boolean getFormatting(String word);
 
+    /**
+     * Provides the formatting of a word if it can be determined immediately,
+     * for instance because the word has been checked before. This is called
+     * on the event dispatching thread so it must not do any real checking.
+     *
+     * @param word word to be checked
+     * @return true if the word should be underlined, false if not and
+     *         <tt>null</tt> if it needs to be checked by
+     *         {@link #getFormatting(String)}
+     */
+    Boolean getCachedFormatting(String word)
+    {
+        return null;
+    }
+
     /**
      * Provides the index of the character the cursor is in front of.
      *
@@ -208,6 +254,7 @@ public void insertUpdate(DocumentEvent event)
         try
         {
             Document doc = event.getDocument();
+            this.document = doc;
             String text = doc.getText(0, doc.getLength());
 
             if (event.getLength() == 1)
@@ -219,7 +266,7 @@ public void insertUpdate(DocumentEvent event)
                     {
                         // finished last word
                         Word last = Word.getWord(text, text.length() - 1, true);
-                        format(last);
+                        check(last);
                     }
                     else
                     {
@@ -242,7 +289,7 @@ public void insertUpdate(DocumentEvent event)
                         else
                             changed =
                                 Word.getWord(text, event.getOffset(), false);
-                        format(changed);
+                        check(changed);
                     }
                     else
                     {
@@ -251,8 +298,8 @@ public void insertUpdate(DocumentEvent event)
                             Word.getWord(text, event.getOffset(), true);
                         Word secondWord =
                             Word.getWord(text, event.getOffset() + 1, false);
-                        format(firstWord);
-                        format(secondWord);
+                        check(firstWord);
+                        check(secondWord);
                     }
                 }
             }
@@ -264,7 +311,7 @@ public void insertUpdate(DocumentEvent event)
                 int wordStart = changed.getStart();
                 while (wordStart < event.getOffset() + event.getLength())
                 {
-                    format(changed);
+                    check(changed);
                     int end =
                         Math.min(changed.getStart()
                             + changed.getText().length() + 1, text.length());
@@ -283,6 +330,7 @@ public void insertUpdate(DocumentEvent event)
             logger.error("Error words processing", exc);
         }
 
+        checkPending();
         promptRepaint();
     }
 
@@ -294,6 +342,7 @@ public void removeUpdate(DocumentEvent event)
         try
         {
             Document doc = event.getDocument();
+            this.document = doc;
             String text = doc.getText(0, doc.getLength());
             if (text.length() != 0)
             {
@@ -308,9 +357,10 @@ public void removeUpdate(DocumentEvent event)
                     changed = Word.getWord(text, event.getOffset() - 1, true);
                 }
 
-                format(changed);
+                check(changed);
             }
 
+            checkPending();
             promptRepaint();
         }
         catch (BadLocationException exc)
@@ -342,10 +392,26 @@ public CaretListener getEndChecker()
 
     /**
      * Formats the word with the appropriate underlining (or lack thereof).
+     * If the word has to be checked first the underlining is applied once
+     * the check completes.
      *
      * @param word word to be formatted
      */
     public void format(Word word)
+    {
+        check(word);
+        checkPending();
+    }
+
+    /**
+     * Clears the underlining of the word and underlines it again if its
+     * formatting is already known, otherwise queues it for checking.
+     * {@link #checkPending()} has to be called once all words of a change
+     * are queued.
+     *
+     * @param word word to be formatted
+     */
+    private void check(Word word)
     {
         if (!this.isEnabled)
             return;
@@ -354,9 +420,115 @@ public void format(Word word)
         if (text.length() > 0)
         {
             clearUnderlining(word.getStart(), word.getStart() + text.length());
-            if (getFormatting(text))
+
+            Boolean underline = getCachedFormatting(text);
+            if (underline == null)
+            {
+                synchronized (this.pending)
+                {
+                    this.pending.add(new PendingWord(this.document,
+                        word.getStart(), text));
+                }
+            }
+            else if (underline)
+            {
                 underlineRange(word.getStart(), word.getStart() + text.length());
+            }
+        }
+    }
+
+    /**
+     * Sends the queued words to the checker thread in one batch.
+     */
+    private void checkPending()
+    {
+        final List<PendingWord> words;
+        synchronized (this.pending)
+        {
+            if (this.pending.isEmpty())
+                return;
+
+            words = new ArrayList<PendingWord>(this.pending);
+            this.pending.clear();
+        }
+
+        final int checkedGeneration = this.generation;
+        getChecker().execute(new Runnable()
+        {
+            public void run()
+            {
+                if (checkedGeneration != generation)
+                    return;
+
+                try
+                {
+                    for (PendingWord word : words)
+                        word.underline = getFormatting(word.text);
+                }
+                catch (Throwable exc)
+                {
+                    logger.error("Error words processing", exc);
+                    return;
+                }
+
+                SwingUtilities.invokeLater(new Runnable()
+                {
+                    public void run()
+                    {
+                        applyChecked(words, checkedGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Underlines the checked words which are still in place. Called on the
+     * event dispatching thread.
+     *
+     * @param words the checked words
+     * @param checkedGeneration the generation the words were queued in
+     */
+    private void applyChecked(List<PendingWord> words, int checkedGeneration)
+    {
+        if (!this.isEnabled || checkedGeneration != this.generation)
+            return;
+
+        for (PendingWord word : words)
+        {
+            int start = word.getCurrentStart();
+            if (start < 0)
+                continue; // the text was changed and is checked again
+
+            int end = start + word.text.length();
+            clearUnderlining(start, end);
+            if (word.underline)
+                underlineRange(start, end);
+        }
+
+        promptRepaint();
+    }
+
+    /**
+     * Returns the thread checking the words of all underliners.
+     *
+     * @return the checker
+     */
+    private static synchronized ExecutorService getChecker()
+    {
+        if (checker == null)
+        {
+            checker = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "Spell checker");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
         }
+        return checker;
     }
 
     /**
@@ -417,6 +589,7 @@ public void setEnabled(boolean enable, String message)
         if (this.isEnabled != enable)
         {
             this.isEnabled = enable;
+            this.generation++;
             if (this.isEnabled)
                 reset(message);
             else
@@ -435,6 +608,13 @@ public void reset(String message)
         if (!this.isEnabled)
             return;
 
+        // drops the checks of the previous contents
+        this.generation++;
+        synchronized (this.pending)
+        {
+            this.pending.clear();
+        }
+
         // clears previous underlined sections
         this.docHighlighter.removeAllHighlights();
 
@@ -445,15 +625,83 @@ public void reset(String message)
             int wordStart = changed.getStart();
             while (wordStart < message.length())
             {
-                format(changed);
+                check(changed);
                 int end =
                     Math.min(changed.getStart() + changed.getText().length()
                         + 1, message.length());
                 changed = Word.getWord(message, end, false);
                 wordStart = end;
             }
+            checkPending();
         }
 
         promptRepaint();
     }
+
+    /**
+     * A word waiting for or going through its check. The position of the
+     * word follows the changes of the document until the result is applied.
+     */
+    private static class PendingWord
+    {
+        private final Document document;
+
+        private final Position start;
+
+        private final int startOffset;
+
+        private final String text;
+
+        /**
+         * Whether the word should be underlined, set by the checker thread.
+         */
+        private volatile boolean underline;
+
+        PendingWord(Document document, int startOffset, String text)
+        {
+            Position start = null;
+            if (document != null)
+            {
+                try
+                {
+                    start = document.createPosition(startOffset);
+                }
+                catch (BadLocationException exc)
+                {
+                    // the offset is used as is
+                }
+            }
+
+            this.document = document;
+            this.start = start;
+            this.startOffset = startOffset;
+            this.text = text;
+        }
+
+        /**
+         * Provides where the word currently starts.
+         *
+         * @return start of the word in the document or -1 if the document
+         *         doesn't contain the word there anymore
+         */
+        int getCurrentStart()
+        {
+            if (this.start == null)
+                return this.startOffset;
+
+            int offset = this.start.getOffset();
+            try
+            {
+                if (offset + this.text.length() <= this.document.getLength()
+                    && this.text.equals(
+                        this.document.getText(offset, this.text.length())))
+                    return offset;
+            }
+            catch (BadLocationException exc)
+            {
+                // the word is gone
+            }
+            return -1;
+        }
+    }
 }
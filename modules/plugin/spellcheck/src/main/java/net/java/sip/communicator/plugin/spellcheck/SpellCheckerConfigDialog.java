@@ -368,6 +368,8 @@ public void actionPerformed(ActionEvent e)
                 try
                 {
                     dict.addWord(currentWord.getText());
+                    WordCheckCache.getInstance(dict)
+                        .wordAdded(currentWord.getText());
                     chat.promptRepaint();
                 }
                 catch (SpellDictionaryException exc)
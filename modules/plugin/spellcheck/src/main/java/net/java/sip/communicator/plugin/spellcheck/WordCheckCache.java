@@ -0,0 +1,129 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.spellcheck;
+
+import java.util.*;
+
+import org.dts.spell.dictionary.*;
+
+/**
+ * Remembers whether words are spelled correctly according to a dictionary.
+ * A dictionary is loaded for a single locale and only the dictionary of the
+ * selected locale is in use, so the cache is replaced along with the
+ * dictionary when the locale is changed. Only the least recently checked
+ * words are kept.
+ */
+class WordCheckCache
+{
+    /**
+     * The maximum number of words remembered per dictionary.
+     */
+    private static final int MAX_SIZE = 5000;
+
+    /**
+     * The cache of the dictionary in use.
+     */
+    private static WordCheckCache current;
+
+    /**
+     * The dictionary words are checked against.
+     */
+    private final SpellDictionary dict;
+
+    /**
+     * Whether each word is spelled correctly, in access order.
+     */
+    private final Map<String, Boolean> results
+        = new LinkedHashMap<String, Boolean>(256, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Boolean> eldest)
+            {
+                return size() > MAX_SIZE;
+            }
+        };
+
+    /**
+     * Returns the cache for the given dictionary.
+     *
+     * @param dict the dictionary whose checks to cache.
+     * @return the cache for <tt>dict</tt>.
+     */
+    static synchronized WordCheckCache getInstance(SpellDictionary dict)
+    {
+        if (current == null || current.dict != dict)
+            current = new WordCheckCache(dict);
+        return current;
+    }
+
+    private WordCheckCache(SpellDictionary dict)
+    {
+        this.dict = dict;
+    }
+
+    /**
+     * Returns whether the word is known to be spelled correctly without
+     * querying the dictionary.
+     *
+     * @param word the word to look up.
+     * @return the remembered result or <tt>null</tt> if the word has not been
+     * checked yet.
+     */
+    synchronized Boolean getCached(String word)
+    {
+        return results.get(word);
+    }
+
+    /**
+     * Checks the word against the dictionary, unless the result is already
+     * known. The dictionary is queried outside the lock of this cache.
+     *
+     * @param word the word to check.
+     * @return <tt>true</tt> if the word is spelled correctly.
+     */
+    boolean isCorrect(String word)
+    {
+        Boolean correct = getCached(word);
+        if (correct != null)
+            return correct;
+
+        synchronized (dict)
+        {
+            correct = dict.isCorrect(word);
+        }
+
+        synchronized (this)
+        {
+            results.put(word, correct);
+        }
+        return correct;
+    }
+
+    /**
+     * Records that the word has been added to the personal dictionary.
+     *
+     * @param word the added word.
+     */
+    synchronized void wordAdded(String word)
+    {
+        results.put(word, Boolean.TRUE);
+    }
+}
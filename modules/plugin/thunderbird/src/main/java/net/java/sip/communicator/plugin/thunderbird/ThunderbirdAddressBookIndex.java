@@ -0,0 +1,665 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.plugin.thunderbird;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import org.apache.commons.lang3.StringUtils;
+
+import mork.*;
+import net.java.sip.communicator.service.protocol.*;
+
+/**
+ * An in-memory index of the contacts of a Thunderbird address book. The
+ * Mork database is read on a background thread when the file changes, its
+ * rows are compared to the indexed ones and only the added, changed and
+ * removed rows are updated in the index.
+ * <p>
+ * Every indexed contact keeps the values of its row in lower case, along
+ * with its normalized phone numbers, split into trigrams. A query for a
+ * literal string only verifies the contacts sharing the rarest trigram of
+ * the string, other regular expressions are matched against the kept values
+ * without going back to the database.
+ * </p>
+ */
+class ThunderbirdAddressBookIndex
+{
+    /** Class logger */
+    private final static org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(ThunderbirdAddressBookIndex.class);
+
+    /**
+     * The length of the indexed n-grams.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The row properties holding e-mail addresses.
+     */
+    private static final String[] EMAIL_PROPERTIES
+        = { "PrimaryEmail", "SecondEmail", "DefaultEmail" };
+
+    /**
+     * The row properties holding phone numbers, in the order their details
+     * are created.
+     */
+    private static final String[] PHONE_PROPERTIES
+        = { "HomePhone", "WorkPhone", "CellularNumber" };
+
+    /**
+     * The executor reading the address books.
+     */
+    private static ExecutorService indexer;
+
+    /**
+     * The contact source whose address book is indexed.
+     */
+    private final ThunderbirdContactSourceService contactSource;
+
+    /**
+     * The indexed contacts by row id.
+     */
+    private final Map<String, IndexedContact> contacts
+        = new LinkedHashMap<String, IndexedContact>();
+
+    /**
+     * The contacts by trigram of their lower case values.
+     */
+    private final Map<String, Set<IndexedContact>> grams
+        = new HashMap<String, Set<IndexedContact>>();
+
+    /**
+     * The modification time of the indexed file.
+     */
+    private long lastDatabaseFileChange = 0;
+
+    /**
+     * The name of the indexed file.
+     */
+    private String indexedFileName;
+
+    /**
+     * The pending read of the address book, if any.
+     */
+    private Future<?> pendingUpdate;
+
+    /**
+     * Creates the index of the address book of a contact source.
+     *
+     * @param contactSource the contact source.
+     */
+    ThunderbirdAddressBookIndex(ThunderbirdContactSourceService contactSource)
+    {
+        this.contactSource = contactSource;
+    }
+
+    /**
+     * Reads the address book in the background if its file has changed since
+     * it was last indexed.
+     *
+     * @return the pending read or <tt>null</tt> if the index is current.
+     */
+    synchronized Future<?> refresh()
+    {
+        if (pendingUpdate != null && !pendingUpdate.isDone())
+            return pendingUpdate;
+
+        String fileName = contactSource.getFilename();
+        if (fileName == null)
+            return null;
+
+        File file = new File(fileName);
+        if (fileName.equals(indexedFileName)
+            && file.lastModified() <= lastDatabaseFileChange)
+        {
+            return null;
+        }
+
+        pendingUpdate = getIndexer().submit(new Callable<Void>()
+        {
+            @Override
+            public Void call()
+                throws Exception
+            {
+                read();
+                return null;
+            }
+        });
+        return pendingUpdate;
+    }
+
+    /**
+     * Brings the index up to date with the address book file, waiting for a
+     * read of the file if it has changed.
+     *
+     * @throws Exception if the address book cannot be read.
+     */
+    void update()
+        throws Exception
+    {
+        Future<?> update;
+        // a pending read may have been for a file which changed since
+        while ((update = refresh()) != null)
+        {
+            try
+            {
+                update.get();
+            }
+            catch (ExecutionException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                    throw (Exception) cause;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the contacts with a value matching <tt>query</tt>.
+     *
+     * @param query the pattern to find in the values of the contacts.
+     * @return the matching contacts, in address book order.
+     */
+    synchronized Set<IndexedContact> search(Pattern query)
+    {
+        Set<IndexedContact> result = new LinkedHashSet<IndexedContact>();
+        String literal = getLiteral(query);
+
+        if (literal == null)
+        {
+            for (IndexedContact contact : contacts.values())
+            {
+                for (String value : contact.values)
+                {
+                    if (query.matcher(value).find())
+                    {
+                        result.add(contact);
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        boolean ignoreCase = (query.flags() & Pattern.CASE_INSENSITIVE) != 0;
+        String lowerCaseLiteral = literal.toLowerCase(Locale.ROOT);
+        Collection<IndexedContact> candidates;
+        if (lowerCaseLiteral.length() < GRAM_LENGTH)
+        {
+            candidates = contacts.values();
+        }
+        else
+        {
+            Set<IndexedContact> smallest = null;
+            for (int i = 0; i + GRAM_LENGTH <= lowerCaseLiteral.length(); i++)
+            {
+                Set<IndexedContact> posting = grams.get(
+                    lowerCaseLiteral.substring(i, i + GRAM_LENGTH));
+                if (posting == null)
+                    return result;
+                if (smallest == null || posting.size() < smallest.size())
+                    smallest = posting;
+            }
+            candidates = smallest;
+        }
+
+        for (IndexedContact contact : candidates)
+        {
+            String[] values
+                = ignoreCase ? contact.lowerCaseValues : contact.values;
+            for (String value : values)
+            {
+                if (value.contains(ignoreCase ? lowerCaseLiteral : literal))
+                {
+                    result.add(contact);
+                    break;
+                }
+            }
+        }
+
+        // keep the address book order when verifying a posting
+        if (candidates != contacts.values())
+        {
+            Set<IndexedContact> ordered = new LinkedHashSet<IndexedContact>();
+            for (IndexedContact contact : contacts.values())
+            {
+                if (result.contains(contact))
+                    ordered.add(contact);
+            }
+            result = ordered;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the contacts which have at least one phone number.
+     *
+     * @return the contacts with phone numbers.
+     */
+    synchronized List<IndexedContact> getContactsWithPhones()
+    {
+        List<IndexedContact> result = new ArrayList<IndexedContact>();
+        for (IndexedContact contact : contacts.values())
+        {
+            if (!contact.phones.isEmpty())
+                result.add(contact);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the string a pattern searches for, if it is a literal.
+     *
+     * @param query the pattern.
+     * @return the literal string or <tt>null</tt> if the pattern is a regular
+     * expression.
+     */
+    static String getLiteral(Pattern query)
+    {
+        String pattern = query.pattern();
+        int flags = query.flags();
+
+        if ((flags & ~(Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE
+                | Pattern.LITERAL)) != 0)
+        {
+            return null;
+        }
+
+        if ((flags & Pattern.LITERAL) != 0)
+            return pattern;
+
+        if (pattern.length() >= 4
+            && pattern.startsWith("\\Q")
+            && pattern.endsWith("\\E")
+            && pattern.indexOf("\\E") == pattern.length() - 2)
+        {
+            return pattern.substring(2, pattern.length() - 2);
+        }
+
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            if ("\\.[]{}()*+?^$|".indexOf(pattern.charAt(i)) >= 0)
+                return null;
+        }
+        return pattern;
+    }
+
+    /**
+     * Parses the address book and applies the rows which changed since the
+     * last read to the index.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private void read()
+        throws IOException
+    {
+        String fileName = contactSource.getFilename();
+        File file = new File(fileName);
+        long lastModified = file.lastModified();
+
+        Map<String, Row> rows = readRows(file);
+
+        synchronized (this)
+        {
+            if (!fileName.equals(indexedFileName))
+            {
+                contacts.clear();
+                grams.clear();
+            }
+
+            int added = 0, changed = 0, removed = 0;
+            Iterator<Map.Entry<String, IndexedContact>> iter
+                = contacts.entrySet().iterator();
+            while (iter.hasNext())
+            {
+                Map.Entry<String, IndexedContact> e = iter.next();
+                if (!rows.containsKey(e.getKey()))
+                {
+                    removeGrams(e.getValue());
+                    iter.remove();
+                    removed++;
+                }
+            }
+
+            for (Map.Entry<String, Row> e : rows.entrySet())
+            {
+                String fingerprint = getFingerprint(e.getValue());
+                IndexedContact old = contacts.get(e.getKey());
+
+                if (old != null)
+                {
+                    if (old.fingerprint.equals(fingerprint))
+                        continue;
+
+                    removeGrams(old);
+                    changed++;
+                }
+                else
+                {
+                    added++;
+                }
+
+                IndexedContact contact
+                    = new IndexedContact(e.getValue(), fingerprint);
+                contacts.put(e.getKey(), contact);
+                addGrams(contact);
+            }
+
+            indexedFileName = fileName;
+            lastDatabaseFileChange = lastModified;
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Indexed " + file + ": " + added + " added, "
+                    + changed + " changed, " + removed + " removed, "
+                    + contacts.size() + " contacts");
+            }
+        }
+    }
+
+    /**
+     * Parses the Mork database and returns the rows of the contacts.
+     *
+     * @param file the database file.
+     * @return the rows of the default scope by row id.
+     * @throws IOException if the file cannot be read.
+     */
+    private static Map<String, Row> readRows(File file)
+        throws IOException
+    {
+        // parse the Thunderbird Mork database
+        MorkDocument md;
+        try (InputStreamReader sr
+                = new InputStreamReader(new FileInputStream(file)))
+        {
+            md = new MorkDocument(sr);
+        }
+
+        // We now have rows in their tables and additional rows at
+        // transaction level. Put the to a better format:
+        // DB -> Tables -> Rows
+        Map<String, Map<String, Row>> db =
+            new LinkedHashMap<String, Map<String, Row>>();
+        for (Table t : md.getTables())
+        {
+            String tableId = t.getTableId() + "/" + t.getScopeName();
+            Map<String, Row> table = db.get(tableId);
+            if (table == null)
+            {
+                table = new LinkedHashMap<String, Row>();
+                db.put(tableId, table);
+            }
+
+            for (Row r : t.getRows())
+            {
+                String scope = r.getScopeName();
+                if (scope == null)
+                {
+                    scope = t.getScopeName();
+                }
+
+                table.put(r.getRowId() + "/" + scope, r);
+            }
+        }
+
+        // The additional rows at the root-level update/replace the ones
+        // in the tables. There's usually neither a table nor a scope
+        // defined, so lets just use the default.
+        String defaultScope = md.getDicts().get(0).dereference("^80");
+        for (Row r : md.getRows())
+        {
+            String scope = r.getScopeName();
+            if (scope == null)
+            {
+                scope = defaultScope;
+            }
+
+            String tableId = "1/" + scope;
+            Map<String, Row> table = db.get(tableId);
+            if (table == null)
+            {
+                table = new LinkedHashMap<String, Row>();
+                db.put(tableId, table);
+            }
+
+            String rowId = r.getRowId() + "/" + scope;
+            if (rowId.startsWith("-"))
+            {
+                rowId = rowId.substring(1);
+            }
+
+            table.put(rowId, r);
+        }
+
+        // okay, "transactions" are applied, keep the contacts
+        Map<String, Row> rows = new LinkedHashMap<String, Row>();
+        for (Map.Entry<String, Map<String, Row>> table : db.entrySet())
+        {
+            for (Map.Entry<String, Row> e : table.getValue().entrySet())
+            {
+                if (e.getKey().endsWith(defaultScope))
+                {
+                    rows.put(table.getKey() + "|" + e.getKey(), e.getValue());
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns a string which changes whenever a value of the row changes.
+     *
+     * @param r the row.
+     * @return the fingerprint of the row.
+     */
+    private static String getFingerprint(Row r)
+    {
+        StringBuilder fingerprint = new StringBuilder();
+        for (Map.Entry<String, Alias> e
+            : new TreeMap<String, Alias>(r.getAliases()).entrySet())
+        {
+            fingerprint.append(e.getKey()).append('=');
+            if (e.getValue() != null)
+                fingerprint.append(e.getValue().getValue());
+            fingerprint.append('\u0000');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Adds the trigrams of a contact to the index.
+     *
+     * @param contact the contact.
+     */
+    private void addGrams(IndexedContact contact)
+    {
+        for (String gram : contact.getGrams())
+        {
+            Set<IndexedContact> posting = grams.get(gram);
+            if (posting == null)
+            {
+                posting = new HashSet<IndexedContact>(4);
+                grams.put(gram, posting);
+            }
+            posting.add(contact);
+        }
+    }
+
+    /**
+     * Removes the trigrams of a contact from the index.
+     *
+     * @param contact the contact.
+     */
+    private void removeGrams(IndexedContact contact)
+    {
+        for (String gram : contact.getGrams())
+        {
+            Set<IndexedContact> posting = grams.get(gram);
+            if (posting != null)
+            {
+                posting.remove(contact);
+                if (posting.isEmpty())
+                    grams.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Returns the executor reading the address books.
+     *
+     * @return the executor.
+     */
+    private static synchronized ExecutorService getIndexer()
+    {
+        if (indexer == null)
+        {
+            indexer = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t
+                        = new Thread(r, "Thunderbird address book indexer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return indexer;
+    }
+
+    /**
+     * A contact of the address book with the values it is searched by.
+     */
+    static class IndexedContact
+    {
+        /**
+         * The fingerprint of the row the contact was read from.
+         */
+        final String fingerprint;
+
+        /**
+         * The display name of the contact.
+         */
+        final String displayName;
+
+        /**
+         * The e-mail addresses of the contact.
+         */
+        final Set<String> emails;
+
+        /**
+         * The normalized phone numbers of the contact by property name.
+         */
+        final Map<String, String> phones;
+
+        /**
+         * The values of the row and the normalized phone numbers.
+         */
+        final String[] values;
+
+        /**
+         * {@link #values} in lower case.
+         */
+        final String[] lowerCaseValues;
+
+        /**
+         * Reads a contact from its row.
+         *
+         * @param r the row.
+         * @param fingerprint the fingerprint of the row.
+         */
+        IndexedContact(Row r, String fingerprint)
+        {
+            this.fingerprint = fingerprint;
+
+            emails = new LinkedHashSet<String>(EMAIL_PROPERTIES.length);
+            for (String prop : EMAIL_PROPERTIES)
+            {
+                String value = r.getValue(prop);
+                if (StringUtils.isNotBlank(value))
+                    emails.add(value);
+            }
+
+            phones = new LinkedHashMap<String, String>(PHONE_PROPERTIES.length);
+            PhoneNumberI18nService phoneService
+                = ThunderbirdActivator.getPhoneNumberI18nService();
+            for (String prop : PHONE_PROPERTIES)
+            {
+                String phone = r.getValue(prop);
+                if (StringUtils.isNotBlank(phone))
+                {
+                    phones.put(prop, (phoneService == null)
+                        ? phone
+                        : phoneService.normalize(phone));
+                }
+            }
+
+            String name = r.getValue("DisplayName");
+            if (StringUtils.isBlank(name))
+            {
+                name = r.getValue("LastName");
+                if (name != null)
+                {
+                    name = name.trim();
+                }
+
+                String firstName = r.getValue("FirstName");
+                if (StringUtils.isNotBlank(firstName))
+                {
+                    name = firstName + " " + name;
+                }
+            }
+            displayName = name;
+
+            Set<String> allValues = new LinkedHashSet<String>();
+            for (Alias value : r.getAliases().values())
+            {
+                if (value != null && value.getValue() != null)
+                    allValues.add(value.getValue());
+            }
+            allValues.addAll(phones.values());
+
+            values = allValues.toArray(new String[allValues.size()]);
+            lowerCaseValues = new String[values.length];
+            for (int i = 0; i < values.length; i++)
+                lowerCaseValues[i] = values[i].toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Returns the trigrams of the values of this contact.
+         *
+         * @return the trigrams.
+         */
+        Set<String> getGrams()
+        {
+            Set<String> result = new HashSet<String>();
+            for (String s : lowerCaseValues)
+            {
+                for (int i = 0; i + GRAM_LENGTH <= s.length(); i++)
+                    result.add(s.substring(i, i + GRAM_LENGTH));
+            }
+            return result;
+        }
+    }
+}
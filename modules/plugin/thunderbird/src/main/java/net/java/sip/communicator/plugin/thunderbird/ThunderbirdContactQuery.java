@@ -19,12 +19,9 @@
 
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.regex.*;
 
-import org.apache.commons.lang3.StringUtils;
-
-import mork.*;
+import net.java.sip.communicator.plugin.thunderbird.ThunderbirdAddressBookIndex.*;
 import net.java.sip.communicator.service.contactsource.*;
 import net.java.sip.communicator.service.contactsource.ContactDetail.*;
 import net.java.sip.communicator.service.protocol.*;
@@ -58,91 +55,37 @@ public ThunderbirdContactQuery(ThunderbirdContactSourceService owner,
     @Override
     protected void run()
     {
-        String filename = super.getContactSource().getFilename();
-        File file = new File(filename);
+        ThunderbirdAddressBookIndex addressBook
+            = getContactSource().addressBook;
         try
         {
-            if (file.lastModified() > getContactSource().lastDatabaseFileChange)
-            {
-                // parse the Thunderbird Mork database
-                InputStreamReader sr =
-                    new InputStreamReader(new FileInputStream(filename));
-                MorkDocument md = new MorkDocument(sr);
-                sr.close();
+            addressBook.update();
 
-                // We now have rows in their tables and additional rows at
-                // transaction level. Put the to a better format:
-                // DB -> Tables -> Rows
-                Map<String, Map<String, Row>> db =
-                    new HashMap<String, Map<String, Row>>();
-                for (Table t : md.getTables())
+            Set<IndexedContact> matches = addressBook.search(query);
+
+            // only the phone numbers can match a number written differently
+            if (getPhoneNumberQuery() != null)
+            {
+                for (IndexedContact contact
+                    : addressBook.getContactsWithPhones())
                 {
-                    String tableId = t.getTableId() + "/" + t.getScopeName();
-                    Map<String, Row> table = db.get(tableId);
-                    if (table == null)
-                    {
-                        table = new HashMap<String, Row>();
-                        db.put(tableId, table);
-                    }
+                    if (matches.contains(contact))
+                        continue;
 
-                    for (Row r : t.getRows())
+                    for (String phone : contact.phones.values())
                     {
-                        String scope = r.getScopeName();
-                        if (scope == null)
+                        if (phoneNumberMatches(phone))
                         {
-                            scope = t.getScopeName();
+                            matches.add(contact);
+                            break;
                         }
-
-                        table.put(r.getRowId() + "/" + scope, r);
-                    }
-                }
-
-                // The additional rows at the root-level update/replace the ones
-                // in the tables. There's usually neither a table nor a scope
-                // defined, so lets just use the default.
-                String defaultScope = md.getDicts().get(0).dereference("^80");
-                for (Row r : md.getRows())
-                {
-                    String scope = r.getScopeName();
-                    if (scope == null)
-                    {
-                        scope = defaultScope;
-                    }
-
-                    String tableId = "1/" + scope;
-                    Map<String, Row> table = db.get(tableId);
-                    if (table == null)
-                    {
-                        table = new HashMap<String, Row>();
-                        db.put(tableId, table);
                     }
-
-                    String rowId = r.getRowId() + "/" + scope;
-                    if (rowId.startsWith("-"))
-                    {
-                        rowId = rowId.substring(1);
-                    }
-
-                    table.put(rowId, r);
                 }
-
-                super.getContactSource().database = db;
-                super.getContactSource().defaultScope = defaultScope;
-                super.getContactSource().lastDatabaseFileChange =
-                    file.lastModified();
             }
 
-            // okay, "transactions" are applied, now perform the search
-            for (Entry<String, Map<String, Row>> table
-                : super.getContactSource().database.entrySet())
+            for (IndexedContact contact : matches)
             {
-                for (Map.Entry<String, Row> e : table.getValue().entrySet())
-                {
-                    if (e.getKey().endsWith(getContactSource().defaultScope))
-                    {
-                        readEntry(e.getValue());
-                    }
-                }
+                readEntry(contact);
             }
 
             super.stopped(true);
@@ -153,42 +96,23 @@ protected void run()
         }
         catch (Exception e)
         {
-            logger.warn("Could not parse " + file, e);
+            logger.warn("Could not parse "
+                + getContactSource().getFilename(), e);
         }
     }
 
     /**
-     * Processes a database row by matching it against the query and adding it
-     * to the result set if it matched.
+     * Adds a contact of the address book which matched the query to the
+     * result set.
      *
-     * @param r The database row representing a contact.
+     * @param contact The indexed contact which matched the query.
      */
-    private void readEntry(Row r)
+    private void readEntry(IndexedContact contact)
     {
-        // match the pattern against this contact
-        boolean hadMatch = false;
-        for (Alias value : r.getAliases().values())
-        {
-            if (value != null
-                && (super.query.matcher(value.getValue()).find() || super
-                    .phoneNumberMatches(value.getValue())))
-            {
-                hadMatch = true;
-                break;
-            }
-        }
-
-        // nope, didn't match, ignore
-        if (!hadMatch)
-        {
-            return;
-        }
-
         List<ContactDetail> details = new LinkedList<ContactDetail>();
 
         // e-mail(s)
-        for (String email : getPropertySet(r, "PrimaryEmail", "SecondEmail",
-            "DefaultEmail"))
+        for (String email : contact.emails)
         {
             ContactDetail detail = new ContactDetail(email, Category.Email);
             detail.addSupportedOpSet(OperationSetPersistentPresence.class);
@@ -196,31 +120,15 @@ private void readEntry(Row r)
         }
 
         // phone number(s)
-        this.addPhoneDetail(details, r, "HomePhone", SubCategory.Home);
-        this.addPhoneDetail(details, r, "WorkPhone", SubCategory.Work);
-        this.addPhoneDetail(details, r, "CellularNumber", SubCategory.Mobile);
-
-        // and the dispaly name
-        String displayName = r.getValue("DisplayName");
-        if (StringUtils.isBlank(displayName))
-        {
-            displayName = r.getValue("LastName");
-            if (displayName != null)
-            {
-                displayName = displayName.trim();
-            }
-
-            String firstName = r.getValue("FirstName");
-            if (StringUtils.isNotBlank(firstName))
-            {
-                displayName = firstName + " " + displayName;
-            }
-        }
+        this.addPhoneDetail(details, contact, "HomePhone", SubCategory.Home);
+        this.addPhoneDetail(details, contact, "WorkPhone", SubCategory.Work);
+        this.addPhoneDetail(
+            details, contact, "CellularNumber", SubCategory.Mobile);
 
         // create the contact and add it to the results
         GenericSourceContact sc =
-            new GenericSourceContact(super.getContactSource(), displayName,
-                details);
+            new GenericSourceContact(super.getContactSource(),
+                contact.displayName, details);
         addQueryResult(sc);
     }
 
@@ -229,22 +137,20 @@ private void readEntry(Row r)
      *
      * @param details The {@link List} of {@link ContactDetail}s to which the
      *            details is added.
-     * @param r The source database row of the contact.
+     * @param contact The indexed contact.
      * @param property The source database property name to add as a detail.
      * @param category The Phone-{@link SubCategory} for the phone number to
      *            add.
      */
-    private void addPhoneDetail(List<ContactDetail> details, Row r,
-        String property, SubCategory category)
+    private void addPhoneDetail(List<ContactDetail> details,
+        IndexedContact contact, String property, SubCategory category)
     {
-        String phone = r.getValue(property);
-        if (StringUtils.isBlank(phone))
+        String phone = contact.phones.get(property);
+        if (phone == null)
         {
             return;
         }
 
-        phone
-            = ThunderbirdActivator.getPhoneNumberI18nService().normalize(phone);
         ContactDetail detail =
             new ContactDetail(phone, ContactDetail.Category.Phone,
                 new ContactDetail.SubCategory[]
@@ -254,26 +160,4 @@ private void addPhoneDetail(List<ContactDetail> details, Row r,
         detail.addSupportedOpSet(OperationSetPersistentPresence.class);
         details.add(detail);
     }
-
-    /**
-     * Gets a set of non-empty properties from the source database row.
-     *
-     * @param r The source database row to process.
-     * @param properties The property-names to extract.
-     * @return A set of non-empty properties from the source database row.
-     */
-    private Set<String> getPropertySet(Row r, String... properties)
-    {
-        Set<String> validValues = new HashSet<String>(properties.length);
-        for (String prop : properties)
-        {
-            String value = r.getValue(prop);
-            if (StringUtils.isNotBlank(value))
-            {
-                validValues.add(value);
-            }
-        }
-
-        return validValues;
-    }
 }
@@ -17,12 +17,10 @@
  */
 package net.java.sip.communicator.plugin.thunderbird;
 
-import java.util.Map;
 import java.util.regex.*;
 
 import org.jitsi.service.configuration.*;
 
-import mork.Row;
 import net.java.sip.communicator.service.contactsource.*;
 
 /**
@@ -85,18 +83,8 @@
     /** Value of property {@link #PNAME_PREFIX} */
     private String prefix;
 
-    /** Date/time when the Thunderbird database file was last changed. */
-    long lastDatabaseFileChange = 0;
-
-    /**
-     * The parsed Thunderbird database. This field is used as a cache and set by
-     * the query. It is re-set when the file date is newer than
-     * {@link #lastDatabaseFileChange}
-     */
-    Map<String, Map<String, Row>> database;
-
-    /** Name of the default namespace in the Thunderbird database. */
-    String defaultScope;
+    /** The index of the contacts in the address book database. */
+    final ThunderbirdAddressBookIndex addressBook;
 
     /**
      * Creates a new instance of this class.
@@ -113,6 +101,10 @@ public ThunderbirdContactSourceService(String baseConfigProperty)
             config.getString(baseConfigProperty + "." + PNAME_DISPLAYNAME);
         this.index = config.getInt(baseConfigProperty + "." + PNAME_INDEX, 0);
         this.prefix = config.getString(baseConfigProperty + "." + PNAME_PREFIX);
+
+        // read the address book before the first query needs it
+        this.addressBook = new ThunderbirdAddressBookIndex(this);
+        this.addressBook.refresh();
     }
 
     /**
@@ -255,5 +247,6 @@ void setFilename(String filename)
         this.fileName = filename;
         config.setProperty(this.baseConfigProperty + "." + PNAME_FILENAME,
             filename);
+        addressBook.refresh();
     }
 }
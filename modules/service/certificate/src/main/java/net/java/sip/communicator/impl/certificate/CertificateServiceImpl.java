@@ -92,6 +92,19 @@
     /** Hash algorithm for the cert thumbprint*/
     private final static String THUMBPRINT_HASH_ALGORITHM = "SHA1";
 
+    /**
+     * Property for the time in seconds a successfully validated certificate
+     * chain is trusted again without a new validation. 0 disables the cache.
+     */
+    private final static String PNAME_VALIDATED_CHAIN_CACHE_TTL =
+        PNAME_CERT_TRUST_PREFIX + ".VALIDATED_CHAIN_CACHE_TTL";
+
+    /** Default time in seconds a validated chain is cached. */
+    private final static long DEFAULT_VALIDATED_CHAIN_CACHE_TTL = 10 * 60;
+
+    /** Maximum number of cached validated chains. */
+    private final static int VALIDATED_CHAIN_CACHE_SIZE = 256;
+
     // ------------------------------------------------------------------------
     // fields
     // ------------------------------------------------------------------------
@@ -107,6 +120,46 @@
     private final Map<URI, AiaCacheEntry> aiaCache =
         new HashMap<>();
 
+    /**
+     * The default X509 trust manager of the JVM, created once and rebuilt
+     * when the trust store configuration changes.
+     */
+    private X509ExtendedTrustManager defaultTrustManager;
+
+    /**
+     * The trust anchors of {@link #defaultTrustManager}, used for revocation
+     * checking.
+     */
+    private Set<TrustAnchor> defaultTrustAnchors;
+
+    /**
+     * The last modification time of the trust store file when
+     * {@link #defaultTrustManager} was created.
+     */
+    private long defaultTrustStoreModified;
+
+    /**
+     * The expiry times of successfully validated chains, by chain
+     * fingerprint and the identities they were validated for.
+     */
+    private final Map<String, Long> validatedChains =
+        new LinkedHashMap<String, Long>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> e)
+            {
+                return size() > VALIDATED_CHAIN_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Caches OCSP responses and CRLs for the revocation checks.
+     */
+    private final RevocationResponseCache revocationCache =
+        new RevocationResponseCache(getRevocationCacheDirectory());
+
     // ------------------------------------------------------------------------
     // Map access helpers
     // ------------------------------------------------------------------------
@@ -148,7 +201,30 @@ public CertificateServiceImpl()
     {
         setTrustStore();
         config.addPropertyChangeListener(PNAME_TRUSTSTORE_TYPE, this);
+        config.addPropertyChangeListener(PNAME_TRUSTSTORE_FILE, this);
+        config.addPropertyChangeListener(PNAME_REVOCATION_CHECK_ENABLED, this);
+        config.addPropertyChangeListener(PNAME_OCSP_ENABLED, this);
 
+        setRevocationProperties();
+    }
+
+    public void propertyChange(PropertyChangeEvent evt)
+    {
+        if (PNAME_REVOCATION_CHECK_ENABLED.equals(evt.getPropertyName())
+            || PNAME_OCSP_ENABLED.equals(evt.getPropertyName()))
+        {
+            setRevocationProperties();
+        }
+        else
+        {
+            setTrustStore();
+        }
+
+        invalidateTrustManager();
+    }
+
+    private void setRevocationProperties()
+    {
         System.setProperty("com.sun.security.enableCRLDP",
             config.getString(PNAME_REVOCATION_CHECK_ENABLED, "false"));
         System.setProperty("com.sun.net.ssl.checkRevocation",
@@ -157,9 +233,25 @@ public CertificateServiceImpl()
             config.getString(PNAME_OCSP_ENABLED, "false"));
     }
 
-    public void propertyChange(PropertyChangeEvent evt)
+    /**
+     * Drops the cached default trust manager and all validated chains, so
+     * that the next check uses the current configuration.
+     */
+    private synchronized void invalidateTrustManager()
     {
-        setTrustStore();
+        defaultTrustManager = null;
+        defaultTrustAnchors = null;
+        validatedChains.clear();
+    }
+
+    private File getRevocationCacheDirectory()
+    {
+        String location = config.getScHomeDirLocation();
+        String name = config.getScHomeDirName();
+        if (location == null || name == null)
+            return null;
+
+        return new File(new File(location, name), "revocationcache");
     }
 
     private void setTrustStore()
@@ -600,46 +692,8 @@ public X509ExtendedTrustManager getTrustManager(
         final CertificateMatcher serverVerifier)
         throws GeneralSecurityException
     {
-        // obtain the default X509 trust manager
-        X509ExtendedTrustManager defaultTm = null;
-        TrustManagerFactory tmFactory =
-            TrustManagerFactory.getInstance(TrustManagerFactory
-                .getDefaultAlgorithm());
-
-        KeyStore ks = null;
-        if (SystemUtils.isJavaVersionAtMost(JavaVersion.JAVA_1_8))
-        {
-            //workaround for https://bugs.openjdk.java.net/browse/JDK-6672015
-            String tsType =
-                System.getProperty("javax.net.ssl.trustStoreType", null);
-            if ("Windows-ROOT".equals(tsType))
-            {
-                try
-                {
-                    ks = KeyStore.getInstance(tsType);
-                    ks.load(null, null);
-                }
-                catch (Exception e)
-                {
-                    logger.error("Could not rename Windows-ROOT aliases", e);
-                }
-            }
-        }
-
-        tmFactory.init(ks);
-        for (TrustManager m : tmFactory.getTrustManagers())
-        {
-            if (m instanceof X509ExtendedTrustManager)
-            {
-                defaultTm = (X509ExtendedTrustManager) m;
-                break;
-            }
-        }
-        if (defaultTm == null)
-            throw new GeneralSecurityException(
-                "No default X509 trust manager found");
-
-        final X509ExtendedTrustManager tm = defaultTm;
+        // fail early if there is no usable trust store
+        final X509ExtendedTrustManager tm = getDefaultTrustManager();
 
         return new X509ExtendedTrustManager()
         {
@@ -703,6 +757,14 @@ private void checkCertTrusted(X509Certificate[] chain,
                             Boolean.parseBoolean(defaultAlwaysTrustMode)))
                     return;
 
+                // chains validated shortly before, e.g. when all accounts
+                // reconnect after a network change, are not checked again
+                String cacheKey = getValidatedChainKey(chain, authType,
+                    serverCheck, identitiesToTest,
+                    serverCheck ? serverVerifier : clientVerifier);
+                if (cacheKey != null && isChainValidated(cacheKey))
+                    return;
+
                 try
                 {
                     // check the certificate itself (issuer, validity)
@@ -715,20 +777,35 @@ private void checkCertTrusted(X509Certificate[] chain,
                         // don't care and take the chain as is
                     }
 
+                    X509ExtendedTrustManager checkTm;
+                    try
+                    {
+                        checkTm = getRevocationTrustManager(chain);
+                        if (checkTm == null)
+                            checkTm = getDefaultTrustManager();
+                    }
+                    catch (GeneralSecurityException e)
+                    {
+                        throw new CertificateException(e);
+                    }
+
                     if(serverCheck)
-                        tm.checkServerTrusted(chain, authType);
+                        checkTm.checkServerTrusted(chain, authType);
                     else
-                        tm.checkClientTrusted(chain, authType);
+                        checkTm.checkClientTrusted(chain, authType);
 
-                    if(identitiesToTest == null
-                        || !identitiesToTest.iterator().hasNext())
-                        return;
-                    else if(serverCheck)
-                        serverVerifier.verify(identitiesToTest, chain[0]);
-                    else
-                        clientVerifier.verify(identitiesToTest, chain[0]);
+                    if(identitiesToTest != null
+                        && identitiesToTest.iterator().hasNext())
+                    {
+                        if(serverCheck)
+                            serverVerifier.verify(identitiesToTest, chain[0]);
+                        else
+                            clientVerifier.verify(identitiesToTest, chain[0]);
+                    }
 
                     // ok, globally valid cert
+                    if (cacheKey != null)
+                        chainValidated(cacheKey, chain);
                 }
                 catch (CertificateException e)
                 {
@@ -960,6 +1037,235 @@ private X509Certificate[] tryBuildChain(X509Certificate[] chain)
         };
     }
 
+    /**
+     * Returns the default X509 trust manager of the JVM. It is created once
+     * and reused until the trust store configuration or the trust store file
+     * changes, as loading the trust store is expensive.
+     *
+     * @return the default trust manager
+     * @throws GeneralSecurityException if there is no default trust manager
+     */
+    private synchronized X509ExtendedTrustManager getDefaultTrustManager()
+        throws GeneralSecurityException
+    {
+        String tsFile = System.getProperty("javax.net.ssl.trustStore");
+        long modified = tsFile == null ? 0 : new File(tsFile).lastModified();
+
+        if (defaultTrustManager != null
+            && modified == defaultTrustStoreModified)
+            return defaultTrustManager;
+
+        // obtain the default X509 trust manager
+        X509ExtendedTrustManager defaultTm = null;
+        TrustManagerFactory tmFactory =
+            TrustManagerFactory.getInstance(TrustManagerFactory
+                .getDefaultAlgorithm());
+
+        KeyStore ks = null;
+        if (SystemUtils.isJavaVersionAtMost(JavaVersion.JAVA_1_8))
+        {
+            //workaround for https://bugs.openjdk.java.net/browse/JDK-6672015
+            String tsType =
+                System.getProperty("javax.net.ssl.trustStoreType", null);
+            if ("Windows-ROOT".equals(tsType))
+            {
+                try
+                {
+                    ks = KeyStore.getInstance(tsType);
+                    ks.load(null, null);
+                }
+                catch (Exception e)
+                {
+                    logger.error("Could not rename Windows-ROOT aliases", e);
+                }
+            }
+        }
+
+        tmFactory.init(ks);
+        for (TrustManager m : tmFactory.getTrustManagers())
+        {
+            if (m instanceof X509ExtendedTrustManager)
+            {
+                defaultTm = (X509ExtendedTrustManager) m;
+                break;
+            }
+        }
+        if (defaultTm == null)
+            throw new GeneralSecurityException(
+                "No default X509 trust manager found");
+
+        Set<TrustAnchor> anchors = new HashSet<>();
+        for (X509Certificate c : defaultTm.getAcceptedIssuers())
+            anchors.add(new TrustAnchor(c, null));
+
+        defaultTrustManager = defaultTm;
+        defaultTrustAnchors = anchors;
+        defaultTrustStoreModified = modified;
+        validatedChains.clear();
+        return defaultTm;
+    }
+
+    /**
+     * Returns a trust manager which checks the revocation status of
+     * <tt>chain</tt> with cached OCSP responses and CRLs, or <tt>null</tt>
+     * if revocation checking is disabled.
+     *
+     * @param chain the chain that is going to be checked
+     * @return the trust manager or <tt>null</tt>
+     * @throws GeneralSecurityException if the trust manager cannot be created
+     */
+    private X509ExtendedTrustManager getRevocationTrustManager(
+        X509Certificate[] chain)
+        throws GeneralSecurityException
+    {
+        if (!config.getBoolean(PNAME_REVOCATION_CHECK_ENABLED, false))
+            return null;
+
+        Set<TrustAnchor> anchors;
+        synchronized (this)
+        {
+            getDefaultTrustManager();
+            anchors = defaultTrustAnchors;
+        }
+
+        // append the trust anchor, the last certificate needs its issuer
+        // for the OCSP request as well
+        X509Certificate last = chain[chain.length - 1];
+        X509Certificate[] fullChain = chain;
+        for (TrustAnchor anchor : anchors)
+        {
+            X509Certificate c = anchor.getTrustedCert();
+            if (!c.equals(last) && c.getSubjectX500Principal()
+                    .equals(last.getIssuerX500Principal()))
+            {
+                fullChain = Arrays.copyOf(chain, chain.length + 1);
+                fullChain[chain.length] = c;
+                break;
+            }
+        }
+
+        PKIXBuilderParameters params =
+            new PKIXBuilderParameters(anchors, new X509CertSelector());
+        PKIXRevocationChecker checker = (PKIXRevocationChecker)
+            CertPathBuilder.getInstance("PKIX").getRevocationChecker();
+
+        boolean needCrls = true;
+        if (config.getBoolean(PNAME_OCSP_ENABLED, false))
+        {
+            Map<X509Certificate, byte[]> responses =
+                revocationCache.getOcspResponses(fullChain);
+            checker.setOcspResponses(responses);
+            needCrls = responses.size() < fullChain.length - 1;
+        }
+        else
+        {
+            checker.setOptions(EnumSet.of(
+                PKIXRevocationChecker.Option.PREFER_CRLS,
+                PKIXRevocationChecker.Option.NO_FALLBACK));
+        }
+
+        params.addCertPathChecker(checker);
+        if (needCrls)
+        {
+            params.addCertStore(CertStore.getInstance("Collection",
+                new CollectionCertStoreParameters(
+                    revocationCache.getCrls(fullChain))));
+        }
+
+        TrustManagerFactory tmFactory =
+            TrustManagerFactory.getInstance("PKIX");
+        tmFactory.init(new CertPathTrustManagerParameters(params));
+        for (TrustManager m : tmFactory.getTrustManagers())
+        {
+            if (m instanceof X509ExtendedTrustManager)
+                return (X509ExtendedTrustManager) m;
+        }
+
+        throw new GeneralSecurityException(
+            "No PKIX X509 trust manager found");
+    }
+
+    /**
+     * Returns the key under which the successful validation of
+     * <tt>chain</tt> for the given parameters is cached.
+     *
+     * @param chain the chain as received from the peer
+     * @param authType the key exchange algorithm used
+     * @param serverCheck whether the chain is checked for a server
+     * @param identitiesToTest the identities the chain must be valid for
+     * @param verifier the matcher used to check the identities
+     * @return the key or <tt>null</tt> if the chain cannot be encoded
+     */
+    private static String getValidatedChainKey(X509Certificate[] chain,
+        String authType, boolean serverCheck,
+        Iterable<String> identitiesToTest, CertificateMatcher verifier)
+    {
+        try
+        {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            for (X509Certificate c : chain)
+                encoded.write(c.getEncoded());
+
+            StringBuilder key = new StringBuilder(
+                RevocationResponseCache.fingerprint(encoded.toByteArray()));
+            key.append('|').append(authType)
+                .append('|').append(serverCheck)
+                .append('|').append(verifier.getClass().getName());
+            if (identitiesToTest != null)
+            {
+                for (String identity : identitiesToTest)
+                    key.append('|').append(identity);
+            }
+            return key.toString();
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether the chain with the given key has been validated
+     * recently.
+     *
+     * @param key the key of the chain
+     * @return <tt>true</tt> if the chain does not need to be validated again
+     */
+    private synchronized boolean isChainValidated(String key)
+    {
+        Long expires = validatedChains.get(key);
+        if (expires == null)
+            return false;
+
+        if (expires > System.currentTimeMillis())
+            return true;
+
+        validatedChains.remove(key);
+        return false;
+    }
+
+    /**
+     * Remembers that the chain with the given key has been validated, until
+     * the cache TTL elapses or a certificate in the chain expires.
+     *
+     * @param key the key of the chain
+     * @param chain the validated chain
+     */
+    private synchronized void chainValidated(String key,
+        X509Certificate[] chain)
+    {
+        long ttl = config.getLong(PNAME_VALIDATED_CHAIN_CACHE_TTL,
+            DEFAULT_VALIDATED_CHAIN_CACHE_TTL);
+        if (ttl <= 0)
+            return;
+
+        long expires = System.currentTimeMillis() + ttl * 1000;
+        for (X509Certificate c : chain)
+            expires = Math.min(expires, c.getNotAfter().getTime());
+
+        validatedChains.put(key, expires);
+    }
+
     private X509Certificate getCertificateFromUrl(URI address) throws Exception
     {
         CertificateFactory certFactory =
@@ -0,0 +1,566 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.certificate;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+import java.security.*;
+import java.security.cert.*;
+import java.util.*;
+import org.apache.http.*;
+import org.apache.http.client.fluent.*;
+import org.apache.http.entity.*;
+import org.bouncycastle.asn1.*;
+import org.bouncycastle.asn1.x509.*;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.jcajce.*;
+import org.bouncycastle.cert.ocsp.*;
+import org.bouncycastle.operator.jcajce.*;
+
+/**
+ * Caches OCSP responses and CRLs on disk so that revocation checks of
+ * certificates which have been checked before do not go to the network until
+ * the cached data expires. OCSP responses and CRLs are kept until their
+ * <tt>nextUpdate</tt>, or for {@link #DEFAULT_VALIDITY} if they don't have
+ * one.
+ * <p>
+ * The cached data is only collected here; it is verified by the PKIX
+ * revocation checker it is handed to, like data fetched by the JDK itself.
+ * </p>
+ */
+class RevocationResponseCache
+{
+    private static final org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(RevocationResponseCache.class);
+
+    /**
+     * How long data without a <tt>nextUpdate</tt> is used, in milliseconds.
+     */
+    private static final long DEFAULT_VALIDITY = 60 * 60 * 1000;
+
+    /**
+     * How long a failed download is not retried, in milliseconds.
+     */
+    private static final long FAILURE_VALIDITY = 5 * 60 * 1000;
+
+    /**
+     * Timeout for downloads, in milliseconds.
+     */
+    private static final int TIMEOUT = 10000;
+
+    /**
+     * The directory the cached data is stored in, <tt>null</tt> to only
+     * cache in memory.
+     */
+    private final File directory;
+
+    /**
+     * The cached OCSP responses and CRLs by cache key.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * A cached OCSP response or CRL.
+     */
+    private static class Entry
+    {
+        /**
+         * The DER encoded response or CRL, <tt>null</tt> if the download
+         * failed.
+         */
+        final byte[] encoded;
+
+        /**
+         * Time after which the entry must not be used anymore.
+         */
+        final long expires;
+
+        Entry(byte[] encoded, long expires)
+        {
+            this.encoded = encoded;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Creates a cache storing its data in <tt>directory</tt>.
+     *
+     * @param directory the cache directory, <tt>null</tt> to keep the data
+     * in memory only.
+     */
+    RevocationResponseCache(File directory)
+    {
+        if (directory != null && !directory.isDirectory()
+            && !directory.mkdirs())
+        {
+            logger.warn("Cannot create revocation cache directory "
+                + directory + ", caching in memory only");
+            directory = null;
+        }
+
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the OCSP responses of all certificates in <tt>chain</tt> which
+     * have an OCSP responder, downloading the ones which are not cached or
+     * have expired.
+     *
+     * @param chain the certificate chain, the issuer of each certificate
+     * following it.
+     * @return the DER encoded responses by certificate.
+     */
+    Map<X509Certificate, byte[]> getOcspResponses(X509Certificate[] chain)
+    {
+        Map<X509Certificate, byte[]> responses = new HashMap<>();
+
+        for (int i = 0; i + 1 < chain.length; i++)
+        {
+            X509Certificate cert = chain[i];
+            X509Certificate issuer = chain[i + 1];
+
+            try
+            {
+                URI responder = getOcspResponder(cert);
+                if (responder == null)
+                    continue;
+
+                String key = "ocsp-" + fingerprint(cert.getEncoded());
+                Entry entry = getEntry(key);
+                if (entry == null)
+                {
+                    entry = downloadOcspResponse(responder, cert, issuer);
+                    putEntry(key, entry);
+                }
+
+                if (entry.encoded != null)
+                    responses.put(cert, entry.encoded);
+            }
+            catch (Exception e)
+            {
+                logger.debug("Could not get OCSP response for <"
+                    + cert.getSubjectX500Principal() + ">", e);
+            }
+        }
+
+        return responses;
+    }
+
+    /**
+     * Returns the CRLs of the distribution points of all certificates in
+     * <tt>chain</tt>, downloading the ones which are not cached or have
+     * expired.
+     *
+     * @param chain the certificate chain.
+     * @return the CRLs.
+     */
+    Collection<X509CRL> getCrls(X509Certificate[] chain)
+    {
+        List<X509CRL> crls = new ArrayList<>();
+        CertificateFactory cf;
+        try
+        {
+            cf = CertificateFactory.getInstance("X.509");
+        }
+        catch (CertificateException e)
+        {
+            return crls;
+        }
+
+        for (X509Certificate cert : chain)
+        {
+            try
+            {
+                for (URI uri : getCrlDistributionPoints(cert))
+                {
+                    String key = "crl-" + fingerprint(
+                        uri.toString().getBytes("UTF-8"));
+                    Entry entry = getEntry(key);
+                    if (entry == null)
+                    {
+                        entry = downloadCrl(uri, cf);
+                        putEntry(key, entry);
+                    }
+
+                    if (entry.encoded != null)
+                    {
+                        crls.add((X509CRL) cf.generateCRL(
+                            new ByteArrayInputStream(entry.encoded)));
+                        break;
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                logger.debug("Could not get CRL for <"
+                    + cert.getSubjectX500Principal() + ">", e);
+            }
+        }
+
+        return crls;
+    }
+
+    /**
+     * Drops all cached data, in memory and on disk.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+
+        if (directory != null)
+        {
+            File[] files = directory.listFiles();
+            if (files != null)
+            {
+                for (File f : files)
+                    f.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the unexpired entry with the given key, loading it from disk
+     * if it is not in memory.
+     *
+     * @param key the cache key.
+     * @return the entry or <tt>null</tt> if there is none or it expired.
+     */
+    private synchronized Entry getEntry(String key)
+    {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+
+        if (entry == null && directory != null)
+        {
+            File file = new File(directory, key);
+            if (file.isFile())
+            {
+                try
+                {
+                    byte[] encoded = Files.readAllBytes(file.toPath());
+                    entry = new Entry(encoded,
+                        key.startsWith("ocsp-")
+                            ? getOcspExpiry(encoded)
+                            : getCrlExpiry(encoded));
+                    entries.put(key, entry);
+                }
+                catch (Exception e)
+                {
+                    logger.debug("Dropping unreadable cache file " + file, e);
+                    file.delete();
+                }
+            }
+        }
+
+        if (entry != null && entry.expires <= now)
+        {
+            entries.remove(key);
+            if (directory != null)
+                new File(directory, key).delete();
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Stores the given entry, writing successful downloads to disk.
+     *
+     * @param key the cache key.
+     * @param entry the entry to store.
+     */
+    private synchronized void putEntry(String key, Entry entry)
+    {
+        entries.put(key, entry);
+
+        if (directory == null || entry.encoded == null)
+            return;
+
+        try
+        {
+            Files.write(new File(directory, key).toPath(), entry.encoded);
+        }
+        catch (IOException e)
+        {
+            logger.debug("Could not write revocation cache file", e);
+        }
+    }
+
+    /**
+     * Queries the OCSP responder for the status of <tt>cert</tt>.
+     *
+     * @param responder the address of the responder.
+     * @param cert the certificate to check.
+     * @param issuer the issuer of <tt>cert</tt>.
+     * @return the entry for the response, with no data if the responder
+     * could not be queried.
+     */
+    private Entry downloadOcspResponse(URI responder, X509Certificate cert,
+        X509Certificate issuer)
+    {
+        try
+        {
+            CertificateID id = new CertificateID(
+                new JcaDigestCalculatorProviderBuilder().build()
+                    .get(CertificateID.HASH_SHA1),
+                new JcaX509CertificateHolder(issuer),
+                cert.getSerialNumber());
+            OCSPReq request = new OCSPReqBuilder().addRequest(id).build();
+
+            if (logger.isDebugEnabled())
+                logger.debug("Querying OCSP responder <" + responder
+                    + "> for <" + cert.getSubjectX500Principal() + ">");
+
+            byte[] encoded = Request.Post(responder)
+                .connectTimeout(TIMEOUT)
+                .socketTimeout(TIMEOUT)
+                .setHeader(HttpHeaders.USER_AGENT,
+                    System.getProperty("sip-communicator.application.name"))
+                .bodyByteArray(request.getEncoded(),
+                    ContentType.create("application/ocsp-request"))
+                .execute()
+                .returnContent()
+                .asBytes();
+
+            OCSPResp response = new OCSPResp(encoded);
+            if (response.getStatus() != OCSPResp.SUCCESSFUL)
+            {
+                logger.debug("OCSP responder <" + responder
+                    + "> answered with status " + response.getStatus());
+                return failure();
+            }
+
+            return new Entry(encoded, getOcspExpiry(encoded));
+        }
+        catch (Exception e)
+        {
+            logger.debug("Could not query OCSP responder <" + responder + ">",
+                e);
+            return failure();
+        }
+    }
+
+    /**
+     * Downloads the CRL from the given distribution point.
+     *
+     * @param uri the distribution point.
+     * @param cf the factory to parse the CRL with.
+     * @return the entry for the CRL, with no data if it could not be
+     * downloaded.
+     */
+    private Entry downloadCrl(URI uri, CertificateFactory cf)
+    {
+        try
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Downloading CRL from <" + uri + ">");
+
+            byte[] encoded = Request.Get(uri)
+                .connectTimeout(TIMEOUT)
+                .socketTimeout(TIMEOUT)
+                .setHeader(HttpHeaders.USER_AGENT,
+                    System.getProperty("sip-communicator.application.name"))
+                .execute()
+                .returnContent()
+                .asBytes();
+
+            // make sure it parses before it gets cached
+            cf.generateCRL(new ByteArrayInputStream(encoded));
+            return new Entry(encoded, getCrlExpiry(encoded));
+        }
+        catch (Exception e)
+        {
+            logger.debug("Could not download CRL from <" + uri + ">", e);
+            return failure();
+        }
+    }
+
+    /**
+     * Returns an entry remembering a failed download for a short time.
+     *
+     * @return the failure entry.
+     */
+    private static Entry failure()
+    {
+        return new Entry(null, System.currentTimeMillis() + FAILURE_VALIDITY);
+    }
+
+    /**
+     * Returns the time until which the given OCSP response can be used: the
+     * earliest <tt>nextUpdate</tt> of its single responses.
+     *
+     * @param encoded the DER encoded OCSP response.
+     * @return the expiry time in milliseconds.
+     * @throws Exception if the response cannot be parsed.
+     */
+    private static long getOcspExpiry(byte[] encoded)
+        throws Exception
+    {
+        long expiry = System.currentTimeMillis() + DEFAULT_VALIDITY;
+        BasicOCSPResp basic
+            = (BasicOCSPResp) new OCSPResp(encoded).getResponseObject();
+
+        if (basic != null)
+        {
+            for (SingleResp single : basic.getResponses())
+            {
+                Date nextUpdate = single.getNextUpdate();
+                if (nextUpdate != null)
+                    expiry = Math.min(expiry, nextUpdate.getTime());
+            }
+        }
+
+        return expiry;
+    }
+
+    /**
+     * Returns the time until which the given CRL can be used.
+     *
+     * @param encoded the DER encoded CRL.
+     * @return the <tt>nextUpdate</tt> of the CRL in milliseconds, or the
+     * default validity if it has none.
+     * @throws Exception if the CRL cannot be parsed.
+     */
+    private static long getCrlExpiry(byte[] encoded)
+        throws Exception
+    {
+        X509CRL crl = (X509CRL) CertificateFactory.getInstance("X.509")
+            .generateCRL(new ByteArrayInputStream(encoded));
+
+        Date nextUpdate = crl.getNextUpdate();
+        return nextUpdate != null
+            ? nextUpdate.getTime()
+            : System.currentTimeMillis() + DEFAULT_VALIDITY;
+    }
+
+    /**
+     * Returns the HTTP address of the OCSP responder of <tt>cert</tt>.
+     *
+     * @param cert the certificate.
+     * @return the responder address or <tt>null</tt> if there is none.
+     * @throws IOException if the extension cannot be parsed.
+     */
+    private static URI getOcspResponder(X509Certificate cert)
+        throws IOException
+    {
+        byte[] aiaBytes = cert.getExtensionValue(
+            Extension.authorityInfoAccess.getId());
+        if (aiaBytes == null)
+            return null;
+
+        AuthorityInformationAccess aia = AuthorityInformationAccess
+            .getInstance(JcaX509ExtensionUtils.parseExtensionValue(aiaBytes));
+
+        for (AccessDescription ad : aia.getAccessDescriptions())
+        {
+            if (!ad.getAccessMethod().equals(AccessDescription.id_ad_ocsp))
+                continue;
+
+            URI uri = getHttpUri(ad.getAccessLocation());
+            if (uri != null)
+                return uri;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the HTTP addresses of the CRL distribution points of
+     * <tt>cert</tt>.
+     *
+     * @param cert the certificate.
+     * @return the addresses, empty if there are none.
+     * @throws IOException if the extension cannot be parsed.
+     */
+    private static List<URI> getCrlDistributionPoints(X509Certificate cert)
+        throws IOException
+    {
+        List<URI> uris = new ArrayList<>();
+        byte[] dpBytes = cert.getExtensionValue(
+            Extension.cRLDistributionPoints.getId());
+        if (dpBytes == null)
+            return uris;
+
+        CRLDistPoint crlDistPoint = CRLDistPoint.getInstance(
+            JcaX509ExtensionUtils.parseExtensionValue(dpBytes));
+
+        for (DistributionPoint dp : crlDistPoint.getDistributionPoints())
+        {
+            DistributionPointName dpName = dp.getDistributionPoint();
+            if (dpName == null
+                || dpName.getType() != DistributionPointName.FULL_NAME)
+                continue;
+
+            for (GeneralName gn
+                : GeneralNames.getInstance(dpName.getName()).getNames())
+            {
+                URI uri = getHttpUri(gn);
+                if (uri != null)
+                    uris.add(uri);
+            }
+        }
+
+        return uris;
+    }
+
+    /**
+     * Returns the given name as URI if it is an http(s) URL.
+     *
+     * @param gn the name.
+     * @return the URI or <tt>null</tt>.
+     */
+    private static URI getHttpUri(GeneralName gn)
+    {
+        if (gn.getTagNo() != GeneralName.uniformResourceIdentifier
+            || !(gn.getName() instanceof DERIA5String))
+            return null;
+
+        try
+        {
+            URI uri = new URI(((DERIA5String) gn.getName()).getString());
+            if ("http".equalsIgnoreCase(uri.getScheme())
+                || "https".equalsIgnoreCase(uri.getScheme()))
+                return uri;
+        }
+        catch (URISyntaxException e)
+        {
+            // ignore invalid URLs
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the given data, used as cache
+     * key.
+     *
+     * @param data the data to hash.
+     * @return the hash.
+     * @throws GeneralSecurityException if SHA-256 is not available.
+     */
+    static String fingerprint(byte[] data)
+        throws GeneralSecurityException
+    {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest)
+            sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.certificate;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.math.*;
+import java.net.*;
+import java.nio.file.*;
+import java.security.*;
+import java.security.cert.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.security.auth.x500.*;
+import org.bouncycastle.asn1.x500.*;
+import org.bouncycastle.asn1.x509.*;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.*;
+import org.bouncycastle.cert.jcajce.*;
+import org.bouncycastle.cert.ocsp.*;
+import org.bouncycastle.cert.ocsp.jcajce.*;
+import org.bouncycastle.operator.*;
+import org.bouncycastle.operator.jcajce.*;
+import org.junit.*;
+
+/**
+ * Tests {@link RevocationResponseCache} against a local HTTP server standing
+ * in for an OCSP responder and a CRL distribution point.
+ */
+public class RevocationResponseCacheTest
+{
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static KeyPair caKeys;
+
+    private static X509Certificate ca;
+
+    private HttpServer server;
+
+    private File directory;
+
+    /**
+     * The number of requests the stand-in has answered.
+     */
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * The status the OCSP stand-in answers with.
+     */
+    private volatile CertificateStatus ocspStatus = CertificateStatus.GOOD;
+
+    /**
+     * The <tt>nextUpdate</tt> of the OCSP responses and CRLs.
+     */
+    private volatile Date nextUpdate;
+
+    /**
+     * Whether the stand-in answers with an HTTP error.
+     */
+    private volatile boolean failing;
+
+    @BeforeClass
+    public static void createCa()
+        throws Exception
+    {
+        caKeys = generateKeyPair();
+        X500Name name = new X500Name("CN=Test CA");
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            name, BigInteger.ONE, new Date(System.currentTimeMillis() - HOUR),
+            new Date(System.currentTimeMillis() + 24 * HOUR), name,
+            caKeys.getPublic());
+        builder.addExtension(Extension.basicConstraints, true,
+            new BasicConstraints(true));
+        builder.addExtension(Extension.keyUsage, true, new KeyUsage(
+            KeyUsage.keyCertSign | KeyUsage.cRLSign));
+        ca = new JcaX509CertificateConverter().getCertificate(
+            builder.build(signer()));
+    }
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        nextUpdate = new Date(System.currentTimeMillis() + HOUR);
+        directory = Files.createTempDirectory("revocation").toFile();
+
+        server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ocsp", this::handleOcsp);
+        server.createContext("/crl", this::handleCrl);
+        server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+                f.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testOcspResponseIsCached()
+        throws Exception
+    {
+        X509Certificate[] chain = { createLeaf(2, true, false), ca };
+        RevocationResponseCache cache = new RevocationResponseCache(directory);
+
+        Map<X509Certificate, byte[]> responses = cache.getOcspResponses(chain);
+        assertEquals(1, requests.get());
+        assertNotNull(responses.get(chain[0]));
+
+        assertArrayEquals(responses.get(chain[0]),
+            cache.getOcspResponses(chain).get(chain[0]));
+        assertEquals(1, requests.get());
+
+        // a new instance, as after a restart, reads the response from disk
+        RevocationResponseCache reloaded
+            = new RevocationResponseCache(directory);
+        assertArrayEquals(responses.get(chain[0]),
+            reloaded.getOcspResponses(chain).get(chain[0]));
+        assertEquals(1, requests.get());
+
+        reloaded.clear();
+        assertEquals(0, directory.listFiles().length);
+        reloaded.getOcspResponses(chain);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testExpiredOcspResponseIsRefetched()
+        throws Exception
+    {
+        X509Certificate[] chain = { createLeaf(3, true, false), ca };
+        RevocationResponseCache cache = new RevocationResponseCache(directory);
+
+        nextUpdate = new Date(System.currentTimeMillis() - 1000);
+        cache.getOcspResponses(chain);
+        cache.getOcspResponses(chain);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testFailureIsRemembered()
+        throws Exception
+    {
+        X509Certificate[] chain = { createLeaf(4, true, false), ca };
+        RevocationResponseCache cache = new RevocationResponseCache(directory);
+
+        failing = true;
+        assertTrue(cache.getOcspResponses(chain).isEmpty());
+        assertTrue(cache.getOcspResponses(chain).isEmpty());
+        assertEquals(1, requests.get());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testCertificateWithoutResponder()
+        throws Exception
+    {
+        X509Certificate[] chain = { createLeaf(5, false, false), ca };
+        RevocationResponseCache cache = new RevocationResponseCache(null);
+
+        assertTrue(cache.getOcspResponses(chain).isEmpty());
+        assertTrue(cache.getCrls(chain).isEmpty());
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testCrlIsCached()
+        throws Exception
+    {
+        X509Certificate[] chain = { createLeaf(6, false, true), ca };
+        RevocationResponseCache cache = new RevocationResponseCache(directory);
+
+        Collection<X509CRL> crls = cache.getCrls(chain);
+        assertEquals(1, crls.size());
+        assertEquals(ca.getSubjectX500Principal(),
+            crls.iterator().next().getIssuerX500Principal());
+        assertEquals(1, cache.getCrls(chain).size());
+        assertEquals(1,
+            new RevocationResponseCache(directory).getCrls(chain).size());
+        assertEquals(1, requests.get());
+    }
+
+    /**
+     * The cached responses are handed to the JDK revocation checker, which
+     * must accept a good one and reject a revoked certificate.
+     */
+    @Test
+    public void testResponsesAreUsableByRevocationChecker()
+        throws Exception
+    {
+        X509Certificate[] good = { createLeaf(7, true, false), ca };
+        RevocationResponseCache cache = new RevocationResponseCache(directory);
+        validate(good, cache.getOcspResponses(good));
+
+        ocspStatus = new RevokedStatus(new Date(), org.bouncycastle.asn1.x509.CRLReason.keyCompromise);
+        X509Certificate[] revoked = { createLeaf(8, true, false), ca };
+        try
+        {
+            validate(revoked, cache.getOcspResponses(revoked));
+            fail("revoked certificate was accepted");
+        }
+        catch (CertPathValidatorException e)
+        {
+            assertEquals(CertPathValidatorException.BasicReason.REVOKED,
+                e.getReason());
+        }
+    }
+
+    /**
+     * Validates <tt>chain</tt> against the test CA using only the given OCSP
+     * responses, as <tt>CertificateServiceImpl</tt> does.
+     */
+    private static void validate(X509Certificate[] chain,
+        Map<X509Certificate, byte[]> responses)
+        throws Exception
+    {
+        CertPathValidator validator = CertPathValidator.getInstance("PKIX");
+        PKIXRevocationChecker checker
+            = (PKIXRevocationChecker) validator.getRevocationChecker();
+        checker.setOcspResponses(responses);
+        checker.setOptions(EnumSet.of(
+            PKIXRevocationChecker.Option.ONLY_END_ENTITY,
+            PKIXRevocationChecker.Option.NO_FALLBACK));
+
+        PKIXParameters params = new PKIXParameters(
+            Collections.singleton(new TrustAnchor(ca, null)));
+        params.addCertPathChecker(checker);
+
+        validator.validate(CertificateFactory.getInstance("X.509")
+            .generateCertPath(Arrays.asList(chain[0])), params);
+    }
+
+    private void handleOcsp(HttpExchange exchange)
+        throws IOException
+    {
+        requests.incrementAndGet();
+        try
+        {
+            if (failing)
+            {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            OCSPReq request = new OCSPReq(
+                exchange.getRequestBody().readAllBytes());
+            BasicOCSPRespBuilder builder = new JcaBasicOCSPRespBuilder(
+                caKeys.getPublic(),
+                new JcaDigestCalculatorProviderBuilder().build()
+                    .get(CertificateID.HASH_SHA1));
+            for (Req req : request.getRequestList())
+            {
+                builder.addResponse(req.getCertID(), ocspStatus,
+                    new Date(System.currentTimeMillis() - 1000), nextUpdate,
+                    null);
+            }
+
+            BasicOCSPResp basic = builder.build(signer(),
+                new X509CertificateHolder[] { new JcaX509CertificateHolder(ca) },
+                new Date());
+            send(exchange, "application/ocsp-response",
+                new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basic)
+                    .getEncoded());
+        }
+        catch (Exception e)
+        {
+            exchange.sendResponseHeaders(400, -1);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void handleCrl(HttpExchange exchange)
+        throws IOException
+    {
+        requests.incrementAndGet();
+        try
+        {
+            X509v2CRLBuilder builder = new JcaX509v2CRLBuilder(
+                ca.getSubjectX500Principal(),
+                new Date(System.currentTimeMillis() - 1000));
+            builder.setNextUpdate(nextUpdate);
+            send(exchange, "application/pkix-crl",
+                builder.build(signer()).getEncoded());
+        }
+        catch (Exception e)
+        {
+            exchange.sendResponseHeaders(500, -1);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, String type, byte[] body)
+        throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Creates a certificate issued by the test CA.
+     *
+     * @param serial the serial number
+     * @param ocsp whether to point the AIA extension at the OCSP stand-in
+     * @param crl whether to point the CRL distribution point at the
+     * stand-in
+     */
+    private X509Certificate createLeaf(long serial, boolean ocsp, boolean crl)
+        throws Exception
+    {
+        String base = "http://" + server.getAddress().getAddress()
+            .getHostAddress() + ":" + server.getAddress().getPort();
+        X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
+            ca, BigInteger.valueOf(serial),
+            new Date(System.currentTimeMillis() - HOUR),
+            new Date(System.currentTimeMillis() + 24 * HOUR),
+            new X500Principal("CN=leaf" + serial),
+            generateKeyPair().getPublic());
+
+        if (ocsp)
+        {
+            builder.addExtension(Extension.authorityInfoAccess, false,
+                new AuthorityInformationAccess(AccessDescription.id_ad_ocsp,
+                    new GeneralName(GeneralName.uniformResourceIdentifier,
+                        base + "/ocsp")));
+        }
+        if (crl)
+        {
+            GeneralNames names = new GeneralNames(new GeneralName(
+                GeneralName.uniformResourceIdentifier, base + "/crl"));
+            builder.addExtension(Extension.cRLDistributionPoints, false,
+                new CRLDistPoint(new DistributionPoint[] {
+                    new DistributionPoint(
+                        new DistributionPointName(names), null, null) }));
+        }
+
+        return new JcaX509CertificateConverter().getCertificate(
+            builder.build(signer()));
+    }
+
+    private static ContentSigner signer()
+        throws OperatorCreationException
+    {
+        return new JcaContentSignerBuilder("SHA256withRSA")
+            .build(caKeys.getPrivate());
+    }
+
+    private static KeyPair generateKeyPair()
+        throws NoSuchAlgorithmException
+    {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+}
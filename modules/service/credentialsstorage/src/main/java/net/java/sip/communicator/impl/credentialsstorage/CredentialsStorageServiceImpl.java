@@ -18,6 +18,7 @@
 package net.java.sip.communicator.impl.credentialsstorage;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.credentialsstorage.*;
 import net.java.sip.communicator.util.Base64; // disambiguation
@@ -29,6 +30,13 @@
 /**
  * Implements {@link CredentialsStorageService} to load and store user
  * credentials from/to the {@link ConfigurationService}.
+ * <p>
+ * Once the master password is known, all stored passwords are decrypted at
+ * once and kept in memory together with their encrypted form, so that later
+ * loads only compare the encrypted value in the configuration instead of
+ * decrypting it again. The decrypted passwords are dropped when the service
+ * stops.
+ * </p>
  *
  * @author Dmitri Melnikov
  */
@@ -75,6 +83,13 @@
      */
     private Crypto crypto;
 
+    /**
+     * The decrypted passwords by account prefix, filled when {@link #crypto}
+     * is created and read without locking.
+     */
+    private final ConcurrentMap<String, VaultEntry> vault
+        = new ConcurrentHashMap<String, VaultEntry>();
+
     /**
      * Initializes the credentials service by fetching the configuration service
      * reference from the bundle context. Encrypts and moves all passwords to
@@ -103,6 +118,7 @@ void start(BundleContext bc)
     void stop()
     {
         crypto = null;
+        vault.clear();
     }
 
     /**
@@ -133,6 +149,13 @@ public synchronized boolean storePassword(
                 if (password != null)
                     encryptedPassword = crypto.encrypt(password);
                 setEncrypted(accountPrefix, encryptedPassword);
+
+                if (encryptedPassword == null)
+                    vault.remove(accountPrefix);
+                else
+                    vault.put(
+                        accountPrefix,
+                        new VaultEntry(encryptedPassword, password));
                 return true;
             }
             catch (Exception ex)
@@ -154,18 +177,47 @@ public synchronized boolean storePassword(
      * <tt>Crypto</tt> instance based on the input (<tt>createCrypto</tt>
      * method). This instance will be used later by all other threads.
      *
+     * Passwords which were already decrypted are returned without locking
+     * as long as their encrypted value in the configuration is unchanged.
+     *
      * @param accountPrefix account prefix
      * @return the loaded password for the <tt>accountPrefix</tt>
      * @see CredentialsStorageServiceImpl#createCrypto()
      */
-    public synchronized String loadPassword(String accountPrefix)
+    public String loadPassword(String accountPrefix)
+    {
+        String encrypted = getEncrypted(accountPrefix);
+        if (encrypted == null)
+            return null;
+
+        VaultEntry entry = vault.get(accountPrefix);
+        if (entry != null && entry.encrypted.equals(encrypted))
+            return entry.password;
+
+        return decryptPassword(accountPrefix);
+    }
+
+    /**
+     * Decrypts the password for the specified account with the master
+     * password, asking for the latter if needed, and keeps it in the vault.
+     *
+     * @param accountPrefix account prefix
+     * @return the decrypted password for the <tt>accountPrefix</tt>
+     */
+    private synchronized String decryptPassword(String accountPrefix)
     {
         String password = null;
         if (isStoredEncrypted(accountPrefix) && createCrypto())
         {
+            String encrypted = getEncrypted(accountPrefix);
+            VaultEntry entry = vault.get(accountPrefix);
+            if (entry != null && entry.encrypted.equals(encrypted))
+                return entry.password;
+
             try
             {
-                password = crypto.decrypt(getEncrypted(accountPrefix));
+                password = crypto.decrypt(encrypted);
+                vault.put(accountPrefix, new VaultEntry(encrypted, password));
             }
             catch (Exception ex)
             {
@@ -188,6 +240,7 @@ public synchronized String loadPassword(String accountPrefix)
     public boolean removePassword(String accountPrefix)
     {
         setEncrypted(accountPrefix, null);
+        vault.remove(accountPrefix);
         if (logger.isDebugEnabled())
             logger.debug("Password for '" + accountPrefix + "' removed");
         return true;
@@ -248,7 +301,8 @@ public boolean verifyMasterPassword(String master)
     /**
      * Changes the master password from the old to the new one.
      * Decrypts all encrypted password properties from the configuration
-     * with the oldPassword and encrypts them again with newPassword.
+     * with the oldPassword and encrypts them again with newPassword. The
+     * new values are written to the configuration in a single batch.
      *
      * @param oldPassword old master password
      * @param newPassword new master password
@@ -277,21 +331,48 @@ public boolean changeMasterPassword(String oldPassword, String newPassword)
                     passwords.put(propName, decrypted);
                 }
             }
-            // ..and encrypt again with the new, write to the config
+            // ..and encrypt again with the new
             setMasterPassword(newPassword);
+            Map<String, Object> encryptedProps
+                = new HashMap<String, Object>();
+            Map<String, VaultEntry> newVault
+                = new HashMap<String, VaultEntry>();
+            int suffixLength = ACCOUNT_ENCRYPTED_PASSWORD.length() + 1;
             for (Map.Entry<String, String> entry : passwords.entrySet())
             {
+                String propName = entry.getKey();
                 String encrypted = crypto.encrypt(entry.getValue());
-                configurationService.setProperty(entry.getKey(), encrypted);
+                encryptedProps.put(propName, encrypted);
+                if (propName.length() > suffixLength)
+                {
+                    newVault.put(
+                        propName.substring(
+                            0, propName.length() - suffixLength),
+                        new VaultEntry(encrypted, entry.getValue()));
+                }
             }
             // save the verification value, encrypted with the new MP,
             // or remove it if the newPassword is null (we are unsetting MP)
-            writeVerificationValue(newPassword == null);
+            if (newPassword != null)
+            {
+                encryptedProps.put(
+                    MASTER_PROP,
+                    crypto.encrypt(MASTER_PROP_VALUE));
+            }
+
+            // write everything to the config at once
+            configurationService.setProperties(encryptedProps);
+            if (newPassword == null)
+                writeVerificationValue(true);
+
+            vault.clear();
+            vault.putAll(newVault);
         }
         catch (CryptoException ce)
         {
             logger.debug("Failed to change master password", ce);
             crypto = null;
+            vault.clear();
             passwords = null;
             return false;
         }
@@ -446,6 +527,7 @@ private synchronized boolean createCrypto()
                 }
 
                 moveAllPasswordProperties();
+                unlockVault();
             }
             else
             {
@@ -457,11 +539,52 @@ private synchronized boolean createCrypto()
                  * something specified by the user.
                  */
                 setMasterPassword(null);
+                unlockVault();
             }
         }
         return (crypto != null);
     }
 
+    /**
+     * Decrypts all stored account passwords with the current {@link #crypto}
+     * into the vault, so that the accounts loading after the master password
+     * was entered do not decrypt them one at a time.
+     */
+    private void unlockVault()
+    {
+        if (crypto == null)
+            return;
+
+        List<String> encryptedAccountProps
+            = configurationService.getPropertyNamesBySuffix(
+                    ACCOUNT_ENCRYPTED_PASSWORD);
+        int suffixLength = ACCOUNT_ENCRYPTED_PASSWORD.length() + 1;
+
+        for (String propName : encryptedAccountProps)
+        {
+            String encrypted = configurationService.getString(propName);
+            if (encrypted == null
+                    || propName.length() <= suffixLength
+                    || propName.charAt(propName.length() - suffixLength)
+                        != '.')
+            {
+                continue;
+            }
+
+            try
+            {
+                vault.put(
+                    propName.substring(0, propName.length() - suffixLength),
+                    new VaultEntry(encrypted, crypto.decrypt(encrypted)));
+            }
+            catch (CryptoException ex)
+            {
+                // leave it to loadPassword to report
+                logger.debug("Failed to decrypt " + propName, ex);
+            }
+        }
+    }
+
     /**
      * Displays a password prompt to the user in a loop until it is correct or
      * the user presses the cancel button.
@@ -572,4 +695,33 @@ private void setUnencrypted(String accountPrefix, String value)
         configurationService.setProperty(
                 accountPrefix + "." + ACCOUNT_UNENCRYPTED_PASSWORD, value);
     }
+
+    /**
+     * A decrypted password along with the encrypted value it was decrypted
+     * from.
+     */
+    private static class VaultEntry
+    {
+        /**
+         * The encrypted password as stored in the configuration.
+         */
+        final String encrypted;
+
+        /**
+         * The decrypted password.
+         */
+        final String password;
+
+        /**
+         * Creates a vault entry.
+         *
+         * @param encrypted the encrypted password.
+         * @param password the decrypted password.
+         */
+        VaultEntry(String encrypted, String password)
+        {
+            this.encrypted = encrypted;
+            this.password = password;
+        }
+    }
 }
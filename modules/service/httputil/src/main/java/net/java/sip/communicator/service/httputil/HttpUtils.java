@@ -30,6 +30,7 @@
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.*;
+import org.apache.http.Header;
 import org.apache.http.auth.*;
 import org.apache.http.client.*;
 import org.apache.http.client.config.*;
@@ -118,6 +119,35 @@ private static HttpEntity executeMethod(CloseableHttpClient httpClient,
                                             HTTPCredentialsProvider credentialsProvider,
                                             HttpRequestBase req)
         throws Throwable
+    {
+        HttpResponse response
+            = executeRequest(httpClient, credentialsProvider, req);
+
+        if(response != null
+            && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
+        {
+            return response.getEntity();
+        }
+
+        return null;
+    }
+
+    /**
+     * Executes the method like {@link #executeMethod(CloseableHttpClient,
+     * HTTPCredentialsProvider, HttpRequestBase)} but returns the whole
+     * response, so that the status and headers can be inspected. A
+     * <tt>304 Not Modified</tt> answer to a conditional request is returned
+     * as well.
+     * @param httpClient the configured http client to use.
+     * @param req the request for now it is get or post.
+     *
+     * @return the response if it is <tt>200 OK</tt> or
+     * <tt>304 Not Modified</tt>, otherwise null.
+     */
+    private static HttpResponse executeRequest(CloseableHttpClient httpClient,
+                                               HTTPCredentialsProvider credentialsProvider,
+                                               HttpRequestBase req)
+        throws Throwable
     {
         // do it when response (first execution) or till we are unauthorized
         HttpResponse response = null;
@@ -147,9 +177,11 @@ private static HttpEntity executeMethod(CloseableHttpClient httpClient,
 
         // if we finally managed to login return the result.
         if(response != null
-            && response.getStatusLine().getStatusCode() == HttpStatus.SC_OK)
+            && (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK
+                || response.getStatusLine().getStatusCode()
+                    == HttpStatus.SC_NOT_MODIFIED))
         {
-            return response.getEntity();
+            return response;
         }
 
         // is user has canceled no result needed.
@@ -229,10 +261,46 @@ public static HTTPResponseResult postForm(String address,
                                    String usernameParamIx,
                                    String passwordParamIx)
         throws Throwable
+    {
+        return postForm(address, usernamePropertyName, passwordPropertyName,
+            formParams, usernameParamIx, passwordParamIx, null);
+    }
+
+    /**
+     * Posting form to <tt>address</tt> with additional request headers, for
+     * example the <tt>If-None-Match</tt> or <tt>If-Modified-Since</tt>
+     * headers of a conditional request. A <tt>304 Not Modified</tt> answer
+     * is returned as a result without content, see
+     * {@link HTTPResponseResult#isNotModified()}.
+     * @param address HTTP address.
+     * @param usernamePropertyName the property to use to retrieve/store
+     * username value if protected site is hit, for username
+     * ConfigurationService service is used.
+     * @param passwordPropertyName the property to use to retrieve/store
+     * password value if protected site is hit, for password
+     * CredentialsStorageService service is used.
+     * @param formParams the parameters to include in post.
+     * @param usernameParamIx the index of the username parameter in the
+     * <tt>formParams</tt> if any, otherwise null.
+     * @param passwordParamIx the index of the password parameter in the
+     * <tt>formParams</tt>
+     * if any, otherwise null.
+     * @param headers the headers to add to the request, may be null.
+     * @return the result or null if send was not possible or
+     * credentials ask if any was canceled.
+     */
+    public static HTTPResponseResult postForm(String address,
+                                   String usernamePropertyName,
+                                   String passwordPropertyName,
+                                   Map<String, String> formParams,
+                                   String usernameParamIx,
+                                   String passwordParamIx,
+                                   Map<String, String> headers)
+        throws Throwable
     {
         CloseableHttpClient httpClient;
         HttpPost postMethod;
-        HttpEntity resEntity = null;
+        HttpResponse response = null;
 
         // if any authentication exception rise while executing
         // will retry
@@ -242,6 +310,11 @@ public static HTTPResponseResult postForm(String address,
         do
         {
             postMethod = new HttpPost(address);
+            if(headers != null)
+            {
+                for(Map.Entry<String, String> header : headers.entrySet())
+                    postMethod.setHeader(header.getKey(), header.getValue());
+            }
             httpClient = getHttpClient(
                 usernamePropertyName, passwordPropertyName,
                 postMethod.getURI().getHost(), credentialsProviderHolder);
@@ -250,7 +323,7 @@ public static HTTPResponseResult postForm(String address,
             try
             {
                 // execute post
-                resEntity = postForm(
+                response = postForm(
                         httpClient,
                         (HTTPCredentialsProvider) credentialsProviderHolder.get(),
                         postMethod,
@@ -283,10 +356,10 @@ public static HTTPResponseResult postForm(String address,
         while(authEx != null);
 
         // canceled or no result
-        if(resEntity == null)
+        if(response == null)
             return null;
 
-        return new HTTPResponseResult(resEntity, httpClient);
+        return new HTTPResponseResult(response, httpClient);
     }
 
     /**
@@ -301,10 +374,10 @@ public static HTTPResponseResult postForm(String address,
      * @param passwordParamIx the index of the password parameter in the
      * <tt>formParams</tt>
      * if any, otherwise null.
-     * @return the result or null if send was not possible or
+     * @return the response or null if send was not possible or
      * credentials ask if any was canceled.
      */
-    private static HttpEntity postForm(
+    private static HttpResponse postForm(
                                    CloseableHttpClient httpClient,
                                    HTTPCredentialsProvider credentialsProvider,
                                    HttpPost postMethod,
@@ -378,7 +451,7 @@ else if(param.getKey().equals(passwordParamIx) && creds != null)
         postMethod.setEntity(entity);
 
         // execute post
-        return executeMethod(httpClient, credentialsProvider, postMethod);
+        return executeRequest(httpClient, credentialsProvider, postMethod);
     }
 
     /**
@@ -684,6 +757,11 @@ boolean retry()
          */
         HttpClient httpClient;
 
+        /**
+         * The whole response, if known.
+         */
+        HttpResponse response;
+
         /**
          * Creates HTTPResponseResult.
          * @param entity the httpclient entity.
@@ -695,6 +773,46 @@ boolean retry()
             this.httpClient = httpClient;
         }
 
+        /**
+         * Creates HTTPResponseResult.
+         * @param response the httpclient response.
+         * @param httpClient the httpclient.
+         */
+        HTTPResponseResult(HttpResponse response, HttpClient httpClient)
+        {
+            this(response.getEntity(), httpClient);
+            this.response = response;
+        }
+
+        /**
+         * Whether the server answered a conditional request with
+         * <tt>304 Not Modified</tt>, in which case there is no content.
+         *
+         * @return <tt>true</tt> if the requested content has not changed.
+         */
+        public boolean isNotModified()
+        {
+            return response != null
+                && response.getStatusLine().getStatusCode()
+                    == HttpStatus.SC_NOT_MODIFIED;
+        }
+
+        /**
+         * Returns the value of the first response header with the given name.
+         *
+         * @param name the name of the header.
+         * @return the value of the header or null if the response does not
+         * have it or is not known.
+         */
+        public String getHeader(String name)
+        {
+            if (response == null)
+                return null;
+
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
         /**
          * Tells the length of the content, if known.
          *
@@ -132,6 +132,14 @@
      */
     private History history = null;
 
+    /**
+     * The most recent conversation time of each contact by provider, as
+     * stored in the recent messages history. Loaded from the history on first
+     * use and kept up to date as records are saved, so that providers being
+     * added do not read the history again. Guarded by {@link #historyID}.
+     */
+    private Map<String, Map<String, Date>> recentContactIndex = null;
+
     /**
      * List of recent messages.
      */
@@ -273,37 +281,40 @@ public void updateRecentMessages()
     }
 
     /**
-     * Searches for entries in cached recent messages in history.
+     * Searches the message history for the messages of the contacts which
+     * have cached recent messages in history. Does not lock
+     * <tt>recentMessages</tt> while reading the history.
      *
      * @param provider the provider which contact messages we will search
-     * @param isStatusChanged is the search because of status changed
-     * @return entries in cached recent messages in history.
+     * @return the found messages, to be passed to
+     * {@link #processEventObjects(Collection, List, boolean)}.
      */
-    private List<ComparableEvtObj> getCachedRecentMessages(
-        ProtocolProviderService provider, boolean isStatusChanged)
+    private List<EventObject> findCachedRecentMessages(
+        ProtocolProviderService provider)
     {
         String providerID = provider.getAccountID().getAccountUniqueID();
-        List<String> recentMessagesContactIDs =
-            getRecentContactIDs(providerID,
-                recentMessages.size() < numberOfMessages
-                    ? null : oldestRecentMessage );
+        Date after;
+        synchronized(recentMessages)
+        {
+            after = recentMessages.size() < numberOfMessages
+                ? null : oldestRecentMessage;
+        }
 
-        List<ComparableEvtObj> cachedRecentMessages
-            = new ArrayList<ComparableEvtObj>();
+        List<String> recentMessagesContactIDs =
+            getRecentContactIDs(providerID, after);
 
+        List<EventObject> res = new ArrayList<EventObject>();
         for(String contactID : recentMessagesContactIDs)
         {
-            Collection<EventObject> res =
+            res.addAll(
                 messageHistoryService.findRecentMessagesPerContact(
                     numberOfMessages,
                     providerID,
                     contactID,
-                    isSMSEnabled);
-
-            processEventObjects(res, cachedRecentMessages, isStatusChanged);
+                    isSMSEnabled));
         }
 
-        return cachedRecentMessages;
+        return res;
     }
 
     /**
@@ -490,25 +501,33 @@ private void handleProviderAddedInSeparateThread(
         ProtocolProviderService provider, boolean isStatusChanged)
     {
         // lets check if we have cached recent messages for this provider, and
-        // fire events if found and are newer
+        // fire events if found and are newer. The history is read without
+        // holding recentMessages so that presence updates are not blocked.
+        List<EventObject> cachedRes = findCachedRecentMessages(provider);
+
+        Collection<EventObject> res = null;
+        if(cachedRes.isEmpty())
+        {
+            // maybe there is no cached history for this
+            // let's check
+            // load it not from cache, but do a local search
+            res = messageHistoryService
+                .findRecentMessagesPerContact(
+                    numberOfMessages,
+                    provider.getAccountID().getAccountUniqueID(),
+                    null,
+                    isSMSEnabled);
+        }
 
         synchronized(recentMessages)
         {
             List<ComparableEvtObj> cachedRecentMessages
-                = getCachedRecentMessages(provider, isStatusChanged);
+                = new ArrayList<ComparableEvtObj>();
+            processEventObjects(
+                cachedRes, cachedRecentMessages, isStatusChanged);
 
-            if(cachedRecentMessages.isEmpty())
+            if(res != null)
             {
-                // maybe there is no cached history for this
-                // let's check
-                // load it not from cache, but do a local search
-                Collection<EventObject> res = messageHistoryService
-                    .findRecentMessagesPerContact(
-                        numberOfMessages,
-                        provider.getAccountID().getAccountUniqueID(),
-                        null,
-                        isSMSEnabled);
-
                 List<ComparableEvtObj> newMsc
                     = new ArrayList<ComparableEvtObj>();
 
@@ -605,21 +624,33 @@ void handleProviderRemoved(ProtocolProviderService provider)
                     }
                 }
             }
+        }
 
-            // handleProviderRemoved can be invoked due to stopped
-            // history service, if this is the case we do not want to
-            // update messages
-            if(!this.messageHistoryService.isHistoryLoggingEnabled())
-                return;
+        // handleProviderRemoved can be invoked due to stopped
+        // history service, if this is the case we do not want to
+        // update messages
+        if(!this.messageHistoryService.isHistoryLoggingEnabled())
+            return;
 
-            // lets do the same as we enable provider
-            // for all registered providers and finally fire events
+        // lets do the same as we enable provider
+        // for all registered providers and finally fire events
+        List<List<EventObject>> cachedRes = new ArrayList<List<EventObject>>();
+        for (ProtocolProviderService pps
+                : messageHistoryService.getCurrentlyAvailableProviders())
+        {
+            cachedRes.add(findCachedRecentMessages(pps));
+        }
+
+        synchronized(recentMessages)
+        {
             List<ComparableEvtObj> contactsToAdd
                 = new ArrayList<ComparableEvtObj>();
-            for (ProtocolProviderService pps
-                    : messageHistoryService.getCurrentlyAvailableProviders())
+            for (List<EventObject> res : cachedRes)
             {
-                contactsToAdd.addAll(getCachedRecentMessages(pps, true));
+                List<ComparableEvtObj> cachedRecentMessages
+                    = new ArrayList<ComparableEvtObj>();
+                processEventObjects(res, cachedRecentMessages, true);
+                contactsToAdd.addAll(cachedRecentMessages);
             }
 
             addNewRecentMessages(contactsToAdd);
@@ -636,6 +667,40 @@ List<String> getRecentContactIDs(String provider, Date after)
     {
         List<String> res = new ArrayList<String>();
 
+        synchronized(historyID)
+        {
+            Map<String, Date> contacts = getRecentContactIndex().get(provider);
+            if(contacts == null)
+                return res;
+
+            for(Map.Entry<String, Date> e : contacts.entrySet())
+            {
+                Date timestamp = e.getValue();
+
+                if(after != null
+                    && timestamp != null
+                    && timestamp.before(after))
+                    continue;
+
+                res.add(e.getKey());
+            }
+        }
+
+        return res;
+    }
+
+    /**
+     * Returns the index of the recent messages history, reading the history
+     * the first time. Must be called with {@link #historyID} locked.
+     *
+     * @return the most recent conversation time of each contact by provider.
+     */
+    private Map<String, Map<String, Date>> getRecentContactIndex()
+    {
+        if(recentContactIndex != null)
+            return recentContactIndex;
+
+        recentContactIndex = new HashMap<String, Map<String, Date>>();
         try
         {
             History history = getHistory();
@@ -682,13 +747,7 @@ else if (propName.equals(STRUCTURE_NAMES[2]))
                     if(recordProvider == null || contact == null)
                         continue;
 
-                    if(after != null
-                        && timestamp != null
-                        && timestamp.before(after))
-                        continue;
-
-                    if(recordProvider.equals(provider))
-                        res.add(contact);
+                    indexRecentContact(recordProvider, contact, timestamp);
                 }
             }
         }
@@ -697,7 +756,60 @@ else if (propName.equals(STRUCTURE_NAMES[2]))
             logger.error("cannot create recent_messages history", ex);
         }
 
-        return res;
+        return recentContactIndex;
+    }
+
+    /**
+     * Records a conversation in the index of the recent messages history,
+     * keeping the newest time for each contact. Must be called with
+     * {@link #historyID} locked.
+     *
+     * @param provider the unique id of the account
+     * @param contact the address of the contact or chat room
+     * @param timestamp the time of the conversation, may be <tt>null</tt>
+     */
+    private void indexRecentContact(
+        String provider, String contact, Date timestamp)
+    {
+        Map<String, Date> contacts = recentContactIndex.get(provider);
+        if(contacts == null)
+        {
+            contacts = new LinkedHashMap<String, Date>();
+            recentContactIndex.put(provider, contacts);
+        }
+
+        Date old = contacts.get(contact);
+        if(old == null || (timestamp != null && timestamp.after(old)))
+            contacts.put(contact, timestamp);
+
+        // the history keeps only the last records, so does the index
+        int size = 0;
+        for(Map<String, Date> c : recentContactIndex.values())
+            size += c.size();
+
+        while(size > NUMBER_OF_MSGS_IN_HISTORY)
+        {
+            Map<String, Date> oldestContacts = null;
+            String oldestContact = null;
+            Date oldest = null;
+            for(Map<String, Date> c : recentContactIndex.values())
+            {
+                for(Map.Entry<String, Date> e : c.entrySet())
+                {
+                    if(oldestContact == null
+                        || e.getValue() == null
+                        || (oldest != null && e.getValue().before(oldest)))
+                    {
+                        oldestContacts = c;
+                        oldestContact = e.getKey();
+                        oldest = e.getValue();
+                    }
+                }
+            }
+
+            oldestContacts.remove(oldestContact);
+            size--;
+        }
     }
 
     /**
@@ -979,6 +1091,13 @@ private void saveRecentMessageToHistory(ComparableEvtObj msc)
                 History history = getHistory();
                 HistoryWriter writer = history.getWriter();
 
+                getRecentContactIndex();
+                indexRecentContact(
+                    msc.getProtocolProviderService()
+                        .getAccountID().getAccountUniqueID(),
+                    msc.getContactAddress(),
+                    msc.getTimestamp());
+
                 SimpleDateFormat sdf
                     = new SimpleDateFormat(HistoryService.DATE_FORMAT);
 
@@ -1015,6 +1134,13 @@ private void updateRecentMessageToHistory(final ComparableEvtObj msg)
 
                 HistoryWriter writer = history.getWriter();
 
+                getRecentContactIndex();
+                indexRecentContact(
+                    msg.getProtocolProviderService()
+                        .getAccountID().getAccountUniqueID(),
+                    msg.getContactAddress(),
+                    msg.getTimestamp());
+
                 writer.updateRecord(
                     new HistoryWriter.HistoryRecordUpdater()
                     {
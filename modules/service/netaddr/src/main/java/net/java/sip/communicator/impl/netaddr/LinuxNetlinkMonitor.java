@@ -0,0 +1,385 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import com.sun.jna.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Listens for rtnetlink link and address notifications on Linux and informs
+ * a callback as soon as the kernel reports a change, so that the network
+ * configuration can be re-examined without periodically polling all
+ * interfaces.
+ */
+public class LinuxNetlinkMonitor
+    implements Runnable
+{
+    /**
+     * Our class logger.
+     */
+    private static org.slf4j.Logger logger
+        = org.slf4j.LoggerFactory.getLogger(LinuxNetlinkMonitor.class);
+
+    /**
+     * JNA interface to LibC.
+     */
+    public interface LibC
+        extends Library
+    {
+        LibC INSTANCE = Native.load("c", LibC.class);
+
+        int AF_NETLINK = 16;
+        int SOCK_RAW = 3;
+        int NETLINK_ROUTE = 0;
+
+        int SOL_SOCKET = 1;
+        int SO_RCVTIMEO = 20;
+
+        int EAGAIN = 11;
+        int EINTR = 4;
+        int ENOBUFS = 105;
+
+        int MSG_DONTWAIT = 0x40;
+
+        // see the man pages for the mapped C functions
+        int socket(int domain, int type, int protocol);
+        int bind(int fd, sockaddr_nl addr, int len);
+        int setsockopt(int fd, int level, int name, timeval val, int len);
+        int recv(int fd, byte[] buf, int len, int flags);
+        int close(int fd);
+    }
+
+    /**
+     * JNA mapping of <tt>sockaddr_nl</tt>.
+     */
+    public final static class sockaddr_nl
+        extends Structure
+    {
+        public short nl_family;
+        public short nl_pad;
+        public int nl_pid;
+        public int nl_groups;
+
+        @Override
+        protected List<String> getFieldOrder()
+        {
+            return Arrays.asList("nl_family", "nl_pad", "nl_pid", "nl_groups");
+        }
+    }
+
+    /**
+     * JNA mapping of <tt>struct timeval</tt>.
+     */
+    public final static class timeval
+        extends Structure
+    {
+        public NativeLong tv_sec;
+        public NativeLong tv_usec;
+
+        @Override
+        protected List<String> getFieldOrder()
+        {
+            return Arrays.asList("tv_sec", "tv_usec");
+        }
+    }
+
+    /**
+     * Multicast group for link (interface) changes.
+     */
+    private static final int RTMGRP_LINK = 0x1;
+
+    /**
+     * Multicast group for IPv4 address changes.
+     */
+    private static final int RTMGRP_IPV4_IFADDR = 0x10;
+
+    /**
+     * Multicast group for IPv6 address changes.
+     */
+    private static final int RTMGRP_IPV6_IFADDR = 0x100;
+
+    /**
+     * rtnetlink message types we react on.
+     */
+    private static final int RTM_NEWLINK = 16;
+    private static final int RTM_DELLINK = 17;
+    private static final int RTM_NEWADDR = 20;
+    private static final int RTM_DELADDR = 21;
+
+    /**
+     * The size of the <tt>nlmsghdr</tt> structure.
+     */
+    private static final int NLMSG_HDRLEN = 16;
+
+    /**
+     * How long a single <tt>recv</tt> blocks before we check whether we were
+     * stopped, in milliseconds.
+     */
+    private static final int RECEIVE_TIMEOUT = 1000;
+
+    /**
+     * The kernel usually reports a single change as a burst of messages
+     * (link flags, several addresses). We wait this long, in milliseconds,
+     * for the burst to settle and report it once.
+     */
+    private static final int COALESCE_INTERVAL = 50;
+
+    /**
+     * The callback informed on every change.
+     */
+    private final Runnable changeCallback;
+
+    /**
+     * The callback informed when the receiving thread ends on an error, so
+     * that the caller can fall back to polling.
+     */
+    private final Runnable failureCallback;
+
+    /**
+     * The netlink socket descriptor, or -1 when not opened.
+     */
+    private int fd = -1;
+
+    /**
+     * Whether the receiving thread should keep running.
+     */
+    private volatile boolean isRunning = false;
+
+    /**
+     * Creates a monitor which will run <tt>changeCallback</tt> on its own
+     * thread each time the kernel reports a link or address change.
+     *
+     * @param changeCallback the callback to inform for changes.
+     * @param failureCallback the callback to inform when we can no longer
+     * receive notifications.
+     */
+    LinuxNetlinkMonitor(Runnable changeCallback, Runnable failureCallback)
+    {
+        this.changeCallback = changeCallback;
+        this.failureCallback = failureCallback;
+    }
+
+    /**
+     * Opens the netlink socket and starts the receiving thread.
+     *
+     * @return <tt>true</tt> if we are listening for notifications,
+     * <tt>false</tt> if netlink is not available and the caller has to fall
+     * back to polling.
+     */
+    synchronized boolean start()
+    {
+        if (isRunning)
+            return true;
+
+        try
+        {
+            fd = LibC.INSTANCE.socket(
+                LibC.AF_NETLINK, LibC.SOCK_RAW, LibC.NETLINK_ROUTE);
+            if (fd < 0)
+            {
+                logger.warn("Cannot open netlink socket, errno="
+                    + Native.getLastError());
+                return false;
+            }
+
+            sockaddr_nl addr = new sockaddr_nl();
+            addr.nl_family = LibC.AF_NETLINK;
+            addr.nl_groups
+                = RTMGRP_LINK | RTMGRP_IPV4_IFADDR | RTMGRP_IPV6_IFADDR;
+            addr.write();
+            if (LibC.INSTANCE.bind(fd, addr, addr.size()) < 0)
+            {
+                logger.warn("Cannot bind netlink socket, errno="
+                    + Native.getLastError());
+                closeSocket();
+                return false;
+            }
+
+            timeval timeout = new timeval();
+            timeout.tv_sec = new NativeLong(RECEIVE_TIMEOUT / 1000);
+            timeout.tv_usec = new NativeLong((RECEIVE_TIMEOUT % 1000) * 1000);
+            timeout.write();
+            if (LibC.INSTANCE.setsockopt(fd, LibC.SOL_SOCKET,
+                    LibC.SO_RCVTIMEO, timeout, timeout.size()) < 0)
+            {
+                logger.warn("Cannot set netlink receive timeout, errno="
+                    + Native.getLastError());
+                closeSocket();
+                return false;
+            }
+        }
+        catch (Throwable t)
+        {
+            // UnsatisfiedLinkError and friends, we are not on a usable libc
+            logger.warn("Netlink not available, will poll interfaces", t);
+            closeSocket();
+            return false;
+        }
+
+        isRunning = true;
+        Thread th = new Thread(this, "NetlinkMonitor");
+        th.setDaemon(true);
+        th.start();
+
+        if (logger.isInfoEnabled())
+            logger.info("Listening for rtnetlink network notifications");
+
+        return true;
+    }
+
+    /**
+     * Stops the receiving thread, it will close the socket on its way out.
+     */
+    void stop()
+    {
+        isRunning = false;
+    }
+
+    /**
+     * Receives netlink messages until stopped.
+     */
+    public void run()
+    {
+        byte[] buf = new byte[8192];
+        boolean failed = false;
+
+        try
+        {
+            while (isRunning)
+            {
+                int len = LibC.INSTANCE.recv(fd, buf, buf.length, 0);
+                if (len < 0)
+                {
+                    int errno = Native.getLastError();
+                    if (errno == LibC.EAGAIN || errno == LibC.EINTR)
+                        continue;
+
+                    if (errno != LibC.ENOBUFS)
+                    {
+                        logger.error("Error receiving from netlink socket, "
+                            + "errno=" + errno);
+                        failed = true;
+                        break;
+                    }
+
+                    // the socket overflowed during a burst and dropped
+                    // notifications, we don't know what changed so we
+                    // recheck everything
+                    logger.warn("Netlink notifications lost, rechecking "
+                        + "all interfaces");
+                }
+                else if (!isNetworkChange(buf, len))
+                    continue;
+
+                // let the burst settle and swallow the rest of it
+                try
+                {
+                    Thread.sleep(COALESCE_INTERVAL);
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                while (LibC.INSTANCE.recv(
+                        fd, buf, buf.length, LibC.MSG_DONTWAIT) > 0)
+                {
+                    // drained
+                }
+
+                if (!isRunning)
+                    break;
+
+                try
+                {
+                    changeCallback.run();
+                }
+                catch (Throwable t)
+                {
+                    logger.error("Error handling netlink notification", t);
+                }
+            }
+        }
+        catch (Throwable t)
+        {
+            logger.error("Netlink monitor failed", t);
+            failed = true;
+        }
+        finally
+        {
+            isRunning = false;
+            synchronized (this)
+            {
+                closeSocket();
+            }
+        }
+
+        if (failed)
+            failureCallback.run();
+    }
+
+    /**
+     * Checks whether the received datagram contains at least one complete
+     * link or address notification. Truncated messages are ignored.
+     *
+     * @param buf the received bytes.
+     * @param len the number of valid bytes in <tt>buf</tt>.
+     * @return whether the datagram notifies us for a network change.
+     */
+    static boolean isNetworkChange(byte[] buf, int len)
+    {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len)
+            .order(ByteOrder.nativeOrder());
+        int offset = 0;
+        while (offset + NLMSG_HDRLEN <= len)
+        {
+            int msgLen = bb.getInt(offset);
+            int msgType = bb.getShort(offset + 4) & 0xFFFF;
+
+            if (msgLen < NLMSG_HDRLEN || msgLen > len - offset)
+                break;
+
+            switch (msgType)
+            {
+                case RTM_NEWLINK:
+                case RTM_DELLINK:
+                case RTM_NEWADDR:
+                case RTM_DELADDR:
+                    return true;
+            }
+
+            // NLMSG_ALIGN
+            offset += (msgLen + 3) & ~3;
+        }
+
+        return false;
+    }
+
+    /**
+     * Closes the netlink socket if opened.
+     */
+    private void closeSocket()
+    {
+        if (fd >= 0)
+        {
+            LibC.INSTANCE.close(fd);
+            fd = -1;
+        }
+    }
+}
@@ -25,11 +25,16 @@
 import net.java.sip.communicator.service.sysactivity.event.*;
 
 import net.java.sip.communicator.util.osgi.ServiceUtils;
+import org.jitsi.util.OSUtils;
 import org.osgi.framework.*;
 
 /**
  * Periodically checks the current network interfaces to track changes
- * and fire events on those changes.
+ * and fire events on those changes. On Linux we subscribe for rtnetlink
+ * notifications instead and only check the interfaces when the kernel
+ * tells us something changed, polling stays as the fallback. The checking
+ * thread keeps running next to netlink, without looking at the interfaces,
+ * to detect resuming from standby.
  *
  * @author Damian Minkov
  */
@@ -54,6 +59,13 @@
      */
     private static final int CHECK_INTERVAL = 3000; // 3 sec.
 
+    /**
+     * Delay before firing interface up events detected through netlink.
+     * Address notifications arrive the moment the address is configured,
+     * so we only give the os a short time to update its dns configuration.
+     */
+    private static final int NETLINK_IFACE_UP_DELAY = 100;
+
     /**
      * Whether thread checking for network notifications is running.
      */
@@ -71,6 +83,12 @@
     private NetworkEventDispatcher eventDispatcher =
             new NetworkEventDispatcher();
 
+    /**
+     * The netlink listener used on Linux instead of the polling thread,
+     * <tt>null</tt> if not in use.
+     */
+    private volatile LinuxNetlinkMonitor netlinkMonitor = null;
+
     /**
      * Inits configuration watcher.
      */
@@ -188,8 +206,33 @@ private void handleNewSystemActivityNotificationsService(
             this.systemActivityNotificationsService
                 .addSystemActivityChangeListener(this);
         }
-        else
+        else if(netlinkMonitor == null)
         {
+            if(OSUtils.IS_LINUX)
+            {
+                LinuxNetlinkMonitor monitor
+                    = new LinuxNetlinkMonitor(
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                onNetlinkChange();
+                            }
+                        },
+                        new Runnable()
+                        {
+                            public void run()
+                            {
+                                onNetlinkFailure();
+                            }
+                        });
+
+                if(monitor.start())
+                    netlinkMonitor = monitor;
+            }
+
+            // also needed with netlink, sleep notifications are often
+            // missing on linux and we detect standby by the clock gap
             if(!isRunning)
             {
                 isRunning = true;
@@ -266,10 +309,48 @@ void stop()
             }
         }
 
+        if(netlinkMonitor != null)
+        {
+            netlinkMonitor.stop();
+            netlinkMonitor = null;
+        }
+
         if(eventDispatcher != null)
             eventDispatcher.stop();
     }
 
+    /**
+     * Called on the netlink thread when the kernel reports link or address
+     * changes. Rechecks the interfaces and fires the events right away.
+     */
+    private void onNetlinkChange()
+    {
+        try
+        {
+            checkNetworkInterfaces(true, 0, NETLINK_IFACE_UP_DELAY, true);
+        }
+        catch (SocketException e)
+        {
+            logger.error("Error checking network interfaces", e);
+        }
+    }
+
+    /**
+     * Called on the netlink thread when it can no longer receive
+     * notifications. Goes back to polling the interfaces.
+     */
+    private void onNetlinkFailure()
+    {
+        logger.warn("Netlink monitor stopped, polling interfaces instead");
+
+        synchronized(this)
+        {
+            netlinkMonitor = null;
+            // check right away instead of after the current interval
+            notifyAll();
+        }
+    }
+
     /**
      * This method gets called when a notification action for a particular event
      * type has been changed. We are interested in sleep and network
@@ -313,7 +394,7 @@ else if(event.getEventID() == SystemActivityEvent.EVENT_DNS_CHANGE)
     /**
      * Down all interfaces and fire events for it.
      */
-    private void downAllInterfaces()
+    private synchronized void downAllInterfaces()
     {
         Iterator<String> iter = activeInterfaces.keySet().iterator();
         while (iter.hasNext())
@@ -343,6 +424,34 @@ private void checkNetworkInterfaces(
             int waitBeforeFiringUpEvents,
             boolean printDebugInfo)
         throws SocketException
+    {
+        // if we haven't waited before, lets wait before firing interface up
+        // and give time to underlying os to configure fully the
+        // network interface (receive and store dns config)
+        checkNetworkInterfaces(
+            fireEvents,
+            waitBeforeFiringUpEvents,
+            waitBeforeFiringUpEvents == 0 ? 500 : waitBeforeFiringUpEvents,
+            printDebugInfo);
+    }
+
+    /**
+     * Checks current interfaces configuration against the last saved
+     * active interfaces.
+     * @param fireEvents whether we will fire events when we detect
+     * that interface is changed.
+     * @param waitBeforeFiringUpEvents milliseconds to wait before
+     * firing events for interfaces up.
+     * @param ifaceUpDelay milliseconds the dispatcher delays the interface
+     * up events.
+     * @param printDebugInfo whether to print debug info.
+     */
+    private synchronized void checkNetworkInterfaces(
+            boolean fireEvents,
+            int waitBeforeFiringUpEvents,
+            int ifaceUpDelay,
+            boolean printDebugInfo)
+        throws SocketException
     {
         Enumeration<NetworkInterface> e =
             NetworkInterface.getNetworkInterfaces();
@@ -516,18 +625,9 @@ private void checkNetworkInterfaces(
 
             if(fireEvents)
             {
-                // if we haven't waited before, lets wait here
-                // and give time to underlying os to configure fully the
-                // network interface (receive and store dns config)
-                int wait = waitBeforeFiringUpEvents;
-                if(wait == 0)
-                {
-                    wait = 500;
-                }
-
                 eventDispatcher.fireChangeEvent(
                         new ChangeEvent(entry.getKey(), ChangeEvent.IFACE_UP),
-                        wait);
+                        ifaceUpDelay);
             }
 
             activeInterfaces.put(entry.getKey(), entry.getValue());
@@ -541,6 +641,7 @@ public void run()
     {
         long last = 0;
         boolean isAfterStandby = false;
+        boolean recheckAfterStandby = false;
 
         while(isRunning)
         {
@@ -562,6 +663,10 @@ public void run()
                 // so we can calculate it again next time
                 isAfterStandby = false;
 
+                // netlink won't tell us about interfaces which kept their
+                // addresses over standby, bring them up again ourselves
+                recheckAfterStandby = true;
+
                 last = curr;
 
                 // give time to interfaces
@@ -580,7 +685,13 @@ public void run()
             {
                 boolean networkIsUP = activeInterfaces.size() > 0;
 
-                checkNetworkInterfaces(true, 1000, false);
+                // with netlink the kernel tells us about changes, we only
+                // look at the interfaces here after standby
+                if(netlinkMonitor == null || recheckAfterStandby)
+                {
+                    recheckAfterStandby = false;
+                    checkNetworkInterfaces(true, 1000, false);
+                }
 
                 // fire that network has gone up
                 if(!networkIsUP && activeInterfaces.size() > 0)
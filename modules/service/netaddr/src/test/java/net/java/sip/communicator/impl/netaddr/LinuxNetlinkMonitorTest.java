@@ -0,0 +1,131 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.netaddr;
+
+import static org.junit.Assert.*;
+
+import java.nio.*;
+
+import org.junit.*;
+
+/**
+ * Tests the parsing of the rtnetlink datagrams by
+ * {@link LinuxNetlinkMonitor#isNetworkChange(byte[], int)}.
+ */
+public class LinuxNetlinkMonitorTest
+{
+    private static final int NLMSG_DONE = 3;
+
+    private static final int RTM_NEWLINK = 16;
+
+    private static final int RTM_DELADDR = 21;
+
+    private static final int RTM_NEWROUTE = 24;
+
+    /**
+     * Builds a datagram of consecutive netlink messages, each made of a
+     * <tt>nlmsghdr</tt> followed by <tt>payload</tt> zero bytes and padded
+     * to four bytes.
+     *
+     * @param types the message types
+     * @param payload the payload length of each message
+     * @return the datagram
+     */
+    private static ByteBuffer datagram(int[] types, int payload)
+    {
+        int msgLen = 16 + payload;
+        int aligned = (msgLen + 3) & ~3;
+        ByteBuffer bb = ByteBuffer.allocate(aligned * types.length)
+            .order(ByteOrder.nativeOrder());
+
+        for (int i = 0; i < types.length; i++)
+        {
+            int offset = i * aligned;
+            bb.putInt(offset, msgLen);
+            bb.putShort(offset + 4, (short) types[i]);
+            bb.putShort(offset + 6, (short) 0);
+            bb.putInt(offset + 8, i);
+            bb.putInt(offset + 12, 0);
+        }
+        return bb;
+    }
+
+    @Test
+    public void testSingleChange()
+    {
+        byte[] buf = datagram(new int[] { RTM_NEWLINK }, 16).array();
+
+        assertTrue(LinuxNetlinkMonitor.isNetworkChange(buf, buf.length));
+    }
+
+    @Test
+    public void testUnrelatedMessages()
+    {
+        byte[] buf
+            = datagram(new int[] { RTM_NEWROUTE, NLMSG_DONE }, 8).array();
+
+        assertFalse(LinuxNetlinkMonitor.isNetworkChange(buf, buf.length));
+    }
+
+    @Test
+    public void testChangeAfterUnrelatedMessages()
+    {
+        // odd payload so the messages need alignment padding
+        byte[] buf = datagram(
+            new int[] { RTM_NEWROUTE, RTM_NEWROUTE, RTM_DELADDR }, 5).array();
+
+        assertTrue(LinuxNetlinkMonitor.isNetworkChange(buf, buf.length));
+    }
+
+    @Test
+    public void testTruncatedMessage()
+    {
+        byte[] buf = datagram(new int[] { RTM_NEWLINK }, 16).array();
+
+        // the header is there but not the whole message
+        assertFalse(LinuxNetlinkMonitor.isNetworkChange(buf, 20));
+        // not even a whole header
+        assertFalse(LinuxNetlinkMonitor.isNetworkChange(buf, 10));
+        assertFalse(LinuxNetlinkMonitor.isNetworkChange(buf, 0));
+    }
+
+    @Test
+    public void testTruncatedSecondMessage()
+    {
+        ByteBuffer bb = datagram(new int[] { RTM_NEWROUTE, RTM_NEWLINK }, 8);
+        byte[] buf = bb.array();
+
+        assertTrue(LinuxNetlinkMonitor.isNetworkChange(buf, buf.length));
+        assertFalse(
+            LinuxNetlinkMonitor.isNetworkChange(buf, buf.length - 4));
+    }
+
+    @Test
+    public void testInvalidLength()
+    {
+        ByteBuffer bb = datagram(new int[] { RTM_NEWROUTE, RTM_NEWLINK }, 8);
+        byte[] buf = bb.array();
+
+        // a length shorter than the header must not loop or go backwards
+        bb.putInt(0, 4);
+        assertFalse(LinuxNetlinkMonitor.isNetworkChange(buf, buf.length));
+
+        bb.putInt(0, -1);
+        assertFalse(LinuxNetlinkMonitor.isNetworkChange(buf, buf.length));
+    }
+}
@@ -19,6 +19,8 @@
 
 import java.beans.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import net.java.sip.communicator.service.protocol.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -172,6 +174,36 @@ public void peerStateChanged(CallPeerChangeEvent evt)
      */
     protected final ProtocolProviderServiceT parentProvider;
 
+    /**
+     * Counts the changes of the state of all telephony conferences. It is
+     * incremented every time the <tt>CallPeer</tt>s of a conference are to be
+     * notified, so that everything computed for one value describes the
+     * same state of the conference.
+     */
+    private static final AtomicLong conferenceStateGeneration
+        = new AtomicLong();
+
+    /**
+     * The executor which sends delayed conference-info documents for all
+     * protocols, instead of a sleeping thread per document.
+     */
+    private static ScheduledExecutorService conferenceInfoScheduler;
+
+    /**
+     * The descriptions of the remote <tt>CallPeer</tt>s which have been
+     * computed for the conference state {@link #peerDescriptionsGeneration}.
+     * They are the same in the documents sent to every <tt>CallPeer</tt>, so
+     * they are computed once per state and not once per recipient.
+     */
+    private final Map<CallPeer, PeerDescription> peerDescriptions
+        = new HashMap<CallPeer, PeerDescription>();
+
+    /**
+     * The conference state generation {@link #peerDescriptions} are valid
+     * for.
+     */
+    private long peerDescriptionsGeneration = -1;
+
     /**
      * Initializes a new <tt>AbstractOperationSetTelephonyConferencing</tt>
      * instance which is to provide telephony conferencing services for the
@@ -604,6 +636,8 @@ public CallPeer inviteCalleeToCall(String uri, Call call)
     @SuppressWarnings("rawtypes")
     protected void notifyAll(Call call)
     {
+        conferenceStateGeneration.incrementAndGet();
+
         CallConference conference = call.getConference();
 
         if (conference == null)
@@ -641,6 +675,53 @@ protected void notifyAll(Call call)
      */
     protected abstract void notifyCallPeers(Call call);
 
+    /**
+     * Gets the current generation of the conference state. A conference-info
+     * document built for a <tt>CallPeer</tt> while the generation did not
+     * change needs not be built again.
+     *
+     * @return the current generation of the conference state
+     */
+    protected static long getConferenceStateGeneration()
+    {
+        return conferenceStateGeneration.get();
+    }
+
+    /**
+     * Schedules a task sending a conference-info document after a delay, for
+     * instance to keep a minimum interval between the documents sent to a
+     * <tt>CallPeer</tt>.
+     *
+     * @param task the task to execute
+     * @param delay the delay in milliseconds
+     */
+    protected static void scheduleConferenceInfo(Runnable task, long delay)
+    {
+        ScheduledExecutorService scheduler;
+
+        synchronized (AbstractOperationSetTelephonyConferencing.class)
+        {
+            if (conferenceInfoScheduler == null)
+            {
+                conferenceInfoScheduler
+                    = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactory()
+                        {
+                            public Thread newThread(Runnable r)
+                            {
+                                Thread t
+                                    = new Thread(r, "ConferenceInfoScheduler");
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            }
+            scheduler = conferenceInfoScheduler;
+        }
+
+        scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Notifies this <tt>CallListener</tt> that a specific outgoing
      * <tt>Call</tt> has been created.
@@ -1042,17 +1123,16 @@ protected ConferenceInfoDocument getCurrentConferenceInfo(
                 1 /* the local peer/user */ + conferenceCallPeers.size());
 
         /* The local user */
-        addPeerToConferenceInfo(confInfo, callPeer, false);
+        describePeer(callPeer, false).addTo(confInfo);
 
         /* Remote users */
         for (CallPeer conferenceCallPeer : conferenceCallPeers)
         {
             if (conferenceCallPeer instanceof MediaAwareCallPeer<?,?,?>)
             {
-                addPeerToConferenceInfo(
-                        confInfo,
-                        (MediaAwareCallPeer<?,?,?>)conferenceCallPeer,
-                        true);
+                getRemotePeerDescription(
+                        (MediaAwareCallPeer<?,?,?>)conferenceCallPeer)
+                    .addTo(confInfo);
             }
         }
 
@@ -1060,34 +1140,60 @@ protected ConferenceInfoDocument getCurrentConferenceInfo(
     }
 
     /**
-     * Adds a <tt>user</tt> element to <tt>confInfo</tt> which describes
-     * <tt>callPeer</tt>, or the local peer if <tt>remote</tt> is <tt>false</tt>.
+     * Gets the description of a remote <tt>CallPeer</tt> for the current
+     * conference state, computing it only if it has not been computed for
+     * this state yet.
+     *
+     * @param callPeer the remote <tt>CallPeer</tt> to describe
+     * @return the description of <tt>callPeer</tt>
+     */
+    private PeerDescription getRemotePeerDescription(
+            MediaAwareCallPeer<?,?,?> callPeer)
+    {
+        long generation = conferenceStateGeneration.get();
+
+        synchronized (peerDescriptions)
+        {
+            if (peerDescriptionsGeneration != generation)
+            {
+                peerDescriptions.clear();
+                peerDescriptionsGeneration = generation;
+            }
+
+            PeerDescription description = peerDescriptions.get(callPeer);
+            if (description == null)
+            {
+                description = describePeer(callPeer, true);
+                peerDescriptions.put(callPeer, description);
+            }
+            return description;
+        }
+    }
+
+    /**
+     * Describes <tt>callPeer</tt>, or the local peer if <tt>remote</tt> is
+     * <tt>false</tt>, for a <tt>user</tt> element of a conference-info
+     * document.
      *
-     * @param confInfo the <tt>ConferenceInformationDocument</tt> to which to
-     * add a <tt>user</tt> element
      * @param callPeer the <tt>CallPeer</tt> which should be described
      * @param remote <tt>true</tt> to describe <tt>callPeer</tt>, or
      * <tt>false</tt> to describe the local peer.
+     * @return the description of the user
      */
-    private void addPeerToConferenceInfo(
-            ConferenceInfoDocument confInfo,
+    private PeerDescription describePeer(
             MediaAwareCallPeer<?,?,?> callPeer,
             boolean remote)
     {
-        String entity
-            = remote ? callPeer.getEntity() : getLocalEntity(callPeer);
-        ConferenceInfoDocument.User user = confInfo.addNewUser(entity);
+        PeerDescription description = new PeerDescription();
 
-        String displayName
+        description.entity
+            = remote ? callPeer.getEntity() : getLocalEntity(callPeer);
+        description.displayName
             = remote ? callPeer.getDisplayName() : getLocalDisplayName();
-        user.setDisplayText(displayName);
-
-        ConferenceInfoDocument.Endpoint endpoint = user.addNewEndpoint(entity);
-
-        endpoint.setStatus(
-            remote
+        description.status
+            = remote
                 ? getEndpointStatus(callPeer)
-                : ConferenceInfoDocument.EndpointStatusType.connected);
+                : ConferenceInfoDocument.EndpointStatusType.connected;
 
         CallPeerMediaHandler<?> mediaHandler
             = callPeer.getMediaHandler();
@@ -1152,16 +1258,61 @@ else if (mediaType == MediaType.VIDEO &&
 
                 if ((srcId != -1) || (direction != MediaDirection.INACTIVE))
                 {
-                    ConferenceInfoDocument.Media media
-                        = endpoint.addNewMedia(mediaType.toString());
-
-                    media.setType(mediaType.toString());
-                    if (srcId != -1)
-                        media.setSrcId(Long.toString(srcId));
-                    media.setStatus(direction.toString());
+                    description.mediaTypes.add(mediaType.toString());
+                    description.srcIds.add(srcId);
+                    description.directions.add(direction.toString());
                 }
             }
         }
+
+        return description;
+    }
+
+    /**
+     * The description of a <tt>CallPeer</tt> in a conference-info document,
+     * which can be added to any number of documents.
+     */
+    private static class PeerDescription
+    {
+        String entity;
+
+        String displayName;
+
+        ConferenceInfoDocument.EndpointStatusType status;
+
+        final List<String> mediaTypes = new ArrayList<String>(2);
+
+        final List<Long> srcIds = new ArrayList<Long>(2);
+
+        final List<String> directions = new ArrayList<String>(2);
+
+        /**
+         * Adds a <tt>user</tt> element to <tt>confInfo</tt> which describes
+         * the peer.
+         *
+         * @param confInfo the <tt>ConferenceInformationDocument</tt> to which
+         * to add a <tt>user</tt> element
+         */
+        void addTo(ConferenceInfoDocument confInfo)
+        {
+            ConferenceInfoDocument.User user = confInfo.addNewUser(entity);
+            user.setDisplayText(displayName);
+
+            ConferenceInfoDocument.Endpoint endpoint
+                = user.addNewEndpoint(entity);
+            endpoint.setStatus(status);
+
+            for (int i = 0; i < mediaTypes.size(); i++)
+            {
+                ConferenceInfoDocument.Media media
+                    = endpoint.addNewMedia(mediaTypes.get(i));
+
+                media.setType(mediaTypes.get(i));
+                if (srcIds.get(i) != -1)
+                    media.setSrcId(Long.toString(srcIds.get(i)));
+                media.setStatus(directions.get(i));
+            }
+        }
     }
 
     /**
@@ -146,6 +146,13 @@
      */
     private long lastConferenceInfoSentTimestamp = -1;
 
+    /**
+     * The generation of the conference state described by the last
+     * Conference Information (RFC4575) document sent to this
+     * <tt>CallPeer</tt>, or -1 if none has been sent yet.
+     */
+    private long lastConferenceInfoSentGeneration = -1;
+
     /**
      * The last Conference Information (RFC4575) document sent to us by this
      * <tt>CallPeer</tt>. This is always a document with state "full", which is
@@ -1055,6 +1062,28 @@ public void setLastConferenceInfoSentTimestamp(long newTimestamp)
         lastConferenceInfoSentTimestamp = newTimestamp;
     }
 
+    /**
+     * Gets the generation of the conference state described by the last
+     * <tt>ConferenceInfoDocument</tt> we sent to this <tt>CallPeer</tt>.
+     * @return the generation of the conference state described by the last
+     * <tt>ConferenceInfoDocument</tt> we sent to this <tt>CallPeer</tt>, or
+     * -1 if none has been sent yet.
+     */
+    public long getLastConferenceInfoSentGeneration()
+    {
+        return lastConferenceInfoSentGeneration;
+    }
+
+    /**
+     * Sets the generation of the conference state described by the last
+     * <tt>ConferenceInfoDocument</tt> we sent to this <tt>CallPeer</tt>.
+     * @param generation the generation to set
+     */
+    public void setLastConferenceInfoSentGeneration(long generation)
+    {
+        lastConferenceInfoSentGeneration = generation;
+    }
+
     /**
      * Gets the last <tt>ConferenceInfoDocument</tt> sent to us by this
      * <tt>CallPeer</tt>.
@@ -1105,8 +1134,8 @@ public int getLastConferenceInfoReceivedVersion()
 
     /**
      * Check whether a conference-info document is scheduled to be sent to
-     * this <tt>CallPeer</tt> (i.e. there is a thread which will eventually
-     * (after sleeping a certain amount of time) trigger a document to be sent)
+     * this <tt>CallPeer</tt> (i.e. there is a task which will eventually
+     * (after a certain amount of time) trigger a document to be sent)
      * @return <tt>true</tt> if there is a conference-info document  scheduled
      * to be sent to this <tt>CallPeer</tt> and <tt>false</tt> otherwise.
      */
@@ -128,6 +128,39 @@ protected void fireConferencePublishedEvent(
             listener.conferencePublished(evt);
     }
 
+    /**
+     * Delivers the given presence changes to <tt>listeners</tt>:
+     * <tt>ChatRoomMemberPresenceBatchListener</tt>s receive them all at once,
+     * the others one event at a time.
+     *
+     * @param listeners the listeners to notify.
+     * @param evts the events to deliver, in the order they occurred.
+     */
+    protected static void fireMemberPresenceEvents(
+            Iterable<ChatRoomMemberPresenceListener> listeners,
+            List<ChatRoomMemberPresenceChangeEvent> evts)
+    {
+        if (evts.isEmpty())
+            return;
+
+        List<ChatRoomMemberPresenceChangeEvent> unmodifiableEvts
+            = Collections.unmodifiableList(evts);
+
+        for (ChatRoomMemberPresenceListener listener : listeners)
+        {
+            if (listener instanceof ChatRoomMemberPresenceBatchListener)
+            {
+                ((ChatRoomMemberPresenceBatchListener) listener)
+                    .membersPresenceChanged(unmodifiableEvts);
+            }
+            else
+            {
+                for (ChatRoomMemberPresenceChangeEvent evt : evts)
+                    listener.memberPresenceChanged(evt);
+            }
+        }
+    }
+
     /**
      * Processes the <tt>ConferenceDescription</tt> instance and adds/removes
      * it to the list of conferences.
@@ -49,6 +49,27 @@
 
     private int status;
 
+    /**
+     * The weight of the most recent sample in the moving average of the
+     * transfer rate.
+     */
+    private static final double RATE_SMOOTHING = 0.3;
+
+    /**
+     * The smoothed transfer rate in bytes per second, -1 until known.
+     */
+    private double bytesPerSecond = -1;
+
+    /**
+     * The timestamp of the last progress sample, -1 if none yet.
+     */
+    private long lastProgressTimestamp = -1;
+
+    /**
+     * The progress of the last progress sample.
+     */
+    private long lastProgress;
+
     /**
      * Cancels this file transfer. When this method is called transfer should
      * be interrupted.
@@ -193,6 +214,8 @@ public void fireStatusChangeEvent(int newStatus, String reason)
      */
     public void fireProgressChangeEvent(long timestamp, long progress)
     {
+        updateRate(timestamp, progress);
+
         Collection<FileTransferProgressListener> listeners = null;
         synchronized (progressListeners)
         {
@@ -213,4 +236,60 @@ public void fireProgressChangeEvent(long timestamp, long progress)
             statusListener.progressChanged(progressEvent);
         }
     }
+
+    /**
+     * Updates the moving average of the transfer rate with a new sample.
+     *
+     * @param timestamp the time of the sample
+     * @param progress the transferred bytes at <tt>timestamp</tt>
+     */
+    private synchronized void updateRate(long timestamp, long progress)
+    {
+        if (lastProgressTimestamp >= 0 && timestamp > lastProgressTimestamp)
+        {
+            double rate = (progress - lastProgress) * 1000d
+                / (timestamp - lastProgressTimestamp);
+
+            if (rate >= 0)
+            {
+                bytesPerSecond = bytesPerSecond < 0
+                    ? rate
+                    : RATE_SMOOTHING * rate
+                        + (1 - RATE_SMOOTHING) * bytesPerSecond;
+            }
+        }
+
+        if (timestamp != lastProgressTimestamp)
+        {
+            lastProgressTimestamp = timestamp;
+            lastProgress = progress;
+        }
+    }
+
+    /**
+     * Returns the average transfer rate over the last progress updates.
+     *
+     * @return the transfer rate in bytes per second, or -1 if not known yet
+     */
+    public synchronized long getTransferRate()
+    {
+        return (long) bytesPerSecond;
+    }
+
+    /**
+     * Returns the estimated time needed to transfer the rest of the file at
+     * the current transfer rate.
+     *
+     * @param fileSize the size of the whole file in bytes
+     * @return the estimated remaining time in milliseconds, or -1 if it
+     * cannot be estimated
+     */
+    public synchronized long getEstimatedTimeLeft(long fileSize)
+    {
+        if (bytesPerSecond <= 0 || fileSize <= 0)
+            return -1;
+
+        long left = Math.max(0, fileSize - lastProgress);
+        return (long) (left * 1000 / bytesPerSecond);
+    }
 }
@@ -18,6 +18,7 @@
 package net.java.sip.communicator.service.protocol;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import net.java.sip.communicator.service.credentialsstorage.*;
 import net.java.sip.communicator.service.protocol.event.*;
@@ -30,6 +31,13 @@
 /**
  * Represents an implementation of <tt>AccountManager</tt> which loads the
  * accounts in a separate thread.
+ * <p>
+ * The stored accounts of different <tt>ProtocolProviderFactory</tt> services
+ * are loaded concurrently on a small pool of threads, while the accounts of a
+ * single factory are loaded one after another in their stored order. The
+ * <tt>STORED_ACCOUNTS_LOADED</tt> events are fired in the order the factories
+ * were registered.
+ * </p>
  *
  * @author Lyubomir Marinov
  * @author Yana Stamcheva
@@ -37,12 +45,19 @@
 public class AccountManager
 {
     /**
-     * The delay in milliseconds the background <tt>Thread</tt> loading the
-     * stored accounts should wait before dying so that it doesn't get recreated
-     * for each <tt>ProtocolProviderFactory</tt> registration.
+     * The delay in milliseconds the background <tt>Thread</tt>s loading the
+     * stored accounts should wait before dying so that they don't get
+     * recreated for each <tt>ProtocolProviderFactory</tt> registration.
      */
     private static final long LOAD_STORED_ACCOUNTS_TIMEOUT = 30000;
 
+    /**
+     * The maximum number of <tt>ProtocolProviderFactory</tt> services which
+     * have their stored accounts loaded at the same time.
+     */
+    private static final int LOAD_STORED_ACCOUNTS_THREADS
+        = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     /**
      * The <tt>BundleContext</tt> this service is registered in.
      */
@@ -56,18 +71,30 @@
         new LinkedList<AccountManagerListener>();
 
     /**
-     * The queue of <tt>ProtocolProviderFactory</tt> services awaiting their
-     * stored accounts to be loaded.
+     * The object synchronizing the access to
+     * {@link #loadStoredAccountsExecutor},
+     * {@link #lastLoadStoredAccounts} and
+     * {@link #pendingLoadStoredAccounts}.
+     */
+    private final Object loadStoredAccountsSyncRoot = new Object();
+
+    /**
+     * The executor loading the stored accounts of the
+     * <tt>ProtocolProviderFactory</tt> services.
+     */
+    private ThreadPoolExecutor loadStoredAccountsExecutor;
+
+    /**
+     * The loading of the stored accounts of the last queued
+     * <tt>ProtocolProviderFactory</tt>.
      */
-    private final Queue<ProtocolProviderFactory> loadStoredAccountsQueue =
-        new LinkedList<ProtocolProviderFactory>();
+    private Future<?> lastLoadStoredAccounts;
 
     /**
-     * The <tt>Thread</tt> loading the stored accounts of the
-     * <tt>ProtocolProviderFactory</tt> services waiting in
-     * {@link #loadStoredAccountsQueue}.
+     * The number of <tt>ProtocolProviderFactory</tt> services which are
+     * queued or having their stored accounts loaded.
      */
-    private Thread loadStoredAccountsThread;
+    private int pendingLoadStoredAccounts = 0;
 
     /**
      * The <tt>Logger</tt> used by this <tt>AccountManagerImpl</tt> instance for
@@ -139,36 +166,59 @@ private void doLoadStoredAccounts(ProtocolProviderFactory factory)
             logger.debug("Discovered " + accounts.size() + " stored "
                     + factoryPackage + " accounts");
 
-        for (Iterator<String> storedAccountIter = accounts.iterator();
-                storedAccountIter.hasNext();)
+        // the property names of each account, in the stored order
+        Map<String, List<String>> accountPropertyNames
+            = new LinkedHashMap<String, List<String>>();
+        for (String storedAccount : accounts)
         {
-            String storedAccount = storedAccountIter.next();
-
             // If the property is not related to an account we skip it.
             int dotIndex = storedAccount.lastIndexOf(".");
-            if (!storedAccount.substring(dotIndex + 1)
+            if (storedAccount.substring(dotIndex + 1)
                     .startsWith(ACCOUNT_UID_PREFIX))
+            {
+                accountPropertyNames.put(
+                    storedAccount,
+                    new ArrayList<String>());
+            }
+        }
+
+        if (accountPropertyNames.isEmpty())
+            return;
+
+        // list the properties of all accounts at once and slice them
+        for (String property
+                : configService.getPropertyNamesByPrefix(factoryPackage, false))
+        {
+            int accountEnd = property.indexOf('.', factoryPackage.length() + 1);
+            if (accountEnd == -1)
                 continue;
 
+            List<String> storedAccountProperties
+                = accountPropertyNames.get(property.substring(0, accountEnd));
+            if (storedAccountProperties != null)
+                storedAccountProperties.add(property);
+        }
+
+        CredentialsStorageService credentialsStorage
+            = ServiceUtils.getService(
+                    bundleContext,
+                    CredentialsStorageService.class);
+
+        for (Map.Entry<String, List<String>> e
+                : accountPropertyNames.entrySet())
+        {
+            String storedAccount = e.getKey();
+
             if (logger.isDebugEnabled())
                 logger.debug("Loading account " + storedAccount);
 
-            List<String> storedAccountProperties =
-                configService.getPropertyNamesByPrefix(storedAccount, false);
             Map<String, String> accountProperties =
                 new Hashtable<String, String>();
             boolean disabled = false;
-            CredentialsStorageService credentialsStorage
-                = ServiceUtils.getService(
-                        bundleContext,
-                        CredentialsStorageService.class);
 
             int prefLen = storedAccount.length() + 1;
-            for (Iterator<String> storedAccountPropertyIter
-                        = storedAccountProperties.iterator();
-                    storedAccountPropertyIter.hasNext();)
+            for (String property : e.getValue())
             {
-                String property = storedAccountPropertyIter.next();
                 String value = configService.getString(property);
 
                 //strip the package prefix
@@ -453,16 +503,76 @@ public AccountID findAccountID(String uid)
      * Loads the accounts stored for a specific
      * <tt>ProtocolProviderFactory</tt> and notifies the registered
      * {@link #listeners} that the stored accounts of the specified
-     * <tt>factory</tt> have just been loaded
+     * <tt>factory</tt> have just been loaded, once the listeners have been
+     * notified for the previously queued factory
      *
      * @param factory the <tt>ProtocolProviderFactory</tt> to load the
      *            stored accounts of
+     * @param previous the loading of the previously queued factory or
+     *            <tt>null</tt>
      */
-    private void loadStoredAccounts(ProtocolProviderFactory factory)
+    private void loadStoredAccounts(
+        ProtocolProviderFactory factory,
+        Future<?> previous)
     {
-        doLoadStoredAccounts(factory);
+        try
+        {
+            try
+            {
+                doLoadStoredAccounts(factory);
+            }
+            catch (Exception ex)
+            {
+                /*
+                 * Swallow the exception in order to prevent a single
+                 * factory from halting the loading of subsequent
+                 * factories.
+                 */
+                logger.error("Failed to load accounts for " + factory, ex);
+            }
 
-        fireStoredAccountsLoaded(factory);
+            // fire the events in the order the factories were queued
+            if (previous != null)
+            {
+                try
+                {
+                    previous.get();
+                }
+                catch (InterruptedException ex)
+                {
+                    logger.warn(
+                        "The loading of the stored accounts has been"
+                            + " interrupted",
+                        ex);
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException ex)
+                {
+                    // already logged by the previous factory
+                }
+            }
+
+            try
+            {
+                fireStoredAccountsLoaded(factory);
+            }
+            catch (Exception ex)
+            {
+                logger.error("Failed to load accounts for " + factory, ex);
+            }
+        }
+        finally
+        {
+            synchronized (loadStoredAccountsSyncRoot)
+            {
+                pendingLoadStoredAccounts--;
+                if (pendingLoadStoredAccounts <= 0)
+                {
+                    lastLoadStoredAccounts = null;
+                    loadStoredAccountsSyncRoot.notifyAll();
+                }
+            }
+        }
     }
 
     /**
@@ -487,28 +597,48 @@ private void protocolProviderFactoryRegistered(
      * @param factory the <tt>ProtocolProviderFactory</tt> to be queued for
      *            loading its stored accounts as soon as possible
      */
-    private void queueLoadStoredAccounts(ProtocolProviderFactory factory)
+    private void queueLoadStoredAccounts(final ProtocolProviderFactory factory)
     {
-        synchronized (loadStoredAccountsQueue)
+        synchronized (loadStoredAccountsSyncRoot)
         {
-            loadStoredAccountsQueue.add(factory);
-            loadStoredAccountsQueue.notifyAll();
-
-            if (loadStoredAccountsThread == null)
+            if (loadStoredAccountsExecutor == null)
             {
-                loadStoredAccountsThread = new Thread()
+                loadStoredAccountsExecutor
+                    = new ThreadPoolExecutor(
+                            LOAD_STORED_ACCOUNTS_THREADS,
+                            LOAD_STORED_ACCOUNTS_THREADS,
+                            LOAD_STORED_ACCOUNTS_TIMEOUT,
+                            TimeUnit.MILLISECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory()
+                            {
+                                public Thread newThread(Runnable r)
+                                {
+                                    Thread t = new Thread(r);
+                                    t.setDaemon(true);
+                                    t.setName(
+                                        "AccountManager.loadStoredAccounts");
+                                    return t;
+                                }
+                            });
+                loadStoredAccountsExecutor.allowCoreThreadTimeOut(true);
+            }
+
+            /*
+             * The tasks start in the order they are submitted, so a task
+             * waiting for the previous one never waits for a task which has
+             * not been started yet.
+             */
+            final Future<?> previous = lastLoadStoredAccounts;
+            pendingLoadStoredAccounts++;
+            lastLoadStoredAccounts
+                = loadStoredAccountsExecutor.submit(new Runnable()
                 {
-                    @Override
                     public void run()
                     {
-                        runInLoadStoredAccountsThread();
+                        loadStoredAccounts(factory, previous);
                     }
-                };
-                loadStoredAccountsThread.setDaemon(true);
-                loadStoredAccountsThread.setName(
-                        "AccountManager.loadStoredAccounts");
-                loadStoredAccountsThread.start();
-            }
+                });
         }
     }
 
@@ -524,91 +654,6 @@ public void removeListener(AccountManagerListener listener)
         }
     }
 
-    /**
-     * Running in {@link #loadStoredAccountsThread}, loads the stored accounts
-     * of the <tt>ProtocolProviderFactory</tt> services waiting in
-     * {@link #loadStoredAccountsQueue}
-     */
-    private void runInLoadStoredAccountsThread()
-    {
-        boolean interrupted = false;
-        while (!interrupted)
-        {
-            try
-            {
-                ProtocolProviderFactory factory;
-
-                synchronized (loadStoredAccountsQueue)
-                {
-                    factory = loadStoredAccountsQueue.poll();
-                    if (factory == null)
-                    {
-                        /*
-                         * Technically, we should be handing spurious wakeups.
-                         * However, we cannot check the condition in a queue.
-                         * Anyway, we just want to keep this Thread alive long
-                         * enough to allow it to not be re-created multiple
-                         * times and not handing a spurious wakeup will just
-                         * cause such an inconvenience.
-                         */
-                        try
-                        {
-                            loadStoredAccountsQueue
-                                .wait(LOAD_STORED_ACCOUNTS_TIMEOUT);
-                        }
-                        catch (InterruptedException ex)
-                        {
-                            logger
-                                .warn(
-                                    "The loading of the stored accounts has"
-                                        + " been interrupted",
-                                    ex);
-                            interrupted = true;
-                            break;
-                        }
-                        factory = loadStoredAccountsQueue.poll();
-                    }
-                    if (factory != null)
-                        loadStoredAccountsQueue.notifyAll();
-                }
-
-                if (factory != null)
-                {
-                    try
-                    {
-                        loadStoredAccounts(factory);
-                    }
-                    catch (Exception ex)
-                    {
-
-                        /*
-                         * Swallow the exception in order to prevent a single
-                         * factory from halting the loading of subsequent
-                         * factories.
-                         */
-                        logger.error("Failed to load accounts for " + factory,
-                            ex);
-                    }
-                }
-            }
-            finally
-            {
-                synchronized (loadStoredAccountsQueue)
-                {
-                    if (!interrupted && (loadStoredAccountsQueue.size() <= 0))
-                    {
-                        if (loadStoredAccountsThread == Thread.currentThread())
-                        {
-                            loadStoredAccountsThread = null;
-                            loadStoredAccountsQueue.notifyAll();
-                        }
-                        break;
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * Notifies this manager that an OSGi service has changed. The current
      * implementation tracks the registrations of
@@ -903,19 +948,20 @@ public boolean removeStoredAccount(ProtocolProviderFactory factory,
      */
     public void removeStoredAccounts()
     {
-        synchronized (loadStoredAccountsQueue)
+        synchronized (loadStoredAccountsSyncRoot)
         {
             /*
-             * Wait for the Thread which loads the stored account to complete so
-             * that we can be sure later on that it will not load a stored
+             * Wait for the Threads which load the stored accounts to complete
+             * so that we can be sure later on that they will not load a stored
              * account while we are deleting it or another one for that matter.
              */
             boolean interrupted = false;
 
-            while (loadStoredAccountsThread != null)
+            while (pendingLoadStoredAccounts > 0)
                 try
                 {
-                    loadStoredAccountsQueue.wait(LOAD_STORED_ACCOUNTS_TIMEOUT);
+                    loadStoredAccountsSyncRoot.wait(
+                        LOAD_STORED_ACCOUNTS_TIMEOUT);
                 }
                 catch (InterruptedException ie)
                 {
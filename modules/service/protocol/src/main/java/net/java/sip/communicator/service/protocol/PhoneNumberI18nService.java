@@ -17,6 +17,8 @@
  */
 package net.java.sip.communicator.service.protocol;
 
+import java.util.*;
+
 /**
  * Implements <tt>PhoneNumberI18nService</tt> which aids the parsing, formatting
  * and validating of international phone numbers.
@@ -62,6 +64,29 @@
      */
     public boolean phoneNumbersMatch(String aPhoneNumber, String bPhoneNumber);
 
+    /**
+     * Returns a key for the given phone number which is equal to the key of
+     * the other writings of the same number, so that phone numbers can be
+     * matched through hash lookups instead of comparing them one by one.
+     * Numbers with the same key match according to
+     * {@link #phoneNumbersMatch(String, String)}, which may also match
+     * numbers with different keys, such as shortened numbers.
+     *
+     * @param phoneNumber the phone number to get the key for.
+     * @return the key to match <tt>phoneNumber</tt> with or <tt>null</tt> if
+     * it cannot be parsed as a phone number.
+     */
+    public String getMatchKey(String phoneNumber);
+
+    /**
+     * Returns the match keys of many phone numbers at once.
+     *
+     * @param phoneNumbers the phone numbers to get the keys for.
+     * @return the keys by phone number.
+     * @see #getMatchKey(String)
+     */
+    public Map<String, String> getMatchKeys(Collection<String> phoneNumbers);
+
     /**
      * Indicates if the given string is possibly a phone number.
      *
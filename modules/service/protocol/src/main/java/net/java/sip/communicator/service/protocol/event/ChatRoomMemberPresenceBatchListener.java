@@ -0,0 +1,43 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Copyright @ 2015 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.service.protocol.event;
+
+import java.util.*;
+
+/**
+ * A <tt>ChatRoomMemberPresenceListener</tt> which can process several
+ * presence changes at once. Chat rooms deliver the presence changes they
+ * learn about together, like the list of occupants sent when joining a room
+ * or all members leaving with the local user, through
+ * {@link #membersPresenceChanged(List)} instead of one
+ * {@link #memberPresenceChanged(ChatRoomMemberPresenceChangeEvent)} call per
+ * member. Single changes are still delivered through the latter.
+ */
+public interface ChatRoomMemberPresenceBatchListener
+    extends ChatRoomMemberPresenceListener
+{
+    /**
+     * Called to notify interested parties that the presence of several
+     * members of a particular chat room has changed.
+     *
+     * @param evts the <tt>ChatRoomMemberPresenceChangeEvent</tt>s in the
+     * order the changes occurred
+     */
+    public void membersPresenceChanged(
+        List<ChatRoomMemberPresenceChangeEvent> evts);
+}
@@ -65,6 +65,13 @@
      */
     public static final String OPT_CLIST_PASSWORD = "OPT_CLIST_PASSWORD";
 
+    /**
+     * The name of the property under which the user may specify the URI of
+     * the resource list (RFC 4662) through which the presence of all the
+     * contacts is to be subscribed to.
+     */
+    public static final String RESOURCE_LIST_URI = "RESOURCE_LIST_URI";
+
     /**
      * Default properties prefix used in jitsi-defaults.properties file
      * for SIP protocol.
@@ -104,12 +104,66 @@
     private static final String PROVISIONING_ENFORCE_PREFIX_PROP
         = "provisioning.ENFORCE_PREFIX";
 
+    /**
+     * Name of the property that contains the entity tag of the last applied
+     * provisioning file.
+     */
+    private static final String PROVISIONING_ETAG_PROP
+        = "net.java.sip.communicator.plugin.provisioning.ETAG";
+
+    /**
+     * Name of the property that contains the last modification date of the
+     * last applied provisioning file.
+     */
+    private static final String PROVISIONING_LAST_MODIFIED_PROP
+        = "net.java.sip.communicator.plugin.provisioning.LAST_MODIFIED";
+
+    /**
+     * Name of the property that contains the resolved URL and the user the
+     * last applied provisioning file was retrieved for. The entity tag and
+     * modification date are only sent when requesting the same file again.
+     */
+    private static final String PROVISIONING_VALIDATORS_SOURCE_PROP
+        = "net.java.sip.communicator.plugin.provisioning.VALIDATORS_SOURCE";
+
+    /**
+     * Prefix of the properties that keep the system properties set by the
+     * last applied provisioning file. System properties do not survive a
+     * restart, they are set again from these when the file is not modified.
+     */
+    private static final String PROVISIONING_SYSTEM_PROP_PREFIX
+        = "net.java.sip.communicator.plugin.provisioning.SYSTEM_PROPERTY.";
 
     /**
      * List of allowed configuration prefixes.
      */
     private final List<String> allowedPrefixes = new ArrayList<>();
 
+    /**
+     * The entity tag of the retrieved provisioning file, stored along with
+     * its properties once they are applied.
+     */
+    private String retrievedETag;
+
+    /**
+     * The last modification date of the retrieved provisioning file, stored
+     * along with its properties once they are applied.
+     */
+    private String retrievedLastModified;
+
+    /**
+     * The resolved URL and user the provisioning file was retrieved for,
+     * stored along with its properties once they are applied.
+     */
+    private String retrievedSource;
+
+    /**
+     * The system properties set from the provisioning file being applied,
+     * stored along with its other properties.
+     */
+    private final Map<String, String> appliedSystemProperties
+        = new LinkedHashMap<>();
+
     /**
      * Prefix that can be used to indicate a property that will be
      * set as a system property.
@@ -423,6 +477,7 @@ private InputStream retrieveConfigurationFile(String url)
                 }
             }
 
+            String resolvedUrl = url;
             if(url.contains("?"))
             {
                 /* do not handle URL of type http://domain/index.php? (no
@@ -488,6 +543,25 @@ else if (value.contains(passwordParam))
                 }
             }
 
+            // ask only for a changed file if we have applied one from the
+            // same URL for the same user before
+            ConfigurationService config
+                = ProvisioningActivator.getConfigurationService();
+            String source = resolvedUrl + " "
+                + config.getString(PROPERTY_PROVISIONING_USERNAME, "");
+            Map<String, String> headers = new HashMap<>();
+            if(source.equals(
+                config.getString(PROVISIONING_VALIDATORS_SOURCE_PROP)))
+            {
+                String eTag = config.getString(PROVISIONING_ETAG_PROP);
+                if(eTag != null)
+                    headers.put("If-None-Match", eTag);
+                String lastModified
+                    = config.getString(PROVISIONING_LAST_MODIFIED_PROP);
+                if(lastModified != null)
+                    headers.put("If-Modified-Since", lastModified);
+            }
+
             HttpUtils.HTTPResponseResult res = null;
             Throwable errorWhileProvisioning = null;
             try
@@ -499,7 +573,8 @@ else if (value.contains(passwordParam))
                         PROPERTY_PROVISIONING_PASSWORD,
                         paramNames,
                         usernameIx,
-                        passwordIx);
+                        passwordIx,
+                        headers);
             }
             catch(Throwable t)
             {
@@ -563,6 +638,19 @@ else if (value.contains(passwordParam))
                 return null;
             }
 
+            if(res.isNotModified())
+            {
+                if(logger.isInfoEnabled())
+                    logger.info("Provisioning file not modified since it "
+                        + "was last applied");
+                applyStoredSystemProperties();
+                return null;
+            }
+
+            retrievedETag = res.getHeader("ETag");
+            retrievedLastModified = res.getHeader("Last-Modified");
+            retrievedSource = source;
+
             // Chain a ProgressMonitorInputStream to the
             // URLConnection's InputStream
             ProgressMonitorInputStream pin =
@@ -583,17 +671,24 @@ else if (value.contains(passwordParam))
 
     /**
      * Update configuration with properties retrieved from provisioning URL.
+     * The changed properties are collected first and then set in a single
+     * call to the configuration service, which only writes and notifies the
+     * ones whose value differs from the current configuration.
      *
      * @param data Provisioning data
      */
     private void updateConfiguration(final InputStream data)
     {
         Properties fileProps = new OrderedProperties();
+        ConfigurationService config
+            = ProvisioningActivator.getConfigurationService();
 
         try (InputStream in = new BufferedInputStream(data))
         {
             fileProps.load(in);
 
+            Map<String, Object> changes = new LinkedHashMap<>();
+            appliedSystemProperties.clear();
             for (Map.Entry<Object, Object> entry : fileProps.entrySet())
             {
                 String key = (String) entry.getKey();
@@ -613,7 +708,7 @@ private void updateConfiguration(final InputStream data)
                 }
                 else if (key.equals(PROVISIONING_ENFORCE_PREFIX_PROP))
                 {
-                    checkEnforcePrefix((String) value);
+                    checkEnforcePrefix((String) value, changes);
                     continue;
                 }
 
@@ -623,16 +718,34 @@ else if (key.equals(PROVISIONING_ENFORCE_PREFIX_PROP))
                     continue;
                 }
 
-                processProperty(key, value);
+                processProperty(key, value, changes);
             }
 
+            /* remember what we applied to skip it the next time, along with
+             * the system properties to set again then */
+            for (String name : config.getPropertyNamesByPrefix(
+                    PROVISIONING_SYSTEM_PROP_PREFIX, false))
+            {
+                changes.put(name, null);
+            }
+            for (Map.Entry<String, String> e
+                    : appliedSystemProperties.entrySet())
+            {
+                changes.put(
+                    PROVISIONING_SYSTEM_PROP_PREFIX + e.getKey(),
+                    e.getValue());
+            }
+            changes.put(PROVISIONING_ETAG_PROP, retrievedETag);
+            changes.put(PROVISIONING_LAST_MODIFIED_PROP, retrievedLastModified);
+            changes.put(PROVISIONING_VALIDATORS_SOURCE_PROP, retrievedSource);
+
+            config.setProperties(changes);
+
             try
             {
                 /* save and reload the "new" configuration */
-                ProvisioningActivator.getConfigurationService().
-                    storeConfiguration();
-                ProvisioningActivator.getConfigurationService().
-                    reloadConfiguration();
+                config.storeConfiguration();
+                config.reloadConfiguration();
             }
             catch (Exception e)
             {
@@ -681,12 +794,20 @@ private boolean isPrefixAllowed(String key)
      *
      * @param key property key name
      * @param value property value
+     * @param changes the configuration changes to add the property to, mapping
+     * removed properties to <tt>null</tt>
      */
-    private void processProperty(String key, Object value)
+    private void processProperty(String key, Object value,
+        Map<String, Object> changes)
     {
         if((value instanceof String) && value.equals("${null}"))
         {
-            ProvisioningActivator.getConfigurationService().removeProperty(key);
+            for (String child : ProvisioningActivator.getConfigurationService()
+                    .getPropertyNamesByPrefix(key, false))
+            {
+                changes.put(child, null);
+            }
+            changes.put(key, null);
         }
         else if(key.endsWith(".PASSWORD"))
         {
@@ -705,24 +826,50 @@ else if(key.startsWith(SYSTEM_PROP_PREFIX))
             String sysKey = key.substring(SYSTEM_PROP_PREFIX.length());
 
             System.setProperty(sysKey, (String)value);
+            appliedSystemProperties.put(sysKey, (String)value);
         }
         else
         {
-            ProvisioningActivator.getConfigurationService().setProperty(key,
-                value);
+            changes.put(key, value);
         }
 
         if(logger.isInfoEnabled())
             logger.info(key + "=" + value);
     }
 
+    /**
+     * Sets the system properties of the last applied provisioning file again,
+     * when the file has not been modified since.
+     */
+    private void applyStoredSystemProperties()
+    {
+        ConfigurationService config
+            = ProvisioningActivator.getConfigurationService();
+
+        for (String name : config.getPropertyNamesByPrefix(
+                PROVISIONING_SYSTEM_PROP_PREFIX, false))
+        {
+            String value = config.getString(name);
+
+            if (value != null)
+            {
+                System.setProperty(
+                    name.substring(PROVISIONING_SYSTEM_PROP_PREFIX.length()),
+                    value);
+            }
+        }
+    }
+
     /**
      * Walk through all properties and make sure all properties keys match
      * a specific set of prefixes defined in configuration.
      *
      * @param enforcePrefix list of enforce prefix.
+     * @param changes the configuration changes collected so far, the
+     * properties to remove are added with a <tt>null</tt> value
      */
-    private void checkEnforcePrefix(String enforcePrefix)
+    private void checkEnforcePrefix(String enforcePrefix,
+        Map<String, Object> changes)
     {
         ConfigurationService config =
             ProvisioningActivator.getConfigurationService();
@@ -736,8 +883,10 @@ private void checkEnforcePrefix(String enforcePrefix)
         /* must escape the | character */
         prefixes = enforcePrefix.split("\\|");
 
-        /* get all properties */
-        for (String key : config.getAllPropertyNames())
+        /* get all properties, including the ones about to be set */
+        Set<String> keys = new LinkedHashSet<>(config.getAllPropertyNames());
+        keys.addAll(changes.keySet());
+        for (String key : keys)
         {
             boolean isValid = false;
 
@@ -755,7 +904,7 @@ private void checkEnforcePrefix(String enforcePrefix)
              */
             if(!isValid)
             {
-                config.removeProperty(key);
+                changes.put(key, null);
             }
         }
     }
@@ -18,9 +18,11 @@
 package net.java.sip.communicator.impl.resources;
 
 import java.io.*;
+import java.lang.ref.*;
 import java.net.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 import net.java.sip.communicator.service.resources.*;
 import net.java.sip.communicator.util.*;
@@ -32,6 +34,11 @@
  * The abstract class for ResourceManagementService. It listens for
  * {@link ResourcePack} that are registered and exposes them later for use by
  * subclasses. It implements default behaviour for most methods.
+ * <p>
+ * Decoded images and the templates of internationalized strings are cached,
+ * the caches are dropped whenever a resource pack is registered or
+ * unregistered.
+ * </p>
  */
 public class ResourceManagementServiceImpl
     implements ResourceManagementService, ServiceListener
@@ -41,6 +48,11 @@
      */
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ResourceManagementServiceImpl.class);
 
+    /**
+     * The maximum number of decoded images kept in {@link #imageCache}.
+     */
+    private static final int MAX_CACHED_IMAGES = 512;
+
     private final ConfigurationService configService;
 
     /**
@@ -85,6 +97,32 @@
      */
     private ResourcePack settingsPack;
 
+    /**
+     * The decoded images by image identifier, the least recently used are
+     * dropped first. The images are softly referenced so that the garbage
+     * collector can reclaim them under memory pressure.
+     */
+    private final Map<String, SoftReference<ImageIcon>> imageCache
+        = new LinkedHashMap<String, SoftReference<ImageIcon>>(
+                16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 0L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, SoftReference<ImageIcon>> eldest)
+            {
+                return size() > MAX_CACHED_IMAGES;
+            }
+        };
+
+    /**
+     * The templates of the internationalized strings by locale and key.
+     */
+    private final ConcurrentMap<Locale, Map<String, I18NTemplate>>
+        i18nTemplates
+        = new ConcurrentHashMap<Locale, Map<String, I18NTemplate>>();
+
     /**
      * Creates an instance of <tt>AbstractResourcesService</tt>.
      *
@@ -223,8 +261,29 @@ else if(resourcePack instanceof LanguagePack
                     = getDefaultResourcePack(
                     LanguagePack.class,
                     LanguagePack.RESOURCE_NAME_DEFAULT_VALUE);
+                languageLocale = Locale.getDefault();
+                languageResources
+                    = (languagePack == null)
+                        ? null
+                        : languagePack.getResources(languageLocale);
             }
         }
+
+        // the skin, colors or language may have changed, whichever pack it
+        // is, and the caches must not be refilled from the old one
+        clearCaches();
+    }
+
+    /**
+     * Drops the cached images and internationalized strings.
+     */
+    private void clearCaches()
+    {
+        synchronized (imageCache)
+        {
+            imageCache.clear();
+        }
+        i18nTemplates.clear();
     }
 
     /**
@@ -420,8 +479,8 @@ private String processI18NString(String resourceString)
      */
     public String getI18NString(String key, String[] params, Locale locale)
     {
-        String resourceString = doGetI18String(key, locale);
-        if (resourceString == null)
+        I18NTemplate template = getI18NTemplate(key, locale);
+        if (template == null)
         {
             logger.warn("Missing resource for key: " + key);
             return '!' + key + '!';
@@ -429,11 +488,54 @@ public String getI18NString(String key, String[] params, Locale locale)
 
         if(params != null)
         {
-            resourceString
-                    = MessageFormat.format(resourceString, (Object[]) params);
+            return processI18NString(template.format(params));
         }
 
-        return processI18NString(resourceString);
+        return template.processed;
+    }
+
+    /**
+     * Returns the cached template of the string for the given <tt>key</tt>
+     * and <tt>locale</tt>, reading it from the language pack the first time.
+     *
+     * @param key the key name for the string
+     * @param locale the Locale of the string
+     * @return the template or <tt>null</tt> if there is no such string.
+     */
+    private I18NTemplate getI18NTemplate(String key, Locale locale)
+    {
+        if (locale == null)
+        {
+            String resourceString = doGetI18String(key, null);
+            return (resourceString == null)
+                ? null
+                : new I18NTemplate(
+                    resourceString, processI18NString(resourceString));
+        }
+
+        Map<String, I18NTemplate> templates = i18nTemplates.get(locale);
+        if (templates == null)
+        {
+            templates = new ConcurrentHashMap<String, I18NTemplate>();
+            Map<String, I18NTemplate> existing
+                = i18nTemplates.putIfAbsent(locale, templates);
+            if (existing != null)
+                templates = existing;
+        }
+
+        I18NTemplate template = templates.get(key);
+        if (template == null)
+        {
+            String resourceString = doGetI18String(key, locale);
+            if (resourceString == null)
+                return null;
+
+            template = new I18NTemplate(
+                resourceString, processI18NString(resourceString));
+            templates.put(key, template);
+        }
+
+        return template;
     }
 
     /**
@@ -675,9 +777,29 @@ public URL getImageURLForPath(String path)
      */
     public ImageIcon getImage(String imageID)
     {
-        URL imageURL = getImageURL(imageID);
+        ImageIcon cached = null;
+        synchronized (imageCache)
+        {
+            SoftReference<ImageIcon> ref = imageCache.get(imageID);
+            if (ref != null)
+                cached = ref.get();
+        }
 
-        return (imageURL == null) ? null : new ImageIcon(imageURL);
+        if (cached == null)
+        {
+            URL imageURL = getImageURL(imageID);
+            if (imageURL == null)
+                return null;
+
+            cached = new ImageIcon(imageURL);
+            synchronized (imageCache)
+            {
+                imageCache.put(imageID, new SoftReference<ImageIcon>(cached));
+            }
+        }
+
+        // callers may modify the icon, only the decoded image is shared
+        return new ImageIcon(cached.getImage(), cached.getDescription());
     }
 
     /**
@@ -735,4 +857,54 @@ public File prepareSkinBundleFromZip(File zipFile)
     {
         throw new UnsupportedOperationException("No skin support");
     }
+
+    /**
+     * The string of a key in the language pack, with the
+     * <tt>MessageFormat</tt> for its parameters parsed on first use.
+     */
+    private static class I18NTemplate
+    {
+        /**
+         * The string as read from the language pack.
+         */
+        private final String resourceString;
+
+        /**
+         * The string without mnemonic and escape characters, returned when
+         * there are no parameters.
+         */
+        private final String processed;
+
+        /**
+         * The parsed format of {@link #resourceString}.
+         */
+        private MessageFormat format;
+
+        /**
+         * Creates the template of a string.
+         *
+         * @param resourceString the string read from the language pack.
+         * @param processed the processed string.
+         */
+        I18NTemplate(String resourceString, String processed)
+        {
+            this.resourceString = resourceString;
+            this.processed = processed;
+        }
+
+        /**
+         * Formats the string with the given parameters, like
+         * {@link MessageFormat#format(String, Object...)}.
+         *
+         * @param params the parameters.
+         * @return the formatted string.
+         */
+        synchronized String format(String[] params)
+        {
+            // MessageFormat is not thread-safe, hence the synchronization
+            if (format == null)
+                format = new MessageFormat(resourceString);
+            return format.format((Object[]) params);
+        }
+    }
 }